@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.benchmarks;
+
+import android.util.SparseIntArray;
+
+import com.facebook.common.memory.NoOpMemoryTrimmableRegistry;
+import com.facebook.common.util.ByteConstants;
+import com.facebook.imagepipeline.memory.BasePool;
+import com.facebook.imagepipeline.memory.GenericByteArrayPool;
+import com.facebook.imagepipeline.memory.NoOpPoolStatsTracker;
+import com.facebook.imagepipeline.memory.PoolParams;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link BasePool#get} and {@link BasePool#release} through
+ * {@link GenericByteArrayPool}, with requests that are served from a bucket and, for the
+ * largest size, requests that are not bucketed and therefore always allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BasePoolBenchmark {
+
+    private static final int BUCKET_LENGTH = 8;
+    private static final int MIN_BUCKET_SIZE = ByteConstants.KB;
+    private static final int MAX_BUCKET_SIZE = 128 * ByteConstants.KB;
+
+    @Param({"1024", "16384", "100000", "262144"})
+    public int size;
+
+    private GenericByteArrayPool mPool;
+
+    @Setup
+    public void setUp() {
+        SparseIntArray buckets = new SparseIntArray();
+        for (int bucketSize = MIN_BUCKET_SIZE; bucketSize <= MAX_BUCKET_SIZE; bucketSize *= 2) {
+            buckets.put(bucketSize, BUCKET_LENGTH);
+        }
+        mPool = new GenericByteArrayPool(
+                NoOpMemoryTrimmableRegistry.getInstance(),
+                new PoolParams(4 * ByteConstants.MB, 16 * ByteConstants.MB, buckets),
+                NoOpPoolStatsTracker.getInstance());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int getAndRelease_1Thread() {
+        return getAndRelease();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int getAndRelease_4Threads() {
+        return getAndRelease();
+    }
+
+    private int getAndRelease() {
+        byte[] value = mPool.get(size);
+        int length = value.length;
+        mPool.release(value);
+        return length;
+    }
+}
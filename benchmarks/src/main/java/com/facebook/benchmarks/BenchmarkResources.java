@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.benchmarks;
+
+import com.facebook.common.internal.ByteStreams;
+import com.facebook.common.internal.Closeables;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.PooledByteBuffer;
+import com.facebook.imagepipeline.testing.TrivialPooledByteBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads the sample images shared with the imagepipeline-base tests.
+ */
+final class BenchmarkResources {
+
+    private BenchmarkResources() {
+    }
+
+    /**
+     * @param path path of the image relative to the com/facebook package of the test resources
+     */
+    static byte[] load(String path) throws IOException {
+        InputStream is = BenchmarkResources.class.getResourceAsStream("/com/facebook/" + path);
+        if (is == null) {
+            throw new IOException("Missing benchmark resource " + path);
+        }
+        try {
+            return ByteStreams.toByteArray(is);
+        } finally {
+            Closeables.closeQuietly(is);
+        }
+    }
+
+    /**
+     * @return an encoded image over the first {@code length} bytes of the given data
+     */
+    static EncodedImage newEncodedImage(byte[] data, int length) {
+        byte[] bytes = new byte[length];
+        System.arraycopy(data, 0, bytes, 0, length);
+        CloseableReference<PooledByteBuffer> ref =
+                CloseableReference.<PooledByteBuffer>of(new TrivialPooledByteBuffer(bytes));
+        try {
+            return new EncodedImage(ref);
+        } finally {
+            ref.close();
+        }
+    }
+}
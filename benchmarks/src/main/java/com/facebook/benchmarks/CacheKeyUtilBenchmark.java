@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.benchmarks;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.CacheKeyUtil;
+import com.facebook.cache.common.MultiCacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link CacheKeyUtil#getResourceIds}, which SHA-1 hashes every key on each disk cache
+ * operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheKeyUtilBenchmark {
+
+    private static final String URI =
+            "https://scontent.example.com/v/t1.0-9/12345678_1234567890123456_1234567890_n.jpg"
+                    + "?oh=0123456789abcdef0123456789abcdef&oe=5A1B2C3D";
+
+    private CacheKey mSimpleKey;
+    private CacheKey mMultiKey;
+
+    @Setup
+    public void setUp() {
+        mSimpleKey = new SimpleCacheKey(URI);
+        List<CacheKey> keys = new ArrayList<>();
+        keys.add(new SimpleCacheKey(URI));
+        keys.add(new SimpleCacheKey(URI + "&size=small"));
+        mMultiKey = new MultiCacheKey(keys);
+    }
+
+    @Benchmark
+    public List<String> getResourceIds() {
+        return CacheKeyUtil.getResourceIds(mSimpleKey);
+    }
+
+    @Benchmark
+    public List<String> getResourceIdsForMultiKey() {
+        return CacheKeyUtil.getResourceIds(mMultiKey);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.benchmarks;
+
+import com.facebook.imagepipeline.cache.CountingLruMap;
+import com.facebook.imagepipeline.cache.ValueDescriptor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link CountingLruMap} operations the memory cache performs on every lookup,
+ * insertion and eviction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CountingLruMapBenchmark {
+
+    private static final Integer VALUE = 1024;
+
+    @Param({"64", "1024"})
+    public int size;
+
+    private CountingLruMap<Integer, Integer> mMap;
+    private int mNextKey;
+
+    @Setup
+    public void setUp() {
+        mMap = new CountingLruMap<>(
+                new ValueDescriptor<Integer>() {
+                    @Override
+                    public int getSizeInBytes(Integer value) {
+                        return value;
+                    }
+                });
+        for (int i = 0; i < size; i++) {
+            mMap.put(i, VALUE);
+        }
+        mNextKey = size;
+    }
+
+    @Benchmark
+    public Integer get() {
+        mNextKey = (mNextKey + 1) % size;
+        return mMap.get(mNextKey);
+    }
+
+    /**
+     * Removes the least recently used entry and inserts a new one, as an eviction followed by a
+     * cache insertion does.
+     */
+    @Benchmark
+    public Integer evictAndPut() {
+        Integer evicted = mMap.remove(mMap.getFirstKey());
+        mMap.put(mNextKey++, VALUE);
+        return evicted;
+    }
+
+    /**
+     * Moves an entry to the most recently used position, as a re-used exclusive entry does.
+     */
+    @Benchmark
+    public Integer removeAndPut() {
+        Integer key = mMap.getFirstKey();
+        Integer value = mMap.remove(key);
+        mMap.put(key, value);
+        return value;
+    }
+}
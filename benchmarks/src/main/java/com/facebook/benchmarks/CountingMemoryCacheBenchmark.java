@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.benchmarks;
+
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.cache.CountingMemoryCache;
+import com.facebook.imagepipeline.cache.MemoryCacheParams;
+import com.facebook.imagepipeline.cache.ValueDescriptor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link CountingMemoryCache} lookups and insertions when several threads share the
+ * cache, which is how the bitmap and encoded memory caches are used by the pipeline.
+ * <p>
+ * <p> The cache is sized so that {@code hitRatePercent} percent of the key space fits in it;
+ * the remaining lookups miss and are followed by an insertion that evicts another entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CountingMemoryCacheBenchmark {
+
+    private static final int VALUE_SIZE = 1024;
+    private static final int KEY_COUNT = 4096;
+
+    private static final ResourceReleaser<byte[]> NO_OP_RELEASER = new ResourceReleaser<byte[]>() {
+        @Override
+        public void release(byte[] value) {
+        }
+    };
+
+    @Param({"50", "90", "100"})
+    public int hitRatePercent;
+
+    private CountingMemoryCache<Integer, byte[]> mCache;
+
+    @Setup
+    public void setUp() {
+        final int maxEntries = KEY_COUNT * hitRatePercent / 100;
+        final MemoryCacheParams params = new MemoryCacheParams(
+                maxEntries * VALUE_SIZE,
+                maxEntries,
+                maxEntries * VALUE_SIZE,
+                maxEntries,
+                VALUE_SIZE);
+        mCache = new CountingMemoryCache<>(
+                new ValueDescriptor<byte[]>() {
+                    @Override
+                    public int getSizeInBytes(byte[] value) {
+                        return value.length;
+                    }
+                },
+                new CountingMemoryCache.CacheTrimStrategy() {
+                    @Override
+                    public double getTrimRatio(MemoryTrimType trimType) {
+                        return 0;
+                    }
+                },
+                new Supplier<MemoryCacheParams>() {
+                    @Override
+                    public MemoryCacheParams get() {
+                        return params;
+                    }
+                },
+                null,
+                false);
+        for (int i = 0; i < maxEntries; i++) {
+            CloseableReference.closeSafely(cacheNewValue(i));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final Random mRandom = new Random();
+
+        int nextKey() {
+            return mRandom.nextInt(KEY_COUNT);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean getOrCache_1Thread(ThreadState state) {
+        return getOrCache(state.nextKey());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean getOrCache_4Threads(ThreadState state) {
+        return getOrCache(state.nextKey());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean getOrCache_8Threads(ThreadState state) {
+        return getOrCache(state.nextKey());
+    }
+
+    /**
+     * Looks the key up, caches a new value on a miss, and releases the reference the way a
+     * consumer does once it is done with the image.
+     */
+    private boolean getOrCache(int key) {
+        CloseableReference<byte[]> ref = mCache.get(key);
+        final boolean hit = ref != null;
+        if (!hit) {
+            ref = cacheNewValue(key);
+        }
+        CloseableReference.closeSafely(ref);
+        return hit;
+    }
+
+    private CloseableReference<byte[]> cacheNewValue(int key) {
+        CloseableReference<byte[]> valueRef =
+                CloseableReference.of(new byte[VALUE_SIZE], NO_OP_RELEASER);
+        try {
+            return mCache.cache(key, valueRef);
+        } finally {
+            valueRef.close();
+        }
+    }
+}
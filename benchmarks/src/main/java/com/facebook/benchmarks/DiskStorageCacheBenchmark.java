@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.benchmarks;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.NoOpCacheErrorLogger;
+import com.facebook.cache.common.NoOpCacheEventListener;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.cache.common.WriterCallbacks;
+import com.facebook.cache.disk.DefaultDiskStorage;
+import com.facebook.cache.disk.DefaultEntryEvictionComparatorSupplier;
+import com.facebook.cache.disk.DiskStorageCache;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.util.ByteConstants;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link DiskStorageCache} insertions and lookups backed by a {@link DefaultDiskStorage}
+ * in a temporary directory. The results depend heavily on the file system the temporary
+ * directory lives on.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiskStorageCacheBenchmark {
+
+    private static final int KEY_COUNT = 256;
+    private static final long CACHE_SIZE = 64 * ByteConstants.MB;
+
+    /**
+     * The cache only needs the executor to clean up a legacy preferences file, which needs an
+     * Android context, so that work is dropped.
+     */
+    private static final Executor NO_OP_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+        }
+    };
+
+    @Param({"16384"})
+    public int entrySize;
+
+    private File mDirectory;
+    private DiskStorageCache mCache;
+    private CacheKey[] mKeys;
+    private byte[] mData;
+    private int mNextKey;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("fresco-benchmark", "");
+        if (!mDirectory.delete() || !mDirectory.mkdirs()) {
+            throw new IOException("Could not create " + mDirectory);
+        }
+        mCache = new DiskStorageCache(
+                new DefaultDiskStorage(mDirectory, 1, NoOpCacheErrorLogger.getInstance()),
+                new DefaultEntryEvictionComparatorSupplier(),
+                new DiskStorageCache.Params(0, CACHE_SIZE, CACHE_SIZE),
+                NoOpCacheEventListener.getInstance(),
+                NoOpCacheErrorLogger.getInstance(),
+                null,
+                null,
+                NO_OP_EXECUTOR,
+                false);
+        mKeys = new CacheKey[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            mKeys[i] = new SimpleCacheKey("http://example.com/images/" + i + ".jpg");
+        }
+        mData = new byte[entrySize];
+        new Random(0).nextBytes(mData);
+        for (CacheKey key : mKeys) {
+            mCache.insert(key, WriterCallbacks.from(mData));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mCache.clearAll();
+        FileTree.deleteRecursively(mDirectory);
+    }
+
+    @Benchmark
+    public BinaryResource insert() throws IOException {
+        return mCache.insert(nextKey(), WriterCallbacks.from(mData));
+    }
+
+    @Benchmark
+    public BinaryResource getResource() {
+        return mCache.getResource(nextKey());
+    }
+
+    @Benchmark
+    public boolean hasKey() {
+        return mCache.hasKey(nextKey());
+    }
+
+    private CacheKey nextKey() {
+        mNextKey = (mNextKey + 1) % KEY_COUNT;
+        return mKeys[mNextKey];
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.benchmarks;
+
+import com.facebook.imageutils.JfifUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading the EXIF orientation of JPEGs with {@link JfifUtil}, which locates the APP1
+ * segment and hands the TIFF data in it to {@code TiffUtil}.
+ * <p>
+ * <p> The camera-style image is generated: a JFIF APP0 segment followed by an APP1 EXIF segment
+ * whose first IFD holds a few tags before the orientation, as most camera files do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExifParsingBenchmark {
+
+    private static final int ORIENTATION_ROTATE_90 = 6;
+    private static final int TIFF_BYTE_ORDER_BIG_END = 0x4D4D002A;
+    private static final int TIFF_TAG_ORIENTATION = 0x0112;
+    private static final int TIFF_TYPE_SHORT = 3;
+    private static final int TIFF_TYPE_LONG = 4;
+    private static final int[] TAGS_BEFORE_ORIENTATION = {0x0100, 0x0101, 0x010F, 0x0110};
+
+    private byte[] mExifJpeg;
+    private byte[] mPlainJpeg;
+
+    @Setup
+    public void setUp() throws IOException {
+        mExifJpeg = newExifJpeg(newTiff());
+        mPlainJpeg = BenchmarkResources.load("imageutils/jpegs/1.jpeg");
+        if (JfifUtil.getOrientation(mExifJpeg) != ORIENTATION_ROTATE_90) {
+            throw new IllegalStateException("Generated EXIF data is not readable");
+        }
+    }
+
+    @Benchmark
+    public int getOrientationWithExif() {
+        return JfifUtil.getOrientation(mExifJpeg);
+    }
+
+    /**
+     * The common case for images from the web: the whole header is scanned for a missing APP1.
+     */
+    @Benchmark
+    public int getOrientationWithoutExif() {
+        return JfifUtil.getOrientation(mPlainJpeg);
+    }
+
+    private static byte[] newTiff() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bytes);
+        os.writeInt(TIFF_BYTE_ORDER_BIG_END);
+        os.writeInt(8); // offset of the first IFD
+        os.writeShort(TAGS_BEFORE_ORIENTATION.length + 1);
+        for (int tag : TAGS_BEFORE_ORIENTATION) {
+            os.writeShort(tag);
+            os.writeShort(TIFF_TYPE_LONG);
+            os.writeInt(1);
+            os.writeInt(1024);
+        }
+        os.writeShort(TIFF_TAG_ORIENTATION);
+        os.writeShort(TIFF_TYPE_SHORT);
+        os.writeInt(1);
+        os.writeShort(ORIENTATION_ROTATE_90);
+        os.writeShort(0);
+        os.writeInt(0); // no next IFD
+        return bytes.toByteArray();
+    }
+
+    private static byte[] newExifJpeg(byte[] tiff) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bytes);
+        os.writeByte(JfifUtil.MARKER_FIRST_BYTE);
+        os.writeByte(JfifUtil.MARKER_SOI);
+        // JFIF APP0 segment
+        os.writeByte(JfifUtil.MARKER_FIRST_BYTE);
+        os.writeByte(0xE0);
+        os.writeShort(16);
+        os.writeBytes("JFIF");
+        os.writeByte(0);
+        os.write(new byte[9]);
+        // EXIF APP1 segment
+        os.writeByte(JfifUtil.MARKER_FIRST_BYTE);
+        os.writeByte(JfifUtil.MARKER_APP1);
+        os.writeShort(2 + 6 + tiff.length);
+        os.writeInt(JfifUtil.APP1_EXIF_MAGIC);
+        os.writeShort(0);
+        os.write(tiff);
+        os.writeByte(JfifUtil.MARKER_FIRST_BYTE);
+        os.writeByte(JfifUtil.MARKER_EOI);
+        return bytes.toByteArray();
+    }
+}
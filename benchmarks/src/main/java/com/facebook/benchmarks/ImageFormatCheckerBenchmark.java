@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.benchmarks;
+
+import com.facebook.imageformat.DefaultImageFormatChecker;
+import com.facebook.imageformat.ImageFormat;
+import com.facebook.imageformat.ImageFormatChecker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures image format detection, which runs on every encoded image the pipeline sees. BMP is
+ * the last format checked, so it is the slowest path for a recognized image.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageFormatCheckerBenchmark {
+
+    @Param({
+            "imageformat/jpegs/1.jpeg",
+            "imageformat/pngs/1.png",
+            "imageformat/gifs/1.gif",
+            "imageformat/webps/1_webp_plain.webp",
+            "imageformat/webps/1_webp_ea.webp",
+            "imageformat/bmps/1.bmp",
+    })
+    public String image;
+
+    private DefaultImageFormatChecker mFormatChecker;
+    private byte[] mData;
+    private byte[] mHeader;
+    private int mHeaderSize;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFormatChecker = new DefaultImageFormatChecker();
+        mData = BenchmarkResources.load(image);
+        mHeaderSize = Math.min(mFormatChecker.getHeaderSize(), mData.length);
+        mHeader = new byte[mFormatChecker.getHeaderSize()];
+        System.arraycopy(mData, 0, mHeader, 0, mHeaderSize);
+    }
+
+    @Benchmark
+    public ImageFormat determineFormat() {
+        return mFormatChecker.determineFormat(mHeader, mHeaderSize);
+    }
+
+    /**
+     * Includes reading the header out of the stream, as done for every decoded image.
+     */
+    @Benchmark
+    public ImageFormat getImageFormatFromStream() throws IOException {
+        return ImageFormatChecker.getImageFormat(new ByteArrayInputStream(mData));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.benchmarks;
+
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.listener.BaseRequestListener;
+import com.facebook.imagepipeline.producers.Consumer;
+import com.facebook.imagepipeline.producers.MultiplexProducer;
+import com.facebook.imagepipeline.producers.Producer;
+import com.facebook.imagepipeline.producers.ProducerContext;
+import com.facebook.imagepipeline.producers.ProducerListener;
+import com.facebook.imagepipeline.producers.SettableProducerContext;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how {@link MultiplexProducer} fans a single input request out to the consumers of
+ * identical requests: each operation attaches {@code consumers} requests for the same key, then
+ * delivers an intermediate and a final result to all of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiplexProducerBenchmark {
+
+    private static final String KEY = "multiplexed";
+
+    private static final ResourceReleaser<byte[]> NO_OP_RELEASER = new ResourceReleaser<byte[]>() {
+        @Override
+        public void release(byte[] value) {
+        }
+    };
+
+    @Param({"1", "4", "16"})
+    public int consumers;
+
+    private ProducerListener mProducerListener;
+    private CapturingProducer mInputProducer;
+    private KeyedMultiplexProducer mMultiplexProducer;
+    private Consumer<CloseableReference<byte[]>> mConsumer;
+    private byte[] mValue;
+
+    @Setup
+    public void setUp() {
+        mProducerListener = new BaseRequestListener();
+        mInputProducer = new CapturingProducer();
+        mMultiplexProducer = new KeyedMultiplexProducer(mInputProducer);
+        mConsumer = new Consumer<CloseableReference<byte[]>>() {
+            @Override
+            public void onNewResult(CloseableReference<byte[]> newResult, boolean isLast) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+            }
+
+            @Override
+            public void onCancellation() {
+            }
+
+            @Override
+            public void onProgressUpdate(float progress) {
+            }
+        };
+        mValue = new byte[1024];
+    }
+
+    @Benchmark
+    public void fanOut() {
+        for (int i = 0; i < consumers; i++) {
+            mMultiplexProducer.produceResults(mConsumer, newProducerContext());
+        }
+        deliver(false);
+        deliver(true);
+    }
+
+    private void deliver(boolean isLast) {
+        CloseableReference<byte[]> result = CloseableReference.of(mValue, NO_OP_RELEASER);
+        try {
+            mInputProducer.mConsumer.onNewResult(result, isLast);
+        } finally {
+            result.close();
+        }
+    }
+
+    private SettableProducerContext newProducerContext() {
+        return new SettableProducerContext(
+                null,
+                KEY,
+                mProducerListener,
+                null,
+                ImageRequest.RequestLevel.FULL_FETCH,
+                false,
+                true,
+                Priority.HIGH);
+    }
+
+    private static class KeyedMultiplexProducer
+            extends MultiplexProducer<String, CloseableReference<byte[]>> {
+
+        KeyedMultiplexProducer(Producer<CloseableReference<byte[]>> inputProducer) {
+            super(inputProducer);
+        }
+
+        @Override
+        protected String getKey(ProducerContext producerContext) {
+            return producerContext.getId();
+        }
+
+        @Override
+        protected CloseableReference<byte[]> cloneOrNull(CloseableReference<byte[]> object) {
+            return CloseableReference.cloneOrNull(object);
+        }
+    }
+
+    /**
+     * Input producer that leaves it to the benchmark to deliver results.
+     */
+    private static class CapturingProducer implements Producer<CloseableReference<byte[]>> {
+        private Consumer<CloseableReference<byte[]>> mConsumer;
+
+        @Override
+        public void produceResults(
+                Consumer<CloseableReference<byte[]>> consumer,
+                ProducerContext context) {
+            mConsumer = consumer;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.benchmarks;
+
+import com.facebook.common.memory.NoOpMemoryTrimmableRegistry;
+import com.facebook.common.util.ByteConstants;
+import com.facebook.imagepipeline.decoder.ProgressiveJpegParser;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.ByteArrayPool;
+import com.facebook.imagepipeline.memory.DefaultByteArrayPoolParams;
+import com.facebook.imagepipeline.memory.GenericByteArrayPool;
+import com.facebook.imagepipeline.memory.NoOpPoolStatsTracker;
+import com.facebook.imageutils.JfifUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ProgressiveJpegParser#parseMoreData} on a progressive JPEG, both when the whole
+ * image is available at once and when it arrives in chunks as it does from the network.
+ * <p>
+ * <p> The parser only looks at the marker structure, so the image is generated: the usual header
+ * segments followed by {@code scans} scans of random entropy-coded data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgressiveJpegParserBenchmark {
+
+    private static final int SCAN_SIZE = 16 * ByteConstants.KB;
+
+    @Param({"1", "10"})
+    public int scans;
+
+    @Param({"8"})
+    public int chunks;
+
+    private ByteArrayPool mByteArrayPool;
+    private EncodedImage mFullImage;
+    private EncodedImage[] mPartialImages;
+
+    @Setup
+    public void setUp() {
+        mByteArrayPool = new GenericByteArrayPool(
+                NoOpMemoryTrimmableRegistry.getInstance(),
+                DefaultByteArrayPoolParams.get(),
+                NoOpPoolStatsTracker.getInstance());
+        byte[] data = newProgressiveJpeg(scans);
+        mFullImage = BenchmarkResources.newEncodedImage(data, data.length);
+        mPartialImages = new EncodedImage[chunks];
+        for (int i = 0; i < chunks; i++) {
+            mPartialImages[i] =
+                    BenchmarkResources.newEncodedImage(data, data.length * (i + 1) / chunks);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        EncodedImage.closeSafely(mFullImage);
+        for (EncodedImage partialImage : mPartialImages) {
+            EncodedImage.closeSafely(partialImage);
+        }
+    }
+
+    @Benchmark
+    public int parseWholeImage() {
+        ProgressiveJpegParser parser = new ProgressiveJpegParser(mByteArrayPool);
+        parser.parseMoreData(mFullImage);
+        return parser.getBestScanNumber();
+    }
+
+    @Benchmark
+    public int parseInChunks() {
+        ProgressiveJpegParser parser = new ProgressiveJpegParser(mByteArrayPool);
+        for (EncodedImage partialImage : mPartialImages) {
+            parser.parseMoreData(partialImage);
+        }
+        return parser.getBestScanNumber();
+    }
+
+    private static byte[] newProgressiveJpeg(int scans) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeMarker(os, JfifUtil.MARKER_SOI);
+        writeSegment(os, 0xE0, 14); // APP0
+        writeSegment(os, 0xDB, 65); // DQT
+        writeSegment(os, 0xC2, 15); // SOF2, progressive DCT
+        writeSegment(os, 0xC4, 30); // DHT
+        Random random = new Random(0);
+        for (int i = 0; i < scans; i++) {
+            writeMarker(os, JfifUtil.MARKER_SOS);
+            writeLength(os, 10);
+            os.write(new byte[8], 0, 8);
+            for (int j = 0; j < SCAN_SIZE; j++) {
+                int value = random.nextInt(256);
+                os.write(value);
+                if (value == JfifUtil.MARKER_FIRST_BYTE) {
+                    os.write(JfifUtil.MARKER_ESCAPE_BYTE);
+                }
+            }
+        }
+        writeMarker(os, JfifUtil.MARKER_EOI);
+        return os.toByteArray();
+    }
+
+    private static void writeSegment(ByteArrayOutputStream os, int marker, int length) {
+        writeMarker(os, marker);
+        writeLength(os, length);
+        os.write(new byte[length - 2], 0, length - 2);
+    }
+
+    private static void writeMarker(ByteArrayOutputStream os, int marker) {
+        os.write(JfifUtil.MARKER_FIRST_BYTE);
+        os.write(marker);
+    }
+
+    private static void writeLength(ByteArrayOutputStream os, int length) {
+        os.write(length >> 8);
+        os.write(length & 0xFF);
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package android.os;
+
+/**
+ * Desktop stand-in for the framework class, used when running benchmarks off-device. Reports the
+ * SDK level the library is compiled against.
+ */
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = 24;
+        public static final String RELEASE = "7.0";
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package android.os;
+
+import java.io.File;
+
+/**
+ * Desktop stand-in for the framework class, used when running benchmarks off-device. Both
+ * storage roots map to the temporary directory.
+ */
+public class Environment {
+
+    public static File getDataDirectory() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    public static File getExternalStorageDirectory() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+}
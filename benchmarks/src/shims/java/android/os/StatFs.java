@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package android.os;
+
+import java.io.File;
+
+/**
+ * Desktop stand-in for the framework class, used when running benchmarks off-device.
+ */
+public class StatFs {
+    private static final int BLOCK_SIZE = 4096;
+
+    private File mPath;
+
+    public StatFs(String path) {
+        mPath = new File(path);
+    }
+
+    public void restat(String path) {
+        mPath = new File(path);
+    }
+
+    public int getBlockSize() {
+        return BLOCK_SIZE;
+    }
+
+    public long getBlockSizeLong() {
+        return BLOCK_SIZE;
+    }
+
+    public int getAvailableBlocks() {
+        return (int) getAvailableBlocksLong();
+    }
+
+    public long getAvailableBlocksLong() {
+        return mPath.getUsableSpace() / BLOCK_SIZE;
+    }
+
+    public int getBlockCount() {
+        return (int) getBlockCountLong();
+    }
+
+    public long getBlockCountLong() {
+        return mPath.getTotalSpace() / BLOCK_SIZE;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package android.util;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Desktop stand-in for the framework class, used when running benchmarks off-device.
+ */
+public class Base64 {
+    public static final int DEFAULT = 0;
+    public static final int NO_PADDING = 1;
+    public static final int NO_WRAP = 2;
+    public static final int CRLF = 4;
+    public static final int URL_SAFE = 8;
+    public static final int NO_CLOSE = 16;
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final char[] ALPHABET_URL_SAFE =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final int LINE_GROUPS = 19;
+
+    private Base64() {
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return encodeToString(input, 0, input.length, flags);
+    }
+
+    public static String encodeToString(byte[] input, int offset, int len, int flags) {
+        final char[] alphabet = (flags & URL_SAFE) != 0 ? ALPHABET_URL_SAFE : ALPHABET;
+        final boolean pad = (flags & NO_PADDING) == 0;
+        final boolean wrap = (flags & NO_WRAP) == 0;
+        final StringBuilder sb = new StringBuilder((len + 2) / 3 * 4 + 2);
+        int groups = 0;
+        for (int i = offset; i < offset + len; i += 3) {
+            final int remaining = Math.min(3, offset + len - i);
+            int bits = (input[i] & 0xff) << 16;
+            if (remaining > 1) {
+                bits |= (input[i + 1] & 0xff) << 8;
+            }
+            if (remaining > 2) {
+                bits |= input[i + 2] & 0xff;
+            }
+            for (int j = 0; j < 4; j++) {
+                if (j <= remaining) {
+                    sb.append(alphabet[(bits >> (18 - 6 * j)) & 0x3f]);
+                }
+                else if (pad) {
+                    sb.append('=');
+                }
+            }
+            if (wrap && ++groups == LINE_GROUPS) {
+                sb.append((flags & CRLF) != 0 ? "\r\n" : "\n");
+                groups = 0;
+            }
+        }
+        if (wrap && groups > 0) {
+            sb.append((flags & CRLF) != 0 ? "\r\n" : "\n");
+        }
+        return sb.toString();
+    }
+
+    public static byte[] decode(String str, int flags) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(str.length() * 3 / 4);
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < str.length(); i++) {
+            final int value = decodeChar(str.charAt(i));
+            if (value < 0) {
+                continue;
+            }
+            bits = (bits << 6) | value;
+            if (++count == 4) {
+                out.write(bits >> 16);
+                out.write(bits >> 8);
+                out.write(bits);
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 2) {
+            out.write(bits >> 4);
+        }
+        else if (count == 3) {
+            out.write(bits >> 10);
+            out.write(bits >> 2);
+        }
+        return out.toByteArray();
+    }
+
+    private static int decodeChar(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        }
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        }
+        if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        }
+        if (c == '+' || c == '-') {
+            return 62;
+        }
+        if (c == '/' || c == '_') {
+            return 63;
+        }
+        return -1;
+    }
+}
@@ -10,6 +10,7 @@
 package com.facebook.common.references;
 
 import com.facebook.common.internal.Closeables;
+import com.facebook.common.internal.DoNotStrip;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.logging.FLog;
@@ -20,9 +21,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
 
 /**
  * A smart pointer-like class for Java.
@@ -61,7 +62,11 @@ import javax.annotation.concurrent.GuardedBy;
  * <p>As with any Closeable, try-finally semantics may be needed to ensure that close is called.
  * <p>Do not rely upon the finalizer; the purpose of this class is for expensive resources to
  * be released without waiting for the garbage collector. The finalizer will log an error if
- * the close method has not bee called.
+ * the close method has not bee called. Call {@link #setTraceTrackingEnabled} in debug builds to
+ * have that error point at where the leaked reference was obtained or last cloned.
+ * <p>
+ * <p>None of the methods of this class take a lock; closing relies on a compare-and-set so that
+ * the underlying reference is released exactly once.
  */
 public final class CloseableReference<T> implements Cloneable, Closeable {
 
@@ -80,24 +85,27 @@ public final class CloseableReference<T> implements Cloneable, Closeable {
     private static final AtomicInteger UNCLOSED_IN_FINALIZE = new AtomicInteger(0);
     private static Class<CloseableReference> TAG = CloseableReference.class;
     private static volatile boolean sTraceTracking;
+    private static final AtomicIntegerFieldUpdater<CloseableReference> CLOSED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(CloseableReference.class, "mClosed");
     private final
     @Nullable
     Throwable mObtainedTrace;
     private final SharedReference<T> mSharedReference;
-    private
+    private volatile
     @Nullable
     Throwable mClonedTrace;
 
-    @GuardedBy("this")
-    private boolean mIsClosed = false;
+    // 0 while open, 1 once closed. Only ever updated through CLOSED_UPDATER, which looks the field
+    // up by name
+    @DoNotStrip
+    private volatile int mClosed = 0;
 
     /**
-     * The caller should guarantee that reference count of sharedReference is not decreased to zero,
-     * so that the reference is valid during execution of this method.
+     * The caller must already have added a reference to sharedReference on behalf of the new
+     * CloseableReference.
      */
     private CloseableReference(SharedReference<T> sharedReference) {
         mSharedReference = Preconditions.checkNotNull(sharedReference);
-        sharedReference.addReference();
         mObtainedTrace = getTraceOrNull();
     }
 
@@ -230,11 +238,8 @@ public final class CloseableReference<T> implements Cloneable, Closeable {
      */
     @Override
     public void close() {
-        synchronized (this) {
-            if (mIsClosed) {
-                return;
-            }
-            mIsClosed = true;
+        if (!CLOSED_UPDATER.compareAndSet(this, 0, 1)) {
+            return;
         }
 
         mSharedReference.deleteReference();
@@ -244,8 +249,8 @@ public final class CloseableReference<T> implements Cloneable, Closeable {
      * Returns the underlying Closeable if this reference is not closed yet.
      * Otherwise IllegalStateException is thrown.
      */
-    public synchronized T get() {
-        Preconditions.checkState(!mIsClosed);
+    public T get() {
+        Preconditions.checkState(isValid());
         return mSharedReference.get();
     }
 
@@ -254,15 +259,24 @@ public final class CloseableReference<T> implements Cloneable, Closeable {
      * ref-count is incremented.
      */
     @Override
-    public synchronized CloseableReference<T> clone() {
+    public CloseableReference<T> clone() {
         mClonedTrace = getTraceOrNull();
         Preconditions.checkState(isValid());
+        mSharedReference.addReference();
         return new CloseableReference<T>(mSharedReference);
     }
 
-    public synchronized CloseableReference<T> cloneOrNull() {
+    /**
+     * Like {@link #clone()}, but returns null instead of throwing if this reference is closed, or
+     * if the underlying SharedReference is released concurrently.
+     */
+    @Nullable
+    public CloseableReference<T> cloneOrNull() {
         mClonedTrace = getTraceOrNull();
-        return isValid() ? new CloseableReference<T>(mSharedReference) : null;
+        if (!isValid() || !mSharedReference.tryAddReference()) {
+            return null;
+        }
+        return new CloseableReference<T>(mSharedReference);
     }
 
     /**
@@ -270,20 +284,16 @@ public final class CloseableReference<T> implements Cloneable, Closeable {
      *
      * @return true if the closeable reference is valid
      */
-    public synchronized boolean isValid() {
-        return !mIsClosed;
+    public boolean isValid() {
+        return mClosed == 0;
     }
 
     @Override
     protected void finalize() throws Throwable {
         try {
             TOTAL_FINALIZED.incrementAndGet();
-            // We put synchronized here so that lint doesn't warn about accessing mIsClosed, which is
-            // guarded by this. Lint isn't aware of finalize semantics.
-            synchronized (this) {
-                if (mIsClosed) {
-                    return;
-                }
+            if (!isValid()) {
+                return;
             }
 
             UNCLOSED_IN_FINALIZE.incrementAndGet();
@@ -312,7 +322,7 @@ public final class CloseableReference<T> implements Cloneable, Closeable {
      * <p><b>DO NOT USE in application code.</b>
      */
     @VisibleForTesting
-    public synchronized SharedReference<T> getUnderlyingReferenceTestOnly() {
+    public SharedReference<T> getUnderlyingReferenceTestOnly() {
         return mSharedReference;
     }
 
@@ -320,7 +330,7 @@ public final class CloseableReference<T> implements Cloneable, Closeable {
      * Method used for tracking Closeables pointed by CloseableReference.
      * Use only for debugging and logging.
      */
-    public synchronized int getValueHash() {
+    public int getValueHash() {
         return isValid() ? System.identityHashCode(mSharedReference.get()) : 0;
     }
 
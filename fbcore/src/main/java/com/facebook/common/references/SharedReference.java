@@ -9,12 +9,14 @@
 
 package com.facebook.common.references;
 
+import com.facebook.common.internal.DoNotStrip;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.logging.FLog;
 
 import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import javax.annotation.concurrent.GuardedBy;
 
@@ -30,6 +32,9 @@ import javax.annotation.concurrent.GuardedBy;
  * Despite the extra (and clunky) method calls, this is still worthwhile in many cases to avoid
  * the overhead of garbage collection.
  * <p>
+ * The reference count is maintained with compare-and-set operations, so adding and deleting
+ * references never locks the shared reference itself.
+ * <p>
  * The somewhat clunky rules are
  * 1. If a function returns a SharedReference, it must guarantee that the reference count
  * is at least 1. In the case where a SharedReference is being constructed and returned,
@@ -100,13 +105,20 @@ public class SharedReference<T> {
     // Keeps references to all live objects so finalization of those Objects always happens after
     // SharedReference first disposes of it. Note, this does not prevent CloseableReference's from
     // being finalized when the reference is no longer reachable.
+    // The map is split in stripes by identity hash code so that references to different values do
+    // not contend for the same lock.
+    private static final int LIVE_OBJECTS_STRIPES = 16;
     @GuardedBy("itself")
-    private static final Map<Object, Integer> sLiveObjects = new IdentityHashMap<>();
+    private static final Map<Object, Integer>[] sLiveObjects = createLiveObjectsStripes();
+
+    private static final AtomicIntegerFieldUpdater<SharedReference> REF_COUNT_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(SharedReference.class, "mRefCount");
+
     private final ResourceReleaser<T> mResourceReleaser;
-    @GuardedBy("this")
-    private T mValue;
-    @GuardedBy("this")
-    private int mRefCount;
+    private volatile T mValue;
+    // Only ever updated through REF_COUNT_UPDATER, which looks the field up by name
+    @DoNotStrip
+    private volatile int mRefCount;
 
     /**
      * Construct a new shared-reference that will 'own' the supplied {@code value}.
@@ -123,6 +135,19 @@ public class SharedReference<T> {
         addLiveReference(value);
     }
 
+    @SuppressWarnings("unchecked")
+    private static Map<Object, Integer>[] createLiveObjectsStripes() {
+        Map<Object, Integer>[] stripes = new Map[LIVE_OBJECTS_STRIPES];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new IdentityHashMap<>();
+        }
+        return stripes;
+    }
+
+    private static Map<Object, Integer> getLiveObjectsStripe(Object value) {
+        return sLiveObjects[System.identityHashCode(value) & (LIVE_OBJECTS_STRIPES - 1)];
+    }
+
     /**
      * Increases the reference count of a live object in the static map. Adds it if it's not
      * being held.
@@ -130,13 +155,14 @@ public class SharedReference<T> {
      * @param value the value to add.
      */
     private static void addLiveReference(Object value) {
-        synchronized (sLiveObjects) {
-            Integer count = sLiveObjects.get(value);
+        final Map<Object, Integer> liveObjects = getLiveObjectsStripe(value);
+        synchronized (liveObjects) {
+            Integer count = liveObjects.get(value);
             if (count == null) {
-                sLiveObjects.put(value, 1);
+                liveObjects.put(value, 1);
             }
             else {
-                sLiveObjects.put(value, count + 1);
+                liveObjects.put(value, count + 1);
             }
         }
     }
@@ -148,8 +174,9 @@ public class SharedReference<T> {
      * @param value the value to remove.
      */
     private static void removeLiveReference(Object value) {
-        synchronized (sLiveObjects) {
-            Integer count = sLiveObjects.get(value);
+        final Map<Object, Integer> liveObjects = getLiveObjectsStripe(value);
+        synchronized (liveObjects) {
+            Integer count = liveObjects.get(value);
             if (count == null) {
                 // Uh oh.
                 FLog.wtf(
@@ -158,10 +185,10 @@ public class SharedReference<T> {
                         value.getClass());
             }
             else if (count == 1) {
-                sLiveObjects.remove(value);
+                liveObjects.remove(value);
             }
             else {
-                sLiveObjects.put(value, count - 1);
+                liveObjects.put(value, count - 1);
             }
         }
     }
@@ -180,7 +207,7 @@ public class SharedReference<T> {
      *
      * @return the referenced value
      */
-    public synchronized T get() {
+    public T get() {
         return mValue;
     }
 
@@ -189,7 +216,7 @@ public class SharedReference<T> {
      *
      * @return true if shared reference is valid
      */
-    public synchronized boolean isValid() {
+    public boolean isValid() {
         return mRefCount > 0;
     }
 
@@ -197,9 +224,29 @@ public class SharedReference<T> {
      * Bump up the reference count for the shared reference
      * Note: The reference must be valid (aka not null) at this point
      */
-    public synchronized void addReference() {
-        ensureValid();
-        mRefCount++;
+    public void addReference() {
+        if (!tryAddReference()) {
+            throw new NullReferenceException();
+        }
+    }
+
+    /**
+     * Bump up the reference count for the shared reference, unless it has already dropped to zero.
+     * Unlike {@link #addReference()} this never resurrects a reference that another thread is
+     * releasing.
+     *
+     * @return true if the reference count was increased
+     */
+    public boolean tryAddReference() {
+        while (true) {
+            int refCount = mRefCount;
+            if (refCount <= 0) {
+                return false;
+            }
+            if (REF_COUNT_UPDATER.compareAndSet(this, refCount, refCount + 1)) {
+                return true;
+            }
+        }
     }
 
     /**
@@ -208,11 +255,10 @@ public class SharedReference<T> {
      */
     public void deleteReference() {
         if (decreaseRefCount() == 0) {
-            T deleted;
-            synchronized (this) {
-                deleted = mValue;
-                mValue = null;
-            }
+            // Only the thread that brought the count to zero gets here, and the count can never go
+            // up again, so there is no other writer of mValue.
+            T deleted = mValue;
+            mValue = null;
             mResourceReleaser.release(deleted);
             removeLiveReference(deleted);
         }
@@ -222,22 +268,15 @@ public class SharedReference<T> {
      * Decrements reference count for the shared reference. Returns value of mRefCount after
      * decrementing
      */
-    private synchronized int decreaseRefCount() {
-        ensureValid();
-        Preconditions.checkArgument(mRefCount > 0);
-
-        mRefCount--;
-        return mRefCount;
-    }
-
-    /**
-     * Assert that there is a valid referenced value. Throw a NullReferenceException otherwise
-     *
-     * @throws NullReferenceException, if the reference is invalid (i.e.) the underlying value is null
-     */
-    private void ensureValid() {
-        if (!isValid(this)) {
-            throw new NullReferenceException();
+    private int decreaseRefCount() {
+        while (true) {
+            int refCount = mRefCount;
+            if (refCount <= 0) {
+                throw new NullReferenceException();
+            }
+            if (REF_COUNT_UPDATER.compareAndSet(this, refCount, refCount - 1)) {
+                return refCount - 1;
+            }
         }
     }
 
@@ -245,7 +284,7 @@ public class SharedReference<T> {
      * A test-only method to get the ref count
      * DO NOT USE in regular code
      */
-    public synchronized int getRefCountTestOnly() {
+    public int getRefCountTestOnly() {
         return mRefCount;
     }
 
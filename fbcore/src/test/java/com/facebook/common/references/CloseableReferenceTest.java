@@ -18,6 +18,7 @@ import org.robolectric.RobolectricTestRunner;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Basic tests for shared references
@@ -66,4 +67,47 @@ public class CloseableReferenceTest {
                 mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
         Mockito.verify(mMockCloseable).close();
     }
+
+    @Test
+    public void testCloneOrNullAfterRelease() {
+        mCloseableReference.close();
+        Assert.assertNull(mCloseableReference.cloneOrNull());
+        Assert.assertFalse(mCloseableReference.getUnderlyingReferenceTestOnly().tryAddReference());
+    }
+
+    @Test
+    public void testConcurrentCloneAndClose() throws Exception {
+        final int threadCount = 4;
+        final int iterations = 1000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            new Thread(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                start.await();
+                                for (int j = 0; j < iterations; j++) {
+                                    CloseableReference<Closeable> copy = mCloseableReference.clone();
+                                    copy.close();
+                                    copy.close();
+                                }
+                            } catch (InterruptedException ie) {
+                                // the count below will not match
+                            } finally {
+                                done.countDown();
+                            }
+                        }
+                    }).start();
+        }
+        start.countDown();
+        done.await();
+
+        Assert.assertEquals(1,
+                mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+        Mockito.verify(mMockCloseable, Mockito.never()).close();
+        mCloseableReference.close();
+        Mockito.verify(mMockCloseable).close();
+    }
 }
@@ -19,6 +19,7 @@ import com.facebook.imagepipeline.producers.BaseNetworkFetcher;
 import com.facebook.imagepipeline.producers.BaseProducerContextCallbacks;
 import com.facebook.imagepipeline.producers.Consumer;
 import com.facebook.imagepipeline.producers.FetchState;
+import com.facebook.imagepipeline.producers.HttpRangeUtil;
 import com.facebook.imagepipeline.producers.ProducerContext;
 import com.squareup.okhttp.CacheControl;
 import com.squareup.okhttp.Call;
@@ -71,11 +72,18 @@ public class OkHttpNetworkFetcher extends
         final Request request;
 
         try {
-            request = new Request.Builder()
+            Request.Builder requestBuilder = new Request.Builder()
                     .cacheControl(new CacheControl.Builder().noStore().build())
                     .url(uri.toString())
-                    .get()
-                    .build();
+                    .get();
+            if (fetchState.getResumeOffset() > 0) {
+                requestBuilder
+                        .header(
+                                HttpRangeUtil.RANGE,
+                                HttpRangeUtil.toRangeHeaderValue(fetchState.getResumeOffset()))
+                        .header(HttpRangeUtil.IF_RANGE, fetchState.getResumeValidator());
+            }
+            request = requestBuilder.build();
         } catch (Exception e) {
             // handle malformed Uri
             callback.onFailure(e);
@@ -117,6 +125,13 @@ public class OkHttpNetworkFetcher extends
                                 return;
                             }
 
+                            HttpRangeUtil.onResponseHeaders(
+                                    fetchState,
+                                    response.code(),
+                                    response.header(HttpRangeUtil.CONTENT_RANGE),
+                                    response.header(HttpRangeUtil.ETAG),
+                                    response.header(HttpRangeUtil.LAST_MODIFIED));
+
                             long contentLength = body.contentLength();
                             if (contentLength < 0) {
                                 contentLength = 0;
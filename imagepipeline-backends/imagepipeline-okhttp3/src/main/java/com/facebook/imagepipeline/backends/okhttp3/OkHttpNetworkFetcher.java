@@ -19,6 +19,7 @@ import com.facebook.imagepipeline.producers.BaseNetworkFetcher;
 import com.facebook.imagepipeline.producers.BaseProducerContextCallbacks;
 import com.facebook.imagepipeline.producers.Consumer;
 import com.facebook.imagepipeline.producers.FetchState;
+import com.facebook.imagepipeline.producers.HttpRangeUtil;
 import com.facebook.imagepipeline.producers.ProducerContext;
 
 import java.io.IOException;
@@ -75,12 +76,18 @@ public class OkHttpNetworkFetcher extends
     public void fetch(final OkHttpNetworkFetchState fetchState, final Callback callback) {
         fetchState.submitTime = SystemClock.elapsedRealtime();
         final Uri uri = fetchState.getUri();
-        final Request request = new Request.Builder()
+        final Request.Builder requestBuilder = new Request.Builder()
                 .cacheControl(new CacheControl.Builder().noStore().build())//no-cache
                 .url(uri.toString())//url
-                .get()//GET Request
-                .build();
-        fetchWithRequest(fetchState, callback, request);
+                .get();//GET Request
+        if (fetchState.getResumeOffset() > 0) {
+            requestBuilder
+                    .header(
+                            HttpRangeUtil.RANGE,
+                            HttpRangeUtil.toRangeHeaderValue(fetchState.getResumeOffset()))
+                    .header(HttpRangeUtil.IF_RANGE, fetchState.getResumeValidator());
+        }
+        fetchWithRequest(fetchState, callback, requestBuilder.build());
     }
 
     @Override
@@ -137,6 +144,13 @@ public class OkHttpNetworkFetcher extends
                                 return;
                             }
 
+                            HttpRangeUtil.onResponseHeaders(
+                                    fetchState,
+                                    response.code(),
+                                    response.header(HttpRangeUtil.CONTENT_RANGE),
+                                    response.header(HttpRangeUtil.ETAG),
+                                    response.header(HttpRangeUtil.LAST_MODIFIED));
+
                             long contentLength = body.contentLength();
                             if (contentLength < 0) {
                                 contentLength = 0;
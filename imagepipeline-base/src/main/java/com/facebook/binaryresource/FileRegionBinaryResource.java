@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.binaryresource;
+
+import com.facebook.common.internal.Preconditions;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * Implementation of BinaryResource based on a region of a file, for storages that keep many
+ * resources in one file. @see BinaryResource for more details.
+ *
+ * <p>The region is read with positioned reads, so streams of different regions of the same file
+ * do not interfere with each other. A stream keeps its own file descriptor open, which lets it
+ * finish reading even if the file is deleted in the meantime.
+ */
+public class FileRegionBinaryResource implements BinaryResource {
+    private final File mFile;
+    private final long mOffset;
+    private final long mLength;
+
+    public FileRegionBinaryResource(File file, long offset, long length) {
+        Preconditions.checkArgument(offset >= 0 && length >= 0);
+        mFile = Preconditions.checkNotNull(file);
+        mOffset = offset;
+        mLength = length;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public long getOffset() {
+        return mOffset;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        return new RegionInputStream(new RandomAccessFile(mFile, "r"), mOffset, mLength);
+    }
+
+    @Override
+    public long size() {
+        return mLength;
+    }
+
+    @Override
+    public byte[] read() throws IOException {
+        Preconditions.checkState(mLength <= Integer.MAX_VALUE);
+        final byte[] bytes = new byte[(int) mLength];
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "r");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, mOffset + buffer.position()) < 0) {
+                    throw new EOFException("Region ends after the end of " + mFile);
+                }
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null || !(obj instanceof FileRegionBinaryResource)) {
+            return false;
+        }
+        FileRegionBinaryResource that = (FileRegionBinaryResource) obj;
+        return mFile.equals(that.mFile) && mOffset == that.mOffset && mLength == that.mLength;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mFile.hashCode() + (int) (mOffset ^ (mOffset >>> 32));
+    }
+
+    /**
+     * Stream over a region of a file that reads at absolute positions of its channel.
+     */
+    private static class RegionInputStream extends InputStream {
+        private final RandomAccessFile mRandomAccessFile;
+        private final FileChannel mChannel;
+        private final long mEnd;
+        private long mPosition;
+        private long mMark;
+
+        RegionInputStream(RandomAccessFile randomAccessFile, long offset, long length) {
+            mRandomAccessFile = randomAccessFile;
+            mChannel = randomAccessFile.getChannel();
+            mPosition = offset;
+            mMark = offset;
+            mEnd = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] oneByte = new byte[1];
+            return read(oneByte, 0, 1) == -1 ? -1 : (oneByte[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            if (mPosition >= mEnd) {
+                return -1;
+            }
+            final int toRead = (int) Math.min(count, mEnd - mPosition);
+            final int read = mChannel.read(ByteBuffer.wrap(buffer, offset, toRead), mPosition);
+            if (read < 0) {
+                throw new EOFException("Region ends after the end of the file");
+            }
+            mPosition += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long count) {
+            final long skipped = Math.max(0, Math.min(count, mEnd - mPosition));
+            mPosition += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, mEnd - mPosition);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            mMark = mPosition;
+        }
+
+        @Override
+        public synchronized void reset() {
+            mPosition = mMark;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mRandomAccessFile.close();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.common;
+
+/**
+ * A {@link CacheEventListener} that is also told about the decisions of the admission policy of a
+ * disk cache. Listeners that only implement {@link CacheEventListener} are not told about them.
+ */
+public interface AdmissionEventListener extends CacheEventListener {
+
+    /**
+     * Triggered when the admission policy of the cache lets a new resource in. The write then
+     * starts with {@link #onWriteAttempt}.
+     */
+    void onWriteAdmitted(CacheEvent cacheEvent);
+
+    /**
+     * Triggered when the admission policy of the cache keeps a new resource out, without writing
+     * it.
+     */
+    void onWriteRejected(CacheEvent cacheEvent);
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import java.io.IOException;
+
+/**
+ * A {@link DiskStorage} that can set the last-accessed time of a resource to a given time, so that
+ * accesses kept in memory can be written later without losing their order. Storages that only
+ * implement {@link DiskStorage} are touched with the current time instead.
+ */
+public interface AccessTimeDiskStorage extends DiskStorage {
+
+    /**
+     * Does a resource with this name exist? If so, set its last-accessed time to the given time.
+     *
+     * @param resourceId id of the resource
+     * @param timestamp  time of the access, in milliseconds
+     * @return true, if the resource is present in the storage, false otherwise
+     * @throws IOException
+     */
+    boolean touch(String resourceId, long timestamp) throws IOException;
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Last access times of the entries of a disk cache, kept in memory so that reading an entry does
+ * not write to the disk.
+ * <p>
+ * <p> The table holds the time of every access since it was created, until the entry is removed
+ * or inserted again. These times take precedence over the timestamps listed by the storage, which
+ * are only as recent as the last time the cache touched the entry. Accesses recorded since the
+ * last {@link #drainPending} are pending: the cache writes them to the storage in batches.
+ */
+@ThreadSafe
+class AccessTimeTable {
+
+    private final ConcurrentHashMap<String, Long> mAccessTimes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> mPending = new ConcurrentHashMap<>();
+
+    void onAccessed(String resourceId, long time) {
+        mAccessTimes.put(resourceId, time);
+        mPending.put(resourceId, time);
+    }
+
+    /**
+     * Forgets an entry, whose timestamp in the storage is current again or which is gone.
+     */
+    void forget(String resourceId) {
+        mAccessTimes.remove(resourceId);
+        mPending.remove(resourceId);
+    }
+
+    void clear() {
+        mAccessTimes.clear();
+        mPending.clear();
+    }
+
+    /**
+     * Gets the number of entries accessed since the last {@link #drainPending}.
+     */
+    int getPendingCount() {
+        return mPending.size();
+    }
+
+    /**
+     * Gets the time of the last access of every entry accessed since the last call, by id. An
+     * entry accessed again while draining stays pending with its newer time.
+     */
+    Map<String, Long> drainPending() {
+        Map<String, Long> pending = new HashMap<>(mPending.size());
+        for (Map.Entry<String, Long> entry : mPending.entrySet()) {
+            if (mPending.remove(entry.getKey(), entry.getValue())) {
+                pending.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Returns the given entries, with the timestamps of those accessed replaced by the time of
+     * their last access.
+     */
+    List<DiskStorage.Entry> apply(Collection<DiskStorage.Entry> entries) {
+        List<DiskStorage.Entry> result = new ArrayList<>(entries.size());
+        for (DiskStorage.Entry entry : entries) {
+            Long accessTime = mAccessTimes.get(entry.getId());
+            result.add(accessTime == null ? entry : new AccessedEntry(entry, accessTime));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the entry listed by the storage from an entry returned by {@link #apply}.
+     */
+    static DiskStorage.Entry unwrap(DiskStorage.Entry entry) {
+        return entry instanceof AccessedEntry ? ((AccessedEntry) entry).mEntry : entry;
+    }
+
+    /**
+     * Entry with the time of its last access as timestamp.
+     */
+    private static class AccessedEntry implements DiskStorage.Entry {
+        private final DiskStorage.Entry mEntry;
+        private final long mTimestamp;
+
+        AccessedEntry(DiskStorage.Entry entry, long timestamp) {
+            mEntry = entry;
+            mTimestamp = timestamp;
+        }
+
+        @Override
+        public String getId() {
+            return mEntry.getId();
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public long getSize() {
+            return mEntry.getSize();
+        }
+
+        @Override
+        public BinaryResource getResource() {
+            return mEntry.getResource();
+        }
+    }
+}
@@ -40,7 +40,7 @@ import javax.annotation.Nullable;
  * The default disk storage implementation. Subsumes both 'simple' and 'sharded' implementations
  * via a new SubdirectorySupplier.
  */
-public class DefaultDiskStorage implements DiskStorage {
+public class DefaultDiskStorage implements AccessTimeDiskStorage {
 
     /**
      * We will allow purging of any temp files older than this.
@@ -81,6 +81,17 @@ public class DefaultDiskStorage implements DiskStorage {
     private final CacheErrorLogger mCacheErrorLogger;
     private final Clock mClock;
 
+    /**
+     * Index of the entries kept on disk next to them, null if the index is disabled
+     */
+    @Nullable
+    private final DiskStorageJournal mJournal;
+
+    /**
+     * Whether reading an entry updates its timestamp, otherwise only touching it does
+     */
+    private final boolean mTouchOnRead;
+
     /**
      * Instantiates a ShardedDiskStorage that will use the directory to save a map between
      * keys and files. The version is very important if clients change the format
@@ -96,6 +107,32 @@ public class DefaultDiskStorage implements DiskStorage {
             File rootDirectory,
             int version,
             CacheErrorLogger cacheErrorLogger) {
+        this(rootDirectory, version, cacheErrorLogger, false);
+    }
+
+    /**
+     * @param journalEnabled if true, an index of the entries is persisted in a journal file so
+     *                       that {@link #getEntries} does not need to walk the directory tree
+     */
+    public DefaultDiskStorage(
+            File rootDirectory,
+            int version,
+            CacheErrorLogger cacheErrorLogger,
+            boolean journalEnabled) {
+        this(rootDirectory, version, cacheErrorLogger, journalEnabled, true);
+    }
+
+    /**
+     * @param touchOnRead if false, {@link #getResource} leaves the timestamp of the entry alone,
+     *                    for callers that keep track of accesses and {@link #touch} entries
+     *                    themselves
+     */
+    public DefaultDiskStorage(
+            File rootDirectory,
+            int version,
+            CacheErrorLogger cacheErrorLogger,
+            boolean journalEnabled,
+            boolean touchOnRead) {
         Preconditions.checkNotNull(rootDirectory);
 
         mRootDirectory = rootDirectory;
@@ -109,9 +146,13 @@ public class DefaultDiskStorage implements DiskStorage {
         mCacheErrorLogger = cacheErrorLogger;
         recreateDirectoryIfVersionChanges();
         mClock = SystemClock.get();
+        mJournal = journalEnabled ?
+                new DiskStorageJournal(mVersionDirectory, cacheErrorLogger) :
+                null;
+        mTouchOnRead = touchOnRead;
     }
 
-    private static boolean isExternal(File directory, CacheErrorLogger cacheErrorLogger) {
+    static boolean isExternal(File directory, CacheErrorLogger cacheErrorLogger) {
         boolean state = false;
         String appCacheDirPath = null;
         File extStoragePath = Environment.getExternalStorageDirectory();
@@ -277,9 +318,18 @@ public class DefaultDiskStorage implements DiskStorage {
     public BinaryResource getResource(String resourceId, Object debugInfo) {
         final File file = getContentFileFor(resourceId);
         if (file.exists()) {
-            file.setLastModified(mClock.now());
+            if (mTouchOnRead) {
+                long now = mClock.now();
+                file.setLastModified(now);
+                if (mJournal != null) {
+                    mJournal.onAccessed(resourceId, now);
+                }
+            }
             return FileBinaryResource.createOrNull(file);
         }
+        if (mJournal != null) {
+            mJournal.onRemoved(resourceId);
+        }
         return null;
     }
 
@@ -291,19 +341,30 @@ public class DefaultDiskStorage implements DiskStorage {
 
     @Override
     public boolean contains(String resourceId, Object debugInfo) {
-        return query(resourceId, false);
+        return query(resourceId, false, 0);
     }
 
     @Override
     public boolean touch(String resourceId, Object debugInfo) {
-        return query(resourceId, true);
+        return query(resourceId, true, mClock.now());
     }
 
-    private boolean query(String resourceId, boolean touch) {
+    @Override
+    public boolean touch(String resourceId, long timestamp) {
+        return query(resourceId, true, timestamp);
+    }
+
+    private boolean query(String resourceId, boolean touch, long touchTime) {
         File contentFile = getContentFileFor(resourceId);
         boolean exists = contentFile.exists();
         if (touch && exists) {
-            contentFile.setLastModified(mClock.now());
+            contentFile.setLastModified(touchTime);
+            if (mJournal != null) {
+                mJournal.onAccessed(resourceId, touchTime);
+            }
+        }
+        else if (!exists && mJournal != null) {
+            mJournal.onRemoved(resourceId);
         }
         return exists;
     }
@@ -313,29 +374,37 @@ public class DefaultDiskStorage implements DiskStorage {
         // it should be one entry return by us :)
         EntryImpl entryImpl = (EntryImpl) entry;
         FileBinaryResource resource = entryImpl.getResource();
-        return doRemove(resource.getFile());
+        return doRemove(entryImpl.getId(), resource.getFile());
     }
 
     @Override
     public long remove(final String resourceId) {
-        return doRemove(getContentFileFor(resourceId));
+        return doRemove(resourceId, getContentFileFor(resourceId));
     }
 
-    private long doRemove(final File contentFile) {
+    private long doRemove(final String resourceId, final File contentFile) {
+        long removedSize = -1;
         if (!contentFile.exists()) {
-            return 0;
+            removedSize = 0;
         }
-
-        final long fileSize = contentFile.length();
-        if (contentFile.delete()) {
-            return fileSize;
+        else {
+            final long fileSize = contentFile.length();
+            if (contentFile.delete()) {
+                removedSize = fileSize;
+            }
         }
 
-        return -1;
+        if (removedSize >= 0 && mJournal != null) {
+            mJournal.onRemoved(resourceId);
+        }
+        return removedSize;
     }
 
     public void clearAll() {
         FileTree.deleteContents(mRootDirectory);
+        if (mJournal != null) {
+            mJournal.clear();
+        }
     }
 
     @Override
@@ -368,7 +437,7 @@ public class DefaultDiskStorage implements DiskStorage {
         return new DiskDumpInfoEntry(path, type, entryImpl.getSize(), firstBits);
     }
 
-    private String typeOfBytes(byte[] bytes) {
+    static String typeOfBytes(byte[] bytes) {
         if (bytes.length >= 2) {
             if (bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xD8) {
                 return "jpg";
@@ -393,9 +462,48 @@ public class DefaultDiskStorage implements DiskStorage {
      * <p>This list is immutable.
      */
     public List<Entry> getEntries() throws IOException {
+        if (mJournal != null) {
+            List<DiskStorageJournal.IndexEntry> indexEntries = mJournal.getEntries();
+            if (indexEntries != null) {
+                return getEntriesFromIndex(indexEntries);
+            }
+        }
         EntriesCollector collector = new EntriesCollector();
         FileTree.walkFileTree(mVersionDirectory, collector);
-        return collector.getEntries();
+        List<Entry> entries = collector.getEntries();
+        if (mJournal != null) {
+            rebuildIndex(entries);
+        }
+        return entries;
+    }
+
+    private List<Entry> getEntriesFromIndex(List<DiskStorageJournal.IndexEntry> indexEntries) {
+        List<Entry> entries = new ArrayList<>(indexEntries.size());
+        for (int i = 0; i < indexEntries.size(); i++) {
+            DiskStorageJournal.IndexEntry indexEntry = indexEntries.get(i);
+            entries.add(new EntryImpl(
+                    indexEntry.id,
+                    getContentFileFor(indexEntry.id),
+                    indexEntry.size,
+                    indexEntry.timestamp));
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Seeds the index with the result of a directory scan. This reads the size and timestamp of
+     * every file, which is what listing the entries would have to do anyway for eviction.
+     */
+    private void rebuildIndex(List<Entry> entries) {
+        List<DiskStorageJournal.IndexEntry> indexEntries = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            indexEntries.add(new DiskStorageJournal.IndexEntry(
+                    entry.getId(),
+                    entry.getSize(),
+                    entry.getTimestamp()));
+        }
+        mJournal.rebuild(indexEntries);
     }
 
     /**
@@ -441,7 +549,7 @@ public class DefaultDiskStorage implements DiskStorage {
         }
     }
 
-    private static class IncompleteFileException extends IOException {
+    static class IncompleteFileException extends IOException {
         public final long expected;
         public final long actual;
 
@@ -470,6 +578,12 @@ public class DefaultDiskStorage implements DiskStorage {
             this.timestamp = -1;
         }
 
+        private EntryImpl(String id, File cachedFile, long size, long timestamp) {
+            this(id, cachedFile);
+            this.size = size;
+            this.timestamp = timestamp;
+        }
+
         @Override
         public String getId() {
             return id;
@@ -624,6 +738,9 @@ public class DefaultDiskStorage implements DiskStorage {
         }
 
         private boolean isExpectedFile(File file) {
+            if (mJournal != null && mJournal.isJournalFile(file)) {
+                return true;
+            }
             FileInfo info = getShardFileInfo(file);
             if (info == null) {
                 return false;
@@ -694,10 +811,18 @@ public class DefaultDiskStorage implements DiskStorage {
         public BinaryResource commit(Object debugInfo) throws IOException {
             // the temp resource must be ours!
             File targetFile = getContentFileFor(mResourceId);
+            long now = mClock.now();
+            if (mJournal != null) {
+                // recorded first, so that a crash cannot leave a file the index does not know of
+                mJournal.onInserted(mResourceId, mTemporaryFile.length(), now);
+            }
 
             try {
                 FileUtils.rename(mTemporaryFile, targetFile);
             } catch (FileUtils.RenameException re) {
+                if (mJournal != null) {
+                    onCommitFailed(targetFile);
+                }
                 CacheErrorLogger.CacheErrorCategory category;
                 Throwable cause = re.getCause();
                 if (cause == null) {
@@ -721,11 +846,23 @@ public class DefaultDiskStorage implements DiskStorage {
                 throw re;
             }
             if (targetFile.exists()) {
-                targetFile.setLastModified(mClock.now());
+                targetFile.setLastModified(now);
             }
             return FileBinaryResource.createOrNull(targetFile);
         }
 
+        /**
+         * Reverts the insertion recorded in the journal, keeping a previous version of the entry.
+         */
+        private void onCommitFailed(File targetFile) {
+            if (targetFile.exists()) {
+                mJournal.onInserted(mResourceId, targetFile.length(), targetFile.lastModified());
+            }
+            else {
+                mJournal.onRemoved(mResourceId);
+            }
+        }
+
         @Override
         public boolean cleanUp() {
             return !mTemporaryFile.exists() || mTemporaryFile.delete();
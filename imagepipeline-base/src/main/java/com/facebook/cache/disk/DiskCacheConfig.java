@@ -44,6 +44,11 @@ public class DiskCacheConfig {
     private final DiskTrimmableRegistry mDiskTrimmableRegistry;
     private final Context mContext;
     private final boolean mIndexPopulateAtStartupEnabled;
+    private final boolean mIndexJournalEnabled;
+    private final boolean mBackgroundEvictionEnabled;
+    private final boolean mAccessTimeTrackingEnabled;
+    @Nullable
+    private final EntryAdmissionPolicy mEntryAdmissionPolicy;
 
     private DiskCacheConfig(Builder builder) {
         mVersion = builder.mVersion;
@@ -68,6 +73,10 @@ public class DiskCacheConfig {
                         builder.mDiskTrimmableRegistry;
         mContext = builder.mContext;
         mIndexPopulateAtStartupEnabled = builder.mIndexPopulateAtStartupEnabled;
+        mIndexJournalEnabled = builder.mIndexJournalEnabled;
+        mBackgroundEvictionEnabled = builder.mBackgroundEvictionEnabled;
+        mAccessTimeTrackingEnabled = builder.mAccessTimeTrackingEnabled;
+        mEntryAdmissionPolicy = builder.mEntryAdmissionPolicy;
     }
 
     /**
@@ -131,6 +140,23 @@ public class DiskCacheConfig {
         return mIndexPopulateAtStartupEnabled;
     }
 
+    public boolean getIndexJournalEnabled() {
+        return mIndexJournalEnabled;
+    }
+
+    public boolean getBackgroundEvictionEnabled() {
+        return mBackgroundEvictionEnabled;
+    }
+
+    public boolean getAccessTimeTrackingEnabled() {
+        return mAccessTimeTrackingEnabled;
+    }
+
+    @Nullable
+    public EntryAdmissionPolicy getEntryAdmissionPolicy() {
+        return mEntryAdmissionPolicy;
+    }
+
     public static class Builder {
 
         private final
@@ -148,6 +174,10 @@ public class DiskCacheConfig {
         private CacheEventListener mCacheEventListener;
         private DiskTrimmableRegistry mDiskTrimmableRegistry;
         private boolean mIndexPopulateAtStartupEnabled;
+        private boolean mIndexJournalEnabled;
+        private boolean mBackgroundEvictionEnabled;
+        private boolean mAccessTimeTrackingEnabled;
+        private EntryAdmissionPolicy mEntryAdmissionPolicy;
 
         private Builder(@Nullable Context context) {
             mContext = context;
@@ -254,6 +284,57 @@ public class DiskCacheConfig {
             return this;
         }
 
+        /**
+         * Persists an index of the cache entries in a journal file next to them, so that the cache
+         * does not have to list and query every file at startup and before evicting.
+         * <p>
+         * <p>If the journal is lost or damaged it is rebuilt from a scan the next time the entries
+         * are listed.
+         */
+        public Builder setIndexJournalEnabled(boolean indexJournalEnabled) {
+            mIndexJournalEnabled = indexJournalEnabled;
+            return this;
+        }
+
+        /**
+         * Evicts files on a background thread after an insert pushed the cache over its size
+         * limit, instead of on the inserting thread before the next insert.
+         * <p>
+         * <p>The cache may exceed its size limit by the size of the entries written while an
+         * eviction is pending.
+         * <p>
+         * <p>The cache then keeps its entries in eviction order in memory, and evicts in small
+         * batches down to 90% of the limit without listing the storage again.
+         */
+        public Builder setBackgroundEvictionEnabled(boolean backgroundEvictionEnabled) {
+            mBackgroundEvictionEnabled = backgroundEvictionEnabled;
+            return this;
+        }
+
+        /**
+         * Keeps the last access time of the entries in memory instead of updating the timestamp
+         * of their file every time they are read.
+         * <p>
+         * <p>The access times are written to the storage in the background, in batches. Accesses
+         * not written yet are lost if the process dies, which only affects the order in which
+         * entries are evicted.
+         */
+        public Builder setAccessTimeTrackingEnabled(boolean accessTimeTrackingEnabled) {
+            mAccessTimeTrackingEnabled = accessTimeTrackingEnabled;
+            return this;
+        }
+
+        /**
+         * Decides which images written by the pipeline are stored in the cache. By default, all of
+         * them are.
+         * <p>
+         * <p>The cache event listener is told about every image the policy admits or rejects.
+         */
+        public Builder setEntryAdmissionPolicy(@Nullable EntryAdmissionPolicy policy) {
+            mEntryAdmissionPolicy = policy;
+            return this;
+        }
+
         public DiskCacheConfig build() {
             Preconditions.checkState(
                     mBaseDirectoryPathSupplier != null || mContext != null,
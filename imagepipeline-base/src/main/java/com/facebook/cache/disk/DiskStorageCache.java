@@ -32,10 +32,15 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -43,6 +48,27 @@ import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * Cache that manages disk storage.
+ * <p>
+ * <p> Reads, touches, inserts and removals only lock the resource ids they operate on (using a
+ * fixed set of striped locks), so operations on different resources proceed in parallel. Eviction,
+ * trimming and size recalculation are serialized among themselves by a global lock, which lookups
+ * never take. Committing an insert waits for a size recalculation in progress, so that the new
+ * entry is counted exactly once. If an eviction executor is provided, evicting files after an insert happens there
+ * instead of on the inserting thread.
+ * <p>
+ * <p> With an eviction executor, the cache also keeps its entries in an {@link EvictionQueue},
+ * ordered by the eviction comparator and updated as entries are inserted, read and removed. Once
+ * the cache grows beyond its size limit, the evictor removes the first entries of the queue in
+ * batches of {@link #EVICTION_BATCH_SIZE}, until the cache is back down to 90% of the limit. The
+ * global lock is released between batches. The storage is only listed and sorted to populate the
+ * queue the first time, without holding the global lock.
+ * <p>
+ * <p> If access time tracking is enabled, reads and probes record the access in an
+ * {@link AccessTimeTable} instead of touching the entry in the storage. Eviction orders entries by
+ * these times. They are written to the storage in the background, once
+ * {@link #ACCESS_TIMES_FLUSH_BATCH_SIZE} entries were accessed or
+ * {@link #ACCESS_TIMES_FLUSH_INTERVAL_MS} after the first unwritten access, and when the cache is
+ * trimmed. Storages implementing {@link AccessTimeDiskStorage} keep the time of each access.
  */
 @ThreadSafe
 public class DiskStorageCache implements FileCache, DiskTrimmable {
@@ -59,7 +85,16 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     private static final double TRIMMING_LOWER_BOUND = 0.02;
     private static final long UNINITIALIZED = -1;
     private static final String SHARED_PREFS_FILENAME_PREFIX = "disk_entries_list";
-    @GuardedBy("mLock")
+    // Must be a power of two
+    private static final int RESOURCE_LOCK_STRIPES = 64;
+    // Number of entries evicted in the background while holding mLock
+    @VisibleForTesting
+    static final int EVICTION_BATCH_SIZE = 16;
+    // Number of accessed entries, or time since the first access, before access times are written
+    @VisibleForTesting
+    static final int ACCESS_TIMES_FLUSH_BATCH_SIZE = 64;
+    @VisibleForTesting
+    static final long ACCESS_TIMES_FLUSH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
     // All resourceId stored on disk (if any).
     @VisibleForTesting
     final Set<String> mResourceIndex;
@@ -75,12 +110,34 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     private final boolean mIndexPopulateAtStartupEnabled;
     private final CacheStats mCacheStats;
     private final Clock mClock;
-    // synchronization object.
+    // synchronization object for eviction, trimming and size recalculation.
     private final Object mLock = new Object();
-    private long mCacheSizeLimit;
+    // synchronization objects for operations on individual resources, see getResourceLock
+    private final Object[] mResourceLocks;
+    // held for reading while an insert commits and counts its entry, and for writing while the
+    // recalculated size is applied, so that the listing and the increments do not count an entry
+    // twice
+    private final ReadWriteLock mStatsLock = new ReentrantReadWriteLock();
+    // sizes of the entries inserted while the storage is listed to recalculate the size, by
+    // resource id, so that those the listing missed are counted when it is applied
+    @GuardedBy("mStatsLock")
+    @Nullable
+    private Map<String, Long> mInsertsDuringRecount;
+    @Nullable
+    private final Executor mEvictionExecutor;
+    private final AtomicBoolean mEvictionScheduled;
+    @Nullable
+    private final EvictionQueue mEvictionQueue;
+    @Nullable
+    private final AccessTimeTable mAccessTimes;
+    private final Executor mAccessTimesFlushExecutor;
+    private final AtomicBoolean mAccessTimesFlushScheduled;
+    // time of the first access since access times were last written, or UNINITIALIZED
+    private volatile long mAccessTimesPendingSince;
+    private volatile long mCacheSizeLimit;
     @GuardedBy("mLock")
     private long mCacheSizeLastUpdateTime;
-    private boolean mIndexReady;
+    private volatile boolean mIndexReady;
 
     public DiskStorageCache(
             DiskStorage diskStorage,
@@ -92,6 +149,67 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
             final Context context,
             final Executor executorForBackgrountInit,
             boolean indexPopulateAtStartupEnabled) {
+        this(
+                diskStorage,
+                entryEvictionComparatorSupplier,
+                params,
+                cacheEventListener,
+                cacheErrorLogger,
+                diskTrimmableRegistry,
+                context,
+                executorForBackgrountInit,
+                indexPopulateAtStartupEnabled,
+                null);
+    }
+
+    /**
+     * @param evictionExecutor if not null, the size limit is enforced on this executor after an
+     *                         insert, instead of on the inserting thread before the insert
+     */
+    public DiskStorageCache(
+            DiskStorage diskStorage,
+            EntryEvictionComparatorSupplier entryEvictionComparatorSupplier,
+            Params params,
+            CacheEventListener cacheEventListener,
+            CacheErrorLogger cacheErrorLogger,
+            @Nullable DiskTrimmableRegistry diskTrimmableRegistry,
+            final Context context,
+            final Executor executorForBackgrountInit,
+            boolean indexPopulateAtStartupEnabled,
+            @Nullable Executor evictionExecutor) {
+        this(
+                diskStorage,
+                entryEvictionComparatorSupplier,
+                params,
+                cacheEventListener,
+                cacheErrorLogger,
+                diskTrimmableRegistry,
+                context,
+                executorForBackgrountInit,
+                indexPopulateAtStartupEnabled,
+                evictionExecutor,
+                false);
+    }
+
+    /**
+     * @param accessTimeTrackingEnabled if true, accesses are kept in memory and written to the
+     *                                  storage in batches, on the eviction executor if there is
+     *                                  one and on the executor for background init otherwise,
+     *                                  instead of touching the entry on every read. The storage
+     *                                  should not touch entries on reads either.
+     */
+    public DiskStorageCache(
+            DiskStorage diskStorage,
+            EntryEvictionComparatorSupplier entryEvictionComparatorSupplier,
+            Params params,
+            CacheEventListener cacheEventListener,
+            CacheErrorLogger cacheErrorLogger,
+            @Nullable DiskTrimmableRegistry diskTrimmableRegistry,
+            final Context context,
+            final Executor executorForBackgrountInit,
+            boolean indexPopulateAtStartupEnabled,
+            @Nullable Executor evictionExecutor,
+            boolean accessTimeTrackingEnabled) {
         this.mLowDiskSpaceCacheSizeLimit = params.mLowDiskSpaceCacheSizeLimit;
         this.mDefaultCacheSizeLimit = params.mDefaultCacheSizeLimit;
         this.mCacheSizeLimit = params.mDefaultCacheSizeLimit;
@@ -118,7 +236,23 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
         mIndexPopulateAtStartupEnabled = indexPopulateAtStartupEnabled;
 
-        this.mResourceIndex = new HashSet<>();
+        this.mResourceIndex =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        this.mResourceLocks = new Object[RESOURCE_LOCK_STRIPES];
+        for (int i = 0; i < RESOURCE_LOCK_STRIPES; i++) {
+            mResourceLocks[i] = new Object();
+        }
+        this.mEvictionExecutor = evictionExecutor;
+        this.mEvictionScheduled = new AtomicBoolean(false);
+        this.mEvictionQueue = evictionExecutor != null ?
+                new EvictionQueue(entryEvictionComparatorSupplier.get(), diskStorage) :
+                null;
+        this.mAccessTimes = accessTimeTrackingEnabled ? new AccessTimeTable() : null;
+        this.mAccessTimesFlushExecutor =
+                evictionExecutor != null ? evictionExecutor : executorForBackgrountInit;
+        this.mAccessTimesFlushScheduled = new AtomicBoolean(false);
+        this.mAccessTimesPendingSince = UNINITIALIZED;
 
         if (mIndexPopulateAtStartupEnabled) {
             mCountDownLatch = new CountDownLatch(1);
@@ -216,27 +350,32 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
         SettableCacheEvent cacheEvent = SettableCacheEvent.obtain()
                                                           .setCacheKey(key);
         try {
-            synchronized (mLock) {
-                BinaryResource resource = null;
-                List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-                for (int i = 0; i < resourceIds.size(); i++) {
-                    resourceId = resourceIds.get(i);
-                    cacheEvent.setResourceId(resourceId);
+            BinaryResource resource = null;
+            List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+            for (int i = 0; i < resourceIds.size(); i++) {
+                resourceId = resourceIds.get(i);
+                cacheEvent.setResourceId(resourceId);
+                synchronized (getResourceLock(resourceId)) {
                     resource = mStorage.getResource(resourceId, key);
                     if (resource != null) {
-                        break;
+                        mResourceIndex.add(resourceId);
+                        onAccessed(resourceId);
+                    }
+                    else if (i == resourceIds.size() - 1) {
+                        mResourceIndex.remove(resourceId);
                     }
                 }
-                if (resource == null) {
-                    mCacheEventListener.onMiss(cacheEvent);
-                    mResourceIndex.remove(resourceId);
-                }
-                else {
-                    mCacheEventListener.onHit(cacheEvent);
-                    mResourceIndex.add(resourceId);
+                if (resource != null) {
+                    break;
                 }
-                return resource;
             }
+            if (resource == null) {
+                mCacheEventListener.onMiss(cacheEvent);
+            }
+            else {
+                mCacheEventListener.onHit(cacheEvent);
+            }
+            return resource;
         } catch (IOException ioe) {
             mCacheErrorLogger.logError(
                     CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
@@ -265,17 +404,21 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     public boolean probe(final CacheKey key) {
         String resourceId = null;
         try {
-            synchronized (mLock) {
-                List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-                for (int i = 0; i < resourceIds.size(); i++) {
-                    resourceId = resourceIds.get(i);
-                    if (mStorage.touch(resourceId, key)) {
+            List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+            for (int i = 0; i < resourceIds.size(); i++) {
+                resourceId = resourceIds.get(i);
+                synchronized (getResourceLock(resourceId)) {
+                    boolean touched = mAccessTimes == null ?
+                            mStorage.touch(resourceId, key) :
+                            mStorage.contains(resourceId, key);
+                    if (touched) {
                         mResourceIndex.add(resourceId);
+                        onAccessed(resourceId);
                         return true;
                     }
                 }
-                return false;
             }
+            return false;
         } catch (IOException e) {
             SettableCacheEvent cacheEvent = SettableCacheEvent.obtain()
                                                               .setCacheKey(key)
@@ -294,7 +437,9 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
             final String resourceId,
             final CacheKey key)
             throws IOException {
-        maybeEvictFilesInCacheDir();
+        if (mEvictionExecutor == null) {
+            maybeEvictFilesInCacheDir();
+        }
         return mStorage.insert(resourceId, key);
     }
 
@@ -306,12 +451,98 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
             final DiskStorage.Inserter inserter,
             final CacheKey key,
             String resourceId) throws IOException {
-        synchronized (mLock) {
-            BinaryResource resource = inserter.commit(key);
-            mResourceIndex.add(resourceId);
+        BinaryResource resource;
+        mStatsLock.readLock().lock();
+        try {
+            synchronized (getResourceLock(resourceId)) {
+                resource = inserter.commit(key);
+                if (mEvictionQueue != null) {
+                    // while holding the lock, so that the evictor sees that the entry is back
+                    mEvictionQueue.add(resourceId, resource.size(), mClock.now());
+                }
+                mResourceIndex.add(resourceId);
+                if (mAccessTimes != null) {
+                    // the new entry has a fresh timestamp
+                    mAccessTimes.forget(resourceId);
+                }
+            }
             mCacheStats.increment(resource.size(), 1);
-            return resource;
+            if (mInsertsDuringRecount != null) {
+                mInsertsDuringRecount.put(resourceId, resource.size());
+            }
+        } finally {
+            mStatsLock.readLock().unlock();
+        }
+        return resource;
+    }
+
+    /**
+     * Enforces the size limit on the eviction executor, if there is one. At most one eviction is
+     * pending at any time.
+     */
+    private void maybeScheduleEviction() {
+        if (mEvictionExecutor == null || !mEvictionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        mEvictionExecutor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mEvictionScheduled.set(false);
+                        try {
+                            evictInBackground();
+                        } catch (IOException ioe) {
+                            // already logged by evictAboveSize
+                            FLog.e(TAG, "Failed to evict files in background", ioe);
+                        }
+                    }
+                });
+    }
+
+    private void onAccessed(String resourceId) {
+        if (mAccessTimes == null && mEvictionQueue == null) {
+            return;
+        }
+        long now = mClock.now();
+        if (mAccessTimes != null) {
+            mAccessTimes.onAccessed(resourceId, now);
+            maybeScheduleAccessTimesFlush(now);
+        }
+        if (mEvictionQueue != null) {
+            mEvictionQueue.onAccessed(resourceId, now);
+        }
+    }
+
+    /**
+     * Writes the recorded accesses on the flush executor once there are enough of them, or once
+     * the first of them is old enough. At most one flush is pending at any time.
+     */
+    private void maybeScheduleAccessTimesFlush(long now) {
+        long pendingSince = mAccessTimesPendingSince;
+        if (pendingSince == UNINITIALIZED) {
+            mAccessTimesPendingSince = now;
+            return;
+        }
+        if (mAccessTimes.getPendingCount() < ACCESS_TIMES_FLUSH_BATCH_SIZE &&
+                now - pendingSince < ACCESS_TIMES_FLUSH_INTERVAL_MS) {
+            return;
+        }
+        if (!mAccessTimesFlushScheduled.compareAndSet(false, true)) {
+            return;
         }
+        mAccessTimesFlushExecutor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mAccessTimesFlushScheduled.set(false);
+                        flushAccessTimes();
+                    }
+                });
+    }
+
+    private Object getResourceLock(String resourceId) {
+        int hash = resourceId.hashCode();
+        return mResourceLocks[(hash ^ (hash >>> 16)) & (RESOURCE_LOCK_STRIPES - 1)];
     }
 
     @Override
@@ -321,11 +552,8 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
         SettableCacheEvent cacheEvent = SettableCacheEvent.obtain()
                                                           .setCacheKey(key);
         mCacheEventListener.onWriteAttempt(cacheEvent);
-        String resourceId;
-        synchronized (mLock) {
-            // for multiple resource ids associated with the same image, we only write one file
-            resourceId = CacheKeyUtil.getFirstResourceId(key);
-        }
+        // for multiple resource ids associated with the same image, we only write one file
+        String resourceId = CacheKeyUtil.getFirstResourceId(key);
         cacheEvent.setResourceId(resourceId);
         try {
             // getting the file is synchronized
@@ -337,6 +565,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
                 cacheEvent.setItemSize(resource.size())
                           .setCacheSize(mCacheStats.getSize());
                 mCacheEventListener.onWriteSuccess(cacheEvent);
+                maybeScheduleEviction();
                 return resource;
             } finally {
                 if (!inserter.cleanUp()) {
@@ -355,22 +584,22 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
     @Override
     public void remove(CacheKey key) {
-        synchronized (mLock) {
-            try {
-                String resourceId = null;
-                List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-                for (int i = 0; i < resourceIds.size(); i++) {
-                    resourceId = resourceIds.get(i);
+        try {
+            String resourceId = null;
+            List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+            for (int i = 0; i < resourceIds.size(); i++) {
+                resourceId = resourceIds.get(i);
+                synchronized (getResourceLock(resourceId)) {
                     mStorage.remove(resourceId);
-                    mResourceIndex.remove(resourceId);
+                    onRemoved(resourceId);
                 }
-            } catch (IOException e) {
-                mCacheErrorLogger.logError(
-                        CacheErrorLogger.CacheErrorCategory.DELETE_FILE,
-                        TAG,
-                        "delete: " + e.getMessage(),
-                        e);
             }
+        } catch (IOException e) {
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.DELETE_FILE,
+                    TAG,
+                    "delete: " + e.getMessage(),
+                    e);
         }
     }
 
@@ -387,6 +616,9 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
             try {
                 long now = mClock.now();
                 Collection<DiskStorage.Entry> allEntries = mStorage.getEntries();
+                if (mAccessTimes != null) {
+                    allEntries = mAccessTimes.apply(allEntries);
+                }
                 final long cacheSizeBeforeClearance = mCacheStats.getSize();
                 int itemsRemovedCount = 0;
                 long itemsRemovedSize = 0L;
@@ -394,8 +626,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
                     // entry age of zero is disallowed.
                     long entryAgeMs = Math.max(1, Math.abs(now - entry.getTimestamp()));
                     if (entryAgeMs >= cacheExpirationMs) {
-                        long entryRemovedSize = mStorage.remove(entry);
-                        mResourceIndex.remove(entry.getId());
+                        long entryRemovedSize = removeEntry(entry);
                         if (entryRemovedSize > 0) {
                             itemsRemovedCount++;
                             itemsRemovedSize += entryRemovedSize;
@@ -460,6 +691,116 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
         }
     }
 
+    /**
+     * Enforces the size limit like {@link #maybeEvictFilesInCacheDir}, taking the entries to evict
+     * from the eviction queue a batch at a time.
+     */
+    private void evictInBackground() throws IOException {
+        long desiredSize;
+        synchronized (mLock) {
+            boolean calculatedRightNow = maybeUpdateFileCacheSize();
+            updateFileCacheSizeLimit();
+            if (mCacheStats.getSize() <= mCacheSizeLimit) {
+                return;
+            }
+            if (!calculatedRightNow) {
+                mCacheStats.reset();
+                maybeUpdateFileCacheSize();
+            }
+            desiredSize = mCacheSizeLimit * 9 / 10;
+        }
+
+        boolean populated = false;
+        int evictedCount = 0;
+        while (mCacheStats.getSize() > desiredSize) {
+            // listing and sorting the storage is slow: it is done without holding the lock, and the
+            // queue applies the changes made in the meantime
+            if (!mEvictionQueue.isPopulated()) {
+                populateEvictionQueue();
+                populated = true;
+            }
+            synchronized (mLock) {
+                int polledCount = evictBatch(desiredSize);
+                if (polledCount == 0) {
+                    if (populated) {
+                        break;
+                    }
+                    // entries were added to the storage behind the cache's back, list them again
+                    mEvictionQueue.invalidate();
+                }
+                evictedCount += polledCount;
+            }
+        }
+        if (evictedCount > 0) {
+            synchronized (mLock) {
+                mStorage.purgeUnexpectedResources();
+            }
+        }
+    }
+
+    private void populateEvictionQueue() throws IOException {
+        Collection<DiskStorage.Entry> entries;
+        try {
+            entries = mStorage.getEntries();
+        } catch (IOException ioe) {
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.EVICTION,
+                    TAG,
+                    "populateEvictionQueue: " + ioe.getMessage(),
+                    ioe);
+            throw ioe;
+        }
+        if (mAccessTimes != null) {
+            entries = mAccessTimes.apply(entries);
+        }
+        mEvictionQueue.populate(entries, mClock.now() + FUTURE_TIMESTAMP_THRESHOLD_MS);
+    }
+
+    /**
+     * Evicts up to {@link #EVICTION_BATCH_SIZE} entries from the head of the eviction queue.
+     *
+     * @return the number of entries taken from the queue, 0 if it is empty
+     */
+    @GuardedBy("mLock")
+    private int evictBatch(long desiredSize) throws IOException {
+        long cacheSizeBeforeClearance = mCacheStats.getSize();
+        int polledCount = 0;
+        int itemCount = 0;
+        long sumItemSizes = 0L;
+        while (polledCount < EVICTION_BATCH_SIZE &&
+                cacheSizeBeforeClearance - sumItemSizes > desiredSize) {
+            String resourceId = mEvictionQueue.poll();
+            if (resourceId == null) {
+                break;
+            }
+            polledCount++;
+            long deletedSize = 0;
+            synchronized (getResourceLock(resourceId)) {
+                // an entry written again since it was polled is queued again, and stays
+                if (!mEvictionQueue.contains(resourceId)) {
+                    deletedSize = mStorage.remove(resourceId);
+                }
+                if (deletedSize > 0) {
+                    onRemoved(resourceId);
+                }
+            }
+            if (deletedSize > 0) {
+                itemCount++;
+                sumItemSizes += deletedSize;
+                SettableCacheEvent cacheEvent = SettableCacheEvent.obtain()
+                        .setResourceId(resourceId)
+                        .setEvictionReason(CacheEventListener.EvictionReason.CACHE_FULL)
+                        .setItemSize(deletedSize)
+                        .setCacheSize(cacheSizeBeforeClearance - sumItemSizes)
+                        .setCacheLimit(desiredSize);
+                mCacheEventListener.onEviction(cacheEvent);
+                cacheEvent.recycle();
+            }
+        }
+        mCacheStats.increment(-sumItemSizes, -itemCount);
+        return polledCount;
+    }
+
     @GuardedBy("mLock")
     private void evictAboveSize(
             long desiredSize,
@@ -484,8 +825,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
             if (sumItemSizes > (deleteSize)) {
                 break;
             }
-            long deletedSize = mStorage.remove(entry);
-            mResourceIndex.remove(entry.getId());
+            long deletedSize = removeEntry(entry);
             if (deletedSize > 0) {
                 itemCount++;
                 sumItemSizes += deletedSize;
@@ -503,6 +843,60 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
         mStorage.purgeUnexpectedResources();
     }
 
+    private long removeEntry(DiskStorage.Entry entry) throws IOException {
+        long removedSize;
+        synchronized (getResourceLock(entry.getId())) {
+            removedSize = mStorage.remove(AccessTimeTable.unwrap(entry));
+            onRemoved(entry.getId());
+        }
+        return removedSize;
+    }
+
+    /**
+     * Called while holding the lock of the resource.
+     */
+    private void onRemoved(String resourceId) {
+        mResourceIndex.remove(resourceId);
+        if (mAccessTimes != null) {
+            mAccessTimes.forget(resourceId);
+        }
+        if (mEvictionQueue != null) {
+            mEvictionQueue.remove(resourceId);
+        }
+    }
+
+    /**
+     * Writes the accesses recorded since the last call to the storage, by touching the entries
+     * with the time of their last access.
+     */
+    private void flushAccessTimes() {
+        if (mAccessTimes == null) {
+            return;
+        }
+        mAccessTimesPendingSince = UNINITIALIZED;
+        Map<String, Long> accessTimes = mAccessTimes.drainPending();
+        try {
+            for (Map.Entry<String, Long> accessTime : accessTimes.entrySet()) {
+                String resourceId = accessTime.getKey();
+                synchronized (getResourceLock(resourceId)) {
+                    if (mStorage instanceof AccessTimeDiskStorage) {
+                        ((AccessTimeDiskStorage) mStorage).touch(resourceId, accessTime.getValue());
+                    }
+                    else {
+                        mStorage.touch(resourceId, null);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            // the in-memory times still order eviction until the process dies
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+                    TAG,
+                    "flushAccessTimes: " + ioe.getMessage(),
+                    ioe);
+        }
+    }
+
     /**
      * If any file timestamp is in the future (beyond now + FUTURE_TIMESTAMP_THRESHOLD_MS), we will
      * set its effective timestamp to 0 (the beginning of unix time), thus sending it to the head of
@@ -512,6 +906,9 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
      * changes, etc.
      */
     private Collection<DiskStorage.Entry> getSortedEntries(Collection<DiskStorage.Entry> allEntries) {
+        if (mAccessTimes != null) {
+            allEntries = mAccessTimes.apply(allEntries);
+        }
         final long threshold = mClock.now() + DiskStorageCache.FUTURE_TIMESTAMP_THRESHOLD_MS;
         ArrayList<DiskStorage.Entry> sortedList = new ArrayList<>(allEntries.size());
         ArrayList<DiskStorage.Entry> listToSort = new ArrayList<>(allEntries.size());
@@ -565,6 +962,12 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
             try {
                 mStorage.clearAll();
                 mResourceIndex.clear();
+                if (mAccessTimes != null) {
+                    mAccessTimes.clear();
+                }
+                if (mEvictionQueue != null) {
+                    mEvictionQueue.clear();
+                }
                 mCacheEventListener.onCleared();
             } catch (IOException ioe) {
                 mCacheErrorLogger.logError(
@@ -579,45 +982,44 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
     @Override
     public boolean hasKeySync(CacheKey key) {
-        synchronized (mLock) {
-            String resourceId = null;
-            List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-            for (int i = 0; i < resourceIds.size(); i++) {
-                resourceId = resourceIds.get(i);
-                if (mResourceIndex.contains(resourceId)) {
-                    return true;
-                }
+        String resourceId = null;
+        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+        for (int i = 0; i < resourceIds.size(); i++) {
+            resourceId = resourceIds.get(i);
+            if (mResourceIndex.contains(resourceId)) {
+                return true;
             }
-            return false;
         }
+        return false;
     }
 
     @Override
     public boolean hasKey(final CacheKey key) {
-        synchronized (mLock) {
-            if (hasKeySync(key)) {
-                return true;
-            }
-            try {
-                String resourceId = null;
-                List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-                for (int i = 0; i < resourceIds.size(); i++) {
-                    resourceId = resourceIds.get(i);
+        if (hasKeySync(key)) {
+            return true;
+        }
+        try {
+            String resourceId = null;
+            List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+            for (int i = 0; i < resourceIds.size(); i++) {
+                resourceId = resourceIds.get(i);
+                synchronized (getResourceLock(resourceId)) {
                     if (mStorage.contains(resourceId, key)) {
                         mResourceIndex.add(resourceId);
                         return true;
                     }
                 }
-                return false;
-            } catch (IOException e) {
-                return false;
             }
+            return false;
+        } catch (IOException e) {
+            return false;
         }
     }
 
     @Override
     public void trimToMinimum() {
         synchronized (mLock) {
+            flushAccessTimes();
             maybeUpdateFileCacheSize();
             long cacheSize = mCacheStats.getSize();
             if (mCacheSizeLimitMinimum <= 0 || cacheSize <= 0 || cacheSize < mCacheSizeLimitMinimum) {
@@ -693,32 +1095,64 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
         else {
             tempResourceIndex = null;
         }
+        // the storage is listed without blocking inserts, which are reconciled afterwards
+        mStatsLock.writeLock().lock();
+        mInsertsDuringRecount = new ConcurrentHashMap<>();
+        mStatsLock.writeLock().unlock();
+        Collection<DiskStorage.Entry> entries;
         try {
-            Collection<DiskStorage.Entry> entries = mStorage.getEntries();
-            for (DiskStorage.Entry entry : entries) {
-                count++;
-                size += entry.getSize();
-
-                //Check if any files have a future timestamp, beyond our threshold
-                if (entry.getTimestamp() > timeThreshold) {
-                    foundFutureTimestamp = true;
-                    numFutureFiles++;
-                    sizeFutureFiles += entry.getSize();
-                    maxTimeDelta = Math.max(entry.getTimestamp() - now, maxTimeDelta);
+            entries = mStorage.getEntries();
+        } catch (IOException ioe) {
+            mStatsLock.writeLock().lock();
+            mInsertsDuringRecount = null;
+            mStatsLock.writeLock().unlock();
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+                    TAG,
+                    "calcFileCacheSize: " + ioe.getMessage(),
+                    ioe);
+            return false;
+        }
+        for (DiskStorage.Entry entry : entries) {
+            count++;
+            size += entry.getSize();
+
+            //Check if any files have a future timestamp, beyond our threshold
+            if (entry.getTimestamp() > timeThreshold) {
+                foundFutureTimestamp = true;
+                numFutureFiles++;
+                sizeFutureFiles += entry.getSize();
+                maxTimeDelta = Math.max(entry.getTimestamp() - now, maxTimeDelta);
+            }
+            else if (mIndexPopulateAtStartupEnabled) {
+                tempResourceIndex.add(entry.getId());
+            }
+        }
+        if (foundFutureTimestamp) {
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.READ_INVALID_ENTRY,
+                    TAG,
+                    "Future timestamp found in " + numFutureFiles +
+                            " files , with a total size of " + sizeFutureFiles +
+                            " bytes, and a maximum time delta of " + maxTimeDelta + "ms",
+                    null);
+        }
+        mStatsLock.writeLock().lock();
+        try {
+            Map<String, Long> inserts = mInsertsDuringRecount;
+            if (!inserts.isEmpty()) {
+                // entries inserted too late to be listed are counted and indexed here
+                for (DiskStorage.Entry entry : entries) {
+                    inserts.remove(entry.getId());
                 }
-                else if (mIndexPopulateAtStartupEnabled) {
-                    tempResourceIndex.add(entry.getId());
+                for (Map.Entry<String, Long> insert : inserts.entrySet()) {
+                    count++;
+                    size += insert.getValue();
+                    if (mIndexPopulateAtStartupEnabled) {
+                        tempResourceIndex.add(insert.getKey());
+                    }
                 }
             }
-            if (foundFutureTimestamp) {
-                mCacheErrorLogger.logError(
-                        CacheErrorLogger.CacheErrorCategory.READ_INVALID_ENTRY,
-                        TAG,
-                        "Future timestamp found in " + numFutureFiles +
-                                " files , with a total size of " + sizeFutureFiles +
-                                " bytes, and a maximum time delta of " + maxTimeDelta + "ms",
-                        null);
-            }
             if (mCacheStats.getCount() != count || mCacheStats.getSize() != size) {
                 if (mIndexPopulateAtStartupEnabled && mResourceIndex != tempResourceIndex) {
                     mIndexReady = true;
@@ -729,13 +1163,9 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
                 }
                 mCacheStats.set(size, count);
             }
-        } catch (IOException ioe) {
-            mCacheErrorLogger.logError(
-                    CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
-                    TAG,
-                    "calcFileCacheSize: " + ioe.getMessage(),
-                    ioe);
-            return false;
+        } finally {
+            mInsertsDuringRecount = null;
+            mStatsLock.writeLock().unlock();
         }
         mCacheSizeLastUpdateTime = now;
         return true;
@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Append-only journal that keeps an index of the entries of a disk storage, so that listing the
+ * entries does not require walking the directory tree and querying every file.
+ * <p>
+ * <p> Each line of the journal records one operation: an insertion with the size and timestamp
+ * of the entry, an access with the new timestamp, or a removal. Replaying the journal at startup
+ * rebuilds the index. The journal is rewritten from the index once it holds many more records
+ * than there are entries.
+ * <p>
+ * <p> Access records only move the timestamps used for eviction, so they are not written one by
+ * one. They are written in batches, together with the next insertion or removal, when the entries
+ * are listed, or once enough of them are pending. A crash loses at most the latest accesses.
+ * <p>
+ * <p> Insertions are recorded before the entry is committed, so that a crash never leaves an entry
+ * on disk that the index does not know of. An entry indexed but missing on disk is dropped once it
+ * is read, touched or evicted.
+ * <p>
+ * <p> If the journal is missing or damaged (e.g. the device lost power in the middle of a write)
+ * the index is not ready. The storage then falls back to scanning the directory and hands the
+ * result to {@link #rebuild}, which writes a fresh journal.
+ */
+@ThreadSafe
+class DiskStorageJournal {
+
+    private static final Class<?> TAG = DiskStorageJournal.class;
+
+    @VisibleForTesting
+    static final String JOURNAL_FILE_NAME = "journal";
+    @VisibleForTesting
+    static final String JOURNAL_TEMP_FILE_NAME = "journal.tmp";
+    @VisibleForTesting
+    static final String HEADER = "fresco.disk.journal 1";
+    private static final String INSERT = "A";
+    private static final String ACCESS = "T";
+    private static final String REMOVE = "R";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // never rewrite a journal that is smaller than this number of records
+    private static final int MIN_RECORDS_TO_COMPACT = 2000;
+    // number of pending access records that are written without waiting for another record
+    private static final int MAX_PENDING_ACCESSES = 64;
+
+    private final File mJournalFile;
+    private final File mJournalTempFile;
+    private final CacheErrorLogger mCacheErrorLogger;
+
+    @GuardedBy("this")
+    private final Map<String, IndexEntry> mIndex;
+    // ids removed while the index was being rebuilt, so the scan does not bring them back
+    @GuardedBy("this")
+    private final Set<String> mRemovedWhileNotReady;
+    // ids accessed since the last write of the journal, their timestamps are in the index
+    @GuardedBy("this")
+    private final Set<String> mPendingAccesses;
+    @GuardedBy("this")
+    private boolean mLoadAttempted;
+    @GuardedBy("this")
+    private boolean mReady;
+    @GuardedBy("this")
+    @Nullable
+    private Writer mWriter;
+    @GuardedBy("this")
+    private int mRecordCount;
+
+    DiskStorageJournal(File directory, CacheErrorLogger cacheErrorLogger) {
+        Preconditions.checkNotNull(directory);
+        mJournalFile = new File(directory, JOURNAL_FILE_NAME);
+        mJournalTempFile = new File(directory, JOURNAL_TEMP_FILE_NAME);
+        mCacheErrorLogger = cacheErrorLogger;
+        mIndex = new HashMap<>();
+        mRemovedWhileNotReady = new HashSet<>();
+        mPendingAccesses = new HashSet<>();
+    }
+
+    /**
+     * Returns true if the given file is one of the files maintained by the journal.
+     */
+    boolean isJournalFile(File file) {
+        return mJournalFile.equals(file) || mJournalTempFile.equals(file);
+    }
+
+    /**
+     * Gets a copy of the indexed entries, or null if the index is not ready and the caller has to
+     * scan the storage and call {@link #rebuild}. Writes the pending access records.
+     */
+    @Nullable
+    synchronized List<IndexEntry> getEntries() {
+        maybeLoad();
+        if (!mReady) {
+            return null;
+        }
+        if (!mPendingAccesses.isEmpty()) {
+            append(null);
+        }
+        return new ArrayList<>(mIndex.values());
+    }
+
+    /**
+     * Replaces the index with the result of a full scan of the storage and writes a new journal.
+     * <p>
+     * <p> Insertions and removals recorded since the index stopped being ready take precedence
+     * over the scanned entries.
+     */
+    synchronized void rebuild(Collection<IndexEntry> scannedEntries) {
+        for (IndexEntry entry : scannedEntries) {
+            if (!mRemovedWhileNotReady.contains(entry.id) && !mIndex.containsKey(entry.id)) {
+                mIndex.put(entry.id, entry);
+            }
+        }
+        mRemovedWhileNotReady.clear();
+        mPendingAccesses.clear();
+        mLoadAttempted = true;
+        mReady = rewrite();
+    }
+
+    /**
+     * Records an entry about to be committed. If the commit fails, the caller records the removal
+     * of the entry.
+     */
+    synchronized void onInserted(String id, long size, long timestamp) {
+        maybeLoad();
+        mIndex.put(id, new IndexEntry(id, size, timestamp));
+        mRemovedWhileNotReady.remove(id);
+        mPendingAccesses.remove(id);
+        append(INSERT + ' ' + id + ' ' + size + ' ' + timestamp);
+    }
+
+    synchronized void onAccessed(String id, long timestamp) {
+        maybeLoad();
+        IndexEntry entry = mIndex.get(id);
+        if (entry != null) {
+            mIndex.put(id, new IndexEntry(id, entry.size, timestamp));
+            mPendingAccesses.add(id);
+            if (mPendingAccesses.size() >= MAX_PENDING_ACCESSES) {
+                append(null);
+            }
+        }
+    }
+
+    synchronized void onRemoved(String id) {
+        maybeLoad();
+        if (!mReady) {
+            mRemovedWhileNotReady.add(id);
+        }
+        mPendingAccesses.remove(id);
+        if (mIndex.remove(id) != null) {
+            append(REMOVE + ' ' + id);
+        }
+    }
+
+    /**
+     * Empties the index. To be called when all the entries of the storage were deleted.
+     */
+    synchronized void clear() {
+        mIndex.clear();
+        mRemovedWhileNotReady.clear();
+        mPendingAccesses.clear();
+        mLoadAttempted = true;
+        mReady = rewrite();
+    }
+
+    @GuardedBy("this")
+    private void maybeLoad() {
+        if (mLoadAttempted) {
+            return;
+        }
+        mLoadAttempted = true;
+        if (!mJournalFile.exists()) {
+            return;
+        }
+        try {
+            readJournal();
+            mWriter = openWriter(true);
+            mReady = true;
+        } catch (IOException ioe) {
+            FLog.w(TAG, "Disk storage journal is unusable, it will be rebuilt", ioe);
+            mIndex.clear();
+            mRecordCount = 0;
+            closeWriter();
+            mJournalFile.delete();
+        }
+    }
+
+    @GuardedBy("this")
+    private void readJournal() throws IOException {
+        if (!endsWithNewLine(mJournalFile)) {
+            throw new IOException("Truncated journal");
+        }
+        BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile), UTF_8));
+        try {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("Unexpected journal header");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                replay(line);
+                mRecordCount++;
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @GuardedBy("this")
+    private void replay(String line) throws IOException {
+        String[] parts = line.split(" ");
+        try {
+            if (INSERT.equals(parts[0]) && parts.length == 4) {
+                mIndex.put(
+                        parts[1],
+                        new IndexEntry(parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3])));
+            }
+            else if (ACCESS.equals(parts[0]) && parts.length == 3) {
+                IndexEntry entry = mIndex.get(parts[1]);
+                if (entry != null) {
+                    mIndex.put(
+                            parts[1],
+                            new IndexEntry(parts[1], entry.size, Long.parseLong(parts[2])));
+                }
+            }
+            else if (REMOVE.equals(parts[0]) && parts.length == 2) {
+                mIndex.remove(parts[1]);
+            }
+            else {
+                throw new IOException("Unexpected journal line: " + line);
+            }
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Unexpected journal line: " + line);
+        }
+    }
+
+    private static boolean endsWithNewLine(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            long length = randomAccessFile.length();
+            if (length == 0) {
+                return false;
+            }
+            randomAccessFile.seek(length - 1);
+            return randomAccessFile.read() == '\n';
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Writes the pending access records followed by the given record, if any.
+     */
+    @GuardedBy("this")
+    private void append(@Nullable String record) {
+        if (!mReady || mWriter == null) {
+            mPendingAccesses.clear();
+            return;
+        }
+        try {
+            for (String id : mPendingAccesses) {
+                mWriter.write(ACCESS + ' ' + id + ' ' + mIndex.get(id).timestamp);
+                mWriter.write('\n');
+                mRecordCount++;
+            }
+            mPendingAccesses.clear();
+            if (record != null) {
+                mWriter.write(record);
+                mWriter.write('\n');
+                mRecordCount++;
+            }
+            mWriter.flush();
+        } catch (IOException ioe) {
+            onWriteFailure("append", ioe);
+            return;
+        }
+        if (mRecordCount >= MIN_RECORDS_TO_COMPACT && mRecordCount > 2 * mIndex.size()) {
+            mReady = rewrite();
+        }
+    }
+
+    /**
+     * Writes the current index to a new journal, replacing the old one.
+     *
+     * @return true if the new journal is in place
+     */
+    @GuardedBy("this")
+    private boolean rewrite() {
+        closeWriter();
+        // the new journal has the latest timestamps of all the entries
+        mPendingAccesses.clear();
+        try {
+            // the directory is gone after the storage was cleared
+            File directory = mJournalFile.getParentFile();
+            if (directory != null && !directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(mJournalTempFile), UTF_8));
+            try {
+                writer.write(HEADER);
+                writer.write('\n');
+                for (IndexEntry entry : mIndex.values()) {
+                    writer.write(INSERT + ' ' + entry.id + ' ' + entry.size + ' ' + entry.timestamp);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+            if (!mJournalTempFile.renameTo(mJournalFile)) {
+                throw new IOException("Could not rename " + mJournalTempFile);
+            }
+            mRecordCount = mIndex.size();
+            mWriter = openWriter(true);
+            return true;
+        } catch (IOException ioe) {
+            onWriteFailure("rewrite", ioe);
+            return false;
+        }
+    }
+
+    @GuardedBy("this")
+    private Writer openWriter(boolean append) throws IOException {
+        return new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(mJournalFile, append), UTF_8));
+    }
+
+    /**
+     * A journal that could not be written no longer matches the index. Drop it, the next listing
+     * of the entries scans the storage and rebuilds it.
+     */
+    @GuardedBy("this")
+    private void onWriteFailure(String method, IOException ioe) {
+        mCacheErrorLogger.logError(
+                CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+                TAG,
+                method + ": " + ioe.getMessage(),
+                ioe);
+        closeWriter();
+        mJournalFile.delete();
+        mJournalTempFile.delete();
+        mIndex.clear();
+        mPendingAccesses.clear();
+        mRecordCount = 0;
+        mReady = false;
+    }
+
+    @GuardedBy("this")
+    private void closeWriter() {
+        if (mWriter != null) {
+            try {
+                mWriter.close();
+            } catch (IOException ioe) {
+                FLog.w(TAG, "Failed to close the disk storage journal", ioe);
+            }
+            mWriter = null;
+        }
+    }
+
+    /**
+     * An entry of the index.
+     */
+    static class IndexEntry {
+        final String id;
+        final long size;
+        final long timestamp;
+
+        IndexEntry(String id, long size, long timestamp) {
+            this.id = id;
+            this.size = size;
+            this.timestamp = timestamp;
+        }
+    }
+}
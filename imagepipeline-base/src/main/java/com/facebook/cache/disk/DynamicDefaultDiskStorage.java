@@ -27,13 +27,15 @@ import javax.annotation.Nullable;
 /**
  * A supplier of a DiskStorage concrete implementation.
  */
-public class DynamicDefaultDiskStorage implements DiskStorage {
+public class DynamicDefaultDiskStorage implements AccessTimeDiskStorage {
     private static final Class<?> TAG = DynamicDefaultDiskStorage.class;
 
     private final int mVersion;
     private final Supplier<File> mBaseDirectoryPathSupplier;
     private final String mBaseDirectoryName;
     private final CacheErrorLogger mCacheErrorLogger;
+    private final boolean mJournalEnabled;
+    private final boolean mTouchOnRead;
 
     @VisibleForTesting
     volatile State mCurrentState;
@@ -43,7 +45,44 @@ public class DynamicDefaultDiskStorage implements DiskStorage {
             Supplier<File> baseDirectoryPathSupplier,
             String baseDirectoryName,
             CacheErrorLogger cacheErrorLogger) {
+        this(version, baseDirectoryPathSupplier, baseDirectoryName, cacheErrorLogger, false);
+    }
+
+    /**
+     * @param journalEnabled whether the created {@link DefaultDiskStorage} persists an index of its
+     *                       entries, see {@link DefaultDiskStorage#DefaultDiskStorage(File, int,
+     *                       CacheErrorLogger, boolean)}
+     */
+    public DynamicDefaultDiskStorage(
+            int version,
+            Supplier<File> baseDirectoryPathSupplier,
+            String baseDirectoryName,
+            CacheErrorLogger cacheErrorLogger,
+            boolean journalEnabled) {
+        this(
+                version,
+                baseDirectoryPathSupplier,
+                baseDirectoryName,
+                cacheErrorLogger,
+                journalEnabled,
+                true);
+    }
+
+    /**
+     * @param touchOnRead whether reading an entry of the created {@link DefaultDiskStorage}
+     *                    updates its timestamp, see {@link DefaultDiskStorage#DefaultDiskStorage(
+     *                    File, int, CacheErrorLogger, boolean, boolean)}
+     */
+    public DynamicDefaultDiskStorage(
+            int version,
+            Supplier<File> baseDirectoryPathSupplier,
+            String baseDirectoryName,
+            CacheErrorLogger cacheErrorLogger,
+            boolean journalEnabled,
+            boolean touchOnRead) {
         mVersion = version;
+        mJournalEnabled = journalEnabled;
+        mTouchOnRead = touchOnRead;
         mCacheErrorLogger = cacheErrorLogger;
         mBaseDirectoryPathSupplier = baseDirectoryPathSupplier;
         mBaseDirectoryName = baseDirectoryName;
@@ -92,6 +131,14 @@ public class DynamicDefaultDiskStorage implements DiskStorage {
         return get().touch(resourceId, debugInfo);
     }
 
+    @Override
+    public boolean touch(String resourceId, long timestamp) throws IOException {
+        DiskStorage delegate = get();
+        return delegate instanceof AccessTimeDiskStorage ?
+                ((AccessTimeDiskStorage) delegate).touch(resourceId, timestamp) :
+                delegate.touch(resourceId, null);
+    }
+
     @Override
     public void purgeUnexpectedResources() {
         try {
@@ -169,7 +216,12 @@ public class DynamicDefaultDiskStorage implements DiskStorage {
     private void createStorage() throws IOException {
         File rootDirectory = new File(mBaseDirectoryPathSupplier.get(), mBaseDirectoryName);
         createRootDirectoryIfNecessary(rootDirectory);
-        DiskStorage storage = new DefaultDiskStorage(rootDirectory, mVersion, mCacheErrorLogger);
+        DiskStorage storage = new DefaultDiskStorage(
+                rootDirectory,
+                mVersion,
+                mCacheErrorLogger,
+                mJournalEnabled,
+                mTouchOnRead);
         mCurrentState = new State(rootDirectory, storage);
     }
 
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.cache.common.CacheKey;
+
+/**
+ * Decides which new entries are worth writing to a disk cache.
+ * <p>
+ * <p> Every write costs I/O and pushes other entries towards eviction, which does not pay off for
+ * resources that are only ever requested once. Policies are asked from the threads that request
+ * the writes and must be thread safe.
+ */
+public interface EntryAdmissionPolicy {
+
+    /**
+     * @param key  the key the entry would be stored under
+     * @param size the size of the entry in bytes
+     * @return whether the entry should be written to the cache
+     */
+    boolean shouldAdmit(CacheKey key, long size);
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Entries of a disk cache in the order they should be evicted, kept up to date as entries are
+ * inserted, read and removed so that eviction does not need to list and sort the storage.
+ * <p>
+ * <p> The queue starts out unpopulated: it only knows the entries it was told about. Populating it
+ * lists the storage once; the listing is sorted without holding the lock of the queue, and the
+ * changes made in the meantime are applied on top of it. Every operation other than
+ * {@link #populate} takes logarithmic time.
+ * <p>
+ * <p> The queue only keeps the id, size and timestamp of an entry. The comparator is given a view
+ * of them that looks the resource up from the storage if it asks for it.
+ */
+@ThreadSafe
+class EvictionQueue {
+
+    private final DiskStorage mStorage;
+    private final Comparator<QueuedEntry> mOrder;
+
+    @GuardedBy("this")
+    private TreeSet<QueuedEntry> mQueue;
+    @GuardedBy("this")
+    private Map<String, QueuedEntry> mEntries;
+    @GuardedBy("this")
+    private boolean mPopulated;
+    // changes to entries the queue does not know about, recorded until it is populated
+    @GuardedBy("this")
+    private final Set<String> mRemovedIds = new HashSet<>();
+    @GuardedBy("this")
+    private final Map<String, Long> mAccessTimes = new HashMap<>();
+
+    EvictionQueue(final EntryEvictionComparator comparator, DiskStorage storage) {
+        mStorage = storage;
+        mOrder = new Comparator<QueuedEntry>() {
+            @Override
+            public int compare(QueuedEntry lhs, QueuedEntry rhs) {
+                int result = comparator.compare(lhs.mComparedEntry, rhs.mComparedEntry);
+                return result != 0 ? result : lhs.mId.compareTo(rhs.mId);
+            }
+        };
+        mQueue = new TreeSet<>(mOrder);
+        mEntries = new HashMap<>();
+    }
+
+    synchronized boolean isPopulated() {
+        return mPopulated;
+    }
+
+    /**
+     * Fills the queue with the entries listed by the storage. Entries with a timestamp beyond the
+     * given threshold are queued with a timestamp of 0, so that they are evicted first.
+     * <p>
+     * <p> The entries may be listed without holding any lock of the cache. Does nothing if the
+     * queue was populated or cleared since they were listed.
+     */
+    void populate(Collection<DiskStorage.Entry> entries, long futureTimestampThreshold) {
+        TreeSet<QueuedEntry> queue = new TreeSet<>(mOrder);
+        Map<String, QueuedEntry> entriesById = new HashMap<>(entries.size());
+        for (DiskStorage.Entry entry : entries) {
+            long timestamp = entry.getTimestamp();
+            QueuedEntry queuedEntry = new QueuedEntry(
+                    entry.getId(),
+                    entry.getSize(),
+                    timestamp > futureTimestampThreshold ? 0 : timestamp);
+            putEntry(queue, entriesById, queuedEntry);
+        }
+        synchronized (this) {
+            if (mPopulated) {
+                return;
+            }
+            for (String resourceId : mRemovedIds) {
+                QueuedEntry listed = entriesById.remove(resourceId);
+                if (listed != null) {
+                    queue.remove(listed);
+                }
+            }
+            for (Map.Entry<String, Long> access : mAccessTimes.entrySet()) {
+                QueuedEntry listed = entriesById.get(access.getKey());
+                if (listed != null) {
+                    putEntry(
+                            queue,
+                            entriesById,
+                            new QueuedEntry(listed.mId, listed.mSize, access.getValue()));
+                }
+            }
+            for (QueuedEntry known : mEntries.values()) {
+                putEntry(queue, entriesById, known);
+            }
+            mQueue = queue;
+            mEntries = entriesById;
+            mRemovedIds.clear();
+            mAccessTimes.clear();
+            mPopulated = true;
+        }
+    }
+
+    /**
+     * Adds an entry that was just written, or replaces the previous version of it.
+     */
+    synchronized void add(String resourceId, long size, long timestamp) {
+        putEntry(mQueue, mEntries, new QueuedEntry(resourceId, size, timestamp));
+        mRemovedIds.remove(resourceId);
+        mAccessTimes.remove(resourceId);
+    }
+
+    /**
+     * Moves an entry to the position given by the time it was last accessed.
+     */
+    synchronized void onAccessed(String resourceId, long timestamp) {
+        QueuedEntry entry = mEntries.get(resourceId);
+        if (entry != null) {
+            putEntry(mQueue, mEntries, new QueuedEntry(resourceId, entry.mSize, timestamp));
+        }
+        else if (!mPopulated) {
+            mAccessTimes.put(resourceId, timestamp);
+        }
+    }
+
+    synchronized void remove(String resourceId) {
+        QueuedEntry entry = mEntries.remove(resourceId);
+        if (entry != null) {
+            mQueue.remove(entry);
+        }
+        if (!mPopulated) {
+            mRemovedIds.add(resourceId);
+            mAccessTimes.remove(resourceId);
+        }
+    }
+
+    synchronized boolean contains(String resourceId) {
+        return mEntries.containsKey(resourceId);
+    }
+
+    /**
+     * Removes the entry to evict next from the queue.
+     *
+     * @return the id of the entry, or null if the queue is empty
+     */
+    @Nullable
+    synchronized String poll() {
+        QueuedEntry entry = mQueue.pollFirst();
+        if (entry == null) {
+            return null;
+        }
+        mEntries.remove(entry.mId);
+        return entry.mId;
+    }
+
+    synchronized int size() {
+        return mQueue.size();
+    }
+
+    /**
+     * Empties the queue after the storage was cleared.
+     */
+    synchronized void clear() {
+        reset();
+        mPopulated = true;
+    }
+
+    /**
+     * Forgets all entries, so that the queue is populated again from the storage.
+     */
+    synchronized void invalidate() {
+        reset();
+        mPopulated = false;
+    }
+
+    @GuardedBy("this")
+    private void reset() {
+        mQueue = new TreeSet<>(mOrder);
+        mEntries = new HashMap<>();
+        mRemovedIds.clear();
+        mAccessTimes.clear();
+    }
+
+    private static void putEntry(
+            TreeSet<QueuedEntry> queue,
+            Map<String, QueuedEntry> entriesById,
+            QueuedEntry entry) {
+        QueuedEntry previous = entriesById.put(entry.mId, entry);
+        if (previous != null) {
+            queue.remove(previous);
+        }
+        queue.add(entry);
+    }
+
+    /**
+     * Entry as known to the queue. Its timestamp and size must not change while it is queued.
+     */
+    private class QueuedEntry {
+        final String mId;
+        final long mSize;
+        final long mTimestamp;
+        final DiskStorage.Entry mComparedEntry;
+
+        QueuedEntry(String id, long size, long timestamp) {
+            mId = id;
+            mSize = size;
+            mTimestamp = timestamp;
+            mComparedEntry = new ComparedEntry(this);
+        }
+    }
+
+    /**
+     * Queued entry as given to the comparator.
+     */
+    private class ComparedEntry implements DiskStorage.Entry {
+        private final QueuedEntry mEntry;
+
+        ComparedEntry(QueuedEntry entry) {
+            mEntry = entry;
+        }
+
+        @Override
+        public String getId() {
+            return mEntry.mId;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mEntry.mTimestamp;
+        }
+
+        @Override
+        public long getSize() {
+            return mEntry.mSize;
+        }
+
+        @Override
+        @Nullable
+        public BinaryResource getResource() {
+            try {
+                return mStorage.getResource(mEntry.mId, null);
+            } catch (IOException ioe) {
+                // the entry is gone or unreadable, which is for eviction to find out
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,1339 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileRegionBinaryResource;
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.file.FileUtils;
+import com.facebook.common.internal.CountingOutputStream;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.time.Clock;
+import com.facebook.common.time.SystemClock;
+import com.facebook.common.util.ByteConstants;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Disk storage that appends its entries to a few large segment files ("packs") instead of
+ * keeping one file per entry.
+ * <p>
+ * <p> A segment is a sequence of records: an entry with its id, timestamp and content, the
+ * removal of an entry, or an access that updates the timestamp of an entry. Records are only
+ * ever appended to the newest segment, which is closed once it reaches a maximum size. The
+ * location of every entry is indexed in memory; the index is rebuilt the first time the storage
+ * is used by reading the headers of the records. Getting an entry is a lookup in the index: no
+ * file is opened or touched.
+ * <p>
+ * <p> An inserted entry is written to a temporary file first. Committing it reserves room for it
+ * at the end of the newest segment, then copies it there without holding the lock, so that other
+ * operations and other commits are not blocked by the copy. Its header is written last, and the
+ * entry is indexed once it is complete.
+ * <p>
+ * <p> Content is served as {@link FileRegionBinaryResource}s, which are read with positioned
+ * reads or mapped as slices of their segment. Removing an entry leaves its bytes in place. Once
+ * less than half of a closed segment belongs to live entries, the segment is compacted on the
+ * given executor: its live entries are copied to the newest segment and the segment is deleted.
+ * Like a file deleted by eviction in {@link DefaultDiskStorage}, a resource obtained before its
+ * segment was deleted can no longer be opened; streams and mappings already open are not
+ * affected.
+ * <p>
+ * <p> Accesses are buffered in memory and written with the next insertion, so the timestamps of
+ * entries read since then are lost if the process dies. The content of a record is not
+ * checksummed: a record cut short by a crash is dropped, together with anything after it. So is
+ * an entry whose room was reserved but not written yet.
+ * <p>
+ * <p> Entries left by {@link DefaultDiskStorage} in the same root directory with the same version
+ * are imported into the segments on the given executor once the storage is first used, and their
+ * files deleted. Each is found once it is imported.
+ */
+@ThreadSafe
+public class PackFileDiskStorage implements AccessTimeDiskStorage {
+
+    private static final Class<?> TAG = PackFileDiskStorage.class;
+
+    @VisibleForTesting
+    static final long DEFAULT_MAX_SEGMENT_SIZE = 8 * ByteConstants.MB;
+    private static final String PACK_DIRECTORY_PREFIX = "pack1";
+    private static final String SEGMENT_FILE_EXTENSION = ".pack";
+    private static final String LEGACY_CONTENT_FILE_EXTENSION = ".cnt";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // every record starts with its type and the length of the id, followed by the id
+    private static final int ENTRY_RECORD = 0x46504b45;
+    private static final int ACCESS_RECORD = 0x46504b54;
+    private static final int REMOVE_RECORD = 0x46504b52;
+    // fills the room of an entry that could not be written
+    private static final int FREE_RECORD = 0x46504b46;
+    private static final int RECORD_HEADER_SIZE = 6;
+    // an entry then has a timestamp and the length of its content, an access a timestamp
+    private static final int ENTRY_FIELDS_SIZE = 12;
+    private static final int ACCESS_FIELDS_SIZE = 8;
+    private static final int FREE_FIELDS_SIZE = 4;
+    private static final int MAX_ID_LENGTH = 0xFFFF;
+    // accesses are written once this many are buffered, even if nothing is inserted
+    private static final int MAX_PENDING_ACCESSES = 512;
+    private static final int COPY_BUFFER_SIZE = 16 * ByteConstants.KB;
+    private static final String TEMP_FILE_PREFIX = "entry.";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    private final File mRootDirectory;
+    private final File mPackDirectory;
+    private final File mLegacyVersionDirectory;
+    private final boolean mIsExternal;
+    private final CacheErrorLogger mCacheErrorLogger;
+    private final Executor mCompactionExecutor;
+    private final long mMaxSegmentSize;
+    private final Clock mClock;
+
+    @GuardedBy("this")
+    private final Map<String, Location> mIndex = new HashMap<>();
+    @GuardedBy("this")
+    private final TreeMap<Long, Segment> mSegments = new TreeMap<>();
+    @GuardedBy("this")
+    private final Map<String, Long> mPendingAccesses = new HashMap<>();
+    @GuardedBy("this")
+    private boolean mLoaded;
+    @GuardedBy("this")
+    @Nullable
+    private Segment mActiveSegment;
+    @GuardedBy("this")
+    private boolean mImportingLegacyEntries;
+    // incremented when the storage is cleared, so that a compaction started before stops
+    @GuardedBy("this")
+    private int mGeneration;
+
+    /**
+     * @param rootDirectory      root directory to create all content under
+     * @param version            version of the format used in the entries. Entries saved with a
+     *                           different version are not read and are purged eventually.
+     * @param cacheErrorLogger   logger for various events
+     * @param compactionExecutor executor to compact segments and import legacy entries on
+     */
+    public PackFileDiskStorage(
+            File rootDirectory,
+            int version,
+            CacheErrorLogger cacheErrorLogger,
+            Executor compactionExecutor) {
+        this(
+                rootDirectory,
+                version,
+                cacheErrorLogger,
+                compactionExecutor,
+                DEFAULT_MAX_SEGMENT_SIZE,
+                SystemClock.get());
+    }
+
+    @VisibleForTesting
+    PackFileDiskStorage(
+            File rootDirectory,
+            int version,
+            CacheErrorLogger cacheErrorLogger,
+            Executor compactionExecutor,
+            long maxSegmentSize,
+            Clock clock) {
+        mRootDirectory = Preconditions.checkNotNull(rootDirectory);
+        mPackDirectory = new File(rootDirectory, getPackSubdirectoryName(version));
+        mLegacyVersionDirectory =
+                new File(rootDirectory, DefaultDiskStorage.getVersionSubdirectoryName(version));
+        mIsExternal = DefaultDiskStorage.isExternal(rootDirectory, cacheErrorLogger);
+        mCacheErrorLogger = cacheErrorLogger;
+        mCompactionExecutor = Preconditions.checkNotNull(compactionExecutor);
+        mMaxSegmentSize = maxSegmentSize;
+        mClock = clock;
+    }
+
+    @VisibleForTesting
+    static String getPackSubdirectoryName(int version) {
+        return String.format((Locale) null, "%s.%d", PACK_DIRECTORY_PREFIX, version);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public boolean isExternal() {
+        return mIsExternal;
+    }
+
+    @Override
+    public String getStorageName() {
+        String directoryName = mRootDirectory.getAbsolutePath();
+        return "_" + directoryName.substring(directoryName.lastIndexOf('/') + 1)
+                + "_" + directoryName.hashCode();
+    }
+
+    @Override
+    public synchronized BinaryResource getResource(String resourceId, Object debugInfo)
+            throws IOException {
+        ensureLoaded();
+        Location location = mIndex.get(resourceId);
+        if (location == null) {
+            return null;
+        }
+        onAccessed(resourceId, location, mClock.now());
+        return location.toResource();
+    }
+
+    @Override
+    public synchronized boolean contains(String resourceId, Object debugInfo) throws IOException {
+        ensureLoaded();
+        return mIndex.containsKey(resourceId);
+    }
+
+    @Override
+    public synchronized boolean touch(String resourceId, Object debugInfo) throws IOException {
+        ensureLoaded();
+        Location location = mIndex.get(resourceId);
+        if (location == null) {
+            return false;
+        }
+        onAccessed(resourceId, location, mClock.now());
+        return true;
+    }
+
+    @Override
+    public synchronized boolean touch(String resourceId, long timestamp) throws IOException {
+        ensureLoaded();
+        Location location = mIndex.get(resourceId);
+        if (location == null) {
+            return false;
+        }
+        onAccessed(resourceId, location, timestamp);
+        return true;
+    }
+
+    @Override
+    public synchronized void purgeUnexpectedResources() {
+        try {
+            ensureLoaded();
+        } catch (IOException ioe) {
+            FLog.e(TAG, "purgeUnexpectedResources", ioe);
+            return;
+        }
+        File[] files = mRootDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.equals(mPackDirectory) &&
+                        !(mImportingLegacyEntries && file.equals(mLegacyVersionDirectory))) {
+                    FileTree.deleteRecursively(file);
+                }
+            }
+        }
+        File[] segmentFiles = mPackDirectory.listFiles();
+        if (segmentFiles != null) {
+            for (File file : segmentFiles) {
+                if (isRecentTempFile(file)) {
+                    continue;
+                }
+                Long number = getSegmentNumber(file);
+                Segment segment = number == null ? null : mSegments.get(number);
+                if (segment == null || !segment.file.equals(file)) {
+                    FileTree.deleteRecursively(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the file is a temporary file that an inserter may still be writing
+     */
+    private boolean isRecentTempFile(File file) {
+        return file.getName().endsWith(TEMP_FILE_EXTENSION) &&
+                file.lastModified() > mClock.now() - DefaultDiskStorage.TEMP_FILE_LIFETIME_MS;
+    }
+
+    @Override
+    public Inserter insert(String resourceId, Object debugInfo) throws IOException {
+        encodeId(resourceId);
+        mkdirs(mPackDirectory, "insert");
+        try {
+            File file = File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_EXTENSION, mPackDirectory);
+            return new InserterImpl(resourceId, file);
+        } catch (IOException ioe) {
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.WRITE_CREATE_TEMPFILE,
+                    TAG,
+                    "insert",
+                    ioe);
+            throw ioe;
+        }
+    }
+
+    @Override
+    public synchronized List<Entry> getEntries() throws IOException {
+        ensureLoaded();
+        List<Entry> entries = new ArrayList<>(mIndex.size());
+        for (Map.Entry<String, Location> indexEntry : mIndex.entrySet()) {
+            entries.add(new EntryImpl(indexEntry.getKey(), indexEntry.getValue()));
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    @Override
+    public long remove(Entry entry) throws IOException {
+        return remove(entry.getId());
+    }
+
+    @Override
+    public synchronized long remove(String resourceId) throws IOException {
+        ensureLoaded();
+        mPendingAccesses.remove(resourceId);
+        Location location = mIndex.remove(resourceId);
+        if (location == null) {
+            return 0;
+        }
+        location.segment.liveBytes -= location.recordSize;
+        try {
+            writeRemoval(resourceId);
+        } catch (IOException ioe) {
+            // the entry is gone for now, but comes back the next time the segments are read
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.DELETE_FILE,
+                    TAG,
+                    "remove",
+                    ioe);
+            return -1;
+        }
+        maybeScheduleCompaction(location.segment);
+        return location.length;
+    }
+
+    @Override
+    public synchronized void clearAll() {
+        // segments still being written to are closed once their writes are done
+        for (Segment segment : mSegments.values()) {
+            if (segment.pendingWrites == 0) {
+                closeOutput(segment);
+            }
+        }
+        FileTree.deleteContents(mRootDirectory);
+        mIndex.clear();
+        mSegments.clear();
+        mPendingAccesses.clear();
+        mActiveSegment = null;
+        mImportingLegacyEntries = false;
+        mGeneration++;
+        mLoaded = false;
+    }
+
+    @Override
+    public DiskDumpInfo getDumpInfo() throws IOException {
+        List<Entry> entries = getEntries();
+
+        DiskDumpInfo dumpInfo = new DiskDumpInfo();
+        for (Entry entry : entries) {
+            FileRegionBinaryResource resource = ((EntryImpl) entry).getResource();
+            String firstBits = "";
+            byte[] bytes = resource.read();
+            String type = DefaultDiskStorage.typeOfBytes(bytes);
+            if (type.equals("undefined") && bytes.length >= 4) {
+                firstBits = String.format(
+                        (Locale) null,
+                        "0x%02X 0x%02X 0x%02X 0x%02X",
+                        bytes[0],
+                        bytes[1],
+                        bytes[2],
+                        bytes[3]);
+            }
+            String path = resource.getFile().getPath() + "@" + resource.getOffset();
+            if (!dumpInfo.typeCounts.containsKey(type)) {
+                dumpInfo.typeCounts.put(type, 0);
+            }
+            dumpInfo.typeCounts.put(type, dumpInfo.typeCounts.get(type) + 1);
+            dumpInfo.entries.add(new DiskDumpInfoEntry(path, type, entry.getSize(), firstBits));
+        }
+        return dumpInfo;
+    }
+
+    /**
+     * Reads the segments into the index, then starts importing the entries of
+     * {@link DefaultDiskStorage}.
+     */
+    @GuardedBy("this")
+    private void ensureLoaded() throws IOException {
+        if (mLoaded) {
+            return;
+        }
+        mkdirs(mPackDirectory, "ensureLoaded");
+        File[] files = mPackDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Long number = getSegmentNumber(file);
+                if (number != null) {
+                    mSegments.put(number, new Segment(number, file));
+                }
+            }
+        }
+        try {
+            for (Segment segment : mSegments.values()) {
+                readSegment(segment);
+            }
+        } catch (IOException ioe) {
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.READ_FILE,
+                    TAG,
+                    "ensureLoaded",
+                    ioe);
+            mIndex.clear();
+            mSegments.clear();
+            throw ioe;
+        }
+        if (!mSegments.isEmpty() && mSegments.lastEntry().getValue().size < mMaxSegmentSize) {
+            mActiveSegment = mSegments.lastEntry().getValue();
+        }
+        mLoaded = true;
+        if (mLegacyVersionDirectory.exists()) {
+            mImportingLegacyEntries = true;
+            final int generation = mGeneration;
+            mCompactionExecutor.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            importLegacyEntries(generation);
+                        }
+                    });
+        }
+        for (Segment segment : new ArrayList<>(mSegments.values())) {
+            maybeScheduleCompaction(segment);
+        }
+    }
+
+    @GuardedBy("this")
+    private void readSegment(Segment segment) throws IOException {
+        RecordReader reader = new RecordReader(segment.file);
+        try {
+            Record record;
+            while ((record = reader.next()) != null) {
+                if (record.type == ENTRY_RECORD) {
+                    putLocation(record.id, new Location(segment, record));
+                }
+                else if (record.type == ACCESS_RECORD) {
+                    Location location = mIndex.get(record.id);
+                    if (location != null) {
+                        location.timestamp = record.timestamp;
+                    }
+                }
+                else if (record.type == REMOVE_RECORD) {
+                    Location location = mIndex.remove(record.id);
+                    if (location != null) {
+                        location.segment.liveBytes -= location.recordSize;
+                    }
+                }
+            }
+            segment.size = reader.getPosition();
+        } finally {
+            reader.close();
+        }
+        if (segment.size < segment.file.length()) {
+            FLog.w(TAG, "Dropping the damaged end of %s", segment.file);
+            RandomAccessFile randomAccessFile = new RandomAccessFile(segment.file, "rw");
+            try {
+                randomAccessFile.setLength(segment.size);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+    }
+
+    /**
+     * Imports the entries of {@link DefaultDiskStorage} one by one, then deletes its directory.
+     * Stops if the storage is cleared.
+     */
+    private void importLegacyEntries(int generation) {
+        File[] shards = mLegacyVersionDirectory.listFiles();
+        if (shards != null) {
+            for (File shard : shards) {
+                File[] files = shard.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    if (!importLegacyEntry(file, generation)) {
+                        return;
+                    }
+                }
+            }
+        }
+        synchronized (this) {
+            if (generation != mGeneration) {
+                return;
+            }
+            mImportingLegacyEntries = false;
+            FileTree.deleteRecursively(mLegacyVersionDirectory);
+        }
+    }
+
+    /**
+     * @return false if the storage was cleared and the import must stop
+     */
+    private boolean importLegacyEntry(File file, int generation) {
+        String name = file.getName();
+        if (!name.endsWith(LEGACY_CONTENT_FILE_EXTENSION)) {
+            return true;
+        }
+        String resourceId =
+                name.substring(0, name.length() - LEGACY_CONTENT_FILE_EXTENSION.length());
+        long timestamp = file.lastModified();
+        long length = file.length();
+        Reservation reservation = null;
+        try {
+            synchronized (this) {
+                if (generation != mGeneration) {
+                    return false;
+                }
+                // a previous import may have stopped after writing the entry but before deleting
+                // the file, and an entry inserted since is newer than the file anyway
+                if (!mIndex.containsKey(resourceId)) {
+                    reservation = reserveEntry(resourceId, timestamp, checkLength(length));
+                }
+            }
+            if (reservation != null) {
+                importLegacyContent(reservation, file);
+            }
+        } catch (IOException ioe) {
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.READ_FILE,
+                    TAG,
+                    "importLegacyEntry: " + file,
+                    ioe);
+        }
+        file.delete();
+        return true;
+    }
+
+    private void importLegacyContent(Reservation reservation, File file) throws IOException {
+        boolean written = false;
+        try {
+            writeEntry(reservation, file, 0);
+            written = true;
+        } finally {
+            synchronized (this) {
+                finishEntry(
+                        reservation,
+                        written,
+                        written && !mIndex.containsKey(reservation.resourceId));
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void onAccessed(String resourceId, Location location, long timestamp) {
+        location.timestamp = timestamp;
+        mPendingAccesses.put(resourceId, location.timestamp);
+        if (mPendingAccesses.size() >= MAX_PENDING_ACCESSES) {
+            flushPendingAccesses();
+        }
+    }
+
+    /**
+     * Writes the buffered accesses. They are dropped if that fails: only the order of eviction
+     * depends on them.
+     */
+    @GuardedBy("this")
+    private void flushPendingAccesses() {
+        if (mPendingAccesses.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] records = new ByteBuffer[mPendingAccesses.size()];
+        int i = 0;
+        for (Map.Entry<String, Long> access : mPendingAccesses.entrySet()) {
+            ByteBuffer record;
+            try {
+                record = newRecord(ACCESS_RECORD, access.getKey(), ACCESS_FIELDS_SIZE);
+            } catch (IOException ioe) {
+                throw new IllegalStateException(ioe); // ids were checked on insertion
+            }
+            record.putLong(access.getValue());
+            record.flip();
+            records[i++] = record;
+        }
+        mPendingAccesses.clear();
+        try {
+            append(getActiveSegment(), records);
+            maybeCloseActiveSegment();
+        } catch (IOException ioe) {
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+                    TAG,
+                    "flushPendingAccesses",
+                    ioe);
+        }
+    }
+
+    private BinaryResource commitEntry(String resourceId, File content) throws IOException {
+        int length = checkLength(content.length());
+        Reservation reservation;
+        synchronized (this) {
+            ensureLoaded();
+            flushPendingAccesses();
+            reservation = reserveEntry(resourceId, mClock.now(), length);
+        }
+        Location location;
+        boolean written = false;
+        try {
+            writeEntry(reservation, content, 0);
+            written = true;
+        } catch (IOException ioe) {
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+                    TAG,
+                    "commitEntry",
+                    ioe);
+            throw ioe;
+        } finally {
+            synchronized (this) {
+                location = finishEntry(reservation, written, written);
+            }
+        }
+        if (location == null) {
+            throw new IOException("Storage cleared while committing " + resourceId);
+        }
+        return location.toResource();
+    }
+
+    /**
+     * Reserves room for an entry at the end of the active segment. The entry must then be
+     * written with {@link #writeEntry} and finished with {@link #finishEntry}.
+     */
+    @GuardedBy("this")
+    private Reservation reserveEntry(String resourceId, long timestamp, int length)
+            throws IOException {
+        ByteBuffer header = newRecord(ENTRY_RECORD, resourceId, ENTRY_FIELDS_SIZE);
+        header.putLong(timestamp);
+        header.putInt(length);
+        header.flip();
+        Segment segment = getActiveSegment();
+        Reservation reservation = new Reservation(
+                resourceId,
+                segment,
+                Preconditions.checkNotNull(segment.output).getChannel(),
+                segment.size,
+                header,
+                length,
+                timestamp,
+                mGeneration);
+        segment.size += header.limit() + length;
+        segment.pendingWrites++;
+        maybeCloseActiveSegment();
+        return reservation;
+    }
+
+    /**
+     * Copies the content of an entry from the given file to its reserved room, then writes its
+     * header. Called without holding the lock.
+     */
+    private static void writeEntry(Reservation reservation, File source, long sourceOffset)
+            throws IOException {
+        FileInputStream input = new FileInputStream(source);
+        try {
+            FileChannel sourceChannel = input.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            long position = reservation.offset + reservation.header.limit();
+            long copied = 0;
+            while (copied < reservation.length) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), reservation.length - copied));
+                if (sourceChannel.read(buffer, sourceOffset + copied) < 0) {
+                    throw new EOFException("Content of " + reservation.resourceId + " is short");
+                }
+                buffer.flip();
+                copied += buffer.remaining();
+                position += writeFully(reservation.channel, buffer, position);
+            }
+        } finally {
+            input.close();
+        }
+        // a crash before this leaves a record that is not read, instead of a damaged entry
+        writeFully(reservation.channel, reservation.header, reservation.offset);
+    }
+
+    /**
+     * Ends a write started by {@link #reserveEntry}. An entry that was not written is replaced by
+     * a free record, so that the records after it can still be read.
+     *
+     * @param index whether to index the entry, if it was written
+     * @return the location of the entry, or null if it was not indexed
+     */
+    @GuardedBy("this")
+    @Nullable
+    private Location finishEntry(Reservation reservation, boolean written, boolean index) {
+        Segment segment = reservation.segment;
+        segment.pendingWrites--;
+        if (reservation.generation != mGeneration) {
+            // the segment was deleted by clearAll
+            if (segment.pendingWrites == 0) {
+                closeOutput(segment);
+            }
+            return null;
+        }
+        Location location = null;
+        if (!written) {
+            writeFreeRecord(reservation);
+        }
+        else if (index) {
+            location = reservation.toLocation();
+            Location previous = putLocation(reservation.resourceId, location);
+            if (previous != null) {
+                // a compacted entry may have been accessed while it was copied
+                location.timestamp = Math.max(location.timestamp, previous.timestamp);
+                maybeScheduleCompaction(previous.segment);
+            }
+        }
+        if (segment != mActiveSegment && segment.pendingWrites == 0) {
+            closeOutput(segment);
+        }
+        maybeScheduleCompaction(segment);
+        return location;
+    }
+
+    @GuardedBy("this")
+    private void writeFreeRecord(Reservation reservation) {
+        try {
+            ByteBuffer record = newRecord(FREE_RECORD, "", FREE_FIELDS_SIZE);
+            record.putInt(reservation.getSize() - record.capacity());
+            record.flip();
+            writeFully(reservation.channel, record, reservation.offset);
+        } catch (IOException ioe) {
+            // the records after this one are dropped the next time the segment is read
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+                    TAG,
+                    "writeFreeRecord",
+                    ioe);
+            if (reservation.segment == mActiveSegment) {
+                mActiveSegment = null;
+            }
+        }
+    }
+
+    private static int checkLength(long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Entry too large: " + length);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Writes the whole buffer at the given position of the channel.
+     *
+     * @return the number of bytes written
+     */
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    @GuardedBy("this")
+    private void writeRemoval(String resourceId) throws IOException {
+        ByteBuffer record = newRecord(REMOVE_RECORD, resourceId, 0);
+        record.flip();
+        append(getActiveSegment(), record);
+        maybeCloseActiveSegment();
+    }
+
+    /**
+     * Indexes the new location of an entry.
+     *
+     * @return the location it replaces, if any
+     */
+    @GuardedBy("this")
+    @Nullable
+    private Location putLocation(String resourceId, Location location) {
+        Location previous = mIndex.put(resourceId, location);
+        location.segment.liveBytes += location.recordSize;
+        if (previous != null) {
+            previous.segment.liveBytes -= previous.recordSize;
+        }
+        return previous;
+    }
+
+    /**
+     * Appends records to the active segment.
+     *
+     * @return the offset of the first record in the segment
+     */
+    @GuardedBy("this")
+    private long append(Segment segment, ByteBuffer... records) throws IOException {
+        // entries written outside the lock use positional writes, which leave the position alone
+        FileChannel channel = Preconditions.checkNotNull(segment.output).getChannel();
+        long offset = segment.size;
+        long remaining = 0;
+        for (ByteBuffer record : records) {
+            remaining += record.remaining();
+        }
+        try {
+            channel.position(offset);
+            while (remaining > 0) {
+                remaining -= channel.write(records);
+            }
+        } catch (IOException ioe) {
+            // the next record overwrites whatever part of these was written
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+                    TAG,
+                    "append",
+                    ioe);
+            throw ioe;
+        }
+        segment.size = channel.position();
+        return offset;
+    }
+
+    /**
+     * Gets the segment new records are appended to, creating a new one if the last one was closed.
+     */
+    @GuardedBy("this")
+    private Segment getActiveSegment() throws IOException {
+        if (mActiveSegment == null) {
+            long number = mSegments.isEmpty() ? 0 : mSegments.lastKey() + 1;
+            mActiveSegment = new Segment(
+                    number,
+                    new File(mPackDirectory, number + SEGMENT_FILE_EXTENSION));
+            mSegments.put(number, mActiveSegment);
+        }
+        if (mActiveSegment.output == null) {
+            mkdirs(mPackDirectory, "getActiveSegment");
+            try {
+                mActiveSegment.output = new RandomAccessFile(mActiveSegment.file, "rw");
+            } catch (IOException ioe) {
+                mCacheErrorLogger.logError(
+                        CacheErrorLogger.CacheErrorCategory.WRITE_CREATE_TEMPFILE,
+                        TAG,
+                        "getActiveSegment",
+                        ioe);
+                throw ioe;
+            }
+        }
+        return mActiveSegment;
+    }
+
+    @GuardedBy("this")
+    private void maybeCloseActiveSegment() {
+        Segment segment = mActiveSegment;
+        if (segment != null && segment.size >= mMaxSegmentSize) {
+            mActiveSegment = null;
+            if (segment.pendingWrites == 0) {
+                closeOutput(segment);
+            }
+            maybeScheduleCompaction(segment);
+        }
+    }
+
+    @GuardedBy("this")
+    private void closeOutput(Segment segment) {
+        if (segment.output != null) {
+            try {
+                segment.output.close();
+            } catch (IOException ioe) {
+                FLog.w(TAG, "Failed to close segment " + segment.file, ioe);
+            }
+            segment.output = null;
+        }
+    }
+
+    @GuardedBy("this")
+    private void maybeScheduleCompaction(final Segment segment) {
+        if (segment == mActiveSegment ||
+                segment.pendingWrites > 0 ||
+                segment.compacting ||
+                mSegments.get(segment.number) != segment ||
+                segment.liveBytes * 2 >= segment.size) {
+            return;
+        }
+        segment.compacting = true;
+        final int generation = mGeneration;
+        mCompactionExecutor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        compact(segment, generation);
+                    }
+                });
+    }
+
+    /**
+     * Copies the live entries of a closed segment to the active segment, then deletes it.
+     * <p>
+     * <p> Removals are copied too while an older segment may still hold the removed entry. The
+     * content of each entry is copied without holding the lock, and only indexed if the entry was
+     * not replaced or removed in the meantime.
+     */
+    private void compact(Segment segment, int generation) {
+        try {
+            RecordReader reader = new RecordReader(segment.file);
+            try {
+                Record record;
+                while ((record = reader.next()) != null) {
+                    if (!copyRecord(segment, generation, record)) {
+                        return;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ioe) {
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+                    TAG,
+                    "compact",
+                    ioe);
+            synchronized (this) {
+                segment.compacting = false;
+            }
+            return;
+        }
+        synchronized (this) {
+            if (generation != mGeneration) {
+                return;
+            }
+            segment.compacting = false;
+            if (segment.liveBytes == 0) {
+                mSegments.remove(segment.number);
+                if (!segment.file.delete()) {
+                    mCacheErrorLogger.logError(
+                            CacheErrorLogger.CacheErrorCategory.DELETE_FILE,
+                            TAG,
+                            "compact: " + segment.file,
+                            null);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the storage was cleared and the compaction must stop
+     */
+    private boolean copyRecord(Segment segment, int generation, Record record) throws IOException {
+        if (record.type == ENTRY_RECORD) {
+            Reservation reservation;
+            synchronized (this) {
+                if (generation != mGeneration) {
+                    return false;
+                }
+                if (!isCurrent(segment, record)) {
+                    return true;
+                }
+                reservation =
+                        reserveEntry(record.id, mIndex.get(record.id).timestamp, record.length);
+            }
+            boolean written = false;
+            try {
+                writeEntry(reservation, segment.file, record.getContentOffset());
+                written = true;
+            } finally {
+                synchronized (this) {
+                    finishEntry(reservation, written, written && isCurrent(segment, record));
+                }
+            }
+        }
+        else if (record.type == REMOVE_RECORD) {
+            synchronized (this) {
+                if (generation != mGeneration) {
+                    return false;
+                }
+                if (!mIndex.containsKey(record.id) && mSegments.firstKey() < segment.number) {
+                    writeRemoval(record.id);
+                }
+            }
+        }
+        // accesses are not copied, entries are copied with their latest timestamp
+        return true;
+    }
+
+    @GuardedBy("this")
+    private boolean isCurrent(Segment segment, Record record) {
+        Location location = mIndex.get(record.id);
+        return location != null &&
+                location.segment == segment &&
+                location.contentOffset == record.getContentOffset();
+    }
+
+    /**
+     * Allocates a record of the given type for the given id, with room for the fields that follow.
+     */
+    private static ByteBuffer newRecord(int type, String resourceId, int fieldsSize)
+            throws IOException {
+        byte[] id = encodeId(resourceId);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + id.length + fieldsSize);
+        record.putInt(type);
+        record.putShort((short) id.length);
+        record.put(id);
+        return record;
+    }
+
+    private static byte[] encodeId(String resourceId) throws IOException {
+        byte[] id = resourceId.getBytes(UTF_8);
+        if (id.length > MAX_ID_LENGTH) {
+            throw new IOException("Resource id too long: " + resourceId);
+        }
+        return id;
+    }
+
+    @Nullable
+    private static Long getSegmentNumber(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SEGMENT_FILE_EXTENSION)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(
+                    name.substring(0, name.length() - SEGMENT_FILE_EXTENSION.length()));
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    private void mkdirs(File directory, String message) throws IOException {
+        try {
+            FileUtils.mkdirs(directory);
+        } catch (FileUtils.CreateDirectoryException cde) {
+            mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.WRITE_CREATE_DIR,
+                    TAG,
+                    message,
+                    cde);
+            throw cde;
+        }
+    }
+
+    /**
+     * A segment file and how many of its bytes belong to live entries.
+     */
+    private static class Segment {
+        final long number;
+        final File file;
+        long size;
+        long liveBytes;
+        boolean compacting;
+        // entries reserved but not written yet: the segment is not compacted or closed until then
+        int pendingWrites;
+        // open while the segment is active or written to
+        @Nullable
+        RandomAccessFile output;
+
+        Segment(long number, File file) {
+            this.number = number;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Where the content of an entry is, and when it was last accessed.
+     */
+    private static class Location {
+        final Segment segment;
+        final long contentOffset;
+        final int length;
+        final long recordSize;
+        long timestamp;
+
+        Location(Segment segment, long contentOffset, int length, long recordSize, long timestamp) {
+            this.segment = segment;
+            this.contentOffset = contentOffset;
+            this.length = length;
+            this.recordSize = recordSize;
+            this.timestamp = timestamp;
+        }
+
+        Location(Segment segment, Record record) {
+            this(segment, record.getContentOffset(), record.length, record.size, record.timestamp);
+        }
+
+        FileRegionBinaryResource toResource() {
+            return new FileRegionBinaryResource(segment.file, contentOffset, length);
+        }
+    }
+
+    /**
+     * The room reserved for an entry in a segment, and the header to write there.
+     */
+    private static class Reservation {
+        final String resourceId;
+        final Segment segment;
+        final FileChannel channel;
+        final long offset;
+        final ByteBuffer header;
+        final int length;
+        final long timestamp;
+        final int generation;
+
+        Reservation(
+                String resourceId,
+                Segment segment,
+                FileChannel channel,
+                long offset,
+                ByteBuffer header,
+                int length,
+                long timestamp,
+                int generation) {
+            this.resourceId = resourceId;
+            this.segment = segment;
+            this.channel = channel;
+            this.offset = offset;
+            this.header = header;
+            this.length = length;
+            this.timestamp = timestamp;
+            this.generation = generation;
+        }
+
+        int getSize() {
+            return header.limit() + length;
+        }
+
+        Location toLocation() {
+            return new Location(
+                    segment,
+                    offset + header.limit(),
+                    length,
+                    getSize(),
+                    timestamp);
+        }
+    }
+
+    /**
+     * A record as read from a segment, without the content of entries.
+     */
+    private static class Record {
+        final int type;
+        final String id;
+        final long offset;
+        final long size;
+        final long timestamp;
+        final int length;
+
+        Record(int type, String id, long offset, long size, long timestamp, int length) {
+            this.type = type;
+            this.id = id;
+            this.offset = offset;
+            this.size = size;
+            this.timestamp = timestamp;
+            this.length = length;
+        }
+
+        long getContentOffset() {
+            return offset + size - length;
+        }
+    }
+
+    /**
+     * Reads the records of a segment in order, skipping the content of entries.
+     */
+    private static class RecordReader implements Closeable {
+        private final DataInputStream mInput;
+        private final long mFileLength;
+        private long mPosition;
+
+        RecordReader(File file) throws IOException {
+            mFileLength = file.length();
+            mInput = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        /**
+         * Gets the end of the last complete record read.
+         */
+        long getPosition() {
+            return mPosition;
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return the record, or null at the end of the segment or at a damaged record
+         */
+        @Nullable
+        Record next() throws IOException {
+            if (mPosition >= mFileLength) {
+                return null;
+            }
+            try {
+                int type = mInput.readInt();
+                byte[] id = new byte[mInput.readUnsignedShort()];
+                mInput.readFully(id);
+                long size = RECORD_HEADER_SIZE + id.length;
+                long timestamp = 0;
+                int length = 0;
+                if (type == ENTRY_RECORD) {
+                    timestamp = mInput.readLong();
+                    length = mInput.readInt();
+                    size += ENTRY_FIELDS_SIZE + length;
+                    if (length < 0 || mPosition + size > mFileLength) {
+                        return null;
+                    }
+                    skipFully(length);
+                }
+                else if (type == ACCESS_RECORD) {
+                    timestamp = mInput.readLong();
+                    size += ACCESS_FIELDS_SIZE;
+                }
+                else if (type == FREE_RECORD) {
+                    int freeLength = mInput.readInt();
+                    size += FREE_FIELDS_SIZE + freeLength;
+                    if (freeLength < 0 || mPosition + size > mFileLength) {
+                        return null;
+                    }
+                    skipFully(freeLength);
+                }
+                else if (type != REMOVE_RECORD) {
+                    return null;
+                }
+                Record record =
+                        new Record(type, new String(id, UTF_8), mPosition, size, timestamp, length);
+                mPosition += size;
+                return record;
+            } catch (EOFException eof) {
+                return null;
+            }
+        }
+
+        private void skipFully(int count) throws IOException {
+            while (count > 0) {
+                int skipped = mInput.skipBytes(count);
+                if (skipped <= 0) {
+                    throw new EOFException();
+                }
+                count -= skipped;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mInput.close();
+        }
+    }
+
+    /**
+     * Implementation of Entry listed by getEntries.
+     */
+    @VisibleForTesting
+    static class EntryImpl implements Entry {
+        private final String id;
+        private final FileRegionBinaryResource resource;
+        private final long timestamp;
+
+        private EntryImpl(String id, Location location) {
+            this.id = id;
+            this.resource = location.toResource();
+            this.timestamp = location.timestamp;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public FileRegionBinaryResource getResource() {
+            return resource;
+        }
+
+        @Override
+        public long getSize() {
+            return resource.size();
+        }
+    }
+
+
+    @VisibleForTesting
+  /* package protected */ class InserterImpl implements Inserter {
+
+        @VisibleForTesting
+    /* package protected*/ final File mTemporaryFile;
+        private final String mResourceId;
+
+        public InserterImpl(String resourceId, File temporaryFile) {
+            mResourceId = resourceId;
+            mTemporaryFile = temporaryFile;
+        }
+
+        @Override
+        public void writeData(WriterCallback callback, Object debugInfo) throws IOException {
+            FileOutputStream fileStream;
+            try {
+                fileStream = new FileOutputStream(mTemporaryFile);
+            } catch (FileNotFoundException fne) {
+                mCacheErrorLogger.logError(
+                        CacheErrorLogger.CacheErrorCategory.WRITE_UPDATE_FILE_NOT_FOUND,
+                        TAG,
+                        "writeData",
+                        fne);
+                throw fne;
+            }
+
+            long length;
+            try {
+                CountingOutputStream countingStream = new CountingOutputStream(fileStream);
+                callback.write(countingStream);
+                countingStream.flush();
+                length = countingStream.getCount();
+            } finally {
+                fileStream.close();
+            }
+            if (mTemporaryFile.length() != length) {
+                throw new DefaultDiskStorage.IncompleteFileException(
+                        length,
+                        mTemporaryFile.length());
+            }
+        }
+
+        @Override
+        public BinaryResource commit(Object debugInfo) throws IOException {
+            try {
+                return commitEntry(mResourceId, mTemporaryFile);
+            } finally {
+                mTemporaryFile.delete();
+            }
+        }
+
+        @Override
+        public boolean cleanUp() {
+            return !mTemporaryFile.exists() || mTemporaryFile.delete();
+        }
+    }
+}
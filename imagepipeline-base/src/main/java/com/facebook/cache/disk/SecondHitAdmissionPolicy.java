@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.Preconditions;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Admits an entry the second time it is offered, so that resources seen only once never reach
+ * the disk.
+ * <p>
+ * <p> Offered keys are remembered in a pair of bloom filters. A key is admitted if either filter
+ * holds it, and added to the current filter otherwise. Once the current filter holds the expected
+ * number of keys, it becomes the previous one and the filter it replaces is cleared. Keys are thus
+ * remembered for between one and two rounds of that many keys. False positives of the filters
+ * admit a few percent at most of the keys offered for the first time.
+ */
+@ThreadSafe
+public class SecondHitAdmissionPolicy implements EntryAdmissionPolicy {
+
+    private static final int BITS_PER_KEY = 8;
+    private static final int HASH_FUNCTIONS = 4;
+
+    private final int mExpectedKeys;
+    private final int mBitMask;
+    @GuardedBy("this")
+    private long[] mCurrentFilter;
+    @GuardedBy("this")
+    private long[] mPreviousFilter;
+    @GuardedBy("this")
+    private int mCurrentKeys;
+
+    /**
+     * @param expectedKeys how many distinct keys are offered before the oldest ones are forgotten
+     */
+    public SecondHitAdmissionPolicy(int expectedKeys) {
+        Preconditions.checkArgument(expectedKeys > 0 && expectedKeys <= (1 << 24));
+        mExpectedKeys = expectedKeys;
+        int bitCount = 64;
+        while (bitCount < expectedKeys * BITS_PER_KEY) {
+            bitCount <<= 1;
+        }
+        mBitMask = bitCount - 1;
+        mCurrentFilter = new long[bitCount / 64];
+        mPreviousFilter = new long[bitCount / 64];
+    }
+
+    @Override
+    public synchronized boolean shouldAdmit(CacheKey key, long size) {
+        long hash = key.hashCode() * 0x9e3779b97f4a7c15L;
+        int hash1 = (int) hash;
+        // odd, so that the probes never all fall on the same bit
+        int hash2 = (int) (hash >>> 32) | 1;
+        if (contains(mCurrentFilter, hash1, hash2) || contains(mPreviousFilter, hash1, hash2)) {
+            return true;
+        }
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = (hash1 + i * hash2) & mBitMask;
+            mCurrentFilter[bit >>> 6] |= 1L << bit;
+        }
+        if (++mCurrentKeys >= mExpectedKeys) {
+            long[] filter = mPreviousFilter;
+            Arrays.fill(filter, 0);
+            mPreviousFilter = mCurrentFilter;
+            mCurrentFilter = filter;
+            mCurrentKeys = 0;
+        }
+        return false;
+    }
+
+    private boolean contains(long[] filter, int hash1, int hash2) {
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = (hash1 + i * hash2) & mBitMask;
+            if ((filter[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
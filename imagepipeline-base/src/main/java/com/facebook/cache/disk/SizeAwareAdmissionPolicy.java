@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.Preconditions;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Admission policy that treats entries according to their size.
+ * <p>
+ * <p> Small entries are cheap to write and push few others out of the cache, so they are admitted
+ * right away. Larger entries are left to another policy, typically a
+ * {@link SecondHitAdmissionPolicy}, and entries too large to be worth the space they take are never
+ * admitted.
+ */
+@ThreadSafe
+public class SizeAwareAdmissionPolicy implements EntryAdmissionPolicy {
+
+    private final EntryAdmissionPolicy mLargeEntryPolicy;
+    private final long mSmallEntryMaxSize;
+    private final long mMaxSize;
+
+    /**
+     * @param largeEntryPolicy  the policy for entries larger than smallEntryMaxSize
+     * @param smallEntryMaxSize entries up to this size in bytes are always admitted
+     * @param maxSize           entries larger than this size in bytes are never admitted
+     */
+    public SizeAwareAdmissionPolicy(
+            EntryAdmissionPolicy largeEntryPolicy,
+            long smallEntryMaxSize,
+            long maxSize) {
+        Preconditions.checkArgument(smallEntryMaxSize <= maxSize);
+        mLargeEntryPolicy = Preconditions.checkNotNull(largeEntryPolicy);
+        mSmallEntryMaxSize = smallEntryMaxSize;
+        mMaxSize = maxSize;
+    }
+
+    @Override
+    public boolean shouldAdmit(CacheKey key, long size) {
+        if (size <= mSmallEntryMaxSize) {
+            return true;
+        }
+        return size <= mMaxSize && mLargeEntryPolicy.shouldAdmit(key, size);
+    }
+}
@@ -15,12 +15,40 @@ import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.image.CloseableImage;
 
+import javax.annotation.Nullable;
+
 public class BitmapCountingMemoryCacheFactory {
     public static CountingMemoryCache<CacheKey, CloseableImage> get(
             Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier,
             MemoryTrimmableRegistry memoryTrimmableRegistry,
             PlatformBitmapFactory platformBitmapFactory,
             boolean isExternalCreatedBitmapLogEnabled) {
+        return get(
+                bitmapMemoryCacheParamsSupplier,
+                memoryTrimmableRegistry,
+                platformBitmapFactory,
+                isExternalCreatedBitmapLogEnabled,
+                1,
+                LruMemoryCacheEvictionPolicy.factory(),
+                null);
+    }
+
+    /**
+     * Creates the bitmap counting memory cache.
+     *
+     * @param segmentCount          if greater than 1, a {@link SegmentedCountingMemoryCache} with
+     *                              that many independently locked segments is created
+     * @param evictionPolicyFactory creates the eviction policy of the cache (or of each segment)
+     * @param admissionObserver     observer of the eviction policy's admission decisions, if any
+     */
+    public static CountingMemoryCache<CacheKey, CloseableImage> get(
+            Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier,
+            MemoryTrimmableRegistry memoryTrimmableRegistry,
+            PlatformBitmapFactory platformBitmapFactory,
+            boolean isExternalCreatedBitmapLogEnabled,
+            int segmentCount,
+            MemoryCacheEvictionPolicy.Factory evictionPolicyFactory,
+            @Nullable MemoryCacheEvictionPolicy.AdmissionObserver admissionObserver) {
 
         ValueDescriptor<CloseableImage> valueDescriptor =
                 new ValueDescriptor<CloseableImage>() {
@@ -32,13 +60,26 @@ public class BitmapCountingMemoryCacheFactory {
 
         CountingMemoryCache.CacheTrimStrategy trimStrategy = new BitmapMemoryCacheTrimStrategy();
 
-        CountingMemoryCache<CacheKey, CloseableImage> countingCache =
-                new CountingMemoryCache<>(
-                        valueDescriptor,
-                        trimStrategy,
-                        bitmapMemoryCacheParamsSupplier,
-                        platformBitmapFactory,
-                        isExternalCreatedBitmapLogEnabled);
+        CountingMemoryCache<CacheKey, CloseableImage> countingCache;
+        if (segmentCount > 1) {
+            countingCache = new SegmentedCountingMemoryCache<>(
+                    valueDescriptor,
+                    trimStrategy,
+                    bitmapMemoryCacheParamsSupplier,
+                    platformBitmapFactory,
+                    isExternalCreatedBitmapLogEnabled,
+                    segmentCount,
+                    evictionPolicyFactory,
+                    admissionObserver);
+        } else {
+            countingCache = new CountingMemoryCache<>(
+                    valueDescriptor,
+                    trimStrategy,
+                    bitmapMemoryCacheParamsSupplier,
+                    platformBitmapFactory,
+                    isExternalCreatedBitmapLogEnabled,
+                    evictionPolicyFactory.<CacheKey>create(admissionObserver));
+        }
 
         memoryTrimmableRegistry.registerMemoryTrimmable(countingCache);
 
@@ -34,8 +34,9 @@ import javax.annotation.concurrent.ThreadSafe;
 /**
  * Layer of memory cache stack responsible for managing eviction of the the cached items.
  * <p>
- * <p> This layer is responsible for LRU eviction strategy and for maintaining the size boundaries
- * of the cached items.
+ * <p> This layer is responsible for the eviction strategy (LRU unless another
+ * {@link MemoryCacheEvictionPolicy} is provided) and for maintaining the size boundaries of the
+ * cached items.
  * <p>
  * <p> Only the exclusively owned elements, i.e. the elements not referenced by any client, can be
  * evicted.
@@ -62,6 +63,9 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     final Map<Bitmap, Object> mOtherEntries = new WeakHashMap<>();
     private final ValueDescriptor<V> mValueDescriptor;
     private final CacheTrimStrategy mCacheTrimStrategy;
+    // Decides which of the exclusively owned items gets evicted next.
+    @GuardedBy("this")
+    private final MemoryCacheEvictionPolicy<K> mEvictionPolicy;
     // Cache size constraints.
     private final Supplier<MemoryCacheParams> mMemoryCacheParamsSupplier;
     @GuardedBy("this")
@@ -75,6 +79,22 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
             Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
             PlatformBitmapFactory platformBitmapFactory,
             boolean isExternalCreatedBitmapLogEnabled) {
+        this(
+                valueDescriptor,
+                cacheTrimStrategy,
+                memoryCacheParamsSupplier,
+                platformBitmapFactory,
+                isExternalCreatedBitmapLogEnabled,
+                new LruMemoryCacheEvictionPolicy<K>());
+    }
+
+    public CountingMemoryCache(
+            ValueDescriptor<V> valueDescriptor,
+            CacheTrimStrategy cacheTrimStrategy,
+            Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+            PlatformBitmapFactory platformBitmapFactory,
+            boolean isExternalCreatedBitmapLogEnabled,
+            MemoryCacheEvictionPolicy<K> evictionPolicy) {
         mValueDescriptor = valueDescriptor;
         mExclusiveEntries = new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
         mCachedEntries = new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
@@ -82,6 +102,8 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
         mMemoryCacheParamsSupplier = memoryCacheParamsSupplier;
         mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
         mLastCacheParamsCheck = SystemClock.uptimeMillis();
+        mEvictionPolicy = Preconditions.checkNotNull(evictionPolicy);
+        mEvictionPolicy.onCacheParamsUpdated(mMemoryCacheParams);
 
         if (isExternalCreatedBitmapLogEnabled) {
             platformBitmapFactory.setCreationListener(
@@ -151,8 +173,9 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
         CloseableReference<V> oldRefToClose = null;
         CloseableReference<V> clientRef = null;
         synchronized (this) {
+            mEvictionPolicy.recordAccess(key);
             // remove the old item (if any) as it is stale now
-            oldExclusive = mExclusiveEntries.remove(key);
+            oldExclusive = removeFromExclusives(key);
             Entry<K, V> oldEntry = mCachedEntries.remove(key);
             if (oldEntry != null) {
                 makeOrphan(oldEntry);
@@ -191,9 +214,11 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
         Entry<K, V> oldExclusive;
         CloseableReference<V> clientRef = null;
         synchronized (this) {
-            oldExclusive = mExclusiveEntries.remove(key);
+            oldExclusive = removeFromExclusives(key);
             Entry<K, V> entry = mCachedEntries.get(key);
             if (entry != null) {
+                // a miss is followed by the insertion of the item, which counts as its access
+                mEvictionPolicy.recordAccess(key);
                 clientRef = newClientReference(entry);
             }
         }
@@ -236,6 +261,9 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     private synchronized boolean maybeAddToExclusives(Entry<K, V> entry) {
         if (!entry.isOrphan && entry.clientCount == 0) {
             mExclusiveEntries.put(entry.key, entry);
+            mEvictionPolicy.onExclusiveEntryAdded(
+                    entry.key,
+                    mValueDescriptor.getSizeInBytes(entry.valueRef.get()));
             return true;
         }
         return false;
@@ -253,7 +281,7 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
         boolean removed = false;
         Entry<K, V> oldExclusive = null;
         synchronized (this) {
-            oldExclusive = mExclusiveEntries.remove(key);
+            oldExclusive = removeFromExclusives(key);
             if (oldExclusive != null) {
                 Entry<K, V> entry = mCachedEntries.remove(key);
                 Preconditions.checkNotNull(entry);
@@ -281,6 +309,9 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
         ArrayList<Entry<K, V>> oldEntries;
         synchronized (this) {
             oldExclusives = mExclusiveEntries.removeAll(predicate);
+            for (Entry<K, V> oldExclusive : oldExclusives) {
+                mEvictionPolicy.onExclusiveEntryRemoved(oldExclusive.key);
+            }
             oldEntries = mCachedEntries.removeAll(predicate);
             makeOrphans(oldEntries);
         }
@@ -297,6 +328,7 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
         ArrayList<Entry<K, V>> oldEntries;
         synchronized (this) {
             oldExclusives = mExclusiveEntries.clear();
+            mEvictionPolicy.clear();
             oldEntries = mCachedEntries.clear();
             makeOrphans(oldEntries);
         }
@@ -342,6 +374,22 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
         }
         mLastCacheParamsCheck = SystemClock.uptimeMillis();
         mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
+        mEvictionPolicy.onCacheParamsUpdated(mMemoryCacheParams);
+    }
+
+    /**
+     * Replaces the cache params (constraints) and evicts the exclusively owned items that no
+     * longer fit within the new constraints.
+     * <p>
+     * <p> Used by {@link SegmentedCountingMemoryCache} to hand out per-segment budgets.
+     */
+    void updateCacheParams(MemoryCacheParams memoryCacheParams) {
+        synchronized (this) {
+            mLastCacheParamsCheck = SystemClock.uptimeMillis();
+            mMemoryCacheParams = memoryCacheParams;
+            mEvictionPolicy.onCacheParamsUpdated(memoryCacheParams);
+        }
+        maybeEvictEntries();
     }
 
     /**
@@ -383,13 +431,27 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
         }
         ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
         while (mExclusiveEntries.getCount() > count || mExclusiveEntries.getSizeInBytes() > size) {
-            K key = mExclusiveEntries.getFirstKey();
-            mExclusiveEntries.remove(key);
+            K key = mEvictionPolicy.selectVictim(mExclusiveEntries);
+            if (key == null || !mExclusiveEntries.contains(key)) {
+                // never evict an item in use, even if the policy gets out of sync with the cache
+                key = mExclusiveEntries.getFirstKey();
+            }
+            removeFromExclusives(key);
             oldEntries.add(mCachedEntries.remove(key));
         }
         return oldEntries;
     }
 
+    /** Removes the entry with the given key from the exclusively owned items, if it is there. */
+    @Nullable
+    private synchronized Entry<K, V> removeFromExclusives(K key) {
+        Entry<K, V> entry = mExclusiveEntries.remove(key);
+        if (entry != null) {
+            mEvictionPolicy.onExclusiveEntryRemoved(key);
+        }
+        return entry;
+    }
+
     /**
      * Notifies the client that the cache no longer tracks the given items.
      * <p>
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.VisibleForTesting;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Count-min sketch that estimates how often a key was accessed recently.
+ * <p>
+ * <p> Each key is counted in 4 counters of 4 bits each, packed 16 to a long. The estimate is the
+ * minimum of those counters, so it is never lower than the real count (up to 15). Once the number
+ * of recorded accesses reaches ten times the table size, all counters are halved so that old
+ * accesses weigh less than recent ones.
+ */
+@NotThreadSafe
+class FrequencySketch {
+
+    @VisibleForTesting
+    static final int MAX_FREQUENCY = 15;
+
+    private static final long[] SEEDS = new long[]{
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MIN_TABLE_SIZE = 16;
+    // 32 KB, enough to keep apart the accesses of a few thousand items
+    @VisibleForTesting
+    static final int MAX_TABLE_SIZE = 1 << 12;
+
+    private long[] mTable;
+    private int mTableMask;
+    private int mSampleSize;
+    private int mSize;
+
+    FrequencySketch() {
+        ensureCapacity(MIN_TABLE_SIZE);
+    }
+
+    /**
+     * Grows the sketch so that it can keep apart the given number of keys, up to
+     * {@link #MAX_TABLE_SIZE}. Growing the sketch forgets all the recorded accesses.
+     */
+    void ensureCapacity(int maxKeys) {
+        int tableSize = MIN_TABLE_SIZE;
+        int maximum = Math.min(Math.max(maxKeys, MIN_TABLE_SIZE), MAX_TABLE_SIZE);
+        while (tableSize < maximum) {
+            tableSize <<= 1;
+        }
+        if (mTable != null && mTable.length >= tableSize) {
+            return;
+        }
+        mTable = new long[tableSize];
+        mTableMask = tableSize - 1;
+        mSampleSize = 10 * tableSize;
+        mSize = 0;
+    }
+
+    @VisibleForTesting
+    int getTableSize() {
+        return mTable.length;
+    }
+
+    /** Gets the estimated number of recent accesses of the key with the given hash code. */
+    int frequency(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((mTable[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /** Records an access of the key with the given hash code. */
+    void increment(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++mSize >= mSampleSize) {
+            reset();
+        }
+    }
+
+    /** Increments the j-th counter of the i-th long unless it is already saturated. */
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((mTable[i] & mask) != mask) {
+            mTable[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /** Halves all the counters. */
+    @VisibleForTesting
+    void reset() {
+        int oddCounters = 0;
+        for (int i = 0; i < mTable.length; i++) {
+            oddCounters += Long.bitCount(mTable[i] & ONE_MASK);
+            mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+        }
+        mSize = (mSize >>> 1) - (oddCounters >>> 2);
+    }
+
+    private int indexOf(int hash, int i) {
+        long index = (hash + SEEDS[i]) * SEEDS[i];
+        index += index >>> 32;
+        return ((int) index) & mTableMask;
+    }
+
+    /** Applies a supplemental hash function to defend against poor quality hash codes. */
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
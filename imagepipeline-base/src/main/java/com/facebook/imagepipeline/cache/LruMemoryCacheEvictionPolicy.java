@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import javax.annotation.Nullable;
+
+/**
+ * Evicts the exclusively owned item that became exclusively owned the longest time ago.
+ * <p>
+ * <p> This is the default policy of {@link CountingMemoryCache}.
+ */
+public class LruMemoryCacheEvictionPolicy<K> implements MemoryCacheEvictionPolicy<K> {
+
+    private static final Factory FACTORY = new Factory() {
+        @Override
+        public <K> MemoryCacheEvictionPolicy<K> create(@Nullable AdmissionObserver observer) {
+            return new LruMemoryCacheEvictionPolicy<>();
+        }
+    };
+
+    public static Factory factory() {
+        return FACTORY;
+    }
+
+    @Override
+    public void recordAccess(K key) {
+    }
+
+    @Override
+    public void onCacheParamsUpdated(MemoryCacheParams params) {
+    }
+
+    @Override
+    public void onExclusiveEntryAdded(K key, int sizeInBytes) {
+    }
+
+    @Override
+    public void onExclusiveEntryRemoved(K key) {
+    }
+
+    @Nullable
+    @Override
+    public K selectVictim(CountingLruMap<K, ?> exclusiveEntries) {
+        return exclusiveEntries.getFirstKey();
+    }
+
+    @Override
+    public void clear() {
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import javax.annotation.Nullable;
+
+/**
+ * Policy that decides which of the exclusively owned items of a {@link CountingMemoryCache} gets
+ * evicted next.
+ * <p>
+ * <p> The cache calls all the methods while holding its lock, so implementations don't need to be
+ * thread safe, but they must not call back into the cache.
+ *
+ * @param <K> the key type
+ */
+public interface MemoryCacheEvictionPolicy<K> {
+
+    /**
+     * Called on every insertion of the given key, and on every lookup that finds it cached. A
+     * lookup that misses is not counted, as the insertion that follows it is.
+     */
+    void recordAccess(K key);
+
+    /** Called when the cache constraints are (re)loaded. */
+    void onCacheParamsUpdated(MemoryCacheParams params);
+
+    /** Called when the item with the given key becomes exclusively owned by the cache. */
+    void onExclusiveEntryAdded(K key, int sizeInBytes);
+
+    /** Called when the item with the given key is no longer exclusively owned by the cache. */
+    void onExclusiveEntryRemoved(K key);
+
+    /**
+     * Selects the next item to be evicted.
+     *
+     * @param exclusiveEntries the exclusively owned items, in the order of their insertion
+     * @return the key of the item to be evicted, which must be one of the exclusively owned items
+     */
+    @Nullable
+    K selectVictim(CountingLruMap<K, ?> exclusiveEntries);
+
+    /** Called when all the items are removed from the cache. */
+    void clear();
+
+    /**
+     * Creates eviction policies, one for each cache (or cache segment).
+     */
+    interface Factory {
+        <K> MemoryCacheEvictionPolicy<K> create(@Nullable AdmissionObserver observer);
+    }
+
+    /**
+     * Interface used to observe the admission decisions of policies that only let a newly evictable
+     * item replace an older one if the newer item is expected to be used more often.
+     */
+    interface AdmissionObserver {
+
+        /** Called when the candidate was admitted and an older item was evicted instead. */
+        void onCandidateAdmitted();
+
+        /** Called when the candidate was rejected and is going to be evicted. */
+        void onCandidateRejected();
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import android.os.SystemClock;
+
+import com.android.internal.util.Predicate;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * {@link CountingMemoryCache} that splits the cached items between a number of independently
+ * locked segments.
+ * <p>
+ * <p> Each key is mapped to a segment by its hash code. Every segment is a
+ * {@link CountingMemoryCache} of its own, with its own queue of exclusively owned items and its own
+ * size accounting, so operations on keys that live in different segments never contend on the
+ * same lock. The maps inherited from {@link CountingMemoryCache} are not used.
+ * <p>
+ * <p> The constraints returned by the params supplier apply to the cache as a whole. They are
+ * enforced by periodically rebalancing the per-segment constraints: each segment is given the size
+ * of its in-use items plus a share of the remaining budget, and the share grows with the number of
+ * accesses the segment has seen since the last rebalancing. The per-segment constraints always add
+ * up to the global ones. An insertion a segment rejects also triggers a rebalancing, but only
+ * once until an insertion succeeds or the next periodic rebalancing, so that a cache under memory
+ * pressure does not sweep the segment locks on every insertion.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@ThreadSafe
+public class SegmentedCountingMemoryCache<K, V> extends CountingMemoryCache<K, V> {
+
+    // How often the per-segment constraints get recomputed.
+    @VisibleForTesting
+    static final long REBALANCE_INTERVAL_MS = TimeUnit.SECONDS.toMillis(1);
+
+    private final Segment<K, V>[] mSegments;
+    private final int mSegmentMask;
+    private final ValueDescriptor<V> mValueDescriptor;
+    private final Supplier<MemoryCacheParams> mMemoryCacheParamsSupplier;
+    private final AtomicBoolean mIsRebalancing = new AtomicBoolean(false);
+    private final AtomicBoolean mRebalanceOnRejection = new AtomicBoolean(true);
+    private volatile long mLastRebalance;
+    @GuardedBy("this")
+    private long mLastCacheParamsCheck;
+
+    public SegmentedCountingMemoryCache(
+            ValueDescriptor<V> valueDescriptor,
+            CacheTrimStrategy cacheTrimStrategy,
+            Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+            PlatformBitmapFactory platformBitmapFactory,
+            boolean isExternalCreatedBitmapLogEnabled,
+            int segmentCount) {
+        this(
+                valueDescriptor,
+                cacheTrimStrategy,
+                memoryCacheParamsSupplier,
+                platformBitmapFactory,
+                isExternalCreatedBitmapLogEnabled,
+                segmentCount,
+                LruMemoryCacheEvictionPolicy.factory(),
+                null);
+    }
+
+    /**
+     * @param evictionPolicyFactory creates the eviction policy of each segment
+     * @param admissionObserver     observer of the admission decisions of all the segments'
+     *                              policies; it gets called from several threads concurrently
+     */
+    @SuppressWarnings("unchecked")
+    public SegmentedCountingMemoryCache(
+            ValueDescriptor<V> valueDescriptor,
+            CacheTrimStrategy cacheTrimStrategy,
+            Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+            PlatformBitmapFactory platformBitmapFactory,
+            boolean isExternalCreatedBitmapLogEnabled,
+            int segmentCount,
+            MemoryCacheEvictionPolicy.Factory evictionPolicyFactory,
+            @Nullable MemoryCacheEvictionPolicy.AdmissionObserver admissionObserver) {
+        super(
+                valueDescriptor,
+                cacheTrimStrategy,
+                memoryCacheParamsSupplier,
+                platformBitmapFactory,
+                isExternalCreatedBitmapLogEnabled);
+        Preconditions.checkArgument(segmentCount > 0);
+        mValueDescriptor = valueDescriptor;
+        mMemoryCacheParamsSupplier = memoryCacheParamsSupplier;
+        mLastCacheParamsCheck = SystemClock.uptimeMillis();
+
+        // round up to a power of two so that the segment can be picked with a mask
+        int actualSegmentCount = 1;
+        while (actualSegmentCount < segmentCount) {
+            actualSegmentCount <<= 1;
+        }
+        mSegmentMask = actualSegmentCount - 1;
+        mSegments = new Segment[actualSegmentCount];
+        for (int i = 0; i < actualSegmentCount; i++) {
+            mSegments[i] = new Segment<>(
+                    valueDescriptor,
+                    cacheTrimStrategy,
+                    platformBitmapFactory,
+                    splitEvenly(mMemoryCacheParams, actualSegmentCount),
+                    evictionPolicyFactory.<K>create(admissionObserver));
+        }
+        mLastRebalance = SystemClock.uptimeMillis();
+    }
+
+    private static MemoryCacheParams splitEvenly(MemoryCacheParams params, int segmentCount) {
+        return new MemoryCacheParams(
+                params.maxCacheSize / segmentCount,
+                params.maxCacheEntries / segmentCount,
+                params.maxEvictionQueueSize / segmentCount,
+                params.maxEvictionQueueEntries / segmentCount,
+                params.maxCacheEntrySize);
+    }
+
+    private static int clampToInt(long value) {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    /** Gets the segment the given key belongs to. */
+    private Segment<K, V> segmentFor(K key) {
+        int hash = key.hashCode();
+        // spread the higher bits, as keys often differ only in those
+        hash ^= (hash >>> 16);
+        return mSegments[hash & mSegmentMask];
+    }
+
+    /** Gets the caches that back the individual segments. */
+    List<CountingMemoryCache<K, V>> getSegments() {
+        List<CountingMemoryCache<K, V>> segments = new ArrayList<>(mSegments.length);
+        for (Segment<K, V> segment : mSegments) {
+            segments.add(segment.cache);
+        }
+        return segments;
+    }
+
+    @Override
+    public CloseableReference<V> cache(
+            final K key,
+            final CloseableReference<V> valueRef,
+            final EntryStateObserver<K> observer) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(valueRef);
+        Segment<K, V> segment = segmentFor(key);
+        segment.accessCount.incrementAndGet();
+        CloseableReference<V> clientRef = segment.cache.cache(key, valueRef, observer);
+        if (clientRef == null &&
+                fitsInSingleEntry(valueRef.get()) &&
+                mRebalanceOnRejection.compareAndSet(true, false)) {
+            // The segment may have run out of its share of the budget while other segments still
+            // have room, so rebalance right away and give it another try.
+            if (tryRebalance()) {
+                clientRef = segment.cache.cache(key, valueRef, observer);
+            }
+        }
+        else {
+            maybeRebalance();
+        }
+        if (clientRef != null) {
+            // the shares may have changed, so a rejection may be worth a rebalancing again
+            mRebalanceOnRejection.set(true);
+        }
+        return clientRef;
+    }
+
+    @Nullable
+    @Override
+    public CloseableReference<V> get(final K key) {
+        Preconditions.checkNotNull(key);
+        Segment<K, V> segment = segmentFor(key);
+        segment.accessCount.incrementAndGet();
+        CloseableReference<V> clientRef = segment.cache.get(key);
+        maybeRebalance();
+        return clientRef;
+    }
+
+    @Nullable
+    @Override
+    public CloseableReference<V> reuse(K key) {
+        Preconditions.checkNotNull(key);
+        return segmentFor(key).cache.reuse(key);
+    }
+
+    @Override
+    public int removeAll(Predicate<K> predicate) {
+        int removed = 0;
+        for (Segment<K, V> segment : mSegments) {
+            removed += segment.cache.removeAll(predicate);
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        for (Segment<K, V> segment : mSegments) {
+            segment.cache.clear();
+        }
+    }
+
+    @Override
+    public boolean contains(Predicate<K> predicate) {
+        for (Segment<K, V> segment : mSegments) {
+            if (segment.cache.contains(predicate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void trim(MemoryTrimType trimType) {
+        for (Segment<K, V> segment : mSegments) {
+            segment.cache.trim(trimType);
+        }
+        tryRebalance();
+    }
+
+    @Override
+    public int getCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            count += segment.cache.getCount();
+        }
+        return count;
+    }
+
+    @Override
+    public int getSizeInBytes() {
+        int size = 0;
+        for (Segment<K, V> segment : mSegments) {
+            size += segment.cache.getSizeInBytes();
+        }
+        return size;
+    }
+
+    @Override
+    public int getInUseCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            count += segment.cache.getInUseCount();
+        }
+        return count;
+    }
+
+    @Override
+    public int getInUseSizeInBytes() {
+        int size = 0;
+        for (Segment<K, V> segment : mSegments) {
+            size += segment.cache.getInUseSizeInBytes();
+        }
+        return size;
+    }
+
+    @Override
+    public int getEvictionQueueCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            count += segment.cache.getEvictionQueueCount();
+        }
+        return count;
+    }
+
+    @Override
+    public int getEvictionQueueSizeInBytes() {
+        int size = 0;
+        for (Segment<K, V> segment : mSegments) {
+            size += segment.cache.getEvictionQueueSizeInBytes();
+        }
+        return size;
+    }
+
+    /** Checks whether the value is small enough to be cached at all. */
+    private boolean fitsInSingleEntry(V value) {
+        return mValueDescriptor.getSizeInBytes(value) <= getGlobalCacheParams().maxCacheEntrySize;
+    }
+
+    /** Rebalances the segments if enough time has passed since the last rebalancing. */
+    private void maybeRebalance() {
+        if (mLastRebalance + REBALANCE_INTERVAL_MS > SystemClock.uptimeMillis()) {
+            return;
+        }
+        if (tryRebalance()) {
+            mRebalanceOnRejection.set(true);
+        }
+    }
+
+    /**
+     * Rebalances the segments unless another thread is already doing so.
+     *
+     * @return true if the segments got rebalanced by this call
+     */
+    private boolean tryRebalance() {
+        if (!mIsRebalancing.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            rebalance();
+        } finally {
+            mIsRebalancing.set(false);
+        }
+        return true;
+    }
+
+    /**
+     * Recomputes the per-segment constraints.
+     * <p>
+     * <p> Each segment keeps room for its in-use items. The rest of the global budget is split so
+     * that one half is shared evenly and the other half in proportion to the number of accesses
+     * each segment has seen since the last rebalancing.
+     * <p>
+     * <p> This method invokes {@link CountingMemoryCache#updateCacheParams} which may close
+     * evicted references, so it must not be called while holding any cache lock.
+     */
+    @VisibleForTesting
+    void rebalance() {
+        mLastRebalance = SystemClock.uptimeMillis();
+        final MemoryCacheParams params = getGlobalCacheParams();
+        final int segmentCount = mSegments.length;
+        final int[] inUseSizes = new int[segmentCount];
+        final int[] inUseCounts = new int[segmentCount];
+        final int[] accessCounts = new int[segmentCount];
+        long totalInUseSize = 0;
+        long totalInUseCount = 0;
+        long totalAccessCount = 0;
+        for (int i = 0; i < segmentCount; i++) {
+            Segment<K, V> segment = mSegments[i];
+            synchronized (segment.cache) {
+                inUseSizes[i] = segment.cache.getInUseSizeInBytes();
+                inUseCounts[i] = segment.cache.getInUseCount();
+            }
+            accessCounts[i] = segment.accessCount.getAndSet(0);
+            totalInUseSize += inUseSizes[i];
+            totalInUseCount += inUseCounts[i];
+            totalAccessCount += accessCounts[i];
+        }
+
+        final long remainingSize = Math.max(0, params.maxCacheSize - totalInUseSize);
+        final long remainingCount = Math.max(0, params.maxCacheEntries - totalInUseCount);
+        for (int i = 0; i < segmentCount; i++) {
+            double share = (totalAccessCount == 0)
+                    ? 1.0 / segmentCount
+                    : 0.5 / segmentCount + 0.5 * accessCounts[i] / totalAccessCount;
+            MemoryCacheParams segmentParams = new MemoryCacheParams(
+                    clampToInt(inUseSizes[i] + (long) (remainingSize * share)),
+                    clampToInt(inUseCounts[i] + (long) (remainingCount * share)),
+                    clampToInt((long) (params.maxEvictionQueueSize * share)),
+                    clampToInt((long) (params.maxEvictionQueueEntries * share)),
+                    params.maxCacheEntrySize);
+            mSegments[i].params = segmentParams;
+            mSegments[i].cache.updateCacheParams(segmentParams);
+        }
+    }
+
+    /**
+     * Gets the global cache params, updating them if enough time has passed since the last update.
+     */
+    private synchronized MemoryCacheParams getGlobalCacheParams() {
+        if (mLastCacheParamsCheck + PARAMS_INTERCHECK_INTERVAL_MS <= SystemClock.uptimeMillis()) {
+            mLastCacheParamsCheck = SystemClock.uptimeMillis();
+            mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
+        }
+        return mMemoryCacheParams;
+    }
+
+    /**
+     * A single segment of the cache. Also supplies the segment's current constraints to the cache
+     * backing it.
+     */
+    private static class Segment<K, V> implements Supplier<MemoryCacheParams> {
+        final CountingMemoryCache<K, V> cache;
+        // Number of lookups and insertions since the last rebalancing.
+        final AtomicInteger accessCount = new AtomicInteger();
+        volatile MemoryCacheParams params;
+
+        Segment(
+                ValueDescriptor<V> valueDescriptor,
+                CacheTrimStrategy cacheTrimStrategy,
+                PlatformBitmapFactory platformBitmapFactory,
+                MemoryCacheParams initialParams,
+                MemoryCacheEvictionPolicy<K> evictionPolicy) {
+            params = initialParams;
+            cache = new CountingMemoryCache<>(
+                    valueDescriptor,
+                    cacheTrimStrategy,
+                    this,
+                    platformBitmapFactory,
+                    false,
+                    evictionPolicy);
+        }
+
+        @Override
+        public MemoryCacheParams get() {
+            return params;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.util.ByteConstants;
+
+import java.util.LinkedHashMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * W-TinyLFU eviction policy.
+ * <p>
+ * <p> Items that become exclusively owned for the first time enter a small admission window. The
+ * rest of the exclusively owned items form the main region, which is split into a probation and a
+ * protected segment; items that have been used again since they were cached go straight to the
+ * protected segment.
+ * <p>
+ * <p> When the window grows above its share, its oldest item is a candidate for the main region
+ * and competes with the oldest item of the main region: whichever of the two has been accessed
+ * more often recently, as estimated by a {@link FrequencySketch}, stays in the cache and the other
+ * one is evicted. This way a burst of one-off items (e.g. during a fling through a long list)
+ * cannot flush the frequently used items out of the cache.
+ */
+@NotThreadSafe
+public class TinyLfuMemoryCacheEvictionPolicy<K> implements MemoryCacheEvictionPolicy<K> {
+
+    @VisibleForTesting
+    static final float DEFAULT_WINDOW_RATIO = 0.01f;
+    @VisibleForTesting
+    static final float DEFAULT_PROTECTED_RATIO = 0.8f;
+    // the sketch is sized for the number of items that fit in the cache if they are this large,
+    // as the maximum count of some caches is unbounded
+    @VisibleForTesting
+    static final int EXPECTED_ENTRY_SIZE = 16 * ByteConstants.KB;
+
+    private final float mWindowRatio;
+    private final float mProtectedRatio;
+    @Nullable
+    private final AdmissionObserver mAdmissionObserver;
+    @VisibleForTesting
+    final FrequencySketch mSketch = new FrequencySketch();
+    // The regions map keys to sizes in bytes and are kept in LRU order.
+    @VisibleForTesting
+    final LinkedHashMap<K, Integer> mWindow = new LinkedHashMap<>();
+    @VisibleForTesting
+    final LinkedHashMap<K, Integer> mProbation = new LinkedHashMap<>();
+    @VisibleForTesting
+    final LinkedHashMap<K, Integer> mProtected = new LinkedHashMap<>();
+    private long mWindowSize;
+    private long mProbationSize;
+    private long mProtectedSize;
+
+    /**
+     * @param windowRatio       share of the exclusively owned bytes kept in the admission window
+     * @param protectedRatio    share of the main region bytes kept in the protected segment
+     * @param admissionObserver observer of the admission decisions, if any
+     */
+    public TinyLfuMemoryCacheEvictionPolicy(
+            float windowRatio,
+            float protectedRatio,
+            @Nullable AdmissionObserver admissionObserver) {
+        Preconditions.checkArgument(windowRatio >= 0 && windowRatio <= 1);
+        Preconditions.checkArgument(protectedRatio >= 0 && protectedRatio <= 1);
+        mWindowRatio = windowRatio;
+        mProtectedRatio = protectedRatio;
+        mAdmissionObserver = admissionObserver;
+    }
+
+    /** Gets a factory of policies with the default window and protected segment shares. */
+    public static Factory factory() {
+        return factory(DEFAULT_WINDOW_RATIO, DEFAULT_PROTECTED_RATIO);
+    }
+
+    /**
+     * Gets a factory of policies.
+     *
+     * @param windowRatio    share of the exclusively owned bytes kept in the admission window
+     * @param protectedRatio share of the main region bytes kept in the protected segment
+     */
+    public static Factory factory(final float windowRatio, final float protectedRatio) {
+        return new Factory() {
+            @Override
+            public <K> MemoryCacheEvictionPolicy<K> create(@Nullable AdmissionObserver observer) {
+                return new TinyLfuMemoryCacheEvictionPolicy<>(
+                        windowRatio,
+                        protectedRatio,
+                        observer);
+            }
+        };
+    }
+
+    @Override
+    public void recordAccess(K key) {
+        mSketch.increment(key.hashCode());
+    }
+
+    @Override
+    public void onCacheParamsUpdated(MemoryCacheParams params) {
+        mSketch.ensureCapacity(
+                (int) Math.min(params.maxCacheEntries, params.maxCacheSize / EXPECTED_ENTRY_SIZE));
+    }
+
+    @Override
+    public void onExclusiveEntryAdded(K key, int sizeInBytes) {
+        onExclusiveEntryRemoved(key);
+        if (mSketch.frequency(key.hashCode()) > 1) {
+            // the item has been used again since it was cached
+            mProtected.put(key, sizeInBytes);
+            mProtectedSize += sizeInBytes;
+            demoteProtectedOverflow();
+        } else {
+            mWindow.put(key, sizeInBytes);
+            mWindowSize += sizeInBytes;
+        }
+    }
+
+    @Override
+    public void onExclusiveEntryRemoved(K key) {
+        Integer size;
+        if ((size = mWindow.remove(key)) != null) {
+            mWindowSize -= size;
+        } else if ((size = mProbation.remove(key)) != null) {
+            mProbationSize -= size;
+        } else if ((size = mProtected.remove(key)) != null) {
+            mProtectedSize -= size;
+        }
+    }
+
+    @Nullable
+    @Override
+    public K selectVictim(CountingLruMap<K, ?> exclusiveEntries) {
+        long totalSize = mWindowSize + mProbationSize + mProtectedSize;
+        if (!mWindow.isEmpty() && mWindowSize > mWindowRatio * totalSize) {
+            K candidate = firstKey(mWindow);
+            K victim = !mProbation.isEmpty() ? firstKey(mProbation) : firstKey(mProtected);
+            if (victim == null) {
+                return candidate;
+            }
+            if (mSketch.frequency(candidate.hashCode()) > mSketch.frequency(victim.hashCode())) {
+                // admit the candidate into the main region and evict the victim instead
+                int size = mWindow.remove(candidate);
+                mWindowSize -= size;
+                mProbation.put(candidate, size);
+                mProbationSize += size;
+                if (mAdmissionObserver != null) {
+                    mAdmissionObserver.onCandidateAdmitted();
+                }
+                return victim;
+            }
+            if (mAdmissionObserver != null) {
+                mAdmissionObserver.onCandidateRejected();
+            }
+            return candidate;
+        }
+        if (!mProbation.isEmpty()) {
+            return firstKey(mProbation);
+        }
+        if (!mProtected.isEmpty()) {
+            return firstKey(mProtected);
+        }
+        if (!mWindow.isEmpty()) {
+            return firstKey(mWindow);
+        }
+        return exclusiveEntries.getFirstKey();
+    }
+
+    @Override
+    public void clear() {
+        mWindow.clear();
+        mProbation.clear();
+        mProtected.clear();
+        mWindowSize = 0;
+        mProbationSize = 0;
+        mProtectedSize = 0;
+    }
+
+    /** Moves the oldest protected items to probation until the protected segment fits its share. */
+    private void demoteProtectedOverflow() {
+        while (mProtected.size() > 1 &&
+                mProtectedSize > mProtectedRatio * (mProbationSize + mProtectedSize)) {
+            K key = firstKey(mProtected);
+            int size = mProtected.remove(key);
+            mProtectedSize -= size;
+            mProbation.put(key, size);
+            mProbationSize += size;
+        }
+    }
+
+    @Nullable
+    private static <K> K firstKey(LinkedHashMap<K, Integer> region) {
+        return region.isEmpty() ? null : region.keySet().iterator().next();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementation of {@link ExecutorSupplier} that resizes its decode and I/O pools to the
+ * workload.
+ * <p>
+ * <p> Same thread layout as {@link DefaultExecutorSupplier}, but the decode pool and the pool
+ * shared by disk reads and writes are {@link AdaptiveThreadPoolExecutor}s that grow while work
+ * waits for a thread and shrink while their threads are mostly idle, within the given bounds.
+ * Decodes and background tasks count as CPU-bound, and the decode pool does not grow while they
+ * already keep all cores busy.
+ * <p>
+ * <p> The current size of the adaptive pools and the measurements behind it are available from
+ * {@link #getDecodeExecutorStats} and {@link #getIoExecutorStats}.
+ */
+public class AdaptiveExecutorSupplier implements ExecutorSupplier {
+    private static final int MIN_IO_BOUND_THREADS = 2;
+    private static final int MAX_IO_BOUND_THREADS = 4;
+    private static final int NUM_LIGHTWEIGHT_BACKGROUND_THREADS = 1;
+
+    private final AdaptiveThreadPoolExecutor mIoBoundExecutor;
+    private final AdaptiveThreadPoolExecutor mDecodeExecutor;
+    private final Executor mBackgroundExecutor;
+    private final Executor mLightWeightBackgroundExecutor;
+
+    /**
+     * Lets the decode pool use between one and <code>numCpuBoundThreads</code> threads, and the
+     * I/O pool between {@link #MIN_IO_BOUND_THREADS} and {@link #MAX_IO_BOUND_THREADS}.
+     */
+    public AdaptiveExecutorSupplier(int numCpuBoundThreads) {
+        this(
+                1,
+                numCpuBoundThreads,
+                MIN_IO_BOUND_THREADS,
+                MAX_IO_BOUND_THREADS,
+                numCpuBoundThreads,
+                AdaptivePoolSizer.DEFAULT_WINDOW_MS);
+    }
+
+    /**
+     * @param minDecodeThreads     the decode pool never shrinks below this size
+     * @param maxDecodeThreads     the decode pool never grows above this size; this is also its
+     *                             initial size
+     * @param minIoThreads         the I/O pool never shrinks below this size; this is also its
+     *                             initial size
+     * @param maxIoThreads         the I/O pool never grows above this size
+     * @param numBackgroundThreads size of the background pool, which is not resized
+     * @param windowMs             how long to measure before each sizing decision
+     */
+    public AdaptiveExecutorSupplier(
+            int minDecodeThreads,
+            int maxDecodeThreads,
+            int minIoThreads,
+            int maxIoThreads,
+            int numBackgroundThreads,
+            long windowMs) {
+        ThreadFactory backgroundPriorityThreadFactory =
+                new PriorityThreadFactory(Process.THREAD_PRIORITY_BACKGROUND);
+        AtomicInteger runningCpuBoundTasks = new AtomicInteger();
+        int cpuCores = Runtime.getRuntime().availableProcessors();
+        long now = SystemClock.uptimeMillis();
+
+        mIoBoundExecutor = new AdaptiveThreadPoolExecutor(
+                new AdaptivePoolSizer(
+                        "io",
+                        minIoThreads,
+                        maxIoThreads,
+                        minIoThreads,
+                        0,
+                        windowMs,
+                        now),
+                Executors.defaultThreadFactory(),
+                null);
+        mDecodeExecutor = new AdaptiveThreadPoolExecutor(
+                new AdaptivePoolSizer(
+                        "decode",
+                        minDecodeThreads,
+                        maxDecodeThreads,
+                        maxDecodeThreads,
+                        cpuCores,
+                        windowMs,
+                        now),
+                backgroundPriorityThreadFactory,
+                runningCpuBoundTasks);
+        // fixed size, but its tasks compete with decodes for the same cores
+        mBackgroundExecutor = new AdaptiveThreadPoolExecutor(
+                new AdaptivePoolSizer(
+                        "background",
+                        numBackgroundThreads,
+                        numBackgroundThreads,
+                        numBackgroundThreads,
+                        cpuCores,
+                        windowMs,
+                        now),
+                backgroundPriorityThreadFactory,
+                runningCpuBoundTasks);
+        mLightWeightBackgroundExecutor = Executors.newFixedThreadPool(
+                NUM_LIGHTWEIGHT_BACKGROUND_THREADS,
+                backgroundPriorityThreadFactory);
+    }
+
+    @Override
+    public Executor forLocalStorageRead() {
+        return mIoBoundExecutor;
+    }
+
+    @Override
+    public Executor forLocalStorageWrite() {
+        return mIoBoundExecutor;
+    }
+
+    @Override
+    public Executor forDecode() {
+        return mDecodeExecutor;
+    }
+
+    @Override
+    public Executor forBackgroundTasks() {
+        return mBackgroundExecutor;
+    }
+
+    @Override
+    public Executor forLightweightBackgroundTasks() {
+        return mLightWeightBackgroundExecutor;
+    }
+
+    public AdaptivePoolSizer.Stats getDecodeExecutorStats() {
+        return mDecodeExecutor.getStats();
+    }
+
+    public AdaptivePoolSizer.Stats getIoExecutorStats() {
+        return mIoBoundExecutor.getStats();
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Decides how many threads an {@link AdaptiveThreadPoolExecutor} should run, from the queue and
+ * run times of the tasks it finished.
+ * <p>
+ * <p> Measurements are aggregated over windows of <code>windowMs</code> milliseconds. At the end
+ * of each window the pool grows by one thread if work is still queued and tasks waited for a
+ * thread longer than {@link #GROW_QUEUE_TO_RUN_RATIO} of the time they ran, and shrinks by one
+ * thread if tasks barely waited and the threads were busy less than
+ * {@link #SHRINK_MAX_UTILIZATION} of the time. The size always stays within the given bounds.
+ * <p>
+ * <p> For CPU-bound pools the number of cores is given as well; such a pool does not grow while
+ * at least that many CPU-bound tasks are running across all pools, because another thread would
+ * only compete for the same cores.
+ */
+@ThreadSafe
+public class AdaptivePoolSizer {
+    private static final Class<?> TAG = AdaptivePoolSizer.class;
+
+    public static final long DEFAULT_WINDOW_MS = 1000;
+
+    @VisibleForTesting
+    static final float GROW_QUEUE_TO_RUN_RATIO = 0.5f;
+    @VisibleForTesting
+    static final float SHRINK_MAX_QUEUE_TO_RUN_RATIO = 0.1f;
+    @VisibleForTesting
+    static final float SHRINK_MAX_UTILIZATION = 0.5f;
+
+    private final String mName;
+    private final int mMinPoolSize;
+    private final int mMaxPoolSize;
+    private final int mCpuCores;
+    private final long mWindowMs;
+
+    @GuardedBy("this")
+    private int mPoolSize;
+    @GuardedBy("this")
+    private long mWindowStartTime;
+    @GuardedBy("this")
+    private int mWindowTaskCount;
+    @GuardedBy("this")
+    private long mWindowQueueTimeMs;
+    @GuardedBy("this")
+    private long mWindowRunTimeMs;
+    @GuardedBy("this")
+    private Stats mLastStats;
+    @GuardedBy("this")
+    private int mGrowCount;
+    @GuardedBy("this")
+    private int mShrinkCount;
+
+    /**
+     * @param name            used in logs and stats
+     * @param minPoolSize     the pool never shrinks below this size
+     * @param maxPoolSize     the pool never grows above this size
+     * @param initialPoolSize the size the pool starts with
+     * @param cpuCores        number of cores CPU-bound pools share, or 0 if the pool is not
+     *                        CPU-bound
+     * @param windowMs        how long to measure before each sizing decision
+     * @param now             start time of the first window
+     */
+    public AdaptivePoolSizer(
+            String name,
+            int minPoolSize,
+            int maxPoolSize,
+            int initialPoolSize,
+            int cpuCores,
+            long windowMs,
+            long now) {
+        Preconditions.checkArgument(minPoolSize > 0);
+        Preconditions.checkArgument(maxPoolSize >= minPoolSize);
+        Preconditions.checkArgument(
+                initialPoolSize >= minPoolSize && initialPoolSize <= maxPoolSize);
+        Preconditions.checkArgument(cpuCores >= 0);
+        Preconditions.checkArgument(windowMs > 0);
+        mName = Preconditions.checkNotNull(name);
+        mMinPoolSize = minPoolSize;
+        mMaxPoolSize = maxPoolSize;
+        mCpuCores = cpuCores;
+        mWindowMs = windowMs;
+        mPoolSize = initialPoolSize;
+        mWindowStartTime = now;
+        mLastStats = new Stats(name, initialPoolSize, minPoolSize, maxPoolSize, 0, 0, 0, 0, 0);
+    }
+
+    public synchronized int getPoolSize() {
+        return mPoolSize;
+    }
+
+    /**
+     * @return the measurements of the last completed window and the decisions taken so far
+     */
+    public synchronized Stats getStats() {
+        return mLastStats;
+    }
+
+    /**
+     * Records a finished task and, at the end of a window, updates the pool size.
+     *
+     * @param queueTimeMs          how long the task waited for a thread
+     * @param runTimeMs            how long the task ran
+     * @param queueSize            number of tasks still waiting for a thread
+     * @param runningCpuBoundTasks number of CPU-bound tasks running in all pools
+     * @param now                  time the task finished
+     * @return the size the pool should have from now on
+     */
+    public synchronized int onTaskFinished(
+            long queueTimeMs,
+            long runTimeMs,
+            int queueSize,
+            int runningCpuBoundTasks,
+            long now) {
+        mWindowTaskCount++;
+        mWindowQueueTimeMs += Math.max(0, queueTimeMs);
+        mWindowRunTimeMs += Math.max(0, runTimeMs);
+        long windowDurationMs = now - mWindowStartTime;
+        if (windowDurationMs < mWindowMs) {
+            return mPoolSize;
+        }
+
+        long averageQueueTimeMs = mWindowQueueTimeMs / mWindowTaskCount;
+        long averageRunTimeMs = mWindowRunTimeMs / mWindowTaskCount;
+        float utilization = (float) mWindowRunTimeMs / (mPoolSize * windowDurationMs);
+        boolean cpuAvailable = mCpuCores == 0 || runningCpuBoundTasks < mCpuCores;
+        int oldPoolSize = mPoolSize;
+        if (queueSize > 0 &&
+                averageQueueTimeMs > averageRunTimeMs * GROW_QUEUE_TO_RUN_RATIO &&
+                mPoolSize < mMaxPoolSize &&
+                cpuAvailable) {
+            mPoolSize++;
+            mGrowCount++;
+        }
+        else if (averageQueueTimeMs <= averageRunTimeMs * SHRINK_MAX_QUEUE_TO_RUN_RATIO &&
+                utilization < SHRINK_MAX_UTILIZATION &&
+                mPoolSize > mMinPoolSize) {
+            mPoolSize--;
+            mShrinkCount++;
+        }
+        if (mPoolSize != oldPoolSize) {
+            FLog.v(
+                    TAG,
+                    "%s pool resized from %d to %d threads: queue %d ms, run %d ms, busy %d%%",
+                    mName,
+                    oldPoolSize,
+                    mPoolSize,
+                    averageQueueTimeMs,
+                    averageRunTimeMs,
+                    (int) (utilization * 100));
+        }
+        mLastStats = new Stats(
+                mName,
+                mPoolSize,
+                mMinPoolSize,
+                mMaxPoolSize,
+                averageQueueTimeMs,
+                averageRunTimeMs,
+                (int) (utilization * 100),
+                mGrowCount,
+                mShrinkCount);
+
+        mWindowStartTime = now;
+        mWindowTaskCount = 0;
+        mWindowQueueTimeMs = 0;
+        mWindowRunTimeMs = 0;
+        return mPoolSize;
+    }
+
+    /**
+     * Sizing decisions of a pool and the measurements they were based on.
+     */
+    public static class Stats {
+        public final String name;
+        public final int poolSize;
+        public final int minPoolSize;
+        public final int maxPoolSize;
+        public final long averageQueueTimeMs;
+        public final long averageRunTimeMs;
+        public final int utilizationPercent;
+        public final int growCount;
+        public final int shrinkCount;
+
+        private Stats(
+                String name,
+                int poolSize,
+                int minPoolSize,
+                int maxPoolSize,
+                long averageQueueTimeMs,
+                long averageRunTimeMs,
+                int utilizationPercent,
+                int growCount,
+                int shrinkCount) {
+            this.name = name;
+            this.poolSize = poolSize;
+            this.minPoolSize = minPoolSize;
+            this.maxPoolSize = maxPoolSize;
+            this.averageQueueTimeMs = averageQueueTimeMs;
+            this.averageRunTimeMs = averageRunTimeMs;
+            this.utilizationPercent = utilizationPercent;
+            this.growCount = growCount;
+            this.shrinkCount = shrinkCount;
+        }
+    }
+}
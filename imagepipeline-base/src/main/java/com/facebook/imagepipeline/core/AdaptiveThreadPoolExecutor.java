@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import android.os.SystemClock;
+
+import com.facebook.common.internal.Preconditions;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Thread pool whose size is adjusted by an {@link AdaptivePoolSizer} while it runs.
+ * <p>
+ * <p> Every task is timed from submission to start (queue time) and from start to finish (run
+ * time), and the measurements are passed on to the sizer when the task finishes. Tasks run in
+ * submission order. Idle threads exit after {@link #KEEP_ALIVE_MS}, so a pool that grew during a
+ * burst does not keep its threads around afterwards.
+ */
+@ThreadSafe
+public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor {
+
+    private static final long KEEP_ALIVE_MS = 30 * 1000;
+
+    private final AdaptivePoolSizer mSizer;
+    @Nullable
+    private final AtomicInteger mRunningCpuBoundTasks;
+
+    /**
+     * @param sizer                decides the size of this pool
+     * @param threadFactory        creates the threads of this pool
+     * @param runningCpuBoundTasks counter of CPU-bound tasks running across pools, shared by all
+     *                             CPU-bound pools; null if this pool is not CPU-bound
+     */
+    public AdaptiveThreadPoolExecutor(
+            AdaptivePoolSizer sizer,
+            ThreadFactory threadFactory,
+            @Nullable AtomicInteger runningCpuBoundTasks) {
+        super(
+                sizer.getPoolSize(),
+                sizer.getPoolSize(),
+                KEEP_ALIVE_MS,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                threadFactory);
+        allowCoreThreadTimeOut(true);
+        mSizer = sizer;
+        mRunningCpuBoundTasks = runningCpuBoundTasks;
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+        Preconditions.checkNotNull(runnable);
+        super.execute(new TimedRunnable(runnable, SystemClock.uptimeMillis()));
+    }
+
+    public AdaptivePoolSizer.Stats getStats() {
+        return mSizer.getStats();
+    }
+
+    private void onTaskFinished(long queueTimeMs, long runTimeMs, long now) {
+        int runningCpuBoundTasks =
+                mRunningCpuBoundTasks == null ? 0 : mRunningCpuBoundTasks.get();
+        int poolSize = mSizer.onTaskFinished(
+                queueTimeMs,
+                runTimeMs,
+                getQueue().size(),
+                runningCpuBoundTasks,
+                now);
+        if (poolSize != getCorePoolSize()) {
+            resize(poolSize);
+        }
+    }
+
+    private synchronized void resize(int poolSize) {
+        // ThreadPoolExecutor requires the maximum size to never be below the core size
+        if (poolSize > getMaximumPoolSize()) {
+            setMaximumPoolSize(poolSize);
+            setCorePoolSize(poolSize);
+        }
+        else {
+            setCorePoolSize(poolSize);
+            setMaximumPoolSize(poolSize);
+        }
+    }
+
+    private class TimedRunnable implements Runnable {
+        private final Runnable mRunnable;
+        private final long mEnqueueTime;
+
+        TimedRunnable(Runnable runnable, long enqueueTime) {
+            mRunnable = runnable;
+            mEnqueueTime = enqueueTime;
+        }
+
+        @Override
+        public void run() {
+            final long startTime = SystemClock.uptimeMillis();
+            if (mRunningCpuBoundTasks != null) {
+                mRunningCpuBoundTasks.incrementAndGet();
+            }
+            try {
+                mRunnable.run();
+            } finally {
+                if (mRunningCpuBoundTasks != null) {
+                    mRunningCpuBoundTasks.decrementAndGet();
+                }
+                final long finishTime = SystemClock.uptimeMillis();
+                onTaskFinished(startTime - mEnqueueTime, finishTime - startTime, finishTime);
+            }
+        }
+    }
+}
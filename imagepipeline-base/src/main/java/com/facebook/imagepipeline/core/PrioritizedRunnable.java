@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
+import com.facebook.imagepipeline.common.Priority;
+
+/**
+ * Runnable tagged with the priority of the work it performs.
+ * <p>
+ * <p> The priority is read from the supplier every time it is needed, so a
+ * {@link PriorityExecutor} always orders queued work by its current priority rather than by the
+ * priority it had when it was submitted.
+ */
+public class PrioritizedRunnable implements Runnable {
+
+    private final Runnable mRunnable;
+    private final Supplier<Priority> mPrioritySupplier;
+
+    public PrioritizedRunnable(Runnable runnable, Supplier<Priority> prioritySupplier) {
+        mRunnable = Preconditions.checkNotNull(runnable);
+        mPrioritySupplier = Preconditions.checkNotNull(prioritySupplier);
+    }
+
+    public Priority getPriority() {
+        return mPrioritySupplier.get();
+    }
+
+    @Override
+    public void run() {
+        mRunnable.run();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import android.os.SystemClock;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.imagepipeline.common.Priority;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Fixed size thread pool that runs queued work in order of priority.
+ * <p>
+ * <p> Runnables wrapped in a {@link PrioritizedRunnable} are ordered by the priority they report
+ * at the moment a thread becomes free, so work whose priority changed while it was queued (e.g.
+ * because a prefetch became visible) is picked up in its new position. Runnables that are not
+ * tagged are treated as {@link Priority#HIGH}. Runnables with equal priority run in the order
+ * they were submitted.
+ * <p>
+ * <p> To prevent starvation, a queued runnable is promoted by one priority level for every
+ * <code>agingIntervalMs</code> milliseconds it has been waiting.
+ */
+@ThreadSafe
+public class PriorityExecutor implements Executor {
+
+    public static final long DEFAULT_AGING_INTERVAL_MS = 1000;
+
+    private static final int MAX_PRIORITY = Priority.HIGH.ordinal();
+
+    private final int mMaxThreads;
+    private final ThreadFactory mThreadFactory;
+    private final long mAgingIntervalMs;
+    private final Runnable mWorker;
+
+    @GuardedBy("this")
+    private final ArrayList<QueuedRunnable> mQueue;
+    @GuardedBy("this")
+    private int mThreadCount;
+
+    public PriorityExecutor(int maxThreads, ThreadFactory threadFactory) {
+        this(maxThreads, threadFactory, DEFAULT_AGING_INTERVAL_MS);
+    }
+
+    public PriorityExecutor(int maxThreads, ThreadFactory threadFactory, long agingIntervalMs) {
+        Preconditions.checkArgument(maxThreads > 0);
+        Preconditions.checkArgument(agingIntervalMs > 0);
+        mMaxThreads = maxThreads;
+        mThreadFactory = Preconditions.checkNotNull(threadFactory);
+        mAgingIntervalMs = agingIntervalMs;
+        mQueue = new ArrayList<>();
+        mThreadCount = 0;
+        mWorker = new Runnable() {
+            @Override
+            public void run() {
+                runWorker();
+            }
+        };
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+        Preconditions.checkNotNull(runnable);
+        boolean startThread = false;
+        synchronized (this) {
+            mQueue.add(new QueuedRunnable(runnable, SystemClock.uptimeMillis()));
+            if (mThreadCount < mMaxThreads) {
+                mThreadCount++;
+                startThread = true;
+            }
+            else {
+                notify();
+            }
+        }
+        if (startThread) {
+            mThreadFactory.newThread(mWorker).start();
+        }
+    }
+
+    /**
+     * Gets the number of runnables that are waiting for a thread.
+     */
+    public synchronized int getQueueSize() {
+        return mQueue.size();
+    }
+
+    private void runWorker() {
+        try {
+            while (true) {
+                takeNext().run();
+            }
+        } finally {
+            // only reached if a runnable threw; replace this thread so queued work still runs
+            boolean startThread = false;
+            synchronized (this) {
+                if (mQueue.isEmpty()) {
+                    mThreadCount--;
+                }
+                else {
+                    startThread = true;
+                }
+            }
+            if (startThread) {
+                mThreadFactory.newThread(mWorker).start();
+            }
+        }
+    }
+
+    private synchronized Runnable takeNext() {
+        Runnable next;
+        while ((next = pollNext()) == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // there is no shutdown, keep serving the queue
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Removes and returns the queued runnable with the highest effective priority, or null if
+     * nothing is queued.
+     */
+    @VisibleForTesting
+    @Nullable
+    synchronized Runnable pollNext() {
+        if (mQueue.isEmpty()) {
+            return null;
+        }
+        final long now = SystemClock.uptimeMillis();
+        int bestIndex = 0;
+        int bestPriority = -1;
+        for (int i = 0; i < mQueue.size(); i++) {
+            int priority = getEffectivePriority(mQueue.get(i), now);
+            // strictly greater keeps submission order among equal priorities
+            if (priority > bestPriority) {
+                bestIndex = i;
+                bestPriority = priority;
+                if (priority == MAX_PRIORITY) {
+                    break;
+                }
+            }
+        }
+        return mQueue.remove(bestIndex).runnable;
+    }
+
+    private int getEffectivePriority(QueuedRunnable queuedRunnable, long now) {
+        int priority = getPriority(queuedRunnable.runnable).ordinal();
+        long agingSteps = (now - queuedRunnable.enqueueTime) / mAgingIntervalMs;
+        return (int) Math.min(MAX_PRIORITY, priority + agingSteps);
+    }
+
+    private static Priority getPriority(Runnable runnable) {
+        if (runnable instanceof PrioritizedRunnable) {
+            Priority priority = ((PrioritizedRunnable) runnable).getPriority();
+            if (priority != null) {
+                return priority;
+            }
+        }
+        return Priority.HIGH;
+    }
+
+    private static class QueuedRunnable {
+        final Runnable runnable;
+        final long enqueueTime;
+
+        QueuedRunnable(Runnable runnable, long enqueueTime) {
+            this.runnable = runnable;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+}
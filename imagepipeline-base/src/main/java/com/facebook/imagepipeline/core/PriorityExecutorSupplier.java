@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Implementation of {@link ExecutorSupplier} whose executors run queued work in order of the
+ * current priority of the request that submitted it.
+ * <p>
+ * <p> Same thread layout as {@link DefaultExecutorSupplier}, but disk reads, decodes and
+ * background work are queued in {@link PriorityExecutor}s, so a prefetch never keeps a visible
+ * image waiting for a thread. Disk writes are not tied to a request and stay in FIFO order on a
+ * separate pool.
+ */
+public class PriorityExecutorSupplier implements ExecutorSupplier {
+    private static final int NUM_IO_BOUND_THREADS = 2;
+    private static final int NUM_LIGHTWEIGHT_BACKGROUND_THREADS = 1;
+
+    private final Executor mIoReadExecutor;
+    private final Executor mIoWriteExecutor;
+    private final Executor mDecodeExecutor;
+    private final Executor mBackgroundExecutor;
+    private final Executor mLightWeightBackgroundExecutor;
+
+    public PriorityExecutorSupplier(int numCpuBoundThreads) {
+        this(numCpuBoundThreads, PriorityExecutor.DEFAULT_AGING_INTERVAL_MS);
+    }
+
+    public PriorityExecutorSupplier(int numCpuBoundThreads, long agingIntervalMs) {
+        ThreadFactory defaultThreadFactory = Executors.defaultThreadFactory();
+        ThreadFactory backgroundPriorityThreadFactory =
+                new PriorityThreadFactory(Process.THREAD_PRIORITY_BACKGROUND);
+
+        mIoReadExecutor = new PriorityExecutor(
+                NUM_IO_BOUND_THREADS,
+                defaultThreadFactory,
+                agingIntervalMs);
+        mIoWriteExecutor = Executors.newFixedThreadPool(NUM_IO_BOUND_THREADS);
+        mDecodeExecutor = new PriorityExecutor(
+                numCpuBoundThreads,
+                backgroundPriorityThreadFactory,
+                agingIntervalMs);
+        mBackgroundExecutor = new PriorityExecutor(
+                numCpuBoundThreads,
+                backgroundPriorityThreadFactory,
+                agingIntervalMs);
+        mLightWeightBackgroundExecutor = new PriorityExecutor(
+                NUM_LIGHTWEIGHT_BACKGROUND_THREADS,
+                backgroundPriorityThreadFactory,
+                agingIntervalMs);
+    }
+
+    @Override
+    public Executor forLocalStorageRead() {
+        return mIoReadExecutor;
+    }
+
+    @Override
+    public Executor forLocalStorageWrite() {
+        return mIoWriteExecutor;
+    }
+
+    @Override
+    public Executor forDecode() {
+        return mDecodeExecutor;
+    }
+
+    @Override
+    public Executor forBackgroundTasks() {
+        return mBackgroundExecutor;
+    }
+
+    @Override
+    public Executor forLightweightBackgroundTasks() {
+        return mLightWeightBackgroundExecutor;
+    }
+}
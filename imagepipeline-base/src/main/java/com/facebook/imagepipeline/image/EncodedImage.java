@@ -9,22 +9,21 @@
 
 package com.facebook.imagepipeline.image;
 
-import android.util.Pair;
-
 import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.Closeables;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.Throwables;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.common.references.SharedReference;
 import com.facebook.imageformat.DefaultImageFormats;
 import com.facebook.imageformat.ImageFormat;
-import com.facebook.imageformat.ImageFormatChecker;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferInputStream;
-import com.facebook.imageutils.BitmapUtil;
+import com.facebook.imageutils.ImageHeaderParser;
+import com.facebook.imageutils.ImageMetaData;
 import com.facebook.imageutils.JfifUtil;
-import com.facebook.imageutils.WebpUtil;
 
 import java.io.Closeable;
 import java.io.FileInputStream;
@@ -44,7 +43,8 @@ import javax.annotation.concurrent.Immutable;
  * will always be supported, either from the supplier or an input stream created from the byte
  * buffer held.
  * <p>
- * <p>Currently the data is useful for rotation and resize.
+ * <p>Currently the data is useful for rotation and resize. It is read from the image header once,
+ * by {@link #parseMetaData()}, and consumers should use it rather than reading the header again.
  */
 @Immutable
 public class EncodedImage implements Closeable {
@@ -70,6 +70,8 @@ public class EncodedImage implements Closeable {
     private int mHeight = UNKNOWN_HEIGHT;
     private int mSampleSize = DEFAULT_SAMPLE_SIZE;
     private int mStreamSize = UNKNOWN_STREAM_SIZE;
+    private int mColorSpace = ImageMetaData.COLOR_SPACE_UNKNOWN;
+    private boolean mIsProgressive;
     private
     @Nullable
     CacheKey mEncodedCacheKey;
@@ -285,6 +287,38 @@ public class EncodedImage implements Closeable {
         this.mSampleSize = sampleSize;
     }
 
+    /**
+     * Returns the color space if known, otherwise {@link ImageMetaData#COLOR_SPACE_UNKNOWN}.
+     *
+     * @return one of the COLOR_SPACE_* constants of {@link ImageMetaData}
+     */
+    public int getColorSpace() {
+        return mColorSpace;
+    }
+
+    /**
+     * Sets the image color space
+     */
+    public void setColorSpace(int colorSpace) {
+        this.mColorSpace = colorSpace;
+    }
+
+    /**
+     * Only valid if the image format is JPEG or PNG.
+     *
+     * @return true if the image is a progressive JPEG or an interlaced PNG
+     */
+    public boolean isProgressive() {
+        return mIsProgressive;
+    }
+
+    /**
+     * Sets whether the image is encoded in several scans
+     */
+    public void setProgressive(boolean isProgressive) {
+        this.mIsProgressive = isProgressive;
+    }
+
     /**
      * Gets the key to use when storing this image in encoded caches
      *
@@ -337,26 +371,31 @@ public class EncodedImage implements Closeable {
     }
 
     /**
-     * Sets the encoded image meta data.
+     * Sets the encoded image meta data, reading the image header in a single pass.
      */
     public void parseMetaData() {
-        final ImageFormat imageFormat = ImageFormatChecker.getImageFormat_WrapIOException(
-                getInputStream());
-        mImageFormat = imageFormat;
-        // BitmapUtil.decodeDimensions has a bug where it will return 100x100 for some WebPs even though
-        // those are not its actual dimensions
-        final Pair<Integer, Integer> dimensions;
-        if (DefaultImageFormats.isWebpFormat(imageFormat)) {
-            dimensions = readWebPImageSize();
+        final ImageMetaData metaData;
+        final InputStream inputStream = getInputStream();
+        try {
+            metaData = ImageHeaderParser.parse(inputStream);
+        } catch (IOException ioe) {
+            throw Throwables.propagate(ioe);
+        } finally {
+            Closeables.closeQuietly(inputStream);
         }
-        else {
-            dimensions = readImageSize();
+        final ImageFormat imageFormat = metaData.getImageFormat();
+        mImageFormat = imageFormat;
+        if (metaData.hasDimensions()) {
+            mWidth = metaData.getWidth();
+            mHeight = metaData.getHeight();
         }
+        mColorSpace = metaData.getColorSpace();
+        mIsProgressive = metaData.isProgressive();
         if (imageFormat == DefaultImageFormats.JPEG && mRotationAngle == UNKNOWN_ROTATION_ANGLE) {
-            // Load the JPEG rotation angle only if we have the dimensions
-            if (dimensions != null) {
-                mRotationAngle = JfifUtil.getAutoRotateAngleFromOrientation(
-                        JfifUtil.getOrientation(getInputStream()));
+            // Set the JPEG rotation angle only if we have the dimensions
+            if (metaData.hasDimensions()) {
+                mRotationAngle =
+                        JfifUtil.getAutoRotateAngleFromOrientation(metaData.getOrientation());
             }
         }
         else {
@@ -364,43 +403,6 @@ public class EncodedImage implements Closeable {
         }
     }
 
-    /**
-     * We get the size from a WebP image
-     */
-    private Pair<Integer, Integer> readWebPImageSize() {
-        final Pair<Integer, Integer> dimensions = WebpUtil.getSize(getInputStream());
-        if (dimensions != null) {
-            mWidth = dimensions.first;
-            mHeight = dimensions.second;
-        }
-        return dimensions;
-    }
-
-    /**
-     * We get the size from a generic image
-     */
-    private Pair<Integer, Integer> readImageSize() {
-        InputStream inputStream = null;
-        Pair<Integer, Integer> dimensions = null;
-        try {
-            inputStream = getInputStream();
-            dimensions = BitmapUtil.decodeDimensions(inputStream);
-            if (dimensions != null) {
-                mWidth = dimensions.first;
-                mHeight = dimensions.second;
-            }
-        } finally {
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (IOException e) {
-                    // Head in the sand
-                }
-            }
-        }
-        return dimensions;
-    }
-
     /**
      * Copy the meta data from another EncodedImage.
      *
@@ -414,6 +416,8 @@ public class EncodedImage implements Closeable {
         mSampleSize = encodedImage.getSampleSize();
         mStreamSize = encodedImage.getSize();
         mEncodedCacheKey = encodedImage.getEncodedCacheKey();
+        mColorSpace = encodedImage.getColorSpace();
+        mIsProgressive = encodedImage.isProgressive();
     }
 
     /**
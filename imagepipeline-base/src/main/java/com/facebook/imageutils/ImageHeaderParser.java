@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imageutils;
+
+import android.util.Pair;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.streams.LimitedInputStream;
+import com.facebook.imageformat.DefaultImageFormats;
+import com.facebook.imageformat.ImageFormat;
+import com.facebook.imageformat.ImageFormatChecker;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the {@link ImageMetaData} of an encoded image in a single pass over its header.
+ * <p>
+ * <p> JPEG, PNG, GIF and BMP headers are parsed directly. For JPEG, the markers are walked once up
+ * to the first frame header, picking up the EXIF orientation, the Adobe color transform and the
+ * frame's dimensions, component count and coding process on the way. WebP dimensions are read
+ * with {@link WebpUtil}, and any other format falls back to decoding the bounds with
+ * {@link BitmapUtil#decodeDimensions(InputStream)}.
+ */
+public class ImageHeaderParser {
+
+    /**
+     * Buffer size for streams that do not support mark, which must hold the format header.
+     */
+    private static final int MARK_BUFFER_SIZE = 64;
+
+    private static final int MARKER_APP14 = 0xEE;
+    private static final int APP14_ADOBE_MAGIC = 0x41646F62; // "Adob"
+    private static final int ADOBE_TRANSFORM_UNKNOWN = -1;
+    private static final int ADOBE_TRANSFORM_NONE = 0;
+
+    private static final int PNG_SIGNATURE_LENGTH = 8;
+    private static final int PNG_COLOR_TYPE_GRAYSCALE = 0;
+    private static final int PNG_COLOR_TYPE_GRAYSCALE_ALPHA = 4;
+    private static final int GIF_SIGNATURE_LENGTH = 6;
+    private static final int BMP_FILE_HEADER_LENGTH = 14;
+    // size of the OS/2 1.x BITMAPCOREHEADER, which has 2 byte dimensions
+    private static final int BMP_CORE_HEADER_SIZE = 12;
+
+    private ImageHeaderParser() {
+    }
+
+    /**
+     * Reads the meta data from the start of the given stream. The stream is consumed, but not
+     * closed.
+     *
+     * @param is the input stream of the encoded image
+     * @return the meta data; never null, but possibly with unknown values
+     */
+    public static ImageMetaData parse(InputStream is) throws IOException {
+        Preconditions.checkNotNull(is);
+        if (!is.markSupported()) {
+            is = new BufferedInputStream(is, MARK_BUFFER_SIZE);
+        }
+        // the format checker resets the stream to its start
+        final ImageFormat imageFormat = ImageFormatChecker.getImageFormat(is);
+        if (imageFormat == DefaultImageFormats.JPEG) {
+            return parseJpeg(is);
+        }
+        else if (imageFormat == DefaultImageFormats.PNG) {
+            return parsePng(is);
+        }
+        else if (imageFormat == DefaultImageFormats.GIF) {
+            return parseGif(is);
+        }
+        else if (imageFormat == DefaultImageFormats.BMP) {
+            return parseBmp(is);
+        }
+        // BitmapUtil.decodeDimensions has a bug where it will return 100x100 for some WebPs even
+        // though those are not its actual dimensions
+        final Pair<Integer, Integer> dimensions = DefaultImageFormats.isWebpFormat(imageFormat)
+                ? WebpUtil.getSize(is)
+                : BitmapUtil.decodeDimensions(is);
+        return new ImageMetaData(
+                imageFormat,
+                dimensions == null ? ImageMetaData.UNKNOWN_DIMENSION : dimensions.first,
+                dimensions == null ? ImageMetaData.UNKNOWN_DIMENSION : dimensions.second,
+                ImageMetaData.UNKNOWN_ORIENTATION,
+                ImageMetaData.COLOR_SPACE_UNKNOWN,
+                false);
+    }
+
+    /**
+     * Walks the JPEG markers up to the first frame header. A truncated header yields the values
+     * found so far.
+     */
+    @VisibleForTesting
+    static ImageMetaData parseJpeg(InputStream is) {
+        int width = ImageMetaData.UNKNOWN_DIMENSION;
+        int height = ImageMetaData.UNKNOWN_DIMENSION;
+        int orientation = ImageMetaData.UNKNOWN_ORIENTATION;
+        int components = 0;
+        int adobeTransform = ADOBE_TRANSFORM_UNKNOWN;
+        boolean isProgressive = false;
+        try {
+            // ISO/IEC 10918-1:1993(E)
+            while (StreamProcessor.readPackedInt(is, 1, false) == JfifUtil.MARKER_FIRST_BYTE) {
+                int marker = JfifUtil.MARKER_FIRST_BYTE;
+                while (marker == JfifUtil.MARKER_FIRST_BYTE) {
+                    marker = StreamProcessor.readPackedInt(is, 1, false);
+                }
+                if (marker == JfifUtil.MARKER_SOI || marker == JfifUtil.MARKER_TEM) {
+                    continue;
+                }
+                if (marker == JfifUtil.MARKER_EOI || marker == JfifUtil.MARKER_SOS) {
+                    break;
+                }
+                // subtract 2 as length contain SIZE field we just read
+                final int length = StreamProcessor.readPackedInt(is, 2, false) - 2;
+                if (length < 0) {
+                    break;
+                }
+                if (JfifUtil.isSOFn(marker)) {
+                    // sample precision, then the frame dimensions and the number of components
+                    StreamProcessor.readPackedInt(is, 1, false);
+                    height = StreamProcessor.readPackedInt(is, 2, false);
+                    width = StreamProcessor.readPackedInt(is, 2, false);
+                    components = StreamProcessor.readPackedInt(is, 1, false);
+                    isProgressive = isProgressiveSOFn(marker);
+                    // metadata markers don't come after the frame header
+                    break;
+                }
+                final LimitedInputStream segment = new LimitedInputStream(is, length);
+                try {
+                    if (marker == JfifUtil.MARKER_APP1 &&
+                            orientation == ImageMetaData.UNKNOWN_ORIENTATION) {
+                        orientation = readExifOrientation(segment, length);
+                    }
+                    else if (marker == MARKER_APP14 && length >= 12) {
+                        adobeTransform = readAdobeTransform(segment);
+                    }
+                } catch (IOException ioe) {
+                    // malformed segment, ignore it
+                }
+                skipRemaining(segment);
+            }
+        } catch (IOException ioe) {
+            // truncated header, report what we have
+        }
+        return new ImageMetaData(
+                DefaultImageFormats.JPEG,
+                width,
+                height,
+                orientation,
+                getJpegColorSpace(components, adobeTransform),
+                isProgressive);
+    }
+
+    private static int readExifOrientation(InputStream segment, int length) throws IOException {
+        if (length <= 6) {
+            return ImageMetaData.UNKNOWN_ORIENTATION;
+        }
+        final int magic = StreamProcessor.readPackedInt(segment, 4, false);
+        final int zero = StreamProcessor.readPackedInt(segment, 2, false);
+        if (magic != JfifUtil.APP1_EXIF_MAGIC || zero != 0) {
+            return ImageMetaData.UNKNOWN_ORIENTATION;
+        }
+        // JEITA CP-3451 Exif Version 2.2
+        return TiffUtil.readOrientationFromTIFF(segment, length - 6);
+    }
+
+    /**
+     * Reads the color transform flag of an Adobe APP14 segment: "Adobe", version (2 bytes), flags0
+     * (2 bytes), flags1 (2 bytes), transform (1 byte).
+     */
+    private static int readAdobeTransform(InputStream segment) throws IOException {
+        if (StreamProcessor.readPackedInt(segment, 4, false) != APP14_ADOBE_MAGIC ||
+                StreamProcessor.readPackedInt(segment, 1, false) != 'e') {
+            return ADOBE_TRANSFORM_UNKNOWN;
+        }
+        skipFully(segment, 6);
+        return StreamProcessor.readPackedInt(segment, 1, false);
+    }
+
+    private static boolean isProgressiveSOFn(int marker) {
+        // SOF2, SOF6, SOF10 and SOF14 are the progressive coding processes
+        return (marker & 0x03) == 0x02;
+    }
+
+    private static int getJpegColorSpace(int components, int adobeTransform) {
+        switch (components) {
+            case 1:
+                return ImageMetaData.COLOR_SPACE_GRAYSCALE;
+            case 3:
+                return adobeTransform == ADOBE_TRANSFORM_NONE
+                        ? ImageMetaData.COLOR_SPACE_RGB
+                        : ImageMetaData.COLOR_SPACE_YCBCR;
+            case 4:
+                // CMYK, or YCCK which is decoded to CMYK
+                return ImageMetaData.COLOR_SPACE_CMYK;
+            default:
+                return ImageMetaData.COLOR_SPACE_UNKNOWN;
+        }
+    }
+
+    /**
+     * The IHDR chunk comes first: length (4 bytes), "IHDR", width (4 bytes), height (4 bytes),
+     * bit depth, color type, compression method, filter method, interlace method.
+     */
+    private static ImageMetaData parsePng(InputStream is) {
+        int width = ImageMetaData.UNKNOWN_DIMENSION;
+        int height = ImageMetaData.UNKNOWN_DIMENSION;
+        int colorSpace = ImageMetaData.COLOR_SPACE_UNKNOWN;
+        boolean isInterlaced = false;
+        try {
+            skipFully(is, PNG_SIGNATURE_LENGTH + 8);
+            final int readWidth = StreamProcessor.readPackedInt(is, 4, false);
+            height = StreamProcessor.readPackedInt(is, 4, false);
+            width = readWidth;
+            StreamProcessor.readPackedInt(is, 1, false);
+            final int colorType = StreamProcessor.readPackedInt(is, 1, false);
+            colorSpace = colorType == PNG_COLOR_TYPE_GRAYSCALE ||
+                    colorType == PNG_COLOR_TYPE_GRAYSCALE_ALPHA
+                    ? ImageMetaData.COLOR_SPACE_GRAYSCALE
+                    : ImageMetaData.COLOR_SPACE_RGB;
+            skipFully(is, 2);
+            isInterlaced = StreamProcessor.readPackedInt(is, 1, false) != 0;
+        } catch (IOException ioe) {
+            // truncated header, report what we have
+        }
+        return new ImageMetaData(
+                DefaultImageFormats.PNG,
+                width,
+                height,
+                ImageMetaData.UNKNOWN_ORIENTATION,
+                colorSpace,
+                isInterlaced);
+    }
+
+    /**
+     * The logical screen descriptor follows the signature: width and height, 2 bytes each, little
+     * endian.
+     */
+    private static ImageMetaData parseGif(InputStream is) {
+        int width = ImageMetaData.UNKNOWN_DIMENSION;
+        int height = ImageMetaData.UNKNOWN_DIMENSION;
+        try {
+            skipFully(is, GIF_SIGNATURE_LENGTH);
+            final int readWidth = StreamProcessor.readPackedInt(is, 2, true);
+            height = StreamProcessor.readPackedInt(is, 2, true);
+            width = readWidth;
+        } catch (IOException ioe) {
+            // truncated header
+        }
+        return new ImageMetaData(
+                DefaultImageFormats.GIF,
+                width,
+                height,
+                ImageMetaData.UNKNOWN_ORIENTATION,
+                ImageMetaData.COLOR_SPACE_RGB,
+                false);
+    }
+
+    /**
+     * The DIB header follows the file header: header size, then width and height, little endian.
+     * The dimensions take 2 bytes each in a BITMAPCOREHEADER, and 4 bytes each in all the later
+     * headers, where the height is negative for top-down bitmaps.
+     */
+    private static ImageMetaData parseBmp(InputStream is) {
+        int width = ImageMetaData.UNKNOWN_DIMENSION;
+        int height = ImageMetaData.UNKNOWN_DIMENSION;
+        try {
+            skipFully(is, BMP_FILE_HEADER_LENGTH);
+            final int headerSize = StreamProcessor.readPackedInt(is, 4, true);
+            if (headerSize == BMP_CORE_HEADER_SIZE) {
+                final int readWidth = StreamProcessor.readPackedInt(is, 2, true);
+                height = StreamProcessor.readPackedInt(is, 2, true);
+                width = readWidth;
+            }
+            else {
+                final int readWidth = StreamProcessor.readPackedInt(is, 4, true);
+                height = Math.abs(StreamProcessor.readPackedInt(is, 4, true));
+                width = readWidth;
+            }
+        } catch (IOException ioe) {
+            // truncated header
+        }
+        return new ImageMetaData(
+                DefaultImageFormats.BMP,
+                width,
+                height,
+                ImageMetaData.UNKNOWN_ORIENTATION,
+                ImageMetaData.COLOR_SPACE_RGB,
+                false);
+    }
+
+    /**
+     * Consumes what is left of the given stream.
+     */
+    private static void skipRemaining(InputStream is) throws IOException {
+        while (is.skip(Long.MAX_VALUE) > 0 || is.read() != -1) {
+            // keep going until the end of the stream
+        }
+    }
+
+    private static void skipFully(InputStream is, long count) throws IOException {
+        while (count > 0) {
+            final long skipped = is.skip(count);
+            if (skipped > 0) {
+                count -= skipped;
+            }
+            else if (is.read() != -1) {
+                count--;
+            }
+            else {
+                throw new IOException("no more bytes");
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imageutils;
+
+import com.facebook.common.internal.Objects;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.imageformat.ImageFormat;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Meta data read from the header of an encoded image by {@link ImageHeaderParser}.
+ * <p>
+ * <p> Values that could not be read from the header are reported as unknown: -1 for the
+ * dimensions, 0 for the orientation and {@link #COLOR_SPACE_UNKNOWN} for the color space.
+ */
+@Immutable
+public class ImageMetaData {
+    public static final int UNKNOWN_DIMENSION = -1;
+    public static final int UNKNOWN_ORIENTATION = 0;
+
+    public static final int COLOR_SPACE_UNKNOWN = 0;
+    public static final int COLOR_SPACE_GRAYSCALE = 1;
+    public static final int COLOR_SPACE_RGB = 2;
+    public static final int COLOR_SPACE_YCBCR = 3;
+    public static final int COLOR_SPACE_CMYK = 4;
+
+    private final ImageFormat mImageFormat;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mOrientation;
+    private final int mColorSpace;
+    private final boolean mIsProgressive;
+
+    public ImageMetaData(
+            ImageFormat imageFormat,
+            int width,
+            int height,
+            int orientation,
+            int colorSpace,
+            boolean isProgressive) {
+        mImageFormat = Preconditions.checkNotNull(imageFormat);
+        mWidth = width;
+        mHeight = height;
+        mOrientation = orientation;
+        mColorSpace = colorSpace;
+        mIsProgressive = isProgressive;
+    }
+
+    public ImageFormat getImageFormat() {
+        return mImageFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return true if both dimensions were read from the header
+     */
+    public boolean hasDimensions() {
+        return mWidth >= 0 && mHeight >= 0;
+    }
+
+    /**
+     * Only valid if the image format is JPEG.
+     *
+     * @return the EXIF orientation: 1/3/6/8, or {@link #UNKNOWN_ORIENTATION} if the image has none
+     */
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    /**
+     * @return one of the COLOR_SPACE_* constants
+     */
+    public int getColorSpace() {
+        return mColorSpace;
+    }
+
+    /**
+     * @return true for progressive JPEGs and interlaced PNGs, which are encoded in several scans
+     */
+    public boolean isProgressive() {
+        return mIsProgressive;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("format", mImageFormat.getName())
+                .add("width", mWidth)
+                .add("height", mHeight)
+                .add("orientation", mOrientation)
+                .add("colorSpace", mColorSpace)
+                .add("progressive", mIsProgressive)
+                .toString();
+    }
+}
@@ -31,11 +31,18 @@ public class JfifUtil {
     public static final int MARKER_EOI = 0xD9;
     public static final int MARKER_SOS = 0xDA;
     public static final int MARKER_APP1 = 0xE1;
+    public static final int MARKER_DQT = 0xDB;
     public static final int MARKER_SOFn = 0xC0;
     public static final int MARKER_RST0 = 0xD0;
     public static final int MARKER_RST7 = 0xD7;
     public static final int APP1_EXIF_MAGIC = 0x45786966;
 
+    /**
+     * Sum of the luminance quantization table suggested in Annex K of the recommendation, which
+     * encoders scale according to the requested quality
+     */
+    private static final int STD_LUMINANCE_QUANT_TABLE_SUM = 3688;
+
     private JfifUtil() {
     }
 
@@ -78,6 +85,52 @@ public class JfifUtil {
         }
     }
 
+    /**
+     * Estimates the quality the jpeg image was encoded with, assuming that the encoder scaled the
+     * standard luminance quantization table the way libjpeg does. The estimate is exact from
+     * quality 20 to 99, too high below and 99 for quality 100.
+     *
+     * @param is the input stream of jpeg image
+     * @return quality: 1 - 100. Returns 0 if there is no luminance quantization table.
+     */
+    public static int getQuality(InputStream is) {
+        try {
+            while (moveToMarker(is, MARKER_DQT)) {
+                // subtract 2 as length contain SIZE field we just read
+                int length = StreamProcessor.readPackedInt(is, 2, false) - 2;
+                while (length > 0) {
+                    // 4 bits of precision and 4 bits of table id
+                    int info = StreamProcessor.readPackedInt(is, 1, false);
+                    int valueSize = (info >> 4) == 0 ? 1 : 2;
+                    length -= 1 + 64 * valueSize;
+                    if ((info & 0x0F) != 0) {
+                        is.skip(64 * valueSize);
+                        continue;
+                    }
+                    int sum = 0;
+                    for (int i = 0; i < 64; i++) {
+                        sum += StreamProcessor.readPackedInt(is, valueSize, false);
+                    }
+                    return getQualityFromScale(
+                            (sum * 100 + STD_LUMINANCE_QUANT_TABLE_SUM / 2)
+                                    / STD_LUMINANCE_QUANT_TABLE_SUM);
+                }
+            }
+        } catch (IOException ioe) {
+            // no table could be read
+        }
+        return 0;
+    }
+
+    /**
+     * Inverts the scaling libjpeg applies to quantization tables, which is 5000 / quality percent
+     * below quality 50 and 200 - 2 * quality percent above.
+     */
+    private static int getQualityFromScale(int scale) {
+        int quality = scale <= 100 ? (201 - scale) / 2 : (5000 + scale / 2) / scale;
+        return Math.max(1, Math.min(100, quality));
+    }
+
     /**
      * Reads the content of the input stream until specified marker is found. Marker will be
      * consumed and the input stream will be positioned after the specified marker.
@@ -122,7 +175,10 @@ public class JfifUtil {
         return false;
     }
 
-    private static boolean isSOFn(int marker) {
+    /**
+     * @return true if the marker starts a frame header, which holds the dimensions of the image
+     */
+    public static boolean isSOFn(int marker) {
         // There are no SOF4, SOF8, SOF12
         switch (marker) {
             case 0xC0:
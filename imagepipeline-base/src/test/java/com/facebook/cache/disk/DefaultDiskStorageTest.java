@@ -319,6 +319,13 @@ public class DefaultDiskStorageTest {
         storage.touch(resourceId1, null);
         assertTrue(Math.abs(file1.lastModified() - time3) <= 500);
         assertTrue(Math.abs(file2.lastModified() - time2) <= 500);
+
+        // an access recorded earlier keeps its own time
+        final long time4 = time3 + 10000;
+        when(mClock.now()).thenReturn(time4);
+        assertTrue(storage.touch(resourceId2, time2 + 5000));
+        assertTrue(Math.abs(file2.lastModified() - (time2 + 5000)) <= 500);
+        assertFalse(storage.touch("nonexistent", time4));
     }
 
     @Test
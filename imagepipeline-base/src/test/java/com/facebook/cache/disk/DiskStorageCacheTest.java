@@ -12,6 +12,7 @@ package com.facebook.cache.disk;
 import android.content.Context;
 
 import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
 import com.facebook.cache.common.CacheErrorLogger;
 import com.facebook.cache.common.CacheEvent;
 import com.facebook.cache.common.CacheEventAssert;
@@ -46,9 +47,11 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
@@ -130,6 +133,21 @@ public class DiskStorageCacheTest {
     private DiskStorageCache createDiskCache(
             DiskStorage diskStorage,
             boolean indexPopulateAtStartupEnabled) {
+        return createDiskCache(diskStorage, indexPopulateAtStartupEnabled, null);
+    }
+
+    private DiskStorageCache createDiskCache(
+            DiskStorage diskStorage,
+            boolean indexPopulateAtStartupEnabled,
+            Executor evictionExecutor) {
+        return createDiskCache(diskStorage, indexPopulateAtStartupEnabled, evictionExecutor, false);
+    }
+
+    private DiskStorageCache createDiskCache(
+            DiskStorage diskStorage,
+            boolean indexPopulateAtStartupEnabled,
+            Executor evictionExecutor,
+            boolean accessTimeTrackingEnabled) {
         DiskStorageCache.Params diskStorageCacheParams =
                 new DiskStorageCache.Params(
                         0,
@@ -147,7 +165,9 @@ public class DiskStorageCacheTest {
                 mDiskTrimmableRegistry,
                 context,
                 Executors.newSingleThreadExecutor(),
-                indexPopulateAtStartupEnabled);
+                indexPopulateAtStartupEnabled,
+                evictionExecutor,
+                accessTimeTrackingEnabled);
     }
 
     @Test
@@ -646,6 +666,172 @@ public class DiskStorageCacheTest {
         assertTrue(mCache.hasKey(key3));
     }
 
+    @Test
+    public void testBackgroundEviction() throws Exception {
+        final List<Runnable> evictions = new ArrayList<>();
+        Executor evictionExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                evictions.add(runnable);
+            }
+        };
+        DiskStorageCache cache = createDiskCache(mStorage, false, evictionExecutor);
+        when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS));
+        CacheKey key1 = putOneThingInCache(cache);
+        CacheKey key2 = new SimpleCacheKey("bar");
+        // 101 + 150 bytes is over the limit, evicting key1 is enough to get back under it
+        byte[] value2 = new byte[150];
+        when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(2, TimeUnit.DAYS));
+        cache.insert(key2, WriterCallbacks.from(value2));
+
+        // only one eviction is pending at a time, and inserting did not evict anything
+        assertEquals(1, evictions.size());
+        assertTrue(cache.hasKey(key1));
+        assertTrue(cache.hasKey(key2));
+
+        evictions.remove(0).run();
+        assertFalse(cache.hasKeySync(key1));
+        assertFalse(cache.hasKey(key1));
+        assertTrue(cache.hasKey(key2));
+    }
+
+    @Test
+    public void testBackgroundEvictionInBatches() throws Exception {
+        final List<Runnable> evictions = new ArrayList<>();
+        Executor evictionExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                evictions.add(runnable);
+            }
+        };
+        DiskStorageCache cache = createDiskCache(mStorage, false, evictionExecutor);
+        List<CacheKey> keys = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(i + 1, TimeUnit.DAYS));
+            CacheKey key = new SimpleCacheKey("key" + i);
+            cache.insert(key, WriterCallbacks.from(new byte[5]));
+            keys.add(key);
+        }
+        // the oldest entry is read again
+        when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(41, TimeUnit.DAYS));
+        assertNotNull(cache.getResource(keys.get(0)));
+        CacheKey bigKey = new SimpleCacheKey("big");
+        cache.insert(bigKey, WriterCallbacks.from(new byte[100]));
+        assertEquals(1, evictions.size());
+
+        // 40 * 5 + 100 bytes, getting down to 90% of the limit takes more than one batch
+        evictions.remove(0).run();
+        assertEquals(FILE_CACHE_MAX_SIZE_HIGH_LIMIT * 9 / 10, cache.getSize());
+        assertTrue(cache.hasKey(keys.get(0)));
+        for (int i = 1; i < 40; i++) {
+            assertEquals(i > 24, cache.hasKey(keys.get(i)));
+        }
+        assertTrue(cache.hasKey(bigKey));
+        assertTrue(evictions.isEmpty());
+    }
+
+    @Test
+    public void testAccessTimeTracking() throws Exception {
+        DiskStorage storage = new DynamicDefaultDiskStorage(
+                TESTCACHE_CURRENT_VERSION,
+                Suppliers.of(RuntimeEnvironment.application.getApplicationContext().getCacheDir()),
+                CACHE_TYPE,
+                mock(CacheErrorLogger.class),
+                false,
+                false);
+        DiskStorageCache cache = createDiskCache(storage, false, null, true);
+        when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS));
+        CacheKey key1 = putOneThingInCache(cache);
+        CacheKey key2 = new SimpleCacheKey("bar");
+        when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(2, TimeUnit.DAYS));
+        cache.insert(key2, WriterCallbacks.from(new byte[50]));
+
+        // reading does not touch the file
+        when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(3, TimeUnit.DAYS));
+        File file1 = ((FileBinaryResource) cache.getResource(key1)).getFile();
+        assertEquals(TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS), file1.lastModified());
+
+        // 101 + 50 + 60 bytes is over the limit, the entry read last is kept
+        CacheKey key3 = new SimpleCacheKey("duck");
+        cache.insert(key3, WriterCallbacks.from(new byte[60]));
+        assertTrue(cache.hasKeySync(key1));
+        assertFalse(cache.hasKeySync(key2));
+        assertTrue(cache.hasKeySync(key3));
+        assertEquals(TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS), file1.lastModified());
+
+        // the access is written with its own time when the cache is trimmed
+        when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(4, TimeUnit.DAYS));
+        cache.trimToMinimum();
+        assertEquals(TimeUnit.MILLISECONDS.convert(3, TimeUnit.DAYS), file1.lastModified());
+    }
+
+    @Test
+    public void testAccessTimesFlushedAfterInterval() throws Exception {
+        DiskStorage storage = new DynamicDefaultDiskStorage(
+                TESTCACHE_CURRENT_VERSION,
+                Suppliers.of(RuntimeEnvironment.application.getApplicationContext().getCacheDir()),
+                CACHE_TYPE,
+                mock(CacheErrorLogger.class),
+                false,
+                false);
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        DiskStorageCache cache = createDiskCache(storage, false, directExecutor, true);
+        long start = TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS);
+        when(mClock.now()).thenReturn(start);
+        CacheKey key1 = putOneThingInCache(cache);
+        CacheKey key2 = new SimpleCacheKey("bar");
+        cache.insert(key2, WriterCallbacks.from(new byte[50]));
+
+        when(mClock.now()).thenReturn(start + 1000);
+        File file1 = ((FileBinaryResource) cache.getResource(key1)).getFile();
+        assertEquals(start, file1.lastModified());
+
+        // the first access is written once it is old enough, each access with its own time
+        long later = start + 1000 + DiskStorageCache.ACCESS_TIMES_FLUSH_INTERVAL_MS;
+        when(mClock.now()).thenReturn(later);
+        File file2 = ((FileBinaryResource) cache.getResource(key2)).getFile();
+        assertEquals(start + 1000, file1.lastModified());
+        assertEquals(later, file2.lastModified());
+    }
+
+    @Test
+    public void testInsertDuringSizeRecalculationIsCounted() throws Exception {
+        final DiskStorageWithListingHook storage = new DiskStorageWithListingHook(
+                TESTCACHE_CURRENT_VERSION,
+                Suppliers.of(RuntimeEnvironment.application.getApplicationContext().getCacheDir()),
+                CACHE_TYPE,
+                mock(CacheErrorLogger.class));
+        Executor noOpExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+            }
+        };
+        final DiskStorageCache cache = createDiskCache(storage, false, noOpExecutor);
+        putOneThingInCache(cache);
+
+        // the second entry is committed after the storage was listed, before the size is applied
+        storage.setOnListed(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            cache.insert(
+                                    new SimpleCacheKey("bar"),
+                                    WriterCallbacks.from(new byte[50]));
+                        } catch (IOException ioe) {
+                            throw new RuntimeException(ioe);
+                        }
+                    }
+                });
+        cache.trimToMinimum();
+        assertEquals(151, cache.getSize());
+    }
+
     @Test
     public void testTimeEvictionClearsIndex() throws Exception {
         when(mClock.now()).thenReturn(5l);
@@ -813,6 +999,32 @@ public class DiskStorageCacheTest {
         }
     }
 
+    private static class DiskStorageWithListingHook extends DynamicDefaultDiskStorage {
+        private Runnable mOnListed;
+
+        public DiskStorageWithListingHook(
+                int version,
+                Supplier<File> baseDirectoryPathSupplier,
+                String baseDirectoryName, CacheErrorLogger cacheErrorLogger) {
+            super(version, baseDirectoryPathSupplier, baseDirectoryName, cacheErrorLogger);
+        }
+
+        public void setOnListed(Runnable onListed) {
+            mOnListed = onListed;
+        }
+
+        @Override
+        public Collection<Entry> getEntries() throws IOException {
+            Collection<Entry> entries = super.getEntries();
+            Runnable onListed = mOnListed;
+            mOnListed = null;
+            if (onListed != null) {
+                onListed.run();
+            }
+            return entries;
+        }
+    }
+
     /**
      * CacheEventListener implementation which copies the data from each event into a new instance to
      * work-around the recycling of the original event and forwards the copy so that assertions can be
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.common.file.FileTree;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricTestRunner.class)
+public class DiskStorageJournalTest {
+
+    private File mDirectory;
+    private CacheErrorLogger mCacheErrorLogger;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(RuntimeEnvironment.application.getCacheDir(), "journal-test");
+        mDirectory.mkdirs();
+        FileTree.deleteContents(mDirectory);
+        mCacheErrorLogger = mock(CacheErrorLogger.class);
+    }
+
+    @Test
+    public void testNotReadyWithoutJournal() {
+        DiskStorageJournal journal = newJournal();
+        assertNull(journal.getEntries());
+    }
+
+    @Test
+    public void testReplaysJournal() {
+        DiskStorageJournal journal = newJournal();
+        journal.clear();
+        journal.onInserted("a", 100, 1000);
+        journal.onInserted("b", 200, 2000);
+        journal.onInserted("c", 300, 3000);
+        journal.onAccessed("a", 4000);
+        journal.onRemoved("b");
+
+        Map<String, DiskStorageJournal.IndexEntry> entries = toMap(newJournal().getEntries());
+        assertEquals(2, entries.size());
+        assertEquals(100, entries.get("a").size);
+        assertEquals(4000, entries.get("a").timestamp);
+        assertEquals(300, entries.get("c").size);
+        assertEquals(3000, entries.get("c").timestamp);
+    }
+
+    @Test
+    public void testTruncatedJournalIsDiscarded() throws Exception {
+        DiskStorageJournal journal = newJournal();
+        journal.clear();
+        journal.onInserted("a", 100, 1000);
+        appendToJournal("A b 20");
+
+        DiskStorageJournal reopened = newJournal();
+        assertNull(reopened.getEntries());
+        assertFalse(new File(mDirectory, DiskStorageJournal.JOURNAL_FILE_NAME).exists());
+    }
+
+    @Test
+    public void testRebuildDoesNotRestoreEntriesRemovedMeanwhile() {
+        DiskStorageJournal journal = newJournal();
+        assertNull(journal.getEntries());
+        journal.onRemoved("a");
+        journal.onInserted("c", 300, 3000);
+        journal.rebuild(Arrays.asList(
+                new DiskStorageJournal.IndexEntry("a", 100, 1000),
+                new DiskStorageJournal.IndexEntry("b", 200, 2000)));
+
+        Map<String, DiskStorageJournal.IndexEntry> entries = toMap(journal.getEntries());
+        assertEquals(2, entries.size());
+        assertTrue(entries.containsKey("b"));
+        assertTrue(entries.containsKey("c"));
+        assertEquals(entries.keySet(), toMap(newJournal().getEntries()).keySet());
+    }
+
+    @Test
+    public void testCompactsJournal() {
+        DiskStorageJournal journal = newJournal();
+        journal.clear();
+        journal.onInserted("a", 100, 1000);
+        for (int i = 0; i < 5000; i++) {
+            journal.onAccessed("a", i);
+            journal.onInserted("b", 10, i);
+        }
+        File journalFile = new File(mDirectory, DiskStorageJournal.JOURNAL_FILE_NAME);
+        assertTrue(journalFile.length() < 2000 * "A b 10 4999\n".length());
+
+        Map<String, DiskStorageJournal.IndexEntry> entries = toMap(newJournal().getEntries());
+        assertEquals(4999, entries.get("a").timestamp);
+        assertEquals(4999, entries.get("b").timestamp);
+    }
+
+    @Test
+    public void testWritesAccessesInBatches() {
+        DiskStorageJournal journal = newJournal();
+        journal.clear();
+        journal.onInserted("a", 100, 1000);
+        journal.onAccessed("a", 2000);
+        assertEquals(1000, toMap(newJournal().getEntries()).get("a").timestamp);
+
+        assertEquals(2000, toMap(journal.getEntries()).get("a").timestamp);
+        assertEquals(2000, toMap(newJournal().getEntries()).get("a").timestamp);
+    }
+
+    private DiskStorageJournal newJournal() {
+        return new DiskStorageJournal(mDirectory, mCacheErrorLogger);
+    }
+
+    private void appendToJournal(String content) throws Exception {
+        FileOutputStream stream =
+                new FileOutputStream(new File(mDirectory, DiskStorageJournal.JOURNAL_FILE_NAME), true);
+        try {
+            stream.write(content.getBytes("UTF-8"));
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static Map<String, DiskStorageJournal.IndexEntry> toMap(
+            List<DiskStorageJournal.IndexEntry> entries) {
+        assertNotNull(entries);
+        Map<String, DiskStorageJournal.IndexEntry> map = new HashMap<>();
+        for (DiskStorageJournal.IndexEntry entry : entries) {
+            map.put(entry.id, entry);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EvictionQueueTest {
+
+    private static final long FUTURE_TIMESTAMP_THRESHOLD = 1000;
+
+    private DiskStorage mStorage;
+    private EvictionQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mStorage = mock(DiskStorage.class);
+        mQueue = new EvictionQueue(new DefaultEntryEvictionComparatorSupplier().get(), mStorage);
+    }
+
+    @Test
+    public void testPopulate() {
+        assertFalse(mQueue.isPopulated());
+        mQueue.populate(
+                Arrays.asList(
+                        newEntry("b", 20, 200),
+                        newEntry("a", 10, 100),
+                        newEntry("future", 30, 5000),
+                        newEntry("c", 20, 200)),
+                FUTURE_TIMESTAMP_THRESHOLD);
+
+        assertTrue(mQueue.isPopulated());
+        assertEquals(4, mQueue.size());
+        // entries from the future go first, equal timestamps are ordered by id
+        assertEquals(Arrays.asList("future", "a", "b", "c"), pollAll());
+        assertNull(mQueue.poll());
+    }
+
+    @Test
+    public void testChangesBeforePopulate() {
+        mQueue.add("c", 30, 300);
+        mQueue.remove("a");
+        mQueue.onAccessed("b", 400);
+        mQueue.populate(
+                Arrays.asList(
+                        newEntry("a", 10, 100),
+                        newEntry("b", 20, 200),
+                        newEntry("c", 20, 50),
+                        newEntry("d", 40, 250)),
+                FUTURE_TIMESTAMP_THRESHOLD);
+
+        assertFalse(mQueue.contains("a"));
+        assertEquals(Arrays.asList("d", "c", "b"), pollAll());
+    }
+
+    @Test
+    public void testUpdatesAfterPopulate() {
+        mQueue.populate(
+                Arrays.asList(newEntry("a", 10, 100), newEntry("b", 20, 200)),
+                FUTURE_TIMESTAMP_THRESHOLD);
+        mQueue.onAccessed("a", 300);
+        mQueue.add("c", 30, 250);
+        mQueue.add("b", 20, 400);
+        mQueue.onAccessed("unknown", 500);
+
+        assertEquals(3, mQueue.size());
+        assertEquals("c", mQueue.poll());
+        assertFalse(mQueue.contains("c"));
+        assertEquals(Arrays.asList("a", "b"), pollAll());
+    }
+
+    @Test
+    public void testClearAndInvalidate() {
+        mQueue.populate(Arrays.asList(newEntry("a", 10, 100)), FUTURE_TIMESTAMP_THRESHOLD);
+        mQueue.invalidate();
+        assertFalse(mQueue.isPopulated());
+        assertEquals(0, mQueue.size());
+
+        mQueue.add("b", 20, 200);
+        mQueue.clear();
+        assertTrue(mQueue.isPopulated());
+        assertNull(mQueue.poll());
+
+        // listed before the storage was cleared
+        mQueue.populate(Arrays.asList(newEntry("a", 10, 100)), FUTURE_TIMESTAMP_THRESHOLD);
+        assertNull(mQueue.poll());
+    }
+
+    @Test
+    public void testComparatorCanReadResources() throws Exception {
+        final BinaryResource resourceA = mock(BinaryResource.class);
+        when(resourceA.size()).thenReturn(1L);
+        BinaryResource resourceB = mock(BinaryResource.class);
+        when(resourceB.size()).thenReturn(2L);
+        when(mStorage.getResource("a", null)).thenReturn(resourceA);
+        when(mStorage.getResource("b", null)).thenReturn(resourceB);
+        // orders by the size of the resources, largest first
+        EvictionQueue queue = new EvictionQueue(
+                new EntryEvictionComparator() {
+                    @Override
+                    public int compare(DiskStorage.Entry lhs, DiskStorage.Entry rhs) {
+                        return Long.compare(rhs.getResource().size(), lhs.getResource().size());
+                    }
+                },
+                mStorage);
+        queue.add("a", 10, 100);
+        queue.add("b", 10, 100);
+
+        assertEquals("b", queue.poll());
+        assertEquals("a", queue.poll());
+    }
+
+    private List<String> pollAll() {
+        List<String> ids = new ArrayList<>();
+        String id;
+        while ((id = mQueue.poll()) != null) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static DiskStorage.Entry newEntry(String id, long size, long timestamp) {
+        DiskStorage.Entry entry = mock(DiskStorage.Entry.class);
+        when(entry.getId()).thenReturn(id);
+        when(entry.getSize()).thenReturn(size);
+        when(entry.getTimestamp()).thenReturn(timestamp);
+        return entry;
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileRegionBinaryResource;
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.internal.ByteStreams;
+import com.facebook.common.time.Clock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class PackFileDiskStorageTest {
+
+    private static final int VERSION = 1;
+
+    private File mDirectory;
+    private CacheErrorLogger mCacheErrorLogger;
+    private Clock mClock;
+    private List<Runnable> mCompactions;
+    private Executor mCompactionExecutor;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(RuntimeEnvironment.application.getCacheDir(), "pack-test");
+        mDirectory.mkdirs();
+        FileTree.deleteContents(mDirectory);
+        mCacheErrorLogger = mock(CacheErrorLogger.class);
+        mClock = mock(Clock.class);
+        mCompactions = new ArrayList<>();
+        mCompactionExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mCompactions.add(command);
+            }
+        };
+    }
+
+    @Test
+    public void testInsertAndGet() throws Exception {
+        PackFileDiskStorage storage = newStorage(PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE);
+        byte[] a = newContent(100, 1);
+        byte[] b = newContent(200, 2);
+        insert(storage, "a", a);
+        BinaryResource resource = insert(storage, "b", b);
+
+        assertTrue(resource instanceof FileRegionBinaryResource);
+        assertArrayEquals(b, resource.read());
+        assertArrayEquals(a, storage.getResource("a", null).read());
+        assertArrayEquals(b, readStream(storage.getResource("b", null)));
+        assertEquals(100, storage.getResource("a", null).size());
+        assertTrue(storage.contains("a", null));
+        assertFalse(storage.contains("c", null));
+        assertNull(storage.getResource("c", null));
+        assertEquals(2, storage.getEntries().size());
+        // both entries share one segment
+        assertEquals(1, getSegmentFiles().length);
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        PackFileDiskStorage storage = newStorage(PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE);
+        byte[] a = newContent(100, 1);
+        byte[] c = newContent(300, 3);
+        setTime(1000);
+        insert(storage, "a", a);
+        insert(storage, "b", newContent(200, 2));
+        assertEquals(200, storage.remove("b"));
+        setTime(2000);
+        storage.touch("a", null);
+        // accesses are written along with the next insertion
+        insert(storage, "c", c);
+
+        PackFileDiskStorage reopened =
+                newStorage(PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE);
+        Map<String, DiskStorage.Entry> entries = getEntries(reopened);
+        assertEquals(2, entries.size());
+        assertEquals(2000, entries.get("a").getTimestamp());
+        assertEquals(100, entries.get("a").getSize());
+        assertEquals(2000, entries.get("c").getTimestamp());
+        assertArrayEquals(a, reopened.getResource("a", null).read());
+        assertArrayEquals(c, reopened.getResource("c", null).read());
+        assertFalse(reopened.contains("b", null));
+    }
+
+    @Test
+    public void testReplacedEntry() throws Exception {
+        PackFileDiskStorage storage = newStorage(PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE);
+        byte[] second = newContent(50, 2);
+        insert(storage, "a", newContent(100, 1));
+        insert(storage, "a", second);
+
+        assertArrayEquals(second, storage.getResource("a", null).read());
+        assertEquals(1, storage.getEntries().size());
+        assertArrayEquals(
+                second,
+                newStorage(PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE)
+                        .getResource("a", null)
+                        .read());
+    }
+
+    @Test
+    public void testDamagedEndIsDropped() throws Exception {
+        PackFileDiskStorage storage = newStorage(PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE);
+        byte[] a = newContent(100, 1);
+        insert(storage, "a", a);
+        File segmentFile = getSegmentFiles()[0];
+        long length = segmentFile.length();
+        FileOutputStream stream = new FileOutputStream(segmentFile, true);
+        try {
+            stream.write(new byte[]{0x46, 0x50, 0x4b, 0x45, 0, 1, 'b'});
+        } finally {
+            stream.close();
+        }
+
+        PackFileDiskStorage reopened =
+                newStorage(PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE);
+        assertEquals(1, reopened.getEntries().size());
+        assertEquals(length, segmentFile.length());
+        byte[] c = newContent(10, 3);
+        insert(reopened, "c", c);
+        assertArrayEquals(a, reopened.getResource("a", null).read());
+        assertArrayEquals(c, reopened.getResource("c", null).read());
+    }
+
+    @Test
+    public void testFailedCommitDoesNotDamageSegment() throws Exception {
+        PackFileDiskStorage storage = newStorage(PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE);
+        byte[] a = newContent(100, 1);
+        insert(storage, "a", a);
+        DiskStorage.Inserter inserter = storage.insert("b", null);
+        inserter.writeData(
+                new WriterCallback() {
+                    @Override
+                    public void write(OutputStream os) throws IOException {
+                        os.write(newContent(100, 2));
+                    }
+                },
+                null);
+        assertTrue(((PackFileDiskStorage.InserterImpl) inserter).mTemporaryFile.delete());
+        try {
+            inserter.commit(null);
+            fail();
+        } catch (IOException expected) {
+            // the content to copy is gone
+        }
+        assertFalse(storage.contains("b", null));
+        byte[] c = newContent(10, 3);
+        insert(storage, "c", c);
+
+        PackFileDiskStorage reopened =
+                newStorage(PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE);
+        Map<String, DiskStorage.Entry> entries = getEntries(reopened);
+        assertEquals(2, entries.size());
+        assertArrayEquals(a, entries.get("a").getResource().read());
+        assertArrayEquals(c, entries.get("c").getResource().read());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        // every entry fills a segment
+        PackFileDiskStorage storage = newStorage(100);
+        byte[] a = newContent(100, 1);
+        byte[] b = newContent(100, 2);
+        insert(storage, "a", a);
+        insert(storage, "b", b);
+        assertEquals(2, getSegmentFiles().length);
+        assertTrue(mCompactions.isEmpty());
+
+        storage.remove("a");
+        assertEquals(1, mCompactions.size());
+        mCompactions.remove(0).run();
+
+        // the first segment only held a removed entry, the removal itself is in the third one
+        File[] segmentFiles = getSegmentFiles();
+        assertEquals(2, segmentFiles.length);
+        assertFalse(new File(getPackDirectory(), "0.pack").exists());
+        assertArrayEquals(b, storage.getResource("b", null).read());
+        assertFalse(storage.contains("a", null));
+
+        PackFileDiskStorage reopened = newStorage(100);
+        assertEquals(1, reopened.getEntries().size());
+        assertArrayEquals(b, reopened.getResource("b", null).read());
+    }
+
+    @Test
+    public void testCompactionCopiesLiveEntries() throws Exception {
+        PackFileDiskStorage storage = newStorage(250);
+        byte[] a = newContent(100, 1);
+        byte[] b = newContent(100, 2);
+        setTime(1000);
+        insert(storage, "a", a);
+        insert(storage, "b", b);
+        setTime(2000);
+        storage.touch("b", null);
+        insert(storage, "c", newContent(100, 3));
+        storage.remove("a");
+        assertEquals(1, mCompactions.size());
+        mCompactions.remove(0).run();
+
+        assertFalse(new File(getPackDirectory(), "0.pack").exists());
+        FileRegionBinaryResource resource =
+                (FileRegionBinaryResource) storage.getResource("b", null);
+        assertFalse(resource.getFile().getName().equals("0.pack"));
+        assertArrayEquals(b, resource.read());
+
+        Map<String, DiskStorage.Entry> entries = getEntries(newStorage(250));
+        assertEquals(2, entries.size());
+        assertEquals(2000, entries.get("b").getTimestamp());
+        assertArrayEquals(b, entries.get("b").getResource().read());
+    }
+
+    @Test
+    public void testImportsDefaultDiskStorage() throws Exception {
+        DefaultDiskStorage legacyStorage =
+                new DefaultDiskStorage(mDirectory, VERSION, mCacheErrorLogger);
+        byte[] a = newContent(100, 1);
+        byte[] b = newContent(200, 2);
+        insert(legacyStorage, "aaa", a);
+        insert(legacyStorage, "bbb", b);
+        File legacyDirectory =
+                new File(mDirectory, DefaultDiskStorage.getVersionSubdirectoryName(VERSION));
+        assertTrue(legacyDirectory.exists());
+
+        PackFileDiskStorage storage = newStorage(PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE);
+        // the import runs in the background, the legacy entries are kept until then
+        assertTrue(storage.getEntries().isEmpty());
+        storage.purgeUnexpectedResources();
+        assertTrue(legacyDirectory.exists());
+        assertEquals(1, mCompactions.size());
+        mCompactions.remove(0).run();
+
+        assertEquals(2, storage.getEntries().size());
+        assertArrayEquals(a, storage.getResource("aaa", null).read());
+        assertArrayEquals(b, storage.getResource("bbb", null).read());
+        assertFalse(legacyDirectory.exists());
+    }
+
+    @Test
+    public void testPurgeUnexpectedResources() throws Exception {
+        PackFileDiskStorage storage = newStorage(PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE);
+        insert(storage, "a", newContent(100, 1));
+        File strayFile = new File(getPackDirectory(), "stray.tmp");
+        File recentFile = new File(getPackDirectory(), "recent.tmp");
+        File otherVersion = new File(mDirectory, PackFileDiskStorage.getPackSubdirectoryName(0));
+        assertTrue(strayFile.createNewFile());
+        assertTrue(recentFile.createNewFile());
+        assertTrue(otherVersion.mkdirs());
+        strayFile.setLastModified(0);
+        recentFile.setLastModified(DefaultDiskStorage.TEMP_FILE_LIFETIME_MS);
+        setTime(DefaultDiskStorage.TEMP_FILE_LIFETIME_MS + 1);
+
+        storage.purgeUnexpectedResources();
+        assertFalse(strayFile.exists());
+        assertFalse(otherVersion.exists());
+        // may still be written by an inserter
+        assertTrue(recentFile.exists());
+        assertTrue(recentFile.delete());
+        assertEquals(1, getSegmentFiles().length);
+        assertTrue(storage.contains("a", null));
+    }
+
+    @Test
+    public void testClearAll() throws Exception {
+        PackFileDiskStorage storage = newStorage(PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE);
+        insert(storage, "a", newContent(100, 1));
+        storage.clearAll();
+
+        assertTrue(storage.getEntries().isEmpty());
+        assertFalse(storage.contains("a", null));
+        byte[] b = newContent(100, 2);
+        insert(storage, "b", b);
+        assertArrayEquals(b, storage.getResource("b", null).read());
+        PackFileDiskStorage reopened =
+                newStorage(PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE);
+        assertEquals(1, reopened.getEntries().size());
+    }
+
+    private PackFileDiskStorage newStorage(long maxSegmentSize) {
+        return new PackFileDiskStorage(
+                mDirectory,
+                VERSION,
+                mCacheErrorLogger,
+                mCompactionExecutor,
+                maxSegmentSize,
+                mClock);
+    }
+
+    private void setTime(long time) {
+        when(mClock.now()).thenReturn(time);
+    }
+
+    private File getPackDirectory() {
+        return new File(mDirectory, PackFileDiskStorage.getPackSubdirectoryName(VERSION));
+    }
+
+    private File[] getSegmentFiles() {
+        return getPackDirectory().listFiles();
+    }
+
+    private static Map<String, DiskStorage.Entry> getEntries(DiskStorage storage)
+            throws IOException {
+        Map<String, DiskStorage.Entry> entries = new HashMap<>();
+        for (DiskStorage.Entry entry : storage.getEntries()) {
+            entries.put(entry.getId(), entry);
+        }
+        return entries;
+    }
+
+    private static BinaryResource insert(
+            DiskStorage storage,
+            String resourceId,
+            final byte[] content) throws IOException {
+        DiskStorage.Inserter inserter = storage.insert(resourceId, null);
+        inserter.writeData(
+                new WriterCallback() {
+                    @Override
+                    public void write(OutputStream os) throws IOException {
+                        os.write(content);
+                    }
+                },
+                null);
+        return inserter.commit(null);
+    }
+
+    private static byte[] readStream(BinaryResource resource) throws IOException {
+        InputStream stream = resource.openStream();
+        try {
+            return ByteStreams.toByteArray(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static byte[] newContent(int length, int seed) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (seed * 31 + i);
+        }
+        return content;
+    }
+}
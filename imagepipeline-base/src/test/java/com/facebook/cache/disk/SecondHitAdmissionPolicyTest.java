@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SecondHitAdmissionPolicyTest {
+
+    @Test
+    public void testAdmitsOnSecondHit() {
+        SecondHitAdmissionPolicy policy = new SecondHitAdmissionPolicy(100);
+        CacheKey key1 = new SimpleCacheKey("http://fresco/1");
+        CacheKey key2 = new SimpleCacheKey("http://fresco/2");
+
+        assertFalse(policy.shouldAdmit(key1, 10));
+        assertFalse(policy.shouldAdmit(key2, 10));
+        assertTrue(policy.shouldAdmit(key1, 10));
+        assertTrue(policy.shouldAdmit(key1, 10));
+        assertTrue(policy.shouldAdmit(key2, 10));
+    }
+
+    @Test
+    public void testForgetsOldKeys() {
+        SecondHitAdmissionPolicy policy = new SecondHitAdmissionPolicy(100);
+        CacheKey key = new SimpleCacheKey("http://fresco/old");
+        assertFalse(policy.shouldAdmit(key, 10));
+
+        // the key moves to the previous filter, and is still remembered
+        offerNewKeys(policy, "http://fresco/a/", 100);
+        assertTrue(policy.shouldAdmit(key, 10));
+
+        // the previous filter is cleared, a few false positives do not prevent that
+        offerNewKeys(policy, "http://fresco/b/", 150);
+        assertFalse(policy.shouldAdmit(key, 10));
+    }
+
+    @Test
+    public void testFewFalsePositives() {
+        SecondHitAdmissionPolicy policy = new SecondHitAdmissionPolicy(10000);
+        int admitted = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (policy.shouldAdmit(new SimpleCacheKey("http://fresco/" + i), 10)) {
+                admitted++;
+            }
+        }
+        assertTrue("admitted " + admitted, admitted < 500);
+    }
+
+    private static void offerNewKeys(SecondHitAdmissionPolicy policy, String prefix, int count) {
+        for (int i = 0; i < count; i++) {
+            policy.shouldAdmit(new SimpleCacheKey(prefix + i), 10);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SizeAwareAdmissionPolicyTest {
+
+    private EntryAdmissionPolicy mLargeEntryPolicy;
+    private SizeAwareAdmissionPolicy mPolicy;
+    private CacheKey mKey;
+
+    @Before
+    public void setUp() {
+        mLargeEntryPolicy = mock(EntryAdmissionPolicy.class);
+        mPolicy = new SizeAwareAdmissionPolicy(mLargeEntryPolicy, 100, 1000);
+        mKey = new SimpleCacheKey("http://fresco/1");
+    }
+
+    @Test
+    public void testAdmitsSmallEntries() {
+        assertTrue(mPolicy.shouldAdmit(mKey, 100));
+        verify(mLargeEntryPolicy, never()).shouldAdmit(any(CacheKey.class), anyLong());
+    }
+
+    @Test
+    public void testRejectsHugeEntries() {
+        when(mLargeEntryPolicy.shouldAdmit(mKey, 1001)).thenReturn(true);
+        assertFalse(mPolicy.shouldAdmit(mKey, 1001));
+    }
+
+    @Test
+    public void testAsksForLargeEntries() {
+        when(mLargeEntryPolicy.shouldAdmit(mKey, 500)).thenReturn(false);
+        assertFalse(mPolicy.shouldAdmit(mKey, 500));
+        when(mLargeEntryPolicy.shouldAdmit(mKey, 1000)).thenReturn(true);
+        assertTrue(mPolicy.shouldAdmit(mKey, 1000));
+    }
+}
@@ -678,6 +678,31 @@ public class CountingMemoryCacheTest {
         inOrder.verify(mReleaser).release(105);
     }
 
+    @Test
+    public void testOneOffItemEntersAdmissionWindow() {
+        TinyLfuMemoryCacheEvictionPolicy<String> policy = new TinyLfuMemoryCacheEvictionPolicy<>(
+                TinyLfuMemoryCacheEvictionPolicy.DEFAULT_WINDOW_RATIO,
+                TinyLfuMemoryCacheEvictionPolicy.DEFAULT_PROTECTED_RATIO,
+                null);
+        CountingMemoryCache<String, Integer> cache = new CountingMemoryCache<>(
+                mValueDescriptor,
+                mCacheTrimStrategy,
+                mParamsSupplier,
+                mPlatformBitmapFactory,
+                true,
+                policy);
+
+        // the pipeline looks an image up more than once before it is decoded and cached
+        assertNull(cache.get(KEY));
+        assertNull(cache.get(KEY));
+        cache.cache(KEY, newReference(100)).close();
+        assertTrue(policy.mWindow.containsKey(KEY));
+
+        // used again once cached
+        cache.get(KEY).close();
+        assertTrue(policy.mProtected.containsKey(KEY));
+    }
+
     private CloseableReference<Integer> newReference(int size) {
         return CloseableReference.of(size, mReleaser);
     }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class FrequencySketchTest {
+
+    private FrequencySketch mSketch;
+
+    @Before
+    public void setUp() {
+        mSketch = new FrequencySketch();
+        mSketch.ensureCapacity(512);
+    }
+
+    @Test
+    public void testUnknownKeyHasZeroFrequency() {
+        assertEquals(0, mSketch.frequency("key".hashCode()));
+    }
+
+    @Test
+    public void testIncrement() {
+        mSketch.increment("key".hashCode());
+        mSketch.increment("key".hashCode());
+        assertTrue(mSketch.frequency("key".hashCode()) >= 2);
+    }
+
+    @Test
+    public void testFrequencySaturates() {
+        for (int i = 0; i < 100; i++) {
+            mSketch.increment("key".hashCode());
+        }
+        assertEquals(FrequencySketch.MAX_FREQUENCY, mSketch.frequency("key".hashCode()));
+    }
+
+    @Test
+    public void testTableSizeIsCapped() {
+        mSketch.ensureCapacity(Integer.MAX_VALUE);
+        assertEquals(FrequencySketch.MAX_TABLE_SIZE, mSketch.getTableSize());
+    }
+
+    @Test
+    public void testResetHalvesFrequencies() {
+        for (int i = 0; i < 8; i++) {
+            mSketch.increment("key".hashCode());
+        }
+        mSketch.reset();
+        assertEquals(4, mSketch.frequency("key".hashCode()));
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import android.os.SystemClock;
+
+import com.android.internal.util.Predicate;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@PrepareForTest({SystemClock.class})
+@PowerMockIgnore({"org.mockito.*", "org.robolectric.*", "android.*"})
+@Config(manifest = Config.NONE)
+public class SegmentedCountingMemoryCacheTest {
+
+    private static final int CACHE_MAX_SIZE = 2400;
+    private static final int CACHE_MAX_COUNT = 8;
+    private static final int CACHE_EVICTION_QUEUE_MAX_SIZE = 2000;
+    private static final int CACHE_EVICTION_QUEUE_MAX_COUNT = 8;
+    private static final int CACHE_ENTRY_MAX_SIZE = 1000;
+    private static final int SEGMENT_COUNT = 4;
+    private static final String KEY = "KEY";
+
+    @Mock
+    public ResourceReleaser<Integer> mReleaser;
+    @Mock
+    public CountingMemoryCache.CacheTrimStrategy mCacheTrimStrategy;
+    @Mock
+    public Supplier<MemoryCacheParams> mParamsSupplier;
+    @Mock
+    public CountingMemoryCache.EntryStateObserver<String> mEntryStateObserver;
+    @Rule
+    public PowerMockRule rule = new PowerMockRule();
+    private SegmentedCountingMemoryCache<String, Integer> mCache;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        PowerMockito.mockStatic(SystemClock.class);
+        PowerMockito.when(SystemClock.uptimeMillis()).thenReturn(0L);
+        ValueDescriptor<Integer> valueDescriptor =
+                new ValueDescriptor<Integer>() {
+                    @Override
+                    public int getSizeInBytes(Integer value) {
+                        return value;
+                    }
+                };
+        when(mParamsSupplier.get()).thenReturn(
+                new MemoryCacheParams(
+                        CACHE_MAX_SIZE,
+                        CACHE_MAX_COUNT,
+                        CACHE_EVICTION_QUEUE_MAX_SIZE,
+                        CACHE_EVICTION_QUEUE_MAX_COUNT,
+                        CACHE_ENTRY_MAX_SIZE));
+        mCache = new SegmentedCountingMemoryCache<>(
+                valueDescriptor,
+                mCacheTrimStrategy,
+                mParamsSupplier,
+                mock(PlatformBitmapFactory.class),
+                false,
+                SEGMENT_COUNT);
+    }
+
+    @Test
+    public void testSegmentCountIsRoundedUpToPowerOfTwo() {
+        assertEquals(SEGMENT_COUNT, mCache.getSegments().size());
+        SegmentedCountingMemoryCache<String, Integer> cache = new SegmentedCountingMemoryCache<>(
+                new ValueDescriptor<Integer>() {
+                    @Override
+                    public int getSizeInBytes(Integer value) {
+                        return value;
+                    }
+                },
+                mCacheTrimStrategy,
+                mParamsSupplier,
+                mock(PlatformBitmapFactory.class),
+                false,
+                3);
+        assertEquals(4, cache.getSegments().size());
+    }
+
+    @Test
+    public void testCacheAndGet() {
+        CloseableReference<Integer> cachedRef = mCache.cache(KEY, newReference(200));
+        assertNotNull(cachedRef);
+        assertEquals(1, mCache.getCount());
+        assertEquals(200, mCache.getSizeInBytes());
+        assertEquals(1, mCache.getInUseCount());
+        cachedRef.close();
+        assertEquals(0, mCache.getInUseCount());
+        assertEquals(1, mCache.getEvictionQueueCount());
+        assertEquals(200, mCache.getEvictionQueueSizeInBytes());
+
+        CloseableReference<Integer> ref = mCache.get(KEY);
+        assertNotNull(ref);
+        assertEquals(200, (int) ref.get());
+        assertEquals(0, mCache.getEvictionQueueCount());
+        ref.close();
+        assertNull(mCache.get("other"));
+        verify(mReleaser, never()).release(anyInt());
+    }
+
+    @Test
+    public void testRebalanceMakesRoomForLargeEntry() {
+        // the even split gives each segment only a quarter of the budget
+        CloseableReference<Integer> cachedRef = mCache.cache(KEY, newReference(1000));
+        assertNotNull(cachedRef);
+        assertEquals(1000, mCache.getSizeInBytes());
+        assertSegmentBudgetsWithinGlobalBudget();
+        cachedRef.close();
+    }
+
+    @Test
+    public void testGlobalBudgetIsEnforced() {
+        for (int i = 0; i < 40; i++) {
+            CloseableReference<Integer> cachedRef = mCache.cache("key" + i, newReference(300));
+            CloseableReference.closeSafely(cachedRef);
+            assertTrue(mCache.getSizeInBytes() <= CACHE_MAX_SIZE);
+            assertTrue(mCache.getCount() <= CACHE_MAX_COUNT);
+            assertSegmentBudgetsWithinGlobalBudget();
+        }
+        mCache.rebalance();
+        assertSegmentBudgetsWithinGlobalBudget();
+    }
+
+    @Test
+    public void testRejectionsDoNotRebalanceRepeatedly() {
+        SegmentedCountingMemoryCache<String, Integer> cache = spy(mCache);
+        List<CloseableReference<Integer>> refs = new ArrayList<>();
+        // fill the whole budget with in-use entries
+        CloseableReference<Integer> ref;
+        int i = 0;
+        while ((ref = cache.cache("key" + i++, newReference(1000))) != null) {
+            refs.add(ref);
+        }
+        reset(cache);
+
+        for (int j = 0; j < 5; j++) {
+            assertNull(cache.cache("rejected" + j, newReference(1000)));
+        }
+        verify(cache, never()).rebalance();
+
+        // once the interval has passed, rejections may rebalance again
+        PowerMockito.when(SystemClock.uptimeMillis())
+                .thenReturn(SegmentedCountingMemoryCache.REBALANCE_INTERVAL_MS);
+        cache.get("key0");
+        assertNull(cache.cache("rejected", newReference(1000)));
+        verify(cache, times(2)).rebalance();
+        CloseableReference.closeSafely(refs);
+    }
+
+    @Test
+    public void testReuse() {
+        CloseableReference<Integer> cachedRef =
+                mCache.cache(KEY, newReference(200), mEntryStateObserver);
+        assertNull(mCache.reuse(KEY));
+        cachedRef.close();
+        verify(mEntryStateObserver).onExclusivityChanged(KEY, true);
+
+        CloseableReference<Integer> reusedRef = mCache.reuse(KEY);
+        assertNotNull(reusedRef);
+        verify(mEntryStateObserver).onExclusivityChanged(KEY, false);
+        assertEquals(0, mCache.getCount());
+        reusedRef.close();
+        verify(mReleaser).release(200);
+    }
+
+    @Test
+    public void testTrimEvictsExclusivelyOwnedEntries() {
+        MemoryTrimType memoryTrimType = MemoryTrimType.OnCloseToDalvikHeapLimit;
+        when(mCacheTrimStrategy.getTrimRatio(memoryTrimType)).thenReturn(1.00);
+        CloseableReference<Integer> inUseRef = mCache.cache("k0", newReference(200));
+        mCache.cache("k1", newReference(300)).close();
+        mCache.cache("k2", newReference(400)).close();
+
+        mCache.trim(memoryTrimType);
+        assertEquals(1, mCache.getCount());
+        assertEquals(200, mCache.getSizeInBytes());
+        verify(mReleaser).release(300);
+        verify(mReleaser).release(400);
+        inUseRef.close();
+    }
+
+    @Test
+    public void testRemoveAllAndContains() {
+        mCache.cache("k0", newReference(200)).close();
+        mCache.cache("k1", newReference(300)).close();
+        mCache.cache("x0", newReference(400)).close();
+        Predicate<String> startsWithK = new Predicate<String>() {
+            @Override
+            public boolean apply(String key) {
+                return key.startsWith("k");
+            }
+        };
+        assertTrue(mCache.contains(startsWithK));
+        assertEquals(2, mCache.removeAll(startsWithK));
+        assertFalse(mCache.contains(startsWithK));
+        assertEquals(1, mCache.getCount());
+
+        mCache.clear();
+        assertEquals(0, mCache.getCount());
+        verify(mReleaser).release(400);
+    }
+
+    private void assertSegmentBudgetsWithinGlobalBudget() {
+        long totalSize = 0;
+        long totalCount = 0;
+        for (CountingMemoryCache<String, Integer> segment : mCache.getSegments()) {
+            totalSize += segment.mMemoryCacheParams.maxCacheSize;
+            totalCount += segment.mMemoryCacheParams.maxCacheEntries;
+        }
+        assertTrue("segment budgets exceed the global size", totalSize <= CACHE_MAX_SIZE);
+        assertTrue("segment budgets exceed the global count", totalCount <= CACHE_MAX_COUNT);
+    }
+
+    private CloseableReference<Integer> newReference(int size) {
+        return CloseableReference.of(size, mReleaser);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class TinyLfuMemoryCacheEvictionPolicyTest {
+
+    @Mock
+    public MemoryCacheEvictionPolicy.AdmissionObserver mAdmissionObserver;
+    private TinyLfuMemoryCacheEvictionPolicy<String> mPolicy;
+    private CountingLruMap<String, Integer> mExclusiveEntries;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mPolicy = new TinyLfuMemoryCacheEvictionPolicy<>(
+                TinyLfuMemoryCacheEvictionPolicy.DEFAULT_WINDOW_RATIO,
+                TinyLfuMemoryCacheEvictionPolicy.DEFAULT_PROTECTED_RATIO,
+                mAdmissionObserver);
+        mExclusiveEntries = new CountingLruMap<>(
+                new ValueDescriptor<Integer>() {
+                    @Override
+                    public int getSizeInBytes(Integer value) {
+                        return value;
+                    }
+                });
+    }
+
+    @Test
+    public void testNewEntryEntersWindow() {
+        add("k1", 100, 1);
+        assertTrue(mPolicy.mWindow.containsKey("k1"));
+        assertEquals("k1", mPolicy.selectVictim(mExclusiveEntries));
+    }
+
+    @Test
+    public void testReusedEntryEntersProtectedSegment() {
+        add("k1", 100, 2);
+        assertTrue(mPolicy.mProtected.containsKey("k1"));
+    }
+
+    @Test
+    public void testProtectedOverflowIsDemotedToProbation() {
+        add("k1", 100, 2);
+        add("k2", 100, 2);
+        assertTrue(mPolicy.mProbation.containsKey("k1"));
+        assertTrue(mPolicy.mProtected.containsKey("k2"));
+    }
+
+    @Test
+    public void testOneOffCandidateIsRejected() {
+        add("hot", 100, 3);
+        add("new", 100, 1);
+        assertEquals("new", mPolicy.selectVictim(mExclusiveEntries));
+        verify(mAdmissionObserver).onCandidateRejected();
+        verify(mAdmissionObserver, never()).onCandidateAdmitted();
+    }
+
+    @Test
+    public void testMoreFrequentCandidateIsAdmitted() {
+        add("old1", 100, 2);
+        add("old2", 100, 2);
+        // age the accesses of the old entries out of the sketch
+        mPolicy.mSketch.reset();
+        mPolicy.mSketch.reset();
+        add("new", 100, 1);
+        assertEquals("old1", mPolicy.selectVictim(mExclusiveEntries));
+        verify(mAdmissionObserver).onCandidateAdmitted();
+        assertTrue(mPolicy.mProbation.containsKey("new"));
+    }
+
+    @Test
+    public void testRemovedEntryIsNotSelected() {
+        add("k1", 100, 1);
+        add("k2", 100, 1);
+        mPolicy.onExclusiveEntryRemoved("k1");
+        mExclusiveEntries.remove("k1");
+        assertEquals("k2", mPolicy.selectVictim(mExclusiveEntries));
+    }
+
+    @Test
+    public void testSketchIsSizedFromCacheSize() {
+        mPolicy.onCacheParamsUpdated(
+                new MemoryCacheParams(
+                        64 * TinyLfuMemoryCacheEvictionPolicy.EXPECTED_ENTRY_SIZE,
+                        Integer.MAX_VALUE,
+                        0,
+                        Integer.MAX_VALUE,
+                        TinyLfuMemoryCacheEvictionPolicy.EXPECTED_ENTRY_SIZE));
+        assertEquals(64, mPolicy.mSketch.getTableSize());
+    }
+
+    @Test
+    public void testClear() {
+        add("k1", 100, 2);
+        add("k2", 100, 1);
+        mPolicy.clear();
+        assertTrue(mPolicy.mWindow.isEmpty());
+        assertTrue(mPolicy.mProbation.isEmpty());
+        assertTrue(mPolicy.mProtected.isEmpty());
+    }
+
+    private void add(String key, int size, int accessCount) {
+        for (int i = 0; i < accessCount; i++) {
+            mPolicy.recordAccess(key);
+        }
+        mExclusiveEntries.put(key, size);
+        mPolicy.onExclusiveEntryAdded(key, size);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class AdaptivePoolSizerTest {
+
+    private static final long WINDOW_MS = 100;
+    private static final int CPU_CORES = 4;
+
+    @Test
+    public void testKeepsSizeWithinWindow() {
+        AdaptivePoolSizer sizer = newSizer(2, CPU_CORES);
+        assertEquals(2, sizer.onTaskFinished(500, 10, 10, 0, WINDOW_MS - 1));
+        assertEquals(0, sizer.getStats().growCount);
+    }
+
+    @Test
+    public void testGrowsWhenTasksWaitLongerThanTheyRun() {
+        AdaptivePoolSizer sizer = newSizer(2, CPU_CORES);
+        sizer.onTaskFinished(50, 10, 5, 0, 10);
+        assertEquals(3, sizer.onTaskFinished(50, 10, 5, 0, WINDOW_MS));
+
+        AdaptivePoolSizer.Stats stats = sizer.getStats();
+        assertEquals(3, stats.poolSize);
+        assertEquals(50, stats.averageQueueTimeMs);
+        assertEquals(10, stats.averageRunTimeMs);
+        assertEquals(1, stats.growCount);
+    }
+
+    @Test
+    public void testDoesNotGrowWithEmptyQueue() {
+        AdaptivePoolSizer sizer = newSizer(2, CPU_CORES);
+        assertEquals(2, sizer.onTaskFinished(50, 90, 0, 0, WINDOW_MS));
+    }
+
+    @Test
+    public void testDoesNotGrowWhenCoresAreBusy() {
+        AdaptivePoolSizer sizer = newSizer(2, CPU_CORES);
+        assertEquals(2, sizer.onTaskFinished(50, 10, 5, CPU_CORES, WINDOW_MS));
+    }
+
+    @Test
+    public void testDoesNotGrowAboveMax() {
+        AdaptivePoolSizer sizer = newSizer(4, 0);
+        assertEquals(4, sizer.onTaskFinished(50, 10, 5, 100, WINDOW_MS));
+    }
+
+    @Test
+    public void testShrinksWhenMostlyIdle() {
+        AdaptivePoolSizer sizer = newSizer(3, CPU_CORES);
+        assertEquals(2, sizer.onTaskFinished(0, 10, 0, 0, WINDOW_MS));
+        assertEquals(1, sizer.onTaskFinished(0, 10, 0, 0, 2 * WINDOW_MS));
+        assertEquals(1, sizer.onTaskFinished(0, 10, 0, 0, 3 * WINDOW_MS));
+        assertEquals(2, sizer.getStats().shrinkCount);
+    }
+
+    @Test
+    public void testKeepsSizeWhenBusyWithoutQueueing() {
+        AdaptivePoolSizer sizer = newSizer(2, CPU_CORES);
+        sizer.onTaskFinished(0, 90, 0, 0, 50);
+        assertEquals(2, sizer.onTaskFinished(0, 90, 0, 0, WINDOW_MS));
+    }
+
+    private static AdaptivePoolSizer newSizer(int initialPoolSize, int cpuCores) {
+        return new AdaptivePoolSizer("test", 1, 4, initialPoolSize, cpuCores, WINDOW_MS, 0);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import android.os.SystemClock;
+
+import com.facebook.common.internal.Supplier;
+import com.facebook.imagepipeline.common.Priority;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@PrepareForTest({SystemClock.class})
+@PowerMockIgnore({"org.mockito.*", "org.robolectric.*", "android.*"})
+@Config(manifest = Config.NONE)
+public class PriorityExecutorTest {
+
+    private static final long AGING_INTERVAL_MS = 100;
+
+    @Rule
+    public PowerMockRule rule = new PowerMockRule();
+
+    private List<Runnable> mWorkers;
+    private PriorityExecutor mExecutor;
+
+    @Before
+    public void setUp() {
+        PowerMockito.mockStatic(SystemClock.class);
+        setTime(0);
+        mWorkers = new ArrayList<>();
+        // threads are never started, so queued work stays queued until polled
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                mWorkers.add(runnable);
+                return new Thread();
+            }
+        };
+        mExecutor = new PriorityExecutor(2, threadFactory, AGING_INTERVAL_MS);
+    }
+
+    @Test
+    public void testStartsUpToMaxThreads() {
+        for (int i = 0; i < 5; i++) {
+            mExecutor.execute(newRunnable());
+        }
+        assertEquals(2, mWorkers.size());
+        assertEquals(5, mExecutor.getQueueSize());
+    }
+
+    @Test
+    public void testRunsHigherPriorityFirst() {
+        Runnable low = newRunnable(Priority.LOW);
+        Runnable medium = newRunnable(Priority.MEDIUM);
+        Runnable high = newRunnable(Priority.HIGH);
+        mExecutor.execute(low);
+        mExecutor.execute(medium);
+        mExecutor.execute(high);
+
+        assertSame(high, mExecutor.pollNext());
+        assertSame(medium, mExecutor.pollNext());
+        assertSame(low, mExecutor.pollNext());
+        assertNull(mExecutor.pollNext());
+    }
+
+    @Test
+    public void testKeepsSubmissionOrderForEqualPriorities() {
+        Runnable first = newRunnable(Priority.MEDIUM);
+        Runnable second = newRunnable(Priority.MEDIUM);
+        Runnable untagged = newRunnable();
+        mExecutor.execute(first);
+        mExecutor.execute(second);
+        mExecutor.execute(untagged);
+
+        // untagged work is treated as high priority
+        assertSame(untagged, mExecutor.pollNext());
+        assertSame(first, mExecutor.pollNext());
+        assertSame(second, mExecutor.pollNext());
+    }
+
+    @Test
+    public void testReordersWhenPriorityChanges() {
+        MutablePrioritySupplier prioritySupplier = new MutablePrioritySupplier(Priority.LOW);
+        Runnable prefetch = newRunnable(prioritySupplier);
+        Runnable medium = newRunnable(Priority.MEDIUM);
+        mExecutor.execute(prefetch);
+        mExecutor.execute(medium);
+
+        prioritySupplier.mPriority = Priority.HIGH;
+        assertSame(prefetch, mExecutor.pollNext());
+        assertSame(medium, mExecutor.pollNext());
+    }
+
+    @Test
+    public void testAgesLowPriorityWork() {
+        Runnable low = newRunnable(Priority.LOW);
+        mExecutor.execute(low);
+        setTime(2 * AGING_INTERVAL_MS);
+        Runnable high = newRunnable(Priority.HIGH);
+        mExecutor.execute(high);
+
+        // after two aging intervals the low priority runnable competes as high and is older
+        assertSame(low, mExecutor.pollNext());
+        assertSame(high, mExecutor.pollNext());
+    }
+
+    @Test
+    public void testDoesNotAgeBeforeInterval() {
+        Runnable low = newRunnable(Priority.LOW);
+        mExecutor.execute(low);
+        setTime(AGING_INTERVAL_MS);
+        Runnable high = newRunnable(Priority.HIGH);
+        mExecutor.execute(high);
+
+        assertSame(high, mExecutor.pollNext());
+        assertSame(low, mExecutor.pollNext());
+    }
+
+    private static void setTime(long time) {
+        PowerMockito.when(SystemClock.uptimeMillis()).thenReturn(time);
+    }
+
+    private static Runnable newRunnable() {
+        return new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+    }
+
+    private static Runnable newRunnable(Priority priority) {
+        return newRunnable(new MutablePrioritySupplier(priority));
+    }
+
+    private static Runnable newRunnable(Supplier<Priority> prioritySupplier) {
+        return new PrioritizedRunnable(newRunnable(), prioritySupplier);
+    }
+
+    private static class MutablePrioritySupplier implements Supplier<Priority> {
+        private Priority mPriority;
+
+        MutablePrioritySupplier(Priority priority) {
+            mPriority = priority;
+        }
+
+        @Override
+        public Priority get() {
+            return mPriority;
+        }
+    }
+}
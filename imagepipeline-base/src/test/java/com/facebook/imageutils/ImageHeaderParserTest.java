@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imageutils;
+
+import com.facebook.imageformat.DefaultImageFormats;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static com.facebook.imageutils.JfifTestUtils.APP0;
+import static com.facebook.imageutils.JfifTestUtils.DHT;
+import static com.facebook.imageutils.JfifTestUtils.DQT;
+import static com.facebook.imageutils.JfifTestUtils.EOI;
+import static com.facebook.imageutils.JfifTestUtils.SOI;
+import static com.facebook.imageutils.JfifTestUtils.SOS;
+import static com.facebook.imageutils.JfifTestUtils.hexStringToByteArray;
+import static com.facebook.imageutils.JfifTestUtils.makeAPP1_EXIF;
+import static com.facebook.imageutils.JfifTestUtils.makeIfd;
+import static com.facebook.imageutils.JfifTestUtils.makeOrientationEntry;
+import static com.facebook.imageutils.JfifTestUtils.makeTiff;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ImageHeaderParser}
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ImageHeaderParserTest {
+
+    // baseline frame header: 8 bit precision, height 0x10, width 0x20
+    private static final String SOF0_GRAYSCALE = "FFC0 000B 08 0010 0020 01 010000";
+    private static final String SOF0_YCBCR = "FFC0 0011 08 0010 0020 03 011100 021101 031101";
+    private static final String SOF2_CMYK =
+            "FFC2 0014 08 0010 0020 04 011100 021100 031100 041100";
+    private static final String APP14_ADOBE_RGB = "FFEE 000E 41646F6265 0064 0000 0000 00";
+
+    @Test
+    public void testParseJpegs() throws IOException {
+        assertMetaData(parseResource("jpegs/1.jpeg"), DefaultImageFormats.JPEG, 240, 181);
+        assertMetaData(parseResource("jpegs/2.jpeg"), DefaultImageFormats.JPEG, 240, 93);
+        assertMetaData(parseResource("jpegs/3.jpeg"), DefaultImageFormats.JPEG, 240, 240);
+        assertEquals(
+                ImageMetaData.COLOR_SPACE_YCBCR,
+                parseResource("jpegs/1.jpeg").getColorSpace());
+    }
+
+    @Test
+    public void testParseTruncatedJpeg() throws IOException {
+        assertMetaData(parseResource("jpegs/1cut.jpeg"), DefaultImageFormats.JPEG, 240, 181);
+    }
+
+    @Test
+    public void testParseJpegOrientation() throws IOException {
+        final String app1 = makeAPP1_EXIF(
+                makeTiff(makeIfd(new String[]{makeOrientationEntry(6, true)}, 0, true), true));
+        final ImageMetaData metaData =
+                parse(SOI + APP0 + app1 + DQT + DHT + SOF0_YCBCR + SOS + EOI);
+
+        assertMetaData(metaData, DefaultImageFormats.JPEG, 0x20, 0x10);
+        assertEquals(6, metaData.getOrientation());
+    }
+
+    @Test
+    public void testParseJpegColorSpace() throws IOException {
+        assertEquals(
+                ImageMetaData.COLOR_SPACE_GRAYSCALE,
+                parse(SOI + DQT + SOF0_GRAYSCALE + SOS + EOI).getColorSpace());
+        assertEquals(
+                ImageMetaData.COLOR_SPACE_YCBCR,
+                parse(SOI + DQT + SOF0_YCBCR + SOS + EOI).getColorSpace());
+        assertEquals(
+                ImageMetaData.COLOR_SPACE_RGB,
+                parse(SOI + APP14_ADOBE_RGB + DQT + SOF0_YCBCR + SOS + EOI).getColorSpace());
+        assertEquals(
+                ImageMetaData.COLOR_SPACE_CMYK,
+                parse(SOI + DQT + SOF2_CMYK + SOS + EOI).getColorSpace());
+    }
+
+    @Test
+    public void testParseJpegProgressive() throws IOException {
+        assertFalse(parse(SOI + DQT + SOF0_YCBCR + SOS + EOI).isProgressive());
+        final ImageMetaData metaData = parse(SOI + DQT + DHT + SOF2_CMYK + SOS + EOI);
+        assertTrue(metaData.isProgressive());
+        assertMetaData(metaData, DefaultImageFormats.JPEG, 0x20, 0x10);
+    }
+
+    @Test
+    public void testParsePngs() throws IOException {
+        assertMetaData(parseResource("pngs/1.png"), DefaultImageFormats.PNG, 240, 181);
+        assertMetaData(parseResource("pngs/2.png"), DefaultImageFormats.PNG, 240, 246);
+        assertMetaData(parseResource("pngs/3.png"), DefaultImageFormats.PNG, 240, 180);
+    }
+
+    @Test
+    public void testParseGifs() throws IOException {
+        assertMetaData(parseResource("gifs/1.gif"), DefaultImageFormats.GIF, 240, 181);
+        assertMetaData(parseResource("gifs/2.gif"), DefaultImageFormats.GIF, 240, 246);
+        assertMetaData(parseResource("gifs/3.gif"), DefaultImageFormats.GIF, 240, 180);
+    }
+
+    @Test
+    public void testParseBmps() throws IOException {
+        assertMetaData(parseResource("bmps/1.bmp"), DefaultImageFormats.BMP, 240, 181);
+        assertMetaData(parseResource("bmps/2.bmp"), DefaultImageFormats.BMP, 240, 246);
+        assertMetaData(parseResource("bmps/3.bmp"), DefaultImageFormats.BMP, 240, 180);
+    }
+
+    @Test
+    public void testParseBmpHeaders() throws IOException {
+        final String fileHeader = "424D 00000000 00000000 36000000";
+        // BITMAPCOREHEADER, 2 byte dimensions
+        assertMetaData(
+                parse(fileHeader + "0C000000 F000 B500 0100 1800"),
+                DefaultImageFormats.BMP,
+                240,
+                181);
+        // BITMAPINFOHEADER of a top-down bitmap
+        assertMetaData(
+                parse(fileHeader + "28000000 F0000000 4BFFFFFF 0100 1800"),
+                DefaultImageFormats.BMP,
+                240,
+                181);
+    }
+
+    @Test
+    public void testParseWebps() throws IOException {
+        assertMetaData(
+                parseResource("webps/1_webp_plain.webp"),
+                DefaultImageFormats.WEBP_SIMPLE,
+                320,
+                214);
+        assertMetaData(
+                parseResource("webps/1_webp_ll.webp"),
+                DefaultImageFormats.WEBP_LOSSLESS,
+                400,
+                301);
+    }
+
+    private static void assertMetaData(
+            ImageMetaData metaData,
+            Object imageFormat,
+            int width,
+            int height) {
+        assertEquals(imageFormat, metaData.getImageFormat());
+        assertEquals(width, metaData.getWidth());
+        assertEquals(height, metaData.getHeight());
+    }
+
+    private static ImageMetaData parseResource(String name) throws IOException {
+        final InputStream is = ImageHeaderParserTest.class.getResourceAsStream(name);
+        try {
+            return ImageHeaderParser.parse(is);
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    private static ImageMetaData parse(String hex) throws IOException {
+        return ImageHeaderParser.parse(new ByteArrayInputStream(hexStringToByteArray(hex)));
+    }
+}
@@ -48,6 +48,13 @@ public class JfifTestUtils {
     public static final int IFD_ENTRY_TAG_3 = 0x011C;
     public static final int TYPE_SHORT = 3;
 
+    // Annex K luminance quantization table, in zigzag order
+    public static final int[] STD_LUMINANCE_QUANT_TABLE = new int[]{
+            16, 11, 12, 14, 12, 10, 16, 14, 13, 14, 18, 17, 16, 19, 24, 40,
+            26, 24, 22, 22, 24, 49, 35, 37, 29, 40, 58, 51, 61, 60, 57, 51,
+            56, 55, 64, 72, 92, 78, 64, 68, 87, 69, 55, 56, 80, 109, 81, 87,
+            95, 98, 103, 104, 103, 62, 77, 113, 121, 112, 100, 120, 92, 101, 103, 99};
+
     public static int numBytes(String data) {
         return data.replaceAll(" ", "").length() / 2;
     }
@@ -81,6 +88,29 @@ public class JfifTestUtils {
                 encodeInt2HexString(0, length - 7, false);
     }
 
+    /**
+     * Makes a table of the given precision, 1 or 2 bytes, scaled the way libjpeg scales the
+     * luminance table for the given quality.
+     */
+    public static String makeQuantTable(int tableId, int valueSize, int quality) {
+        int scale = quality < 50 ? 5000 / quality : 200 - 2 * quality;
+        StringBuilder sb = new StringBuilder();
+        sb.append(encodeInt2HexString(((valueSize - 1) << 4) | tableId, 1, false));
+        for (int value : STD_LUMINANCE_QUANT_TABLE) {
+            int scaled = Math.max(1, Math.min(255, (value * scale + 50) / 100));
+            sb.append(encodeInt2HexString(scaled, valueSize, false));
+        }
+        return sb.toString();
+    }
+
+    public static String makeDQT(String... tables) {
+        StringBuilder sb = new StringBuilder();
+        for (String table : tables) {
+            sb.append(table);
+        }
+        return DQT_MARKER + encodeInt2HexString(numBytes(sb.toString()) + 2, 2, false) + sb;
+    }
+
     public static String makeOrientationEntry(int orientation, boolean isLittleEnd) {
         return makeIfdEntry(
                 IFD_ENTRY_ORI_TAG, TYPE_SHORT, 1, orientation, 2, isLittleEnd);
@@ -13,6 +13,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import java.io.ByteArrayInputStream;
+
 import static com.facebook.imageutils.JfifTestUtils.APP0;
 import static com.facebook.imageutils.JfifTestUtils.APP2;
 import static com.facebook.imageutils.JfifTestUtils.DHT;
@@ -28,9 +30,11 @@ import static com.facebook.imageutils.JfifTestUtils.SOS;
 import static com.facebook.imageutils.JfifTestUtils.TYPE_SHORT;
 import static com.facebook.imageutils.JfifTestUtils.hexStringToByteArray;
 import static com.facebook.imageutils.JfifTestUtils.makeAPP1_EXIF;
+import static com.facebook.imageutils.JfifTestUtils.makeDQT;
 import static com.facebook.imageutils.JfifTestUtils.makeIfd;
 import static com.facebook.imageutils.JfifTestUtils.makeIfdEntry;
 import static com.facebook.imageutils.JfifTestUtils.makeOrientationEntry;
+import static com.facebook.imageutils.JfifTestUtils.makeQuantTable;
 import static com.facebook.imageutils.JfifTestUtils.makeTestImageWithAPP1;
 import static com.facebook.imageutils.JfifTestUtils.makeTiff;
 import static org.junit.Assert.assertEquals;
@@ -117,6 +121,34 @@ public class JfifUtilTest {
         testGetOrientation_VariousAPP1Location(APP1_3, 3);
     }
 
+    @Test
+    public void testGetQuality() {
+        for (int quality = 20; quality < 100; quality++) {
+            assertEquals(quality, getQuality(SOI + makeDQT(makeQuantTable(0, 1, quality)) + SOS));
+        }
+        assertEquals(99, getQuality(SOI + makeDQT(makeQuantTable(0, 1, 100)) + SOS));
+    }
+
+    @Test
+    public void testGetQuality_VariousTables() {
+        final String CHROMINANCE = makeQuantTable(1, 1, 10);
+        final String LUMINANCE = makeQuantTable(0, 1, 80);
+        final String WIDE_LUMINANCE = makeQuantTable(0, 2, 75);
+        assertEquals(
+                80,
+                getQuality(SOI + APP0 + makeDQT(CHROMINANCE, LUMINANCE) + DHT + SOF + SOS + EOI));
+        assertEquals(
+                80,
+                getQuality(SOI + makeDQT(CHROMINANCE) + DHT + makeDQT(LUMINANCE) + SOS + EOI));
+        assertEquals(75, getQuality(SOI + makeDQT(CHROMINANCE, WIDE_LUMINANCE) + SOS + EOI));
+        assertEquals(0, getQuality(SOI + APP0 + makeDQT(CHROMINANCE) + SOF + SOS + EOI));
+        assertEquals(0, getQuality(SOI + APP0 + DHT + SOF + SOS + EOI));
+    }
+
+    private static int getQuality(String image) {
+        return JfifUtil.getQuality(new ByteArrayInputStream(hexStringToByteArray(image)));
+    }
+
     private void testGetOrientation_VariousAPP1Location(String APP1, int expectOri) {
         final String IMAGE_WITH_STRUCT_1 = SOI + APP1 + DQT + DHT + SOF + SOS + EOI;
         final String IMAGE_WITH_STRUCT_2 = SOI + DQT + APP1 + DHT + SOF + SOS + EOI;
@@ -102,6 +102,23 @@ public class BitmapMemoryCacheKey implements CacheKey {
         return mSourceString;
     }
 
+    @Nullable
+    public ResizeOptions getResizeOptions() {
+        return mResizeOptions;
+    }
+
+    /**
+     * @return true if this key and the given key only differ in their resize options, that is if
+     * they are keys for different sizes of the same image
+     */
+    public boolean isResizeVariantOf(BitmapMemoryCacheKey other) {
+        return mSourceString.equals(other.mSourceString) &&
+                Objects.equal(mRotationOptions, other.mRotationOptions) &&
+                Objects.equal(mImageDecodeOptions, other.mImageDecodeOptions) &&
+                Objects.equal(mPostprocessorCacheKey, other.mPostprocessorCacheKey) &&
+                Objects.equal(mPostprocessorName, other.mPostprocessorName);
+    }
+
     @Nullable
     public String getPostprocessorName() {
         return mPostprocessorName;
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Index from source URI to the keys of the bitmap memory cache entries decoded from it, so that
+ * a lookup can find other sizes of the requested image.
+ * <p>
+ * <p> The index is not notified of evictions, so the keys it returns might no longer be in the
+ * cache. Callers are expected to {@link #remove} such keys when they find them missing. Both the
+ * number of sources and the number of keys per source are bounded, the least recently used
+ * entries are dropped first.
+ */
+@ThreadSafe
+public class BitmapMemoryCacheVariantsIndex {
+
+    private static final int DEFAULT_MAX_SOURCES = 256;
+    private static final int DEFAULT_MAX_VARIANTS_PER_SOURCE = 4;
+
+    private final int mMaxVariantsPerSource;
+
+    @GuardedBy("this")
+    private final LinkedHashMap<String, List<BitmapMemoryCacheKey>> mVariants;
+
+    public BitmapMemoryCacheVariantsIndex() {
+        this(DEFAULT_MAX_SOURCES, DEFAULT_MAX_VARIANTS_PER_SOURCE);
+    }
+
+    public BitmapMemoryCacheVariantsIndex(final int maxSources, int maxVariantsPerSource) {
+        Preconditions.checkArgument(maxSources > 0);
+        Preconditions.checkArgument(maxVariantsPerSource > 0);
+        mMaxVariantsPerSource = maxVariantsPerSource;
+        mVariants = new LinkedHashMap<String, List<BitmapMemoryCacheKey>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, List<BitmapMemoryCacheKey>> eldest) {
+                return size() > maxSources;
+            }
+        };
+    }
+
+    /**
+     * Records that an entry with the given key was added to the cache.
+     */
+    public synchronized void add(BitmapMemoryCacheKey key) {
+        List<BitmapMemoryCacheKey> variants = mVariants.get(key.getUriString());
+        if (variants == null) {
+            variants = new ArrayList<>(mMaxVariantsPerSource);
+            mVariants.put(key.getUriString(), variants);
+        }
+        variants.remove(key);
+        if (variants.size() >= mMaxVariantsPerSource) {
+            variants.remove(0);
+        }
+        variants.add(key);
+    }
+
+    /**
+     * Records that the entry with the given key is no longer in the cache.
+     */
+    public synchronized void remove(BitmapMemoryCacheKey key) {
+        final List<BitmapMemoryCacheKey> variants = mVariants.get(key.getUriString());
+        if (variants != null) {
+            variants.remove(key);
+            if (variants.isEmpty()) {
+                mVariants.remove(key.getUriString());
+            }
+        }
+    }
+
+    /**
+     * @return the keys recorded for the given source URI, most recently added last
+     */
+    public synchronized List<BitmapMemoryCacheKey> getVariants(String uriString) {
+        final List<BitmapMemoryCacheKey> variants = mVariants.get(uriString);
+        return variants == null
+                ? Collections.<BitmapMemoryCacheKey>emptyList()
+                : new ArrayList<>(variants);
+    }
+}
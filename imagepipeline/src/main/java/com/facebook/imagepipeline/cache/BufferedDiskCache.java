@@ -10,13 +10,25 @@
 package com.facebook.imagepipeline.cache;
 
 import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
+import com.facebook.binaryresource.FileRegionBinaryResource;
+import com.facebook.cache.common.AdmissionEventListener;
+import com.facebook.cache.common.CacheEventListener;
 import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.NoOpCacheEventListener;
 import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.EntryAdmissionPolicy;
 import com.facebook.cache.disk.FileCache;
+import com.facebook.cache.disk.SettableCacheEvent;
 import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
 import com.facebook.common.logging.FLog;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.common.util.ByteConstants;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.PrioritizedRunnable;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.MappedPooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
 import com.facebook.imagepipeline.memory.PooledByteStreams;
@@ -29,6 +41,8 @@ import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nullable;
+
 import bolts.Task;
 
 /**
@@ -37,6 +51,8 @@ import bolts.Task;
  */
 public class BufferedDiskCache {
     private static final Class<?> TAG = BufferedDiskCache.class;
+    // below this size copying the file is cheaper than setting up a mapping
+    private static final long MIN_MAPPED_READ_SIZE = 16 * ByteConstants.KB;
 
     private final FileCache mFileCache;
     private final PooledByteBufferFactory mPooledByteBufferFactory;
@@ -45,6 +61,12 @@ public class BufferedDiskCache {
     private final Executor mWriteExecutor;
     private final StagingArea mStagingArea;
     private final ImageCacheStatsTracker mImageCacheStatsTracker;
+    private final boolean mMemoryMappedReadEnabled;
+    @Nullable
+    private final EntryAdmissionPolicy mAdmissionPolicy;
+    private final CacheEventListener mCacheEventListener;
+    @Nullable
+    private final DiskCacheRecompressor mRecompressor;
 
     public BufferedDiskCache(
             FileCache fileCache,
@@ -53,12 +75,95 @@ public class BufferedDiskCache {
             Executor readExecutor,
             Executor writeExecutor,
             ImageCacheStatsTracker imageCacheStatsTracker) {
+        this(
+                fileCache,
+                pooledByteBufferFactory,
+                pooledByteStreams,
+                readExecutor,
+                writeExecutor,
+                imageCacheStatsTracker,
+                false);
+    }
+
+    /**
+     * @param memoryMappedReadEnabled if true, large entries stored in files are mapped into memory
+     *                                instead of being copied into a pooled byte buffer
+     */
+    public BufferedDiskCache(
+            FileCache fileCache,
+            PooledByteBufferFactory pooledByteBufferFactory,
+            PooledByteStreams pooledByteStreams,
+            Executor readExecutor,
+            Executor writeExecutor,
+            ImageCacheStatsTracker imageCacheStatsTracker,
+            boolean memoryMappedReadEnabled) {
+        this(
+                fileCache,
+                pooledByteBufferFactory,
+                pooledByteStreams,
+                readExecutor,
+                writeExecutor,
+                imageCacheStatsTracker,
+                memoryMappedReadEnabled,
+                null,
+                NoOpCacheEventListener.getInstance());
+    }
+
+    /**
+     * @param admissionPolicy    if not null, decides which of the images passed to {@link #put}
+     *                           are written to the file cache
+     * @param cacheEventListener the listener told which images the admission policy admits and
+     *                           rejects
+     */
+    public BufferedDiskCache(
+            FileCache fileCache,
+            PooledByteBufferFactory pooledByteBufferFactory,
+            PooledByteStreams pooledByteStreams,
+            Executor readExecutor,
+            Executor writeExecutor,
+            ImageCacheStatsTracker imageCacheStatsTracker,
+            boolean memoryMappedReadEnabled,
+            @Nullable EntryAdmissionPolicy admissionPolicy,
+            CacheEventListener cacheEventListener) {
+        this(
+                fileCache,
+                pooledByteBufferFactory,
+                pooledByteStreams,
+                readExecutor,
+                writeExecutor,
+                imageCacheStatsTracker,
+                memoryMappedReadEnabled,
+                admissionPolicy,
+                cacheEventListener,
+                null);
+    }
+
+    /**
+     * @param recompressor if not null, re-encodes images before they are written to the file
+     *                     cache. Images are still staged and returned by {@link #get} as they
+     *                     were put until the write completes.
+     */
+    public BufferedDiskCache(
+            FileCache fileCache,
+            PooledByteBufferFactory pooledByteBufferFactory,
+            PooledByteStreams pooledByteStreams,
+            Executor readExecutor,
+            Executor writeExecutor,
+            ImageCacheStatsTracker imageCacheStatsTracker,
+            boolean memoryMappedReadEnabled,
+            @Nullable EntryAdmissionPolicy admissionPolicy,
+            CacheEventListener cacheEventListener,
+            @Nullable DiskCacheRecompressor recompressor) {
         mFileCache = fileCache;
         mPooledByteBufferFactory = pooledByteBufferFactory;
         mPooledByteStreams = pooledByteStreams;
         mReadExecutor = readExecutor;
         mWriteExecutor = writeExecutor;
         mImageCacheStatsTracker = imageCacheStatsTracker;
+        mMemoryMappedReadEnabled = memoryMappedReadEnabled;
+        mAdmissionPolicy = admissionPolicy;
+        mCacheEventListener = cacheEventListener;
+        mRecompressor = recompressor;
         mStagingArea = StagingArea.getInstance();
     }
 
@@ -134,11 +239,35 @@ public class BufferedDiskCache {
      * returned task never rethrows any exception
      */
     public Task<EncodedImage> get(CacheKey key, AtomicBoolean isCancelled) {
+        return get(key, isCancelled, null);
+    }
+
+    /**
+     * Same as {@link #get(CacheKey, AtomicBoolean)}, but the disk read is submitted to the read
+     * executor tagged with the priority supplied by <code>prioritySupplier</code>, see
+     * {@link PrioritizedRunnable}.
+     */
+    public Task<EncodedImage> get(
+            CacheKey key,
+            AtomicBoolean isCancelled,
+            @Nullable Supplier<Priority> prioritySupplier) {
         final EncodedImage pinnedImage = mStagingArea.get(key);
         if (pinnedImage != null) {
             return foundPinnedImage(key, pinnedImage);
         }
-        return getAsync(key, isCancelled);
+        return getAsync(key, isCancelled, getReadExecutor(prioritySupplier));
+    }
+
+    private Executor getReadExecutor(@Nullable final Supplier<Priority> prioritySupplier) {
+        if (prioritySupplier == null) {
+            return mReadExecutor;
+        }
+        return new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                mReadExecutor.execute(new PrioritizedRunnable(runnable, prioritySupplier));
+            }
+        };
     }
 
     /**
@@ -167,7 +296,10 @@ public class BufferedDiskCache {
         }
     }
 
-    private Task<EncodedImage> getAsync(final CacheKey key, final AtomicBoolean isCancelled) {
+    private Task<EncodedImage> getAsync(
+            final CacheKey key,
+            final AtomicBoolean isCancelled,
+            Executor readExecutor) {
         try {
             return Task.call(
                     new Callable<EncodedImage>() {
@@ -213,7 +345,7 @@ public class BufferedDiskCache {
                             }
                         }
                     },
-                    mReadExecutor);
+                    readExecutor);
         } catch (Exception exception) {
             // Log failure
             // TODO: 3697790
@@ -228,7 +360,8 @@ public class BufferedDiskCache {
 
     /**
      * Associates encodedImage with given key in disk cache. Disk write is performed on background
-     * thread, so the caller of this method is not blocked
+     * thread, so the caller of this method is not blocked. Images the admission policy rejects are
+     * not written at all.
      */
     public void put(
             final CacheKey key,
@@ -236,9 +369,13 @@ public class BufferedDiskCache {
         Preconditions.checkNotNull(key);
         Preconditions.checkArgument(EncodedImage.isValid(encodedImage));
 
+        encodedImage.setEncodedCacheKey(key);
+        if (!isAdmitted(key, encodedImage)) {
+            return;
+        }
+
         // Store encodedImage in staging area
         mStagingArea.put(key, encodedImage);
-        encodedImage.setEncodedCacheKey(key);
 
         // Write to disk cache. This will be executed on background thread, so increment the ref count.
         // When this write completes (with success/failure), then we will bump down the ref count
@@ -270,6 +407,31 @@ public class BufferedDiskCache {
         }
     }
 
+    private boolean isAdmitted(CacheKey key, EncodedImage encodedImage) {
+        if (mAdmissionPolicy == null) {
+            return true;
+        }
+        final int size = encodedImage.getSize();
+        final boolean admitted = mAdmissionPolicy.shouldAdmit(key, size);
+        if (!admitted) {
+            FLog.v(TAG, "Disk-cache write for key %s not admitted", key.getUriString());
+        }
+        if (mCacheEventListener instanceof AdmissionEventListener) {
+            final AdmissionEventListener listener = (AdmissionEventListener) mCacheEventListener;
+            final SettableCacheEvent cacheEvent = SettableCacheEvent.obtain()
+                    .setCacheKey(key)
+                    .setItemSize(size);
+            if (admitted) {
+                listener.onWriteAdmitted(cacheEvent);
+            }
+            else {
+                listener.onWriteRejected(cacheEvent);
+            }
+            cacheEvent.recycle();
+        }
+        return admitted;
+    }
+
     /**
      * Removes the item from the disk cache and the staging area.
      */
@@ -344,11 +506,17 @@ public class BufferedDiskCache {
             }
 
             PooledByteBuffer byteBuffer;
-            final InputStream is = diskCacheResource.openStream();
-            try {
-                byteBuffer = mPooledByteBufferFactory.newByteBuffer(is, (int) diskCacheResource.size());
-            } finally {
-                is.close();
+            if (shouldMapResource(diskCacheResource)) {
+                byteBuffer = mapResource(diskCacheResource);
+            }
+            else {
+                final InputStream is = diskCacheResource.openStream();
+                try {
+                    byteBuffer =
+                            mPooledByteBufferFactory.newByteBuffer(is, (int) diskCacheResource.size());
+                } finally {
+                    is.close();
+                }
             }
 
             FLog.v(TAG, "Successful read from disk cache for %s", key.getUriString());
@@ -363,6 +531,24 @@ public class BufferedDiskCache {
         }
     }
 
+    private boolean shouldMapResource(BinaryResource resource) {
+        return mMemoryMappedReadEnabled &&
+                (resource instanceof FileBinaryResource ||
+                        resource instanceof FileRegionBinaryResource) &&
+                resource.size() >= MIN_MAPPED_READ_SIZE;
+    }
+
+    private static PooledByteBuffer mapResource(BinaryResource resource) throws IOException {
+        if (resource instanceof FileRegionBinaryResource) {
+            final FileRegionBinaryResource region = (FileRegionBinaryResource) resource;
+            return MappedPooledByteBuffer.map(
+                    region.getFile(),
+                    region.getOffset(),
+                    (int) region.size());
+        }
+        return MappedPooledByteBuffer.map(((FileBinaryResource) resource).getFile());
+    }
+
     /**
      * Writes to disk cache
      *
@@ -372,12 +558,15 @@ public class BufferedDiskCache {
             final CacheKey key,
             final EncodedImage encodedImage) {
         FLog.v(TAG, "About to write to disk-cache for key %s", key.getUriString());
+        final EncodedImage recompressedImage = recompress(key, encodedImage);
+        final EncodedImage imageToWrite =
+                recompressedImage != null ? recompressedImage : encodedImage;
         try {
             mFileCache.insert(
                     key, new WriterCallback() {
                         @Override
                         public void write(OutputStream os) throws IOException {
-                            mPooledByteStreams.copy(encodedImage.getInputStream(), os);
+                            mPooledByteStreams.copy(imageToWrite.getInputStream(), os);
                         }
                     }
             );
@@ -386,6 +575,25 @@ public class BufferedDiskCache {
             // Log failure
             // TODO: 3697790
             FLog.w(TAG, ioe, "Failed to write to disk-cache for key %s", key.getUriString());
+        } finally {
+            EncodedImage.closeSafely(recompressedImage);
+        }
+    }
+
+    /**
+     * @return the re-encoded image to write instead of the given one, or null
+     */
+    @Nullable
+    private EncodedImage recompress(CacheKey key, EncodedImage encodedImage) {
+        if (mRecompressor == null) {
+            return null;
+        }
+        try {
+            return mRecompressor.recompress(encodedImage);
+        } catch (Exception exception) {
+            // the image is written as it is
+            FLog.w(TAG, exception, "Failed to re-encode image for key %s", key.getUriString());
+            return null;
         }
     }
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.imagepipeline.image.EncodedImage;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Re-encodes images before {@link BufferedDiskCache} writes them, so that they take less space in
+ * the disk cache.
+ * <p>
+ * <p> The smaller image is stored under the key of the original one. It must be in a format the
+ * decoders read, so that reads do not need to know whether an entry was re-encoded.
+ */
+public interface DiskCacheRecompressor {
+
+    /**
+     * Called on the disk cache write executor.
+     *
+     * @return the smaller image to write instead of the given one, or null to write the given one
+     */
+    @Nullable
+    EncodedImage recompress(EncodedImage encodedImage) throws IOException;
+}
@@ -15,12 +15,38 @@ import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 
+import javax.annotation.Nullable;
+
 public class EncodedCountingMemoryCacheFactory {
 
     public static CountingMemoryCache<CacheKey, PooledByteBuffer> get(
             Supplier<MemoryCacheParams> encodedMemoryCacheParamsSupplier,
             MemoryTrimmableRegistry memoryTrimmableRegistry,
             PlatformBitmapFactory platformBitmapFactory) {
+        return get(
+                encodedMemoryCacheParamsSupplier,
+                memoryTrimmableRegistry,
+                platformBitmapFactory,
+                1,
+                LruMemoryCacheEvictionPolicy.factory(),
+                null);
+    }
+
+    /**
+     * Creates the encoded counting memory cache.
+     *
+     * @param segmentCount          if greater than 1, a {@link SegmentedCountingMemoryCache} with
+     *                              that many independently locked segments is created
+     * @param evictionPolicyFactory creates the eviction policy of the cache (or of each segment)
+     * @param admissionObserver     observer of the eviction policy's admission decisions, if any
+     */
+    public static CountingMemoryCache<CacheKey, PooledByteBuffer> get(
+            Supplier<MemoryCacheParams> encodedMemoryCacheParamsSupplier,
+            MemoryTrimmableRegistry memoryTrimmableRegistry,
+            PlatformBitmapFactory platformBitmapFactory,
+            int segmentCount,
+            MemoryCacheEvictionPolicy.Factory evictionPolicyFactory,
+            @Nullable MemoryCacheEvictionPolicy.AdmissionObserver admissionObserver) {
 
         ValueDescriptor<PooledByteBuffer> valueDescriptor =
                 new ValueDescriptor<PooledByteBuffer>() {
@@ -32,13 +58,26 @@ public class EncodedCountingMemoryCacheFactory {
 
         CountingMemoryCache.CacheTrimStrategy trimStrategy = new NativeMemoryCacheTrimStrategy();
 
-        CountingMemoryCache<CacheKey, PooledByteBuffer> countingCache =
-                new CountingMemoryCache<>(
-                        valueDescriptor,
-                        trimStrategy,
-                        encodedMemoryCacheParamsSupplier,
-                        platformBitmapFactory,
-                        false);
+        CountingMemoryCache<CacheKey, PooledByteBuffer> countingCache;
+        if (segmentCount > 1) {
+            countingCache = new SegmentedCountingMemoryCache<>(
+                    valueDescriptor,
+                    trimStrategy,
+                    encodedMemoryCacheParamsSupplier,
+                    platformBitmapFactory,
+                    false,
+                    segmentCount,
+                    evictionPolicyFactory,
+                    admissionObserver);
+        } else {
+            countingCache = new CountingMemoryCache<>(
+                    valueDescriptor,
+                    trimStrategy,
+                    encodedMemoryCacheParamsSupplier,
+                    platformBitmapFactory,
+                    false,
+                    evictionPolicyFactory.<CacheKey>create(admissionObserver));
+        }
 
         memoryTrimmableRegistry.registerMemoryTrimmable(countingCache);
 
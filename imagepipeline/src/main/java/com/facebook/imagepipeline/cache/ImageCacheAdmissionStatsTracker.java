@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+/**
+ * Optional interface for stats tracking of the memory cache eviction policies.
+ * <p>
+ * <p>If the {@link ImageCacheStatsTracker} passed to
+ * {@link com.facebook.imagepipeline.core.ImagePipelineConfig} also implements this interface, it
+ * is notified of the admission decisions of the memory caches. Together with the hits and misses,
+ * this can be used to compare the hit ratio of the eviction policies. Only policies with an
+ * admission filter, like W-TinyLFU, report these.
+ */
+public interface ImageCacheAdmissionStatsTracker {
+
+    /**
+     * Called when the bitmap cache eviction policy admits a newly evictable image, evicting an
+     * older one instead.
+     */
+    void onBitmapCacheCandidateAdmitted();
+
+    /** Called when the bitmap cache eviction policy rejects a newly evictable image. */
+    void onBitmapCacheCandidateRejected();
+
+    /**
+     * Called when the encoded memory cache eviction policy admits a newly evictable image,
+     * evicting an older one instead.
+     */
+    void onMemoryCacheCandidateAdmitted();
+
+    /** Called when the encoded memory cache eviction policy rejects a newly evictable image. */
+    void onMemoryCacheCandidateRejected();
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imageformat.DefaultImageFormats;
+import com.facebook.imageformat.ImageFormatChecker;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.PooledByteBuffer;
+import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
+import com.facebook.imagepipeline.memory.PooledByteBufferOutputStream;
+import com.facebook.imagepipeline.nativecode.JpegTranscoder;
+import com.facebook.imageutils.JfifUtil;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Re-encodes large jpeg images with a lower quality.
+ * <p>
+ * <p> The quality an image was encoded with is estimated from its quantization tables. Only images
+ * encoded with a quality clearly above the target one are re-encoded, so an image loses quality
+ * once at most, and never below the target. The re-encoded image keeps the dimensions and the
+ * metadata of the original, and is kept only if it is substantially smaller.
+ */
+@ThreadSafe
+public class JpegDiskCacheRecompressor implements DiskCacheRecompressor {
+    private static final Class<?> TAG = JpegDiskCacheRecompressor.class;
+    // re-encoding images that are close to the target quality adds artifacts and saves little
+    private static final int MIN_QUALITY_DROP = 5;
+    private static final int MIN_SAVED_PERCENT = 10;
+
+    private final PooledByteBufferFactory mPooledByteBufferFactory;
+    private final int mMinSize;
+    private final int mQuality;
+    private final AtomicLong mSavedBytes;
+
+    /**
+     * @param minSize images smaller than this size in bytes are written as they are
+     * @param quality the quality large images are re-encoded with, 1 - 100
+     */
+    public JpegDiskCacheRecompressor(
+            PooledByteBufferFactory pooledByteBufferFactory,
+            int minSize,
+            int quality) {
+        Preconditions.checkArgument(quality > JpegTranscoder.MIN_QUALITY);
+        Preconditions.checkArgument(quality <= JpegTranscoder.MAX_QUALITY);
+        mPooledByteBufferFactory = pooledByteBufferFactory;
+        mMinSize = minSize;
+        mQuality = quality;
+        mSavedBytes = new AtomicLong();
+    }
+
+    @Override
+    @Nullable
+    public EncodedImage recompress(EncodedImage encodedImage) throws IOException {
+        final int size = encodedImage.getSize();
+        if (size < mMinSize ||
+                ImageFormatChecker.getImageFormat_WrapIOException(encodedImage.getInputStream()) !=
+                        DefaultImageFormats.JPEG) {
+            return null;
+        }
+        final int quality = JfifUtil.getQuality(encodedImage.getInputStream());
+        if (quality < mQuality + MIN_QUALITY_DROP) {
+            return null;
+        }
+        PooledByteBufferOutputStream outputStream = mPooledByteBufferFactory.newOutputStream();
+        try {
+            JpegTranscoder.recompressJpeg(encodedImage.getInputStream(), outputStream, mQuality);
+            final int recompressedSize = outputStream.size();
+            if (recompressedSize > (long) size * (100 - MIN_SAVED_PERCENT) / 100) {
+                return null;
+            }
+            FLog.v(
+                    TAG,
+                    "Re-encoded image of quality %d from %d to %d bytes",
+                    quality,
+                    size,
+                    recompressedSize);
+            mSavedBytes.addAndGet(size - recompressedSize);
+            CloseableReference<PooledByteBuffer> ref =
+                    CloseableReference.of(outputStream.toByteBuffer());
+            try {
+                EncodedImage recompressed = new EncodedImage(ref);
+                recompressed.copyMetaDataFrom(encodedImage);
+                return recompressed;
+            } finally {
+                CloseableReference.closeSafely(ref);
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * @return how many bytes re-encoding saved so far
+     */
+    public long getSavedBytes() {
+        return mSavedBytes.get();
+    }
+}
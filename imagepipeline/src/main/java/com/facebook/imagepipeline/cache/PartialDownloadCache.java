@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.FileCache;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.memory.PooledByteBuffer;
+import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
+import com.facebook.imagepipeline.memory.PooledByteBufferInputStream;
+import com.facebook.imagepipeline.memory.PooledByteStreams;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import bolts.Task;
+
+/**
+ * Keeps the bytes of interrupted network downloads in the disk cache, so that a later fetch of
+ * the same image can ask the server for the remaining bytes only.
+ * <p>
+ * <p> Partial downloads are stored in the given {@link FileCache} under keys derived from the
+ * encoded cache key of the image, so they never collide with complete images and are evicted
+ * together with them. Each entry starts with the validator (ETag or Last-Modified) the server
+ * sent with the bytes, which is needed to make the range request conditional.
+ * <p>
+ * <p> Callers check {@link #containsSync} before looking up a partial download, so that fetches
+ * of images without one neither wait for a disk read nor report a miss to the listener of the disk
+ * cache. Partial downloads from a previous run are only found once the index of the disk cache
+ * knows of them.
+ */
+public class PartialDownloadCache {
+    private static final Class<?> TAG = PartialDownloadCache.class;
+
+    @VisibleForTesting
+    static final String PARTIAL_KEY_PREFIX = "partial:";
+    private static final int HEADER_MAGIC = 0x46504431; // "FPD1"
+
+    private final FileCache mFileCache;
+    private final PooledByteBufferFactory mPooledByteBufferFactory;
+    private final PooledByteStreams mPooledByteStreams;
+    private final Executor mReadExecutor;
+    private final Executor mWriteExecutor;
+
+    public PartialDownloadCache(
+            FileCache fileCache,
+            PooledByteBufferFactory pooledByteBufferFactory,
+            PooledByteStreams pooledByteStreams,
+            Executor readExecutor,
+            Executor writeExecutor) {
+        mFileCache = fileCache;
+        mPooledByteBufferFactory = pooledByteBufferFactory;
+        mPooledByteStreams = pooledByteStreams;
+        mReadExecutor = readExecutor;
+        mWriteExecutor = writeExecutor;
+    }
+
+    /**
+     * Checks the in-memory index of the disk cache for a partial download of the image with the
+     * given encoded cache key. Avoids a disk read.
+     * <p>
+     * <p> A false result does not guarantee that there is no partial download, but a true result
+     * means there most likely is one.
+     */
+    public boolean containsSync(CacheKey key) {
+        Preconditions.checkNotNull(key);
+        return mFileCache.hasKeySync(getPartialKey(key));
+    }
+
+    /**
+     * Looks up the partial download of the image with the given encoded cache key. Any error
+     * manifests itself as a miss.
+     *
+     * @return Task that resolves to the partial download, or to null if there is none. The caller
+     * is responsible for closing the entry.
+     */
+    public Task<Entry> get(final CacheKey key) {
+        Preconditions.checkNotNull(key);
+        try {
+            return Task.call(
+                    new Callable<Entry>() {
+                        @Override
+                        public Entry call() throws Exception {
+                            return readFromDiskCache(key);
+                        }
+                    },
+                    mReadExecutor);
+        } catch (Exception exception) {
+            FLog.w(
+                    TAG,
+                    exception,
+                    "Failed to schedule partial download read for %s",
+                    key.getUriString());
+            return Task.forResult(null);
+        }
+    }
+
+    /**
+     * Stores the first bytes of the image with the given encoded cache key. The write is performed
+     * on a background thread; the caller keeps ownership of the passed reference.
+     */
+    public void put(
+            final CacheKey key,
+            final String validator,
+            CloseableReference<PooledByteBuffer> bytesRef) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(validator);
+        Preconditions.checkArgument(CloseableReference.isValid(bytesRef));
+        final CloseableReference<PooledByteBuffer> finalBytesRef = bytesRef.clone();
+        try {
+            mWriteExecutor.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                writeToDiskCache(key, validator, finalBytesRef.get());
+                            } finally {
+                                CloseableReference.closeSafely(finalBytesRef);
+                            }
+                        }
+                    });
+        } catch (Exception exception) {
+            FLog.w(
+                    TAG,
+                    exception,
+                    "Failed to schedule partial download write for %s",
+                    key.getUriString());
+            CloseableReference.closeSafely(finalBytesRef);
+        }
+    }
+
+    /**
+     * Removes the partial download of the image with the given encoded cache key, if any.
+     */
+    public void remove(final CacheKey key) {
+        Preconditions.checkNotNull(key);
+        try {
+            mWriteExecutor.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            mFileCache.remove(getPartialKey(key));
+                        }
+                    });
+        } catch (Exception exception) {
+            FLog.w(
+                    TAG,
+                    exception,
+                    "Failed to schedule partial download remove for %s",
+                    key.getUriString());
+        }
+    }
+
+    @VisibleForTesting
+    static CacheKey getPartialKey(CacheKey key) {
+        return new SimpleCacheKey(PARTIAL_KEY_PREFIX + key.getUriString());
+    }
+
+    @Nullable
+    private Entry readFromDiskCache(CacheKey key) {
+        final CacheKey partialKey = getPartialKey(key);
+        try {
+            final BinaryResource resource = mFileCache.getResource(partialKey);
+            if (resource == null) {
+                return null;
+            }
+            final DataInputStream is = new DataInputStream(resource.openStream());
+            try {
+                if (is.readInt() != HEADER_MAGIC) {
+                    throw new IOException("Unexpected header");
+                }
+                final String validator = is.readUTF();
+                final int size = is.readInt();
+                final CloseableReference<PooledByteBuffer> bytesRef =
+                        CloseableReference.of(mPooledByteBufferFactory.newByteBuffer(is, size));
+                if (bytesRef.get().size() != size) {
+                    CloseableReference.closeSafely(bytesRef);
+                    throw new IOException("Truncated partial download");
+                }
+                FLog.v(TAG, "Found partial download of %d bytes for %s", size, key.getUriString());
+                return new Entry(validator, bytesRef);
+            } finally {
+                is.close();
+            }
+        } catch (IOException ioe) {
+            FLog.w(TAG, ioe, "Exception reading partial download for %s", key.getUriString());
+            mFileCache.remove(partialKey);
+            return null;
+        }
+    }
+
+    private void writeToDiskCache(
+            CacheKey key,
+            final String validator,
+            final PooledByteBuffer bytes) {
+        try {
+            mFileCache.insert(
+                    getPartialKey(key), new WriterCallback() {
+                        @Override
+                        public void write(OutputStream os) throws IOException {
+                            DataOutputStream dos = new DataOutputStream(os);
+                            dos.writeInt(HEADER_MAGIC);
+                            dos.writeUTF(validator);
+                            dos.writeInt(bytes.size());
+                            dos.flush();
+                            InputStream is = new PooledByteBufferInputStream(bytes);
+                            mPooledByteStreams.copy(is, os);
+                        }
+                    });
+            FLog.v(
+                    TAG,
+                    "Stored partial download of %d bytes for %s",
+                    bytes.size(),
+                    key.getUriString());
+        } catch (IOException ioe) {
+            FLog.w(TAG, ioe, "Failed to store partial download for %s", key.getUriString());
+        }
+    }
+
+    /**
+     * The first bytes of an image together with the validator of the response they came from.
+     */
+    public static class Entry implements Closeable {
+        private final String mValidator;
+        @GuardedBy("this")
+        @Nullable
+        private CloseableReference<PooledByteBuffer> mBytesRef;
+        private final int mSize;
+
+        @VisibleForTesting
+        Entry(String validator, CloseableReference<PooledByteBuffer> bytesRef) {
+            mValidator = validator;
+            mBytesRef = bytesRef;
+            mSize = bytesRef.get().size();
+        }
+
+        public String getValidator() {
+            return mValidator;
+        }
+
+        public int getSize() {
+            return mSize;
+        }
+
+        /**
+         * @return a new reference to the bytes, or null if this entry was closed
+         */
+        @Nullable
+        public synchronized CloseableReference<PooledByteBuffer> getBytesRef() {
+            return CloseableReference.cloneOrNull(mBytesRef);
+        }
+
+        @Override
+        public synchronized void close() {
+            CloseableReference.closeSafely(mBytesRef);
+            mBytesRef = null;
+        }
+    }
+}
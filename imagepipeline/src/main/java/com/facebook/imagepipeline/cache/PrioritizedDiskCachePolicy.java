@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Supplier;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import bolts.Task;
+
+/**
+ * {@link DiskCachePolicy} whose reads can be ordered by the priority of the request.
+ */
+public interface PrioritizedDiskCachePolicy extends DiskCachePolicy {
+
+    /**
+     * Same as {@link #createAndStartCacheReadTask(ImageRequest, Object, AtomicBoolean)}, but the
+     * reads are tagged with the priority supplied by <code>prioritySupplier</code>, so that a
+     * priority aware read executor can order them.
+     */
+    Task<EncodedImage> createAndStartCacheReadTask(
+            ImageRequest imageRequest,
+            Object callerContext,
+            AtomicBoolean isCancelled,
+            Supplier<Priority> prioritySupplier);
+}
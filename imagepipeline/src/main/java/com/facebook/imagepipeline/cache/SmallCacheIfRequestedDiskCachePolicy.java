@@ -10,11 +10,15 @@
 package com.facebook.imagepipeline.cache;
 
 import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.Supplier;
+import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nullable;
+
 import bolts.Task;
 
 /**
@@ -22,7 +26,7 @@ import bolts.Task;
  * is requested by the image request.
  */
 public class SmallCacheIfRequestedDiskCachePolicy
-        implements DiskCachePolicy {
+        implements PrioritizedDiskCachePolicy {
 
     private final BufferedDiskCache mDefaultBufferedDiskCache;
     private final BufferedDiskCache mSmallImageBufferedDiskCache;
@@ -41,13 +45,24 @@ public class SmallCacheIfRequestedDiskCachePolicy
             ImageRequest imageRequest,
             Object callerContext,
             AtomicBoolean isCancelled) {
+        return createAndStartCacheReadTask(imageRequest, callerContext, isCancelled, null);
+    }
+
+    @Override
+    public Task<EncodedImage> createAndStartCacheReadTask(
+            ImageRequest imageRequest,
+            Object callerContext,
+            AtomicBoolean isCancelled,
+            @Nullable Supplier<Priority> prioritySupplier) {
         final CacheKey cacheKey = mCacheKeyFactory.getEncodedCacheKey(imageRequest, callerContext);
-        if (imageRequest.getCacheChoice() == ImageRequest.CacheChoice.SMALL) {
-            return mSmallImageBufferedDiskCache.get(cacheKey, isCancelled);
-        }
-        else {
-            return mDefaultBufferedDiskCache.get(cacheKey, isCancelled);
+        final BufferedDiskCache cache =
+                imageRequest.getCacheChoice() == ImageRequest.CacheChoice.SMALL
+                        ? mSmallImageBufferedDiskCache
+                        : mDefaultBufferedDiskCache;
+        if (prioritySupplier == null) {
+            return cache.get(cacheKey, isCancelled);
         }
+        return cache.get(cacheKey, isCancelled, prioritySupplier);
     }
 
     @Override
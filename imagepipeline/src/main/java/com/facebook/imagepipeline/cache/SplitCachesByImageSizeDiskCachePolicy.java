@@ -10,12 +10,16 @@
 package com.facebook.imagepipeline.cache;
 
 import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.Supplier;
+import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nullable;
+
 import bolts.Continuation;
 import bolts.Task;
 
@@ -23,7 +27,7 @@ import bolts.Task;
  * Task factory to attempt to load an image from either the main or small disk cache and then
  * fallback to the other if the first attempt was unsuccessful.
  */
-public class SplitCachesByImageSizeDiskCachePolicy implements DiskCachePolicy {
+public class SplitCachesByImageSizeDiskCachePolicy implements PrioritizedDiskCachePolicy {
 
     private final BufferedDiskCache mDefaultBufferedDiskCache;
     private final BufferedDiskCache mSmallImageBufferedDiskCache;
@@ -46,11 +50,31 @@ public class SplitCachesByImageSizeDiskCachePolicy implements DiskCachePolicy {
                 (task.isFaulted() && task.getError() instanceof CancellationException);
     }
 
+    private static Task<EncodedImage> get(
+            BufferedDiskCache cache,
+            CacheKey cacheKey,
+            AtomicBoolean isCancelled,
+            @Nullable Supplier<Priority> prioritySupplier) {
+        if (prioritySupplier == null) {
+            return cache.get(cacheKey, isCancelled);
+        }
+        return cache.get(cacheKey, isCancelled, prioritySupplier);
+    }
+
+    @Override
+    public Task<EncodedImage> createAndStartCacheReadTask(
+            ImageRequest imageRequest,
+            Object callerContext,
+            AtomicBoolean isCancelled) {
+        return createAndStartCacheReadTask(imageRequest, callerContext, isCancelled, null);
+    }
+
     @Override
     public Task<EncodedImage> createAndStartCacheReadTask(
             ImageRequest imageRequest,
             Object callerContext,
-            final AtomicBoolean isCancelled) {
+            final AtomicBoolean isCancelled,
+            @Nullable final Supplier<Priority> prioritySupplier) {
         final CacheKey cacheKey = mCacheKeyFactory.getEncodedCacheKey(imageRequest, callerContext);
         final boolean alreadyInSmall = mSmallImageBufferedDiskCache.containsSync(cacheKey);
         final boolean alreadyInMain = mDefaultBufferedDiskCache.containsSync(cacheKey);
@@ -64,7 +88,7 @@ public class SplitCachesByImageSizeDiskCachePolicy implements DiskCachePolicy {
             firstCache = mDefaultBufferedDiskCache;
             secondCache = mSmallImageBufferedDiskCache;
         }
-        return firstCache.get(cacheKey, isCancelled)
+        return get(firstCache, cacheKey, isCancelled, prioritySupplier)
                          .continueWithTask(
                                  new Continuation<EncodedImage, Task<EncodedImage>>() {
                                      @Override
@@ -72,7 +96,7 @@ public class SplitCachesByImageSizeDiskCachePolicy implements DiskCachePolicy {
                                          if (isTaskCancelled(task) || (!task.isFaulted() && task.getResult() != null)) {
                                              return task;
                                          }
-                                         return secondCache.get(cacheKey, isCancelled);
+                                         return get(secondCache, cacheKey, isCancelled, prioritySupplier);
                                      }
                                  });
     }
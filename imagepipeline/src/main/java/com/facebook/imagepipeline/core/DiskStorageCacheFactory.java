@@ -51,7 +51,9 @@ public class DiskStorageCacheFactory implements FileCacheFactory {
                 diskCacheConfig.getDiskTrimmableRegistry(),
                 diskCacheConfig.getContext(),
                 executorForBackgroundInit,
-                diskCacheConfig.getIndexPopulateAtStartupEnabled());
+                diskCacheConfig.getIndexPopulateAtStartupEnabled(),
+                diskCacheConfig.getBackgroundEvictionEnabled() ? executorForBackgroundInit : null,
+                diskCacheConfig.getAccessTimeTrackingEnabled());
     }
 
     @Override
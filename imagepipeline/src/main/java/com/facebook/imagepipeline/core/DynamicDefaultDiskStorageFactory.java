@@ -23,6 +23,8 @@ public class DynamicDefaultDiskStorageFactory implements DiskStorageFactory {
                 diskCacheConfig.getVersion(),
                 diskCacheConfig.getBaseDirectoryPathSupplier(),
                 diskCacheConfig.getBaseDirectoryName(),
-                diskCacheConfig.getCacheErrorLogger());
+                diskCacheConfig.getCacheErrorLogger(),
+                diskCacheConfig.getIndexJournalEnabled(),
+                !diskCacheConfig.getAccessTimeTrackingEnabled());
     }
 }
@@ -269,7 +269,7 @@ public class ImagePipeline {
     }
 
     /**
-     * Submits a request for prefetching to the bitmap cache.
+     * Submits a request for prefetching to the bitmap cache with a default priority.
      *
      * @param imageRequest the request to submit
      * @return a DataSource that can safely be ignored.
@@ -277,6 +277,20 @@ public class ImagePipeline {
     public DataSource<Void> prefetchToBitmapCache(
             ImageRequest imageRequest,
             Object callerContext) {
+        return prefetchToBitmapCache(imageRequest, callerContext, Priority.MEDIUM);
+    }
+
+    /**
+     * Submits a request for prefetching to the bitmap cache.
+     *
+     * @param imageRequest the request to submit
+     * @param priority     custom priority for the fetch
+     * @return a DataSource that can safely be ignored.
+     */
+    public DataSource<Void> prefetchToBitmapCache(
+            ImageRequest imageRequest,
+            Object callerContext,
+            Priority priority) {
         if (!mIsPrefetchEnabledSupplier.get()) {
             return DataSources.immediateFailedDataSource(PREFETCH_EXCEPTION);
         }
@@ -289,7 +303,7 @@ public class ImagePipeline {
                     imageRequest,
                     ImageRequest.RequestLevel.FULL_FETCH,
                     callerContext,
-                    Priority.MEDIUM);
+                    priority);
         } catch (Exception exception) {
             return DataSources.immediateFailedDataSource(exception);
         }
@@ -10,6 +10,8 @@ package com.facebook.imagepipeline.core;
 
 import com.facebook.common.internal.Supplier;
 import com.facebook.common.webp.WebpBitmapFactory;
+import com.facebook.imagepipeline.cache.LruMemoryCacheEvictionPolicy;
+import com.facebook.imagepipeline.cache.MemoryCacheEvictionPolicy;
 import com.facebook.imagepipeline.producers.WebpTranscodeProducer;
 
 /**
@@ -34,6 +36,15 @@ public class ImagePipelineExperiments {
     private final boolean mDecodeCancellationEnabled;
     private final WebpBitmapFactory mWebpBitmapFactory;
     private final boolean mSuppressBitmapPrefetching;
+    private final int mMemoryCacheSegmentCount;
+    private final MemoryCacheEvictionPolicy.Factory mMemoryCacheEvictionPolicyFactory;
+    private final boolean mMemoryMappedDiskCacheReadEnabled;
+    private final boolean mPartialDownloadsEnabled;
+    private final boolean mResizeVariantsMultiplexEnabled;
+    private final boolean mSizeTolerantBitmapCacheLookupEnabled;
+    private final boolean mResizedDecodeInBackgroundEnabled;
+    private final int mDiskCacheRecompressionThresholdBytes;
+    private final int mDiskCacheRecompressionQuality;
 
     private ImagePipelineExperiments(Builder builder, ImagePipelineConfig.Builder configBuilder) {
         mForceSmallCacheThresholdBytes = builder.mForceSmallCacheThresholdBytes;
@@ -58,6 +69,17 @@ public class ImagePipelineExperiments {
         mDecodeCancellationEnabled = builder.mDecodeCancellationEnabled;
         mWebpBitmapFactory = builder.mWebpBitmapFactory;
         mSuppressBitmapPrefetching = builder.mSuppressBitmapPrefetching;
+        mMemoryCacheSegmentCount = builder.mMemoryCacheSegmentCount;
+        mMemoryCacheEvictionPolicyFactory = builder.mMemoryCacheEvictionPolicyFactory != null ?
+                builder.mMemoryCacheEvictionPolicyFactory :
+                LruMemoryCacheEvictionPolicy.factory();
+        mMemoryMappedDiskCacheReadEnabled = builder.mMemoryMappedDiskCacheReadEnabled;
+        mPartialDownloadsEnabled = builder.mPartialDownloadsEnabled;
+        mResizeVariantsMultiplexEnabled = builder.mResizeVariantsMultiplexEnabled;
+        mSizeTolerantBitmapCacheLookupEnabled = builder.mSizeTolerantBitmapCacheLookupEnabled;
+        mResizedDecodeInBackgroundEnabled = builder.mResizedDecodeInBackgroundEnabled;
+        mDiskCacheRecompressionThresholdBytes = builder.mDiskCacheRecompressionThresholdBytes;
+        mDiskCacheRecompressionQuality = builder.mDiskCacheRecompressionQuality;
     }
 
     public static ImagePipelineExperiments.Builder newBuilder(
@@ -107,9 +129,46 @@ public class ImagePipelineExperiments {
         return mWebpBitmapFactory;
     }
 
+    public int getMemoryCacheSegmentCount() {
+        return mMemoryCacheSegmentCount;
+    }
+
+    public MemoryCacheEvictionPolicy.Factory getMemoryCacheEvictionPolicyFactory() {
+        return mMemoryCacheEvictionPolicyFactory;
+    }
+
+    public boolean isMemoryMappedDiskCacheReadEnabled() {
+        return mMemoryMappedDiskCacheReadEnabled;
+    }
+
+    public boolean isPartialDownloadsEnabled() {
+        return mPartialDownloadsEnabled;
+    }
+
+    public boolean isResizeVariantsMultiplexEnabled() {
+        return mResizeVariantsMultiplexEnabled;
+    }
+
+    public boolean isSizeTolerantBitmapCacheLookupEnabled() {
+        return mSizeTolerantBitmapCacheLookupEnabled;
+    }
+
+    public boolean isResizedDecodeInBackgroundEnabled() {
+        return mResizedDecodeInBackgroundEnabled;
+    }
+
+    public int getDiskCacheRecompressionThresholdBytes() {
+        return mDiskCacheRecompressionThresholdBytes;
+    }
+
+    public int getDiskCacheRecompressionQuality() {
+        return mDiskCacheRecompressionQuality;
+    }
+
     public static class Builder {
 
         private static final int DEFAULT_MAX_SIMULTANEOUS_FILE_FETCH_AND_RESIZE = 5;
+        private static final int DEFAULT_DISK_CACHE_RECOMPRESSION_QUALITY = 80;
 
         private final ImagePipelineConfig.Builder mConfigBuilder;
         private int mForceSmallCacheThresholdBytes = 0;
@@ -125,6 +184,15 @@ public class ImagePipelineExperiments {
         private boolean mDecodeCancellationEnabled = false;
         private WebpBitmapFactory mWebpBitmapFactory;
         private boolean mSuppressBitmapPrefetching = false;
+        private int mMemoryCacheSegmentCount = 1;
+        private MemoryCacheEvictionPolicy.Factory mMemoryCacheEvictionPolicyFactory = null;
+        private boolean mMemoryMappedDiskCacheReadEnabled = false;
+        private boolean mPartialDownloadsEnabled = false;
+        private boolean mResizeVariantsMultiplexEnabled = false;
+        private boolean mSizeTolerantBitmapCacheLookupEnabled = false;
+        private boolean mResizedDecodeInBackgroundEnabled = false;
+        private int mDiskCacheRecompressionThresholdBytes = 0;
+        private int mDiskCacheRecompressionQuality = DEFAULT_DISK_CACHE_RECOMPRESSION_QUALITY;
 
         public Builder(ImagePipelineConfig.Builder configBuilder) {
             mConfigBuilder = configBuilder;
@@ -221,6 +289,130 @@ public class ImagePipelineExperiments {
             return mConfigBuilder;
         }
 
+        /**
+         * If greater than 1, the bitmap and encoded memory caches are split into this many
+         * independently locked segments, which reduces lock contention between the UI thread and
+         * the decode threads. The cache size constraints still apply to each cache as a whole.
+         *
+         * @param memoryCacheSegmentCount the number of segments, rounded up to a power of two
+         * @return The Builder itself for chaining
+         */
+        public ImagePipelineConfig.Builder setMemoryCacheSegmentCount(int memoryCacheSegmentCount) {
+            mMemoryCacheSegmentCount = memoryCacheSegmentCount;
+            return mConfigBuilder;
+        }
+
+        /**
+         * Sets the eviction policy of the bitmap and encoded memory caches. The default is LRU;
+         * use {@link com.facebook.imagepipeline.cache.TinyLfuMemoryCacheEvictionPolicy#factory()}
+         * to keep frequently used images from being flushed out by bursts of one-off images.
+         *
+         * @param memoryCacheEvictionPolicyFactory creates the policy of each cache
+         * @return The Builder itself for chaining
+         */
+        public ImagePipelineConfig.Builder setMemoryCacheEvictionPolicyFactory(
+                MemoryCacheEvictionPolicy.Factory memoryCacheEvictionPolicyFactory) {
+            mMemoryCacheEvictionPolicyFactory = memoryCacheEvictionPolicyFactory;
+            return mConfigBuilder;
+        }
+
+        /**
+         * If true, large disk cache entries are mapped into memory when read instead of being
+         * copied into native memory, so a disk cache hit does not need a native memory chunk.
+         *
+         * @param memoryMappedDiskCacheReadEnabled whether to map disk cache entries
+         * @return The Builder itself for chaining
+         */
+        public ImagePipelineConfig.Builder setMemoryMappedDiskCacheReadEnabled(
+                boolean memoryMappedDiskCacheReadEnabled) {
+            mMemoryMappedDiskCacheReadEnabled = memoryMappedDiskCacheReadEnabled;
+            return mConfigBuilder;
+        }
+
+        /**
+         * If true, network downloads that are interrupted are kept in the main disk cache, and a
+         * later fetch of the same image only downloads the missing bytes. Requires a
+         * {@link com.facebook.imagepipeline.producers.NetworkFetcher} that sends range requests,
+         * see {@link com.facebook.imagepipeline.producers.HttpRangeUtil}.
+         *
+         * @param partialDownloadsEnabled whether to resume interrupted downloads
+         * @return The Builder itself for chaining
+         */
+        public ImagePipelineConfig.Builder setPartialDownloadsEnabled(
+                boolean partialDownloadsEnabled) {
+            mPartialDownloadsEnabled = partialDownloadsEnabled;
+            return mConfigBuilder;
+        }
+
+        /**
+         * If true, concurrent requests for the same image that only differ in their resize
+         * options share one fetch and one decode at the largest requested size. Smaller requests
+         * get a copy scaled down to their size, see
+         * {@link com.facebook.imagepipeline.producers.ResizeVariantsMultiplexProducer}.
+         *
+         * @param resizeVariantsMultiplexEnabled whether to combine requests across sizes
+         * @return The Builder itself for chaining
+         */
+        public ImagePipelineConfig.Builder setResizeVariantsMultiplexEnabled(
+                boolean resizeVariantsMultiplexEnabled) {
+            mResizeVariantsMultiplexEnabled = resizeVariantsMultiplexEnabled;
+            return mConfigBuilder;
+        }
+
+        /**
+         * If true, a request with resize options that misses the bitmap memory cache is served a
+         * larger cached size of the same image, which is scaled down when drawn.
+         *
+         * @param sizeTolerantBitmapCacheLookupEnabled whether to serve larger cached sizes
+         * @return The Builder itself for chaining
+         */
+        public ImagePipelineConfig.Builder setSizeTolerantBitmapCacheLookupEnabled(
+                boolean sizeTolerantBitmapCacheLookupEnabled) {
+            mSizeTolerantBitmapCacheLookupEnabled = sizeTolerantBitmapCacheLookupEnabled;
+            return mConfigBuilder;
+        }
+
+        /**
+         * If true, serving a much larger cached size also starts a low priority decode at the
+         * requested size, so that later requests hit an entry of the right size. Only has an
+         * effect together with {@link #setSizeTolerantBitmapCacheLookupEnabled}.
+         *
+         * @param resizedDecodeInBackgroundEnabled whether to decode the requested size later
+         * @return The Builder itself for chaining
+         */
+        public ImagePipelineConfig.Builder setResizedDecodeInBackgroundEnabled(
+                boolean resizedDecodeInBackgroundEnabled) {
+            mResizedDecodeInBackgroundEnabled = resizedDecodeInBackgroundEnabled;
+            return mConfigBuilder;
+        }
+
+        /**
+         * If this value is positive, jpeg images of at least this size are re-encoded with the
+         * quality set by {@link #setDiskCacheRecompressionQuality} before they are written to the
+         * disk caches, see {@link com.facebook.imagepipeline.cache.JpegDiskCacheRecompressor}.
+         *
+         * @param diskCacheRecompressionThresholdBytes the size from which images are re-encoded
+         * @return The Builder itself for chaining
+         */
+        public ImagePipelineConfig.Builder setDiskCacheRecompressionThresholdBytes(
+                int diskCacheRecompressionThresholdBytes) {
+            mDiskCacheRecompressionThresholdBytes = diskCacheRecompressionThresholdBytes;
+            return mConfigBuilder;
+        }
+
+        /**
+         * Sets the quality, 1 - 100, large images are re-encoded with before they are written to
+         * the disk caches. Images encoded with a lower quality are written as they are.
+         *
+         * @param diskCacheRecompressionQuality the quality to re-encode images with
+         * @return The Builder itself for chaining
+         */
+        public ImagePipelineConfig.Builder setDiskCacheRecompressionQuality(
+                int diskCacheRecompressionQuality) {
+            mDiskCacheRecompressionQuality = diskCacheRecompressionQuality;
+            return mConfigBuilder;
+        }
+
         public ImagePipelineExperiments build() {
             return new ImagePipelineExperiments(this, mConfigBuilder);
         }
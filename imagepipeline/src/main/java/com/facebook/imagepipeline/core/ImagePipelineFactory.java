@@ -32,11 +32,16 @@ import com.facebook.imagepipeline.bitmaps.HoneycombBitmapFactory;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.cache.BitmapCountingMemoryCacheFactory;
 import com.facebook.imagepipeline.cache.BitmapMemoryCacheFactory;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheVariantsIndex;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CountingMemoryCache;
 import com.facebook.imagepipeline.cache.EncodedCountingMemoryCacheFactory;
 import com.facebook.imagepipeline.cache.EncodedMemoryCacheFactory;
+import com.facebook.imagepipeline.cache.ImageCacheAdmissionStatsTracker;
+import com.facebook.imagepipeline.cache.JpegDiskCacheRecompressor;
 import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.cache.MemoryCacheEvictionPolicy;
+import com.facebook.imagepipeline.cache.PartialDownloadCache;
 import com.facebook.imagepipeline.decoder.DefaultImageDecoder;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.image.CloseableImage;
@@ -51,6 +56,7 @@ import com.facebook.imagepipeline.producers.MediaVariationsIndexDatabase;
 import com.facebook.imagepipeline.producers.NoOpMediaVariationsIndex;
 import com.facebook.imagepipeline.producers.ThreadHandoffProducerQueue;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
@@ -82,6 +88,8 @@ public class ImagePipelineFactory {
     private BufferedDiskCache mSmallImageBufferedDiskCache;
     private FileCache mSmallImageFileCache;
     private MediaVariationsIndex mMediaVariationsIndex;
+    private PartialDownloadCache mPartialDownloadCache;
+    private JpegDiskCacheRecompressor mDiskCacheRecompressor;
     private PlatformBitmapFactory mPlatformBitmapFactory;
     private PlatformDecoder mPlatformDecoder;
     private AnimatedFactory mAnimatedFactory;
@@ -196,11 +204,34 @@ public class ImagePipelineFactory {
                             mConfig.getBitmapMemoryCacheParamsSupplier(),
                             mConfig.getMemoryTrimmableRegistry(),
                             getPlatformBitmapFactory(),
-                            mConfig.getExperiments().isExternalCreatedBitmapLogEnabled());
+                            mConfig.getExperiments().isExternalCreatedBitmapLogEnabled(),
+                            mConfig.getExperiments().getMemoryCacheSegmentCount(),
+                            mConfig.getExperiments().getMemoryCacheEvictionPolicyFactory(),
+                            getBitmapCacheAdmissionObserver());
         }
         return mBitmapCountingMemoryCache;
     }
 
+    @Nullable
+    private MemoryCacheEvictionPolicy.AdmissionObserver getBitmapCacheAdmissionObserver() {
+        if (!(mConfig.getImageCacheStatsTracker() instanceof ImageCacheAdmissionStatsTracker)) {
+            return null;
+        }
+        final ImageCacheAdmissionStatsTracker tracker =
+                (ImageCacheAdmissionStatsTracker) mConfig.getImageCacheStatsTracker();
+        return new MemoryCacheEvictionPolicy.AdmissionObserver() {
+            @Override
+            public void onCandidateAdmitted() {
+                tracker.onBitmapCacheCandidateAdmitted();
+            }
+
+            @Override
+            public void onCandidateRejected() {
+                tracker.onBitmapCacheCandidateRejected();
+            }
+        };
+    }
+
     public MemoryCache<CacheKey, CloseableImage> getBitmapMemoryCache() {
         if (mBitmapMemoryCache == null) {
             mBitmapMemoryCache =
@@ -217,11 +248,34 @@ public class ImagePipelineFactory {
                     EncodedCountingMemoryCacheFactory.get(
                             mConfig.getEncodedMemoryCacheParamsSupplier(),
                             mConfig.getMemoryTrimmableRegistry(),
-                            getPlatformBitmapFactory());
+                            getPlatformBitmapFactory(),
+                            mConfig.getExperiments().getMemoryCacheSegmentCount(),
+                            mConfig.getExperiments().getMemoryCacheEvictionPolicyFactory(),
+                            getEncodedCacheAdmissionObserver());
         }
         return mEncodedCountingMemoryCache;
     }
 
+    @Nullable
+    private MemoryCacheEvictionPolicy.AdmissionObserver getEncodedCacheAdmissionObserver() {
+        if (!(mConfig.getImageCacheStatsTracker() instanceof ImageCacheAdmissionStatsTracker)) {
+            return null;
+        }
+        final ImageCacheAdmissionStatsTracker tracker =
+                (ImageCacheAdmissionStatsTracker) mConfig.getImageCacheStatsTracker();
+        return new MemoryCacheEvictionPolicy.AdmissionObserver() {
+            @Override
+            public void onCandidateAdmitted() {
+                tracker.onMemoryCacheCandidateAdmitted();
+            }
+
+            @Override
+            public void onCandidateRejected() {
+                tracker.onMemoryCacheCandidateRejected();
+            }
+        };
+    }
+
     public MemoryCache<CacheKey, PooledByteBuffer> getEncodedMemoryCache() {
         if (mEncodedMemoryCache == null) {
             mEncodedMemoryCache =
@@ -277,11 +331,42 @@ public class ImagePipelineFactory {
                             mConfig.getPoolFactory().getPooledByteStreams(),
                             mConfig.getExecutorSupplier().forLocalStorageRead(),
                             mConfig.getExecutorSupplier().forLocalStorageWrite(),
-                            mConfig.getImageCacheStatsTracker());
+                            mConfig.getImageCacheStatsTracker(),
+                            mConfig.getExperiments().isMemoryMappedDiskCacheReadEnabled(),
+                            mConfig.getMainDiskCacheConfig().getEntryAdmissionPolicy(),
+                            mConfig.getMainDiskCacheConfig().getCacheEventListener(),
+                            getDiskCacheRecompressor());
         }
         return mMainBufferedDiskCache;
     }
 
+    @Nullable
+    private PartialDownloadCache getPartialDownloadCache() {
+        if (mPartialDownloadCache == null && mConfig.getExperiments().isPartialDownloadsEnabled()) {
+            mPartialDownloadCache =
+                    new PartialDownloadCache(
+                            getMainFileCache(),
+                            mConfig.getPoolFactory().getPooledByteBufferFactory(),
+                            mConfig.getPoolFactory().getPooledByteStreams(),
+                            mConfig.getExecutorSupplier().forLocalStorageRead(),
+                            mConfig.getExecutorSupplier().forLocalStorageWrite());
+        }
+        return mPartialDownloadCache;
+    }
+
+    @Nullable
+    private JpegDiskCacheRecompressor getDiskCacheRecompressor() {
+        if (mDiskCacheRecompressor == null &&
+                mConfig.getExperiments().getDiskCacheRecompressionThresholdBytes() > 0) {
+            mDiskCacheRecompressor =
+                    new JpegDiskCacheRecompressor(
+                            mConfig.getPoolFactory().getPooledByteBufferFactory(),
+                            mConfig.getExperiments().getDiskCacheRecompressionThresholdBytes(),
+                            mConfig.getExperiments().getDiskCacheRecompressionQuality());
+        }
+        return mDiskCacheRecompressor;
+    }
+
     /**
      * @deprecated use {@link ImagePipelineFactory.getMainFileCache}
      */
@@ -356,7 +441,12 @@ public class ImagePipelineFactory {
                             mConfig.getCacheKeyFactory(),
                             getPlatformBitmapFactory(),
                             mConfig.getExperiments().isDecodeFileDescriptorEnabled(),
-                            mConfig.getExperiments().getForceSmallCacheThresholdBytes());
+                            mConfig.getExperiments().getForceSmallCacheThresholdBytes(),
+                            getPartialDownloadCache(),
+                            mConfig.getExperiments().isSizeTolerantBitmapCacheLookupEnabled()
+                                    ? new BitmapMemoryCacheVariantsIndex()
+                                    : null,
+                            mConfig.getExperiments().isResizedDecodeInBackgroundEnabled());
         }
         return mProducerFactory;
     }
@@ -370,7 +460,8 @@ public class ImagePipelineFactory {
                             mConfig.isResizeAndRotateEnabledForNetwork(),
                             mConfig.getExperiments().isWebpSupportEnabled(),
                             mThreadHandoffProducerQueue,
-                            mConfig.getExperiments().getThrottlingMaxSimultaneousRequests());
+                            mConfig.getExperiments().getThrottlingMaxSimultaneousRequests(),
+                            mConfig.getExperiments().isResizeVariantsMultiplexEnabled());
         }
         return mProducerSequenceFactory;
     }
@@ -400,7 +491,11 @@ public class ImagePipelineFactory {
                             mConfig.getPoolFactory().getPooledByteStreams(),
                             mConfig.getExecutorSupplier().forLocalStorageRead(),
                             mConfig.getExecutorSupplier().forLocalStorageWrite(),
-                            mConfig.getImageCacheStatsTracker());
+                            mConfig.getImageCacheStatsTracker(),
+                            mConfig.getExperiments().isMemoryMappedDiskCacheReadEnabled(),
+                            mConfig.getSmallImageDiskCacheConfig().getEntryAdmissionPolicy(),
+                            mConfig.getSmallImageDiskCacheConfig().getCacheEventListener(),
+                            getDiskCacheRecompressor());
         }
         return mSmallImageBufferedDiskCache;
     }
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.cache.disk.DiskCacheConfig;
+import com.facebook.cache.disk.DiskStorage;
+import com.facebook.cache.disk.PackFileDiskStorage;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Factory for a {@link PackFileDiskStorage}, which keeps the entries in a few large files instead
+ * of one file per entry.
+ * <p>
+ * <p> Use it with {@link ImagePipelineConfig.Builder#setFileCacheFactory} and a
+ * {@link DiskStorageCacheFactory}. Entries already cached by the default storage are imported the
+ * first time the new storage is used.
+ */
+public class PackFileDiskStorageFactory implements DiskStorageFactory {
+
+    private final Executor mCompactionExecutor;
+
+    public PackFileDiskStorageFactory() {
+        this(Executors.newSingleThreadExecutor());
+    }
+
+    /**
+     * @param compactionExecutor executor to compact the files of the storages on
+     */
+    public PackFileDiskStorageFactory(Executor compactionExecutor) {
+        mCompactionExecutor = compactionExecutor;
+    }
+
+    @Override
+    public DiskStorage get(DiskCacheConfig diskCacheConfig) {
+        return new PackFileDiskStorage(
+                new File(
+                        diskCacheConfig.getBaseDirectoryPathSupplier().get(),
+                        diskCacheConfig.getBaseDirectoryName()),
+                diskCacheConfig.getVersion(),
+                diskCacheConfig.getCacheErrorLogger(),
+                mCompactionExecutor);
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.internal.Objects;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.datasource.BaseDataSubscriber;
+import com.facebook.datasource.DataSource;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Prefetches the images of a scrolling list ahead of its viewport.
+ * <p>
+ * <p> The app passes the ordered requests of the list to {@link #setRequests} and reports the
+ * visible range and the scroll velocity to {@link #onViewportChanged}. In the scroll direction,
+ * the first {@link PrefetchPlannerParams#bitmapPrefetchCount} items after the viewport are
+ * prefetched to the bitmap cache and the items after those to the disk cache. The disk window
+ * grows with the scroll velocity, so that a fast scroll looks further ahead.
+ * <p>
+ * <p> Prefetches of items that leave the window, because they scrolled past or the direction
+ * changed, are cancelled. Prefetches of items that become visible are left to finish. At most
+ * {@link PrefetchPlannerParams#maxInFlightPrefetches} prefetches run at once, closest items first,
+ * and items whose decoded size does not fit into
+ * {@link PrefetchPlannerParams#maxBitmapPrefetchBytes} are only prefetched to disk.
+ * <p>
+ * <p> Prefetches are submitted with a priority below that of regular fetches (bitmap prefetches
+ * with {@link Priority#MEDIUM}, disk prefetches with {@link Priority#LOW}), so requests for
+ * visible images are served first.
+ */
+@ThreadSafe
+public class PrefetchPlanner {
+
+    private final ImagePipeline mImagePipeline;
+    private final PrefetchPlannerParams mParams;
+    @Nullable
+    private final Object mCallerContext;
+
+    @GuardedBy("this")
+    private List<ImageRequest> mRequests = Collections.emptyList();
+    @GuardedBy("this")
+    private final Map<Integer, Prefetch> mPrefetches = new HashMap<>();
+    @GuardedBy("this")
+    private int mFirstVisiblePosition = -1;
+    @GuardedBy("this")
+    private int mLastVisiblePosition = -1;
+    @GuardedBy("this")
+    private float mVelocity;
+    @GuardedBy("this")
+    private int mInFlightCount;
+    @GuardedBy("this")
+    private long mBitmapPrefetchBytes;
+
+    public PrefetchPlanner(
+            ImagePipeline imagePipeline,
+            PrefetchPlannerParams params,
+            @Nullable Object callerContext) {
+        mImagePipeline = Preconditions.checkNotNull(imagePipeline);
+        mParams = Preconditions.checkNotNull(params);
+        mCallerContext = callerContext;
+    }
+
+    /**
+     * Sets the requests of the list, in list order. Prefetches of positions whose request did not
+     * change keep running, so a list that grows at the end can just pass its new contents.
+     */
+    public void setRequests(List<ImageRequest> requests) {
+        List<Prefetch> toCancel = new ArrayList<>();
+        List<Prefetch> toStart = new ArrayList<>();
+        synchronized (this) {
+            mRequests = new ArrayList<>(requests);
+            Iterator<Map.Entry<Integer, Prefetch>> iterator = mPrefetches.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Integer, Prefetch> entry = iterator.next();
+                int position = entry.getKey();
+                if (position >= mRequests.size() ||
+                        !Objects.equal(mRequests.get(position), entry.getValue().request)) {
+                    iterator.remove();
+                    onPrefetchRemoved(entry.getValue(), toCancel);
+                }
+            }
+            plan(toCancel, toStart);
+        }
+        execute(toCancel, toStart);
+    }
+
+    /**
+     * Updates the prefetch window.
+     *
+     * @param firstVisiblePosition position of the first visible item
+     * @param lastVisiblePosition  position of the last visible item
+     * @param velocity             scroll velocity in items per second; positive towards the end of
+     *                             the list
+     */
+    public void onViewportChanged(
+            int firstVisiblePosition,
+            int lastVisiblePosition,
+            float velocity) {
+        Preconditions.checkArgument(firstVisiblePosition <= lastVisiblePosition);
+        List<Prefetch> toCancel = new ArrayList<>();
+        List<Prefetch> toStart = new ArrayList<>();
+        synchronized (this) {
+            mFirstVisiblePosition = firstVisiblePosition;
+            mLastVisiblePosition = lastVisiblePosition;
+            mVelocity = velocity;
+            plan(toCancel, toStart);
+        }
+        execute(toCancel, toStart);
+    }
+
+    /**
+     * Cancels all prefetches, for example when the list goes off screen. Prefetching resumes with
+     * the next call to {@link #onViewportChanged}.
+     */
+    public void cancelAll() {
+        List<Prefetch> toCancel = new ArrayList<>();
+        synchronized (this) {
+            for (Prefetch prefetch : mPrefetches.values()) {
+                onPrefetchRemoved(prefetch, toCancel);
+            }
+            mPrefetches.clear();
+            mFirstVisiblePosition = -1;
+            mLastVisiblePosition = -1;
+        }
+        execute(toCancel, Collections.<Prefetch>emptyList());
+    }
+
+    @VisibleForTesting
+    synchronized int getInFlightCount() {
+        return mInFlightCount;
+    }
+
+    @VisibleForTesting
+    synchronized long getBitmapPrefetchBytes() {
+        return mBitmapPrefetchBytes;
+    }
+
+    /**
+     * Brings the prefetches in line with the current window.
+     *
+     * @param toCancel receives the prefetches to cancel
+     * @param toStart  receives the prefetches to submit
+     */
+    @GuardedBy("this")
+    private void plan(List<Prefetch> toCancel, List<Prefetch> toStart) {
+        if (mFirstVisiblePosition < 0 || mRequests.isEmpty()) {
+            return;
+        }
+        final int step = mVelocity < 0 ? -1 : 1;
+        final int firstAhead = step > 0 ? mLastVisiblePosition + 1 : mFirstVisiblePosition - 1;
+        final int lookaheadItems =
+                (int) (Math.abs(mVelocity) * mParams.velocityLookaheadMs / 1000);
+        final int windowSize = mParams.bitmapPrefetchCount + Math.min(
+                mParams.diskPrefetchCount + lookaheadItems,
+                mParams.maxDiskPrefetchCount);
+
+        Iterator<Map.Entry<Integer, Prefetch>> iterator = mPrefetches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Prefetch> entry = iterator.next();
+            int position = entry.getKey();
+            Prefetch prefetch = entry.getValue();
+            boolean isVisible =
+                    position >= mFirstVisiblePosition && position <= mLastVisiblePosition;
+            int distance = (position - firstAhead) * step;
+            boolean keep;
+            if (isVisible) {
+                keep = true;
+            }
+            else if (distance < 0 || distance >= windowSize) {
+                keep = false;
+            }
+            else {
+                // a disk prefetch that moved into the bitmap window is upgraded if memory allows
+                keep = prefetch.toBitmap ||
+                        distance >= mParams.bitmapPrefetchCount ||
+                        !fitsBitmapBudget(prefetch.estimatedBytes);
+            }
+            if (!keep) {
+                iterator.remove();
+                onPrefetchRemoved(prefetch, toCancel);
+            }
+        }
+
+        for (int distance = 0; distance < windowSize; distance++) {
+            if (mInFlightCount >= mParams.maxInFlightPrefetches) {
+                break;
+            }
+            int position = firstAhead + distance * step;
+            if (position < 0 || position >= mRequests.size()) {
+                break;
+            }
+            if (mPrefetches.containsKey(position)) {
+                continue;
+            }
+            ImageRequest request = mRequests.get(position);
+            if (request == null) {
+                continue;
+            }
+            int estimatedBytes = estimateBitmapBytes(request);
+            boolean toBitmap = distance < mParams.bitmapPrefetchCount &&
+                    fitsBitmapBudget(estimatedBytes);
+            Prefetch prefetch = new Prefetch(request, toBitmap, estimatedBytes);
+            mPrefetches.put(position, prefetch);
+            mInFlightCount++;
+            if (toBitmap) {
+                mBitmapPrefetchBytes += estimatedBytes;
+            }
+            toStart.add(prefetch);
+        }
+    }
+
+    @GuardedBy("this")
+    private boolean fitsBitmapBudget(int estimatedBytes) {
+        return mBitmapPrefetchBytes + estimatedBytes <= mParams.maxBitmapPrefetchBytes;
+    }
+
+    @GuardedBy("this")
+    private void onPrefetchRemoved(Prefetch prefetch, List<Prefetch> toCancel) {
+        prefetch.cancelled = true;
+        if (prefetch.toBitmap) {
+            mBitmapPrefetchBytes -= prefetch.estimatedBytes;
+        }
+        if (!prefetch.finished) {
+            mInFlightCount--;
+            toCancel.add(prefetch);
+        }
+    }
+
+    private int estimateBitmapBytes(ImageRequest request) {
+        ResizeOptions resizeOptions = request.getResizeOptions();
+        if (resizeOptions == null) {
+            return mParams.estimatedBitmapBytes;
+        }
+        // ARGB_8888
+        return resizeOptions.width * resizeOptions.height * 4;
+    }
+
+    /**
+     * Cancels and submits prefetches. Called without holding the lock, since data sources may
+     * notify their subscribers synchronously.
+     */
+    private void execute(List<Prefetch> toCancel, List<Prefetch> toStart) {
+        for (Prefetch prefetch : toCancel) {
+            DataSource<Void> dataSource;
+            synchronized (this) {
+                dataSource = prefetch.dataSource;
+                prefetch.dataSource = null;
+            }
+            if (dataSource != null) {
+                dataSource.close();
+            }
+        }
+        for (final Prefetch prefetch : toStart) {
+            DataSource<Void> dataSource = prefetch.toBitmap
+                    ? mImagePipeline.prefetchToBitmapCache(
+                            prefetch.request,
+                            mCallerContext,
+                            Priority.MEDIUM)
+                    : mImagePipeline.prefetchToDiskCache(
+                            prefetch.request,
+                            mCallerContext,
+                            Priority.LOW);
+            boolean cancelled;
+            synchronized (this) {
+                cancelled = prefetch.cancelled;
+                if (!cancelled) {
+                    prefetch.dataSource = dataSource;
+                }
+            }
+            if (cancelled) {
+                dataSource.close();
+                continue;
+            }
+            dataSource.subscribe(
+                    new BaseDataSubscriber<Void>() {
+                        @Override
+                        protected void onNewResultImpl(DataSource<Void> dataSource) {
+                            if (dataSource.isFinished()) {
+                                onPrefetchFinished(prefetch);
+                            }
+                        }
+
+                        @Override
+                        protected void onFailureImpl(DataSource<Void> dataSource) {
+                            onPrefetchFinished(prefetch);
+                        }
+
+                        @Override
+                        public void onCancellation(DataSource<Void> dataSource) {
+                            onPrefetchFinished(prefetch);
+                        }
+                    },
+                    CallerThreadExecutor.getInstance());
+        }
+    }
+
+    private void onPrefetchFinished(Prefetch prefetch) {
+        List<Prefetch> toCancel = new ArrayList<>();
+        List<Prefetch> toStart = new ArrayList<>();
+        synchronized (this) {
+            if (prefetch.finished || prefetch.cancelled) {
+                return;
+            }
+            // stays in the map, so the item is not prefetched again while it is in the window
+            prefetch.finished = true;
+            prefetch.dataSource = null;
+            mInFlightCount--;
+            plan(toCancel, toStart);
+        }
+        execute(toCancel, toStart);
+    }
+
+    private static class Prefetch {
+        final ImageRequest request;
+        final boolean toBitmap;
+        final int estimatedBytes;
+        @Nullable
+        DataSource<Void> dataSource;
+        boolean finished;
+        boolean cancelled;
+
+        Prefetch(ImageRequest request, boolean toBitmap, int estimatedBytes) {
+            this.request = request;
+            this.toBitmap = toBitmap;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.common.internal.Preconditions;
+
+/**
+ * Configuration for a {@link PrefetchPlanner}.
+ */
+public class PrefetchPlannerParams {
+
+    private static final int DEFAULT_BITMAP_PREFETCH_COUNT = 3;
+    private static final int DEFAULT_DISK_PREFETCH_COUNT = 10;
+    private static final int DEFAULT_MAX_DISK_PREFETCH_COUNT = 30;
+    private static final long DEFAULT_VELOCITY_LOOKAHEAD_MS = 1000;
+    private static final int DEFAULT_MAX_IN_FLIGHT_PREFETCHES = 4;
+    private static final long DEFAULT_MAX_BITMAP_PREFETCH_BYTES = 8 * 1024 * 1024;
+    private static final int DEFAULT_ESTIMATED_BITMAP_BYTES = 1024 * 1024;
+
+    public final int bitmapPrefetchCount;
+    public final int diskPrefetchCount;
+    public final int maxDiskPrefetchCount;
+    public final long velocityLookaheadMs;
+    public final int maxInFlightPrefetches;
+    public final long maxBitmapPrefetchBytes;
+    public final int estimatedBitmapBytes;
+
+    /**
+     * Pass arguments to control the planner's behavior in the constructor.
+     *
+     * @param bitmapPrefetchCount    The number of items right ahead of the viewport that are
+     *                               prefetched to the bitmap cache.
+     * @param diskPrefetchCount      The number of items after those that are prefetched to the
+     *                               disk cache while the list is not scrolling.
+     * @param maxDiskPrefetchCount   While scrolling, the disk window grows by the number of items
+     *                               the list would scroll through in
+     *                               <code>velocityLookaheadMs</code>, up to this many items.
+     * @param velocityLookaheadMs    How far ahead in time the disk window reaches while scrolling.
+     * @param maxInFlightPrefetches  The maximum number of prefetches running at the same time.
+     *                               This bounds the bandwidth prefetching takes from visible
+     *                               requests.
+     * @param maxBitmapPrefetchBytes The maximum size of the decoded bitmaps prefetched for the
+     *                               current window, in bytes. Items that do not fit are only
+     *                               prefetched to the disk cache.
+     * @param estimatedBitmapBytes   The size assumed for a decoded bitmap whose request has no
+     *                               resize options.
+     */
+    public PrefetchPlannerParams(
+            int bitmapPrefetchCount,
+            int diskPrefetchCount,
+            int maxDiskPrefetchCount,
+            long velocityLookaheadMs,
+            int maxInFlightPrefetches,
+            long maxBitmapPrefetchBytes,
+            int estimatedBitmapBytes) {
+        Preconditions.checkArgument(bitmapPrefetchCount >= 0);
+        Preconditions.checkArgument(diskPrefetchCount >= 0);
+        Preconditions.checkArgument(maxDiskPrefetchCount >= diskPrefetchCount);
+        Preconditions.checkArgument(velocityLookaheadMs >= 0);
+        Preconditions.checkArgument(maxInFlightPrefetches > 0);
+        Preconditions.checkArgument(maxBitmapPrefetchBytes >= 0);
+        Preconditions.checkArgument(estimatedBitmapBytes > 0);
+        this.bitmapPrefetchCount = bitmapPrefetchCount;
+        this.diskPrefetchCount = diskPrefetchCount;
+        this.maxDiskPrefetchCount = maxDiskPrefetchCount;
+        this.velocityLookaheadMs = velocityLookaheadMs;
+        this.maxInFlightPrefetches = maxInFlightPrefetches;
+        this.maxBitmapPrefetchBytes = maxBitmapPrefetchBytes;
+        this.estimatedBitmapBytes = estimatedBitmapBytes;
+    }
+
+    public static PrefetchPlannerParams getDefault() {
+        return new PrefetchPlannerParams(
+                DEFAULT_BITMAP_PREFETCH_COUNT,
+                DEFAULT_DISK_PREFETCH_COUNT,
+                DEFAULT_MAX_DISK_PREFETCH_COUNT,
+                DEFAULT_VELOCITY_LOOKAHEAD_MS,
+                DEFAULT_MAX_IN_FLIGHT_PREFETCHES,
+                DEFAULT_MAX_BITMAP_PREFETCH_BYTES,
+                DEFAULT_ESTIMATED_BITMAP_BYTES);
+    }
+}
@@ -17,10 +17,12 @@ import android.content.res.Resources;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheVariantsIndex;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
 import com.facebook.imagepipeline.cache.DiskCachePolicy;
 import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.cache.PartialDownloadCache;
 import com.facebook.imagepipeline.cache.SmallCacheIfRequestedDiskCachePolicy;
 import com.facebook.imagepipeline.cache.SplitCachesByImageSizeDiskCachePolicy;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
@@ -57,6 +59,7 @@ import com.facebook.imagepipeline.producers.PostprocessedBitmapMemoryCacheProduc
 import com.facebook.imagepipeline.producers.PostprocessorProducer;
 import com.facebook.imagepipeline.producers.Producer;
 import com.facebook.imagepipeline.producers.ResizeAndRotateProducer;
+import com.facebook.imagepipeline.producers.ResizeVariantsMultiplexProducer;
 import com.facebook.imagepipeline.producers.SwallowResultProducer;
 import com.facebook.imagepipeline.producers.ThreadHandoffProducer;
 import com.facebook.imagepipeline.producers.ThreadHandoffProducerQueue;
@@ -65,6 +68,8 @@ import com.facebook.imagepipeline.producers.ThumbnailBranchProducer;
 import com.facebook.imagepipeline.producers.ThumbnailProducer;
 import com.facebook.imagepipeline.producers.WebpTranscodeProducer;
 
+import javax.annotation.Nullable;
+
 public class ProducerFactory {
     // Decode dependencies
     private final ByteArrayPool mByteArrayPool;
@@ -96,6 +101,11 @@ public class ProducerFactory {
     private Resources mResources;
     private AssetManager mAssetManager;
     private MediaVariationsIndex mMediaVariationsIndex;
+    @Nullable
+    private final PartialDownloadCache mPartialDownloadCache;
+    @Nullable
+    private final BitmapMemoryCacheVariantsIndex mBitmapMemoryCacheVariantsIndex;
+    private final boolean mResizedDecodeInBackground;
 
     public ProducerFactory(
             Context context,
@@ -117,6 +127,62 @@ public class ProducerFactory {
             PlatformBitmapFactory platformBitmapFactory,
             boolean decodeFileDescriptorEnabled,
             int forceSmallCacheThresholdBytes) {
+        this(
+                context,
+                byteArrayPool,
+                imageDecoder,
+                progressiveJpegConfig,
+                downsampleEnabled,
+                enhancedWebpTranscodingType,
+                resizeAndRotateEnabledForNetwork,
+                decodeCancellationEnabled,
+                executorSupplier,
+                pooledByteBufferFactory,
+                bitmapMemoryCache,
+                encodedMemoryCache,
+                defaultBufferedDiskCache,
+                smallImageBufferedDiskCache,
+                mediaVariationsIndex,
+                cacheKeyFactory,
+                platformBitmapFactory,
+                decodeFileDescriptorEnabled,
+                forceSmallCacheThresholdBytes,
+                null,
+                null,
+                false);
+    }
+
+    /**
+     * @param partialDownloadCache           where interrupted network downloads are kept so they
+     *                                       can be resumed, or null
+     * @param bitmapMemoryCacheVariantsIndex index of the cached sizes of each image for
+     *                                       size-tolerant bitmap cache lookups, or null
+     * @param resizedDecodeInBackground      whether a size-tolerant cache hit starts a decode at
+     *                                       the requested size in the background
+     */
+    public ProducerFactory(
+            Context context,
+            ByteArrayPool byteArrayPool,
+            ImageDecoder imageDecoder,
+            ProgressiveJpegConfig progressiveJpegConfig,
+            boolean downsampleEnabled,
+            @WebpTranscodeProducer.EnhancedTranscodingType int enhancedWebpTranscodingType,
+            boolean resizeAndRotateEnabledForNetwork,
+            boolean decodeCancellationEnabled,
+            ExecutorSupplier executorSupplier,
+            PooledByteBufferFactory pooledByteBufferFactory,
+            MemoryCache<CacheKey, CloseableImage> bitmapMemoryCache,
+            MemoryCache<CacheKey, PooledByteBuffer> encodedMemoryCache,
+            BufferedDiskCache defaultBufferedDiskCache,
+            BufferedDiskCache smallImageBufferedDiskCache,
+            MediaVariationsIndex mediaVariationsIndex,
+            CacheKeyFactory cacheKeyFactory,
+            PlatformBitmapFactory platformBitmapFactory,
+            boolean decodeFileDescriptorEnabled,
+            int forceSmallCacheThresholdBytes,
+            @Nullable PartialDownloadCache partialDownloadCache,
+            @Nullable BitmapMemoryCacheVariantsIndex bitmapMemoryCacheVariantsIndex,
+            boolean resizedDecodeInBackground) {
         mContext = context;
         mForceSmallCacheThresholdBytes = forceSmallCacheThresholdBytes;
         mContentResolver = context.getApplicationContext().getContentResolver();
@@ -144,6 +210,9 @@ public class ProducerFactory {
         mPlatformBitmapFactory = platformBitmapFactory;
 
         mDecodeFileDescriptorEnabled = decodeFileDescriptorEnabled;
+        mPartialDownloadCache = partialDownloadCache;
+        mBitmapMemoryCacheVariantsIndex = bitmapMemoryCacheVariantsIndex;
+        mResizedDecodeInBackground = resizedDecodeInBackground;
 
         if (forceSmallCacheThresholdBytes > 0) {
             mMainDiskCachePolicy =
@@ -190,9 +259,22 @@ public class ProducerFactory {
         return new BitmapMemoryCacheKeyMultiplexProducer(mCacheKeyFactory, inputProducer);
     }
 
+    public ResizeVariantsMultiplexProducer newResizeVariantsMultiplexProducer(
+            Producer<CloseableReference<CloseableImage>> inputProducer) {
+        return new ResizeVariantsMultiplexProducer(
+                mCacheKeyFactory,
+                mPlatformBitmapFactory,
+                inputProducer);
+    }
+
     public BitmapMemoryCacheProducer newBitmapMemoryCacheProducer(
             Producer<CloseableReference<CloseableImage>> inputProducer) {
-        return new BitmapMemoryCacheProducer(mBitmapMemoryCache, mCacheKeyFactory, inputProducer);
+        return new BitmapMemoryCacheProducer(
+                mBitmapMemoryCache,
+                mCacheKeyFactory,
+                inputProducer,
+                mBitmapMemoryCacheVariantsIndex,
+                mResizedDecodeInBackground);
     }
 
     public DataFetchProducer newDataFetchProducer() {
@@ -305,7 +387,9 @@ public class ProducerFactory {
         return new NetworkFetchProducer(
                 mPooledByteBufferFactory,
                 mByteArrayPool,
-                networkFetcher);
+                networkFetcher,
+                mPartialDownloadCache,
+                mCacheKeyFactory);
     }
 
     public PostprocessedBitmapMemoryCacheProducer newPostprocessorBitmapMemoryCacheProducer(
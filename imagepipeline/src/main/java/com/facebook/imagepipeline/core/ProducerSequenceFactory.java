@@ -22,7 +22,6 @@ import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.producers.BitmapMemoryCacheKeyMultiplexProducer;
 import com.facebook.imagepipeline.producers.BitmapMemoryCacheProducer;
-import com.facebook.imagepipeline.producers.DecodeProducer;
 import com.facebook.imagepipeline.producers.EncodedMemoryCacheProducer;
 import com.facebook.imagepipeline.producers.LocalAssetFetchProducer;
 import com.facebook.imagepipeline.producers.LocalContentUriFetchProducer;
@@ -53,6 +52,7 @@ public class ProducerSequenceFactory {
     private final boolean mWebpSupportEnabled;
     private final ThreadHandoffProducerQueue mThreadHandoffProducerQueue;
     private final int mThrottlingMaxSimultaneousRequests;
+    private final boolean mResizeVariantsMultiplexEnabled;
 
     // Saved sequences
     @VisibleForTesting
@@ -99,7 +99,8 @@ public class ProducerSequenceFactory {
             boolean resizeAndRotateEnabledForNetwork,
             boolean webpSupportEnabled,
             ThreadHandoffProducerQueue threadHandoffProducerQueue,
-            int throttlingMaxSimultaneousRequests) {
+            int throttlingMaxSimultaneousRequests,
+            boolean resizeVariantsMultiplexEnabled) {
         mProducerFactory = producerFactory;
         mNetworkFetcher = networkFetcher;
         mResizeAndRotateEnabledForNetwork = resizeAndRotateEnabledForNetwork;
@@ -108,6 +109,7 @@ public class ProducerSequenceFactory {
         mCloseableImagePrefetchSequences = new HashMap<>();
         mThreadHandoffProducerQueue = threadHandoffProducerQueue;
         mThrottlingMaxSimultaneousRequests = throttlingMaxSimultaneousRequests;
+        mResizeVariantsMultiplexEnabled = resizeVariantsMultiplexEnabled;
     }
 
     private static void validateEncodedImageRequest(ImageRequest imageRequest) {
@@ -505,14 +507,19 @@ public class ProducerSequenceFactory {
     }
 
     /**
-     * Same as {@code newBitmapCacheGetToBitmapCacheSequence} but with an extra DecodeProducer.
+     * Same as {@code newBitmapCacheGetToBitmapCacheSequence} but with an extra DecodeProducer,
+     * and a multiplex across resize variants in front of it if enabled.
      *
      * @param inputProducer producer providing the input to the decode
      * @return bitmap cache get to decode sequence
      */
     private Producer<CloseableReference<CloseableImage>> newBitmapCacheGetToDecodeSequence(
             Producer<EncodedImage> inputProducer) {
-        DecodeProducer decodeProducer = mProducerFactory.newDecodeProducer(inputProducer);
+        Producer<CloseableReference<CloseableImage>> decodeProducer =
+                mProducerFactory.newDecodeProducer(inputProducer);
+        if (mResizeVariantsMultiplexEnabled) {
+            decodeProducer = mProducerFactory.newResizeVariantsMultiplexProducer(decodeProducer);
+        }
         return newBitmapCacheGetToBitmapCacheSequence(decodeProducer);
     }
 
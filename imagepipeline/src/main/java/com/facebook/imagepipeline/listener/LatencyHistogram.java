@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.listener;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Histogram of latencies in milliseconds with a fixed set of log-linear buckets.
+ * <p>
+ * <p> Values below {@link #SUB_BUCKET_COUNT} get a bucket each; above that every power of two is
+ * split into {@link #SUB_BUCKET_COUNT} equal buckets, so any recorded value is reported with a
+ * relative error of at most 1 / {@link #SUB_BUCKET_COUNT}. Recording never allocates, which keeps
+ * the histogram cheap enough to be updated from the pipeline's callbacks.
+ * <p>
+ * <p> Values above {@link #MAX_TRACKABLE_VALUE_MS} (a bit over an hour) are clamped to it.
+ */
+@NotThreadSafe
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    @VisibleForTesting
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_VALUE_BITS = 22;
+    @VisibleForTesting
+    static final long MAX_TRACKABLE_VALUE_MS = (1L << MAX_VALUE_BITS) - 1;
+    private static final int BUCKET_COUNT =
+            (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final long[] mCounts;
+    private long mTotalCount;
+    private long mSum;
+    private long mMax;
+
+    public LatencyHistogram() {
+        mCounts = new long[BUCKET_COUNT];
+    }
+
+    private LatencyHistogram(LatencyHistogram other) {
+        mCounts = other.mCounts.clone();
+        mTotalCount = other.mTotalCount;
+        mSum = other.mSum;
+        mMax = other.mMax;
+    }
+
+    @VisibleForTesting
+    static int getBucketIndex(long valueMs) {
+        if (valueMs < SUB_BUCKET_COUNT) {
+            return (int) valueMs;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(valueMs) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (valueMs >> shift) - SUB_BUCKET_COUNT;
+    }
+
+    /**
+     * @return the largest value that falls into the bucket with the given index
+     */
+    @VisibleForTesting
+    static long getBucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowerBound = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    /**
+     * Records a single latency. Negative values are ignored.
+     */
+    public void record(long valueMs) {
+        if (valueMs < 0) {
+            return;
+        }
+        valueMs = Math.min(valueMs, MAX_TRACKABLE_VALUE_MS);
+        mCounts[getBucketIndex(valueMs)]++;
+        mTotalCount++;
+        mSum += valueMs;
+        mMax = Math.max(mMax, valueMs);
+    }
+
+    public long getCount() {
+        return mTotalCount;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public long getMean() {
+        return mTotalCount == 0 ? 0 : mSum / mTotalCount;
+    }
+
+    /**
+     * Returns the value below which the given percentage of recorded values fall, rounded up to
+     * the upper bound of its bucket.
+     *
+     * @param percentile between 0 and 100
+     * @return the value at the percentile, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        Preconditions.checkArgument(percentile >= 0 && percentile <= 100);
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * mTotalCount));
+        long count = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            count += mCounts[i];
+            if (count >= countAtPercentile) {
+                return Math.min(getBucketUpperBound(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mTotalCount = 0;
+        mSum = 0;
+        mMax = 0;
+    }
+
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+}
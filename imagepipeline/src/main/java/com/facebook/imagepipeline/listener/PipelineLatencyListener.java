@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.listener;
+
+import android.net.Uri;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.time.AwakeTimeSinceBootClock;
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.imagepipeline.producers.BitmapMemoryCacheProducer;
+import com.facebook.imagepipeline.producers.JobScheduler;
+import com.facebook.imagepipeline.producers.PriorityNetworkFetcher;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Request listener that aggregates latencies of image requests and of each producer they go
+ * through into {@link LatencyHistogram}s.
+ * <p>
+ * <p> For every producer it tracks the time between its start and finish events (run time), the
+ * time its work spent waiting for an executor as reported by the producer in its extra map
+ * (queue time), how its runs ended, and for caches how many lookups hit or missed. Whole requests
+ * are tracked per request type, which is the scheme of the source uri plus whether the request
+ * was a prefetch.
+ * <p>
+ * <p> Building the extra maps costs an allocation per producer, so they are only requested for
+ * one request out of every {@code extraMapSampleRate}: queue times and cache hits and misses are
+ * counted over those requests only. Recording only locks the stats of the producer or request type
+ * it updates.
+ * <p>
+ * <p> Add an instance with {@code ImagePipelineConfig.Builder#setRequestListeners} and call
+ * {@link #getSnapshot} or {@link #getSnapshotAndReset} periodically to read the numbers. The
+ * Stetho plugin prints them with {@code dumpapp image latency}.
+ */
+@ThreadSafe
+public class PipelineLatencyListener extends BaseRequestListener {
+
+    @VisibleForTesting
+    static final String EXTRA_QUEUE_TIME = JobScheduler.QUEUE_TIME_KEY;
+    @VisibleForTesting
+    static final String EXTRA_NETWORK_QUEUE_TIME = PriorityNetworkFetcher.QUEUE_TIME;
+    @VisibleForTesting
+    static final String EXTRA_CACHED_VALUE_FOUND =
+            BitmapMemoryCacheProducer.EXTRA_CACHED_VALUE_FOUND;
+
+    public static final int DEFAULT_EXTRA_MAP_SAMPLE_RATE = 16;
+
+    private static final String PREFETCH_PREFIX = "prefetch:";
+    private static final String FETCH_PREFIX = "fetch:";
+
+    private final MonotonicClock mClock;
+    private final int mExtraMapSampleRate;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    private final ConcurrentHashMap<String, RequestTrace> mRequestTraces =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ProducerStats> mProducerStats =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> mRequestLatencies =
+            new ConcurrentHashMap<>();
+    private volatile long mSnapshotStartTime;
+
+    public PipelineLatencyListener() {
+        this(DEFAULT_EXTRA_MAP_SAMPLE_RATE);
+    }
+
+    /**
+     * @param extraMapSampleRate the extra maps of one request out of this many are read; 1 reads
+     *                           them for every request
+     */
+    public PipelineLatencyListener(int extraMapSampleRate) {
+        this(AwakeTimeSinceBootClock.get(), extraMapSampleRate);
+    }
+
+    @VisibleForTesting
+    PipelineLatencyListener(MonotonicClock clock, int extraMapSampleRate) {
+        Preconditions.checkArgument(extraMapSampleRate > 0);
+        mClock = clock;
+        mExtraMapSampleRate = extraMapSampleRate;
+        mSnapshotStartTime = clock.now();
+    }
+
+    @Override
+    public void onRequestStart(
+            ImageRequest request,
+            Object callerContext,
+            String requestId,
+            boolean isPrefetch) {
+        boolean sampled = mRequestCount.getAndIncrement() % mExtraMapSampleRate == 0;
+        mRequestTraces.put(
+                requestId,
+                new RequestTrace(getRequestType(request, isPrefetch), mClock.now(), sampled));
+    }
+
+    @Override
+    public void onRequestSuccess(
+            ImageRequest request,
+            String requestId,
+            boolean isPrefetch) {
+        onRequestFinish(requestId);
+    }
+
+    @Override
+    public void onRequestFailure(
+            ImageRequest request,
+            String requestId,
+            Throwable throwable,
+            boolean isPrefetch) {
+        onRequestFinish(requestId);
+    }
+
+    @Override
+    public void onRequestCancellation(String requestId) {
+        // Cancelled requests would skew the latencies towards however long the user looked at them
+        mRequestTraces.remove(requestId);
+    }
+
+    @Override
+    public void onProducerStart(String requestId, String producerName) {
+        RequestTrace trace = mRequestTraces.get(requestId);
+        if (trace != null) {
+            trace.setProducerStartTime(producerName, mClock.now());
+        }
+    }
+
+    @Override
+    public void onProducerFinishWithSuccess(
+            String requestId,
+            String producerName,
+            @Nullable Map<String, String> extraMap) {
+        ProducerStats stats = getProducerStats(producerName);
+        long runTime = getRunTime(requestId, producerName);
+        long queueTime = getQueueTime(extraMap);
+        synchronized (stats) {
+            stats.record(runTime, queueTime);
+            stats.mSuccessCount++;
+            if (extraMap != null && extraMap.containsKey(EXTRA_CACHED_VALUE_FOUND)) {
+                if (Boolean.parseBoolean(extraMap.get(EXTRA_CACHED_VALUE_FOUND))) {
+                    stats.mCacheHitCount++;
+                }
+                else {
+                    stats.mCacheMissCount++;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onProducerFinishWithFailure(
+            String requestId,
+            String producerName,
+            Throwable t,
+            @Nullable Map<String, String> extraMap) {
+        ProducerStats stats = getProducerStats(producerName);
+        long runTime = getRunTime(requestId, producerName);
+        long queueTime = getQueueTime(extraMap);
+        synchronized (stats) {
+            stats.record(runTime, queueTime);
+            stats.mFailureCount++;
+        }
+    }
+
+    @Override
+    public void onProducerFinishWithCancellation(
+            String requestId,
+            String producerName,
+            @Nullable Map<String, String> extraMap) {
+        ProducerStats stats = getProducerStats(producerName);
+        long runTime = getRunTime(requestId, producerName);
+        long queueTime = getQueueTime(extraMap);
+        synchronized (stats) {
+            stats.record(runTime, queueTime);
+            stats.mCancellationCount++;
+        }
+    }
+
+    @Override
+    public boolean requiresExtraMap(String requestId) {
+        // Queue times and cache hits are only reported through the extra map
+        RequestTrace trace = mRequestTraces.get(requestId);
+        return trace != null && trace.mSampled;
+    }
+
+    /**
+     * @return a copy of the numbers gathered since this listener was created or last reset
+     */
+    public synchronized Snapshot getSnapshot() {
+        Map<String, ProducerStats> producerStats = new HashMap<>(mProducerStats.size());
+        for (Map.Entry<String, ProducerStats> entry : mProducerStats.entrySet()) {
+            producerStats.put(entry.getKey(), entry.getValue().copy());
+        }
+        Map<String, LatencyHistogram> requestLatencies = new HashMap<>(mRequestLatencies.size());
+        for (Map.Entry<String, LatencyHistogram> entry : mRequestLatencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            synchronized (histogram) {
+                requestLatencies.put(entry.getKey(), histogram.copy());
+            }
+        }
+        return new Snapshot(
+                mClock.now() - mSnapshotStartTime,
+                Collections.unmodifiableMap(producerStats),
+                Collections.unmodifiableMap(requestLatencies));
+    }
+
+    /**
+     * Like {@link #getSnapshot}, but also starts a new period. Requests in flight keep being
+     * tracked and are counted in the new period once they finish. Events recorded while the
+     * period is being reset may be dropped.
+     */
+    public synchronized Snapshot getSnapshotAndReset() {
+        Snapshot snapshot = getSnapshot();
+        mProducerStats.clear();
+        mRequestLatencies.clear();
+        mSnapshotStartTime = mClock.now();
+        return snapshot;
+    }
+
+    private static String getRequestType(ImageRequest request, boolean isPrefetch) {
+        Uri uri = request.getSourceUri();
+        String scheme = uri == null ? null : uri.getScheme();
+        return (isPrefetch ? PREFETCH_PREFIX : FETCH_PREFIX) + scheme;
+    }
+
+    private void onRequestFinish(String requestId) {
+        RequestTrace trace = mRequestTraces.remove(requestId);
+        if (trace == null) {
+            return;
+        }
+        LatencyHistogram histogram = mRequestLatencies.get(trace.mRequestType);
+        if (histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = mRequestLatencies.putIfAbsent(trace.mRequestType, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        long latency = mClock.now() - trace.mStartTime;
+        synchronized (histogram) {
+            histogram.record(latency);
+        }
+    }
+
+    private ProducerStats getProducerStats(String producerName) {
+        ProducerStats stats = mProducerStats.get(producerName);
+        if (stats == null) {
+            ProducerStats newStats = new ProducerStats();
+            stats = mProducerStats.putIfAbsent(producerName, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return time since the producer started for the given request, or -1 if it is not known
+     */
+    private long getRunTime(String requestId, String producerName) {
+        RequestTrace trace = mRequestTraces.get(requestId);
+        long startTime = trace == null ? -1 : trace.getProducerStartTime(producerName);
+        return startTime < 0 ? -1 : mClock.now() - startTime;
+    }
+
+    private static long getQueueTime(@Nullable Map<String, String> extraMap) {
+        if (extraMap == null) {
+            return -1;
+        }
+        String queueTime = extraMap.get(EXTRA_QUEUE_TIME);
+        if (queueTime == null) {
+            queueTime = extraMap.get(EXTRA_NETWORK_QUEUE_TIME);
+        }
+        if (queueTime == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(queueTime);
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /**
+     * Start times of the producers of a single request. A request only goes through a handful of
+     * producers, so they are kept in small arrays rather than in a map.
+     */
+    private static class RequestTrace {
+        private static final int INITIAL_CAPACITY = 8;
+
+        final String mRequestType;
+        final long mStartTime;
+        // whether the extra maps of this request are read
+        final boolean mSampled;
+        @GuardedBy("this")
+        private String[] mProducerNames = new String[INITIAL_CAPACITY];
+        @GuardedBy("this")
+        private long[] mProducerStartTimes = new long[INITIAL_CAPACITY];
+        @GuardedBy("this")
+        private int mProducerCount;
+
+        RequestTrace(String requestType, long startTime, boolean sampled) {
+            mRequestType = requestType;
+            mStartTime = startTime;
+            mSampled = sampled;
+        }
+
+        synchronized void setProducerStartTime(String producerName, long startTime) {
+            for (int i = 0; i < mProducerCount; i++) {
+                if (mProducerNames[i].equals(producerName)) {
+                    mProducerStartTimes[i] = startTime;
+                    return;
+                }
+            }
+            if (mProducerCount == mProducerNames.length) {
+                String[] producerNames = new String[mProducerCount * 2];
+                System.arraycopy(mProducerNames, 0, producerNames, 0, mProducerCount);
+                mProducerNames = producerNames;
+                long[] producerStartTimes = new long[mProducerCount * 2];
+                System.arraycopy(mProducerStartTimes, 0, producerStartTimes, 0, mProducerCount);
+                mProducerStartTimes = producerStartTimes;
+            }
+            mProducerNames[mProducerCount] = producerName;
+            mProducerStartTimes[mProducerCount] = startTime;
+            mProducerCount++;
+        }
+
+        synchronized long getProducerStartTime(String producerName) {
+            for (int i = 0; i < mProducerCount; i++) {
+                if (mProducerNames[i].equals(producerName)) {
+                    return mProducerStartTimes[i];
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Numbers gathered for a single producer. The listener updates them while holding the lock of
+     * the instance; snapshots hold copies that are not updated anymore.
+     */
+    public static class ProducerStats {
+        private final LatencyHistogram mRunTime;
+        private final LatencyHistogram mQueueTime;
+        @GuardedBy("this")
+        private long mSuccessCount;
+        @GuardedBy("this")
+        private long mFailureCount;
+        @GuardedBy("this")
+        private long mCancellationCount;
+        @GuardedBy("this")
+        private long mCacheHitCount;
+        @GuardedBy("this")
+        private long mCacheMissCount;
+
+        private ProducerStats() {
+            mRunTime = new LatencyHistogram();
+            mQueueTime = new LatencyHistogram();
+        }
+
+        private ProducerStats(ProducerStats other) {
+            mRunTime = other.mRunTime.copy();
+            mQueueTime = other.mQueueTime.copy();
+            mSuccessCount = other.mSuccessCount;
+            mFailureCount = other.mFailureCount;
+            mCancellationCount = other.mCancellationCount;
+            mCacheHitCount = other.mCacheHitCount;
+            mCacheMissCount = other.mCacheMissCount;
+        }
+
+        private synchronized ProducerStats copy() {
+            return new ProducerStats(this);
+        }
+
+        @GuardedBy("this")
+        private void record(long runTime, long queueTime) {
+            mRunTime.record(runTime);
+            mQueueTime.record(queueTime);
+        }
+
+        /**
+         * @return time between the start and the finish of the producer's runs
+         */
+        public LatencyHistogram getRunTime() {
+            return mRunTime;
+        }
+
+        /**
+         * @return time the producer's work waited for an executor, for producers that report it
+         */
+        public LatencyHistogram getQueueTime() {
+            return mQueueTime;
+        }
+
+        public long getSuccessCount() {
+            return mSuccessCount;
+        }
+
+        public long getFailureCount() {
+            return mFailureCount;
+        }
+
+        public long getCancellationCount() {
+            return mCancellationCount;
+        }
+
+        /**
+         * @return number of successful runs that found the value in the producer's cache
+         */
+        public long getCacheHitCount() {
+            return mCacheHitCount;
+        }
+
+        /**
+         * @return number of successful runs that looked for the value in the producer's cache but
+         * did not find it
+         */
+        public long getCacheMissCount() {
+            return mCacheMissCount;
+        }
+    }
+
+    /**
+     * The numbers gathered over a period of time.
+     */
+    public static class Snapshot {
+        public final long durationMs;
+        /**
+         * Keyed by producer name
+         */
+        public final Map<String, ProducerStats> producerStats;
+        /**
+         * Latencies of successful and failed requests keyed by request type
+         */
+        public final Map<String, LatencyHistogram> requestLatencies;
+
+        private Snapshot(
+                long durationMs,
+                Map<String, ProducerStats> producerStats,
+                Map<String, LatencyHistogram> requestLatencies) {
+            this.durationMs = durationMs;
+            this.producerStats = producerStats;
+            this.requestLatencies = requestLatencies;
+        }
+    }
+}
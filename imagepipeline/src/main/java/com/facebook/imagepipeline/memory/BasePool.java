@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.NotThreadSafe;
 
@@ -75,6 +76,8 @@ import javax.annotation.concurrent.NotThreadSafe;
  * params</li>
  * <li>{@link #isReusable(Object)} - used to determine if a value can be reused or must be
  * freed</li>
+ * <li>{@link #getMaxReusableBucketedSize(int)} - lets a request be served from a larger bucket
+ * when its own bucket has no free values</li>
  * </ul>
  * <p>
  * InUse values
@@ -98,6 +101,9 @@ import javax.annotation.concurrent.NotThreadSafe;
  * the free portion of the pool, if the pool exceeds its maxSizeSoftCap.
  * The invariant we want to maintain - see {@link #ensurePoolSizeInvariant()} - is that the pool
  * must be below the max size soft cap OR the free lists must be empty. </li>
+ * <li> {@link PoolParams#maxFreeSize}
+ * A cap on the free portion of the pool alone. On a {@link #release(Object)} request, the value
+ * will be 'freed' if keeping it would take the free portion above this cap. </li>
  * <li> {@link PoolParams#maxSizeHardCap}
  * The hard cap is a stronger limit on the pool size. When this limit is reached, we first
  * attempt to trim the pool. If the pool size is still over the hard, the
@@ -148,6 +154,16 @@ public abstract class BasePool<V> implements Pool<V> {
      * Determines if new buckets can be created
      */
     private boolean mAllowNewBuckets;
+    /**
+     * Number of {@link #get(int)} requests served with a free value, an allocation, and a free
+     * value from a larger bucket respectively
+     */
+    @GuardedBy("this")
+    private int mReuseCount;
+    @GuardedBy("this")
+    private int mAllocCount;
+    @GuardedBy("this")
+    private int mLargerBucketReuseCount;
 
     /**
      * Creates a new instance of the pool.
@@ -203,30 +219,32 @@ public abstract class BasePool<V> implements Pool<V> {
         synchronized (this) {
             Bucket<V> bucket = getBucket(bucketedSize);
 
-            if (bucket != null) {
-                // find an existing value that we can reuse
-                V value = bucket.get();
-                if (value != null) {
-                    Preconditions.checkState(mInUseValues.add(value));
-
-                    // It is possible that we got a 'larger' value than we asked for.
-                    // lets recompute size in bytes here
-                    bucketedSize = getBucketedSizeForValue(value);
-                    sizeInBytes = getSizeInBytes(bucketedSize);
-                    mUsed.increment(sizeInBytes);
-                    mFree.decrement(sizeInBytes);
-                    mPoolStatsTracker.onValueReuse(sizeInBytes);
-                    logStats();
-                    if (FLog.isLoggable(FLog.VERBOSE)) {
-                        FLog.v(
-                                TAG,
-                                "get (reuse) (object, size) = (%x, %s)",
-                                System.identityHashCode(value),
-                                bucketedSize);
-                    }
-                    return value;
+            // find an existing value that we can reuse
+            V value = getReusableValue(bucket, bucketedSize);
+            if (value != null) {
+                Preconditions.checkState(mInUseValues.add(value));
+
+                // It is possible that we got a 'larger' value than we asked for.
+                // lets recompute size in bytes here
+                final int requestedBucketedSize = bucketedSize;
+                bucketedSize = getBucketedSizeForValue(value);
+                sizeInBytes = getSizeInBytes(bucketedSize);
+                mUsed.increment(sizeInBytes);
+                mFree.decrement(sizeInBytes);
+                mReuseCount++;
+                if (bucketedSize > requestedBucketedSize) {
+                    mLargerBucketReuseCount++;
                 }
-                // fall through
+                mPoolStatsTracker.onValueReuse(sizeInBytes);
+                logStats();
+                if (FLog.isLoggable(FLog.VERBOSE)) {
+                    FLog.v(
+                            TAG,
+                            "get (reuse) (object, size) = (%x, %s)",
+                            System.identityHashCode(value),
+                            bucketedSize);
+                }
+                return value;
             }
             // check to see if we can allocate a value of the given size without exceeding the hard cap
             sizeInBytes = getSizeInBytes(bucketedSize);
@@ -273,6 +291,7 @@ public abstract class BasePool<V> implements Pool<V> {
             Preconditions.checkState(mInUseValues.add(value));
             // If we're over the pool's max size, try to trim the pool appropriately
             trimToSoftCap();
+            mAllocCount++;
             mPoolStatsTracker.onAlloc(sizeInBytes);
             logStats();
             if (FLog.isLoggable(FLog.VERBOSE)) {
@@ -330,6 +349,7 @@ public abstract class BasePool<V> implements Pool<V> {
                 if (bucket == null ||
                         bucket.isMaxLengthExceeded() ||
                         isMaxSizeSoftCapExceeded() ||
+                        mFree.mNumBytes + sizeInBytes > mPoolParams.maxFreeSize ||
                         !isReusable(value)) {
                     if (bucket != null) {
                         bucket.decrementInUseCount();
@@ -440,6 +460,53 @@ public abstract class BasePool<V> implements Pool<V> {
         return true;
     }
 
+    /**
+     * Gets the largest bucketed size whose free values may be handed out for a request of the given
+     * bucketed size, when the bucket of that size has no free values left. The default
+     * implementation only allows values of the requested bucketed size.
+     * Subclasses whose values can be reconfigured to a smaller size can override this
+     *
+     * @param bucketedSize the bucketed size of the request
+     * @return the largest bucketed size to reuse a value from
+     */
+    protected int getMaxReusableBucketedSize(int bucketedSize) {
+        return bucketedSize;
+    }
+
+    /**
+     * Takes a free value out of the given bucket or, if it has none, out of the smallest larger
+     * bucket up to {@link #getMaxReusableBucketedSize(int)} that has one.
+     *
+     * @param bucket       the bucket for the requested size, if any
+     * @param bucketedSize the bucketed size of the request
+     * @return a free value, or null if none was found
+     */
+    @Nullable
+    private synchronized V getReusableValue(@Nullable Bucket<V> bucket, int bucketedSize) {
+        if (bucket != null) {
+            V value = bucket.get();
+            if (value != null) {
+                return value;
+            }
+        }
+        final int maxBucketedSize = getMaxReusableBucketedSize(bucketedSize);
+        // the buckets are sorted by bucketed size
+        for (int i = 0; i < mBuckets.size(); ++i) {
+            final int candidateBucketedSize = mBuckets.keyAt(i);
+            if (candidateBucketedSize <= bucketedSize) {
+                continue;
+            }
+            if (candidateBucketedSize > maxBucketedSize) {
+                break;
+            }
+            V value = mBuckets.valueAt(i).get();
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
     /**
      * Ensure pool size invariants.
      * The pool must either be below the soft-cap OR it must have no free values left
@@ -721,6 +788,9 @@ public abstract class BasePool<V> implements Pool<V> {
         stats.put(PoolStatsTracker.USED_BYTES, mUsed.mNumBytes);
         stats.put(PoolStatsTracker.FREE_COUNT, mFree.mCount);
         stats.put(PoolStatsTracker.FREE_BYTES, mFree.mNumBytes);
+        stats.put(PoolStatsTracker.REUSE_COUNT, mReuseCount);
+        stats.put(PoolStatsTracker.ALLOC_COUNT, mAllocCount);
+        stats.put(PoolStatsTracker.LARGER_BUCKET_REUSE_COUNT, mLargerBucketReuseCount);
 
         return stats;
     }
@@ -13,6 +13,7 @@ import android.annotation.TargetApi;
 import android.graphics.Bitmap;
 
 import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.imageutils.BitmapUtil;
 
@@ -26,11 +27,23 @@ import javax.annotation.concurrent.ThreadSafe;
  * get() allows for a bitmap in the pool to be reused if it matches the desired
  * dimensions; if no such bitmap is found in the pool, a new one is allocated.
  * release() returns a bitmap to the pool.
+ * <p>
+ * Bitmaps are bucketed by size classes rather than by their exact size in bytes: every power of
+ * two is split into {@link #SIZE_CLASSES_PER_POWER_OF_TWO} classes, and a request is rounded up
+ * to the next class. A bitmap of a class can be reconfigured to any size in that class, so images
+ * of slightly different dimensions share bitmaps at the cost of at most 1/8 of unused memory per
+ * bitmap. If the class of a request has no free bitmap, a bitmap of up to
+ * {@link #MAX_LARGER_SIZE_CLASSES} classes larger is reused.
  */
 @ThreadSafe
 @TargetApi(21)
 public class BitmapPool extends BasePool<Bitmap> {
 
+    @VisibleForTesting
+    static final int SIZE_CLASSES_PER_POWER_OF_TWO = 8;
+    @VisibleForTesting
+    static final int MAX_LARGER_SIZE_CLASSES = 2;
+
     /**
      * Creates an instance of a bitmap pool.
      *
@@ -72,18 +85,21 @@ public class BitmapPool extends BasePool<Bitmap> {
     }
 
     /**
-     * Gets the bucketed size (typically something the same or larger than the requested size)
+     * Gets the bucketed size (the size class the requested size falls into)
      *
      * @param requestSize the logical request size
      * @return the 'bucketed' size
      */
     @Override
     protected int getBucketedSize(int requestSize) {
-        return requestSize;
+        final int step = getSizeClassStep(requestSize);
+        return (int) Math.min(
+                ((long) requestSize + step - 1) / step * step,
+                Integer.MAX_VALUE);
     }
 
     /**
-     * Gets the bucketed size of the value.
+     * Gets the bucketed size of the value: the largest size class that fits in its allocation.
      * We don't check the 'validity' of the value (beyond the not-null check). That's handled
      * in {@link #isReusable(Bitmap)}
      *
@@ -93,7 +109,32 @@ public class BitmapPool extends BasePool<Bitmap> {
     @Override
     protected int getBucketedSizeForValue(Bitmap value) {
         Preconditions.checkNotNull(value);
-        return value.getAllocationByteCount();
+        final int allocationByteCount = value.getAllocationByteCount();
+        final int step = getSizeClassStep(allocationByteCount);
+        return allocationByteCount / step * step;
+    }
+
+    /**
+     * Bitmaps are reconfigured to the requested size on reuse, so a request may be served with a
+     * bitmap from a slightly larger size class.
+     *
+     * @param bucketedSize the bucketed size of the request
+     * @return the bucketed size {@link #MAX_LARGER_SIZE_CLASSES} classes up
+     */
+    @Override
+    protected int getMaxReusableBucketedSize(int bucketedSize) {
+        int maxBucketedSize = bucketedSize;
+        for (int i = 0; i < MAX_LARGER_SIZE_CLASSES && maxBucketedSize < Integer.MAX_VALUE; i++) {
+            maxBucketedSize = getBucketedSize(maxBucketedSize + 1);
+        }
+        return maxBucketedSize;
+    }
+
+    /**
+     * @return the distance between consecutive size classes around the given size
+     */
+    private static int getSizeClassStep(int size) {
+        return Math.max(1, Integer.highestOneBit(size) / SIZE_CLASSES_PER_POWER_OF_TWO);
     }
 
     /**
@@ -18,11 +18,7 @@ import com.facebook.common.util.ByteConstants;
  */
 public class DefaultBitmapPoolParams {
     /**
-     * We are not reusing Bitmaps and want to free them as soon as possible.
-     */
-    private static final int MAX_SIZE_SOFT_CAP = 0;
-    /**
-     * This will cause all get/release calls to behave like alloc/free calls i.e. no pooling.
+     * No predefined buckets, so the pool creates a bucket for each size class it sees.
      */
     private static final SparseIntArray DEFAULT_BUCKETS = new SparseIntArray(0);
 
@@ -45,11 +41,34 @@ public class DefaultBitmapPoolParams {
         }
     }
 
+    /**
+     * The soft cap covers bitmaps in use as well as free ones. Most bitmaps in use are held by the
+     * bitmap memory cache, which takes up to a quarter of the heap, so we allow for that plus the
+     * free bitmaps, see {@link #getMaxFreeSize()}.
+     */
+    private static int getMaxSizeSoftCap() {
+        final int maxMemory = (int) Math.min(Runtime.getRuntime().maxMemory(), Integer.MAX_VALUE);
+        return Math.min(maxMemory / 4 + getMaxFreeSize(), getMaxSizeHardCap());
+    }
+
+    /**
+     * Free bitmaps kept around for reuse take up to a sixteenth of the heap, however few bitmaps
+     * are in use.
+     */
+    private static int getMaxFreeSize() {
+        final int maxMemory = (int) Math.min(Runtime.getRuntime().maxMemory(), Integer.MAX_VALUE);
+        return maxMemory / 16;
+    }
+
     public static PoolParams get() {
         return new PoolParams(
-                MAX_SIZE_SOFT_CAP,
+                getMaxSizeSoftCap(),
                 getMaxSizeHardCap(),
-                DEFAULT_BUCKETS
+                DEFAULT_BUCKETS,
+                0,
+                Integer.MAX_VALUE,
+                PoolParams.IGNORE_THREADS,
+                getMaxFreeSize()
         );
     }
 }
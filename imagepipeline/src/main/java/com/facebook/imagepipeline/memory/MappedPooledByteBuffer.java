@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBuffer} that maps a file into memory instead of copying
+ * its content.
+ * <p>
+ * <p> The pages of the file are loaded by the kernel as they are read, and are shared with the page
+ * cache, so a buffer created this way does not use any memory from the native memory chunk pool.
+ * <p>
+ * <p> The mapping stays valid if the file is deleted or replaced by a rename, but the file must not
+ * be truncated or rewritten in place while the buffer is in use. Closing the buffer drops the
+ * mapping, which is released once it is garbage collected.
+ */
+@ThreadSafe
+public class MappedPooledByteBuffer implements PooledByteBuffer {
+
+    private final int mSize;
+
+    @GuardedBy("this")
+    @VisibleForTesting
+    ByteBuffer mBuffer;
+    @GuardedBy("this")
+    private long mNativePtr;
+
+    @VisibleForTesting
+    MappedPooledByteBuffer(ByteBuffer buffer) {
+        Preconditions.checkArgument(buffer.isDirect());
+        mBuffer = buffer;
+        mSize = buffer.capacity();
+        mNativePtr = 0;
+    }
+
+    /**
+     * Maps the whole content of the given file.
+     *
+     * @param file the file to map
+     * @return a new buffer backed by the content of the file
+     * @throws IOException if the file could not be mapped
+     */
+    public static MappedPooledByteBuffer map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to be mapped: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new MappedPooledByteBuffer(buffer);
+        } finally {
+            // the mapping does not depend on the file descriptor
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Maps a region of the given file.
+     *
+     * @param file   the file to map
+     * @param offset position of the first byte of the region in the file
+     * @param length number of bytes of the region
+     * @return a new buffer backed by the region of the file
+     * @throws IOException if the region could not be mapped
+     */
+    public static MappedPooledByteBuffer map(File file, long offset, int length)
+            throws IOException {
+        Preconditions.checkArgument(offset >= 0 && length >= 0);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (offset + length > channel.size()) {
+                throw new IOException("Region ends after the end of " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            return new MappedPooledByteBuffer(buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        ensureValid();
+        return mSize;
+    }
+
+    @Override
+    public synchronized byte read(int offset) {
+        ensureValid();
+        Preconditions.checkArgument(offset >= 0);
+        Preconditions.checkArgument(offset < mSize);
+        return mBuffer.get(offset);
+    }
+
+    @Override
+    public synchronized void read(int offset, byte[] buffer, int bufferOffset, int length) {
+        ensureValid();
+        Preconditions.checkArgument(offset >= 0 && length >= 0);
+        Preconditions.checkArgument(offset + length <= mSize);
+        // absolute bulk reads are not available, read through a view to keep mBuffer untouched
+        ByteBuffer view = mBuffer.duplicate();
+        view.position(offset);
+        view.get(buffer, bufferOffset, length);
+    }
+
+    /**
+     * Gets the address of the mapping, for native decoders that read the encoded bytes in place.
+     */
+    @Override
+    public synchronized long getNativePtr() {
+        ensureValid();
+        if (mNativePtr == 0) {
+            mNativePtr = NativeMemoryChunk.getDirectBufferAddress(mBuffer);
+        }
+        return mNativePtr;
+    }
+
+    @Override
+    public synchronized boolean isClosed() {
+        return mBuffer == null;
+    }
+
+    @Override
+    public synchronized void close() {
+        mBuffer = null;
+        mNativePtr = 0;
+    }
+
+    synchronized void ensureValid() {
+        if (isClosed()) {
+            throw new ClosedException();
+        }
+    }
+}
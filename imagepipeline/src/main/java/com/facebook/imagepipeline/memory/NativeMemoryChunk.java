@@ -17,6 +17,7 @@ import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.imagepipeline.nativecode.ImagePipelineNativeLoader;
 
 import java.io.Closeable;
+import java.nio.ByteBuffer;
 
 /**
  * Wrapper around chunk of native memory.
@@ -115,6 +116,23 @@ public class NativeMemoryChunk implements Closeable {
     @DoNotStrip
     private static native byte nativeReadByte(long fromPtr);
 
+    /**
+     * Get the address of the memory backing a direct byte buffer
+     *
+     * @param buffer direct byte buffer
+     */
+    @DoNotStrip
+    private static native long nativeGetDirectBufferAddress(ByteBuffer buffer);
+
+    /**
+     * Gets the address of the memory backing a direct byte buffer, e.g. a memory-mapped file.
+     * The address is valid for as long as the buffer is reachable.
+     */
+    public static long getDirectBufferAddress(ByteBuffer buffer) {
+        Preconditions.checkArgument(buffer.isDirect());
+        return nativeGetDirectBufferAddress(buffer);
+    }
+
     /**
      * This has to be called before we get rid of this object in order to release underlying memory
      */
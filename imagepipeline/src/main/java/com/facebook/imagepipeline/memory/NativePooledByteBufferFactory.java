@@ -22,18 +22,32 @@ import javax.annotation.concurrent.ThreadSafe;
 /**
  * A factory to provide instances of {@link NativePooledByteBuffer} and
  * {@link NativePooledByteBufferOutputStream}
+ * <p>
+ * <p> If a segment size is set, output streams created without an initial capacity are
+ * {@link SegmentedPooledByteBufferOutputStream}s, which do not copy the bytes written so far when
+ * they grow.
  */
 @ThreadSafe
 public class NativePooledByteBufferFactory implements PooledByteBufferFactory {
 
     private final PooledByteStreams mPooledByteStreams;
     private final NativeMemoryChunkPool mPool;    // native memory pool
+    private final int mOutputStreamSegmentSize;   // 0 if streams are not segmented
 
     public NativePooledByteBufferFactory(
             NativeMemoryChunkPool pool,
             PooledByteStreams pooledByteStreams) {
+        this(pool, pooledByteStreams, 0);
+    }
+
+    public NativePooledByteBufferFactory(
+            NativeMemoryChunkPool pool,
+            PooledByteStreams pooledByteStreams,
+            int outputStreamSegmentSize) {
+        Preconditions.checkArgument(outputStreamSegmentSize >= 0);
         mPool = pool;
         mPooledByteStreams = pooledByteStreams;
+        mOutputStreamSegmentSize = outputStreamSegmentSize;
     }
 
     @Override
@@ -127,12 +141,17 @@ public class NativePooledByteBufferFactory implements PooledByteBufferFactory {
     }
 
     /**
-     * Creates a new NativePooledByteBufferOutputStream instance with default initial capacity
+     * Creates a new output stream for content of unknown size: a
+     * SegmentedPooledByteBufferOutputStream if a segment size is set, otherwise a
+     * NativePooledByteBufferOutputStream instance with default initial capacity
      *
-     * @return a new NativePooledByteBufferOutputStream
+     * @return a new PooledByteBufferOutputStream
      */
     @Override
-    public NativePooledByteBufferOutputStream newOutputStream() {
+    public PooledByteBufferOutputStream newOutputStream() {
+        if (mOutputStreamSegmentSize > 0) {
+            return new SegmentedPooledByteBufferOutputStream(mPool, mOutputStreamSegmentSize);
+        }
         return new NativePooledByteBufferOutputStream(mPool);
     }
 
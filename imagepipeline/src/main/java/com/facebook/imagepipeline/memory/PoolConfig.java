@@ -31,6 +31,7 @@ public class PoolConfig {
     private final PoolStatsTracker mNativeMemoryChunkPoolStatsTracker;
     private final PoolParams mSmallByteArrayPoolParams;
     private final PoolStatsTracker mSmallByteArrayPoolStatsTracker;
+    private final int mOutputStreamSegmentSize;
 
     private PoolConfig(Builder builder) {
         mBitmapPoolParams =
@@ -65,6 +66,7 @@ public class PoolConfig {
                 builder.mSmallByteArrayPoolStatsTracker == null ?
                         NoOpPoolStatsTracker.getInstance() :
                         builder.mSmallByteArrayPoolStatsTracker;
+        mOutputStreamSegmentSize = builder.mOutputStreamSegmentSize;
     }
 
     public static Builder newBuilder() {
@@ -103,6 +105,10 @@ public class PoolConfig {
         return mSmallByteArrayPoolStatsTracker;
     }
 
+    public int getOutputStreamSegmentSize() {
+        return mOutputStreamSegmentSize;
+    }
+
     public static class Builder {
 
         private PoolParams mBitmapPoolParams;
@@ -113,6 +119,7 @@ public class PoolConfig {
         private PoolStatsTracker mNativeMemoryChunkPoolStatsTracker;
         private PoolParams mSmallByteArrayPoolParams;
         private PoolStatsTracker mSmallByteArrayPoolStatsTracker;
+        private int mOutputStreamSegmentSize;
 
         private Builder() {
         }
@@ -162,6 +169,19 @@ public class PoolConfig {
             return this;
         }
 
+        /**
+         * Makes output streams for content of unknown size (e.g. network responses without a
+         * content length) write to native memory chunks of this size, instead of a single chunk
+         * that is reallocated and copied whenever it is full. 0 disables segmented streams.
+         * <p>
+         * <p>The size should match a bucket of the native memory chunk pool.
+         */
+        public Builder setOutputStreamSegmentSize(int outputStreamSegmentSize) {
+            Preconditions.checkArgument(outputStreamSegmentSize >= 0);
+            mOutputStreamSegmentSize = outputStreamSegmentSize;
+            return this;
+        }
+
         public PoolConfig build() {
             return new PoolConfig(this);
         }
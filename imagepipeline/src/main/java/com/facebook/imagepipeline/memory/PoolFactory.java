@@ -70,7 +70,8 @@ public class PoolFactory {
         if (mPooledByteBufferFactory == null) {
             mPooledByteBufferFactory = new NativePooledByteBufferFactory(
                     getNativeMemoryChunkPool(),
-                    getPooledByteStreams());
+                    getPooledByteStreams(),
+                    mConfig.getOutputStreamSegmentSize());
         }
         return mPooledByteBufferFactory;
     }
@@ -46,6 +46,11 @@ import javax.annotation.Nullable;
  * This represents the maximum size of the buckets in the pool. This restricts all buckets to only
  * accept elements smaller or equal to this size. If this size is exceeded, an exception will be
  * thrown.
+ * <p>
+ * {@link #maxFreeSize}
+ * This represents a cap on the free space of the pool, independently of its used space. When a
+ * released value would take the free space above this cap, the value is freed instead of being
+ * kept for reuse.
  */
 public class PoolParams {
     /** If maxNumThreads is set to this level, the pool doesn't actually care what it is */
@@ -64,6 +69,12 @@ public class PoolParams {
      */
     public final int maxNumThreads;
 
+    /**
+     * Cap on the size of the free values kept for reuse, {@link Integer#MAX_VALUE} if only the soft
+     * cap limits them.
+     */
+    public final int maxFreeSize;
+
     /**
      * Set up pool params
      *
@@ -102,12 +113,43 @@ public class PoolParams {
             int minBucketSize,
             int maxBucketSize,
             int maxNumThreads) {
+        this(
+                maxSizeSoftCap,
+                maxSizeHardCap,
+                bucketSizes,
+                minBucketSize,
+                maxBucketSize,
+                maxNumThreads,
+                Integer.MAX_VALUE);
+    }
+
+    /**
+     * Set up pool params
+     *
+     * @param maxSizeSoftCap soft cap on max size of the pool
+     * @param maxSizeHardCap hard cap on max size of the pool
+     * @param bucketSizes    (optional) bucket sizes and lengths for the pool
+     * @param minBucketSize  min bucket size for the pool
+     * @param maxBucketSize  max bucket size for the pool
+     * @param maxNumThreads  the maximum number of threads in th epool, or -1 if the pool doesn't care
+     * @param maxFreeSize    cap on the size of the free values of the pool
+     */
+    public PoolParams(
+            int maxSizeSoftCap,
+            int maxSizeHardCap,
+            @Nullable SparseIntArray bucketSizes,
+            int minBucketSize,
+            int maxBucketSize,
+            int maxNumThreads,
+            int maxFreeSize) {
         Preconditions.checkState(maxSizeSoftCap >= 0 && maxSizeHardCap >= maxSizeSoftCap);
+        Preconditions.checkState(maxFreeSize >= 0);
         this.maxSizeSoftCap = maxSizeSoftCap;
         this.maxSizeHardCap = maxSizeHardCap;
         this.bucketSizes = bucketSizes;
         this.minBucketSize = minBucketSize;
         this.maxBucketSize = maxBucketSize;
         this.maxNumThreads = maxNumThreads;
+        this.maxFreeSize = maxFreeSize;
     }
 }
@@ -20,6 +20,14 @@ public interface PoolStatsTracker {
     String FREE_BYTES = "free_bytes";
     String SOFT_CAP = "soft_cap";
     String HARD_CAP = "hard_cap";
+    /**
+     * Number of requests served with a free value from the pool, an allocation, and a free value
+     * from a larger bucket than the one requested. The reuse rate is the reuse count over the sum
+     * of the reuse and alloc counts.
+     */
+    String REUSE_COUNT = "reuse_count";
+    String ALLOC_COUNT = "alloc_count";
+    String LARGER_BUCKET_REUSE_COUNT = "larger_bucket_reuse_count";
 
     void setBasePool(BasePool basePool);
 
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.references.CloseableReference;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBuffer} whose bytes are spread over a sequence of
+ * equally sized {@link NativeMemoryChunk}s.
+ * <p>
+ * <p> Reads are served from the segments directly. Only {@link #getNativePtr()}, which requires
+ * contiguous memory, copies the content into a single chunk, the first time it is called.
+ */
+@ThreadSafe
+public class SegmentedPooledByteBuffer implements PooledByteBuffer {
+
+    private final NativeMemoryChunkPool mPool;
+    private final int mSegmentSize;
+    private final int mSize;
+
+    @GuardedBy("this")
+    @VisibleForTesting
+    List<CloseableReference<NativeMemoryChunk>> mSegmentRefs;
+    @GuardedBy("this")
+    @Nullable
+    @VisibleForTesting
+    CloseableReference<NativeMemoryChunk> mFlattenedRef;
+
+    /**
+     * @param pool        the pool to allocate a contiguous chunk from, if one is needed
+     * @param segmentRefs the segments, each holding at least segmentSize bytes. They are cloned.
+     * @param segmentSize the number of bytes used in each segment
+     * @param size        the number of bytes in the buffer
+     */
+    public SegmentedPooledByteBuffer(
+            NativeMemoryChunkPool pool,
+            List<CloseableReference<NativeMemoryChunk>> segmentRefs,
+            int segmentSize,
+            int size) {
+        Preconditions.checkArgument(segmentSize > 0);
+        Preconditions.checkArgument(size >= 0 && size <= (long) segmentRefs.size() * segmentSize);
+        mPool = Preconditions.checkNotNull(pool);
+        mSegmentRefs = CloseableReference.cloneOrNull(segmentRefs);
+        mSegmentSize = segmentSize;
+        mSize = size;
+    }
+
+    @Override
+    public synchronized int size() {
+        ensureValid();
+        return mSize;
+    }
+
+    @Override
+    public synchronized byte read(int offset) {
+        ensureValid();
+        Preconditions.checkArgument(offset >= 0);
+        Preconditions.checkArgument(offset < mSize);
+        return mSegmentRefs.get(offset / mSegmentSize).get().read(offset % mSegmentSize);
+    }
+
+    @Override
+    public synchronized void read(int offset, byte[] buffer, int bufferOffset, int length) {
+        ensureValid();
+        Preconditions.checkArgument(offset >= 0 && length >= 0);
+        Preconditions.checkArgument(offset + length <= mSize);
+        while (length > 0) {
+            final int segmentOffset = offset % mSegmentSize;
+            final int count = Math.min(length, mSegmentSize - segmentOffset);
+            mSegmentRefs.get(offset / mSegmentSize).get()
+                    .read(segmentOffset, buffer, bufferOffset, count);
+            offset += count;
+            bufferOffset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public synchronized long getNativePtr() {
+        ensureValid();
+        if (mSize <= mSegmentSize) {
+            return mSegmentRefs.get(0).get().getNativePtr();
+        }
+        if (mFlattenedRef == null) {
+            NativeMemoryChunk flattened = mPool.get(mSize);
+            for (int i = 0; i * mSegmentSize < mSize; i++) {
+                final int count = Math.min(mSegmentSize, mSize - i * mSegmentSize);
+                mSegmentRefs.get(i).get().copy(0, flattened, i * mSegmentSize, count);
+            }
+            mFlattenedRef = CloseableReference.of(flattened, mPool);
+        }
+        return mFlattenedRef.get().getNativePtr();
+    }
+
+    @Override
+    public synchronized boolean isClosed() {
+        return mSegmentRefs == null;
+    }
+
+    @Override
+    public synchronized void close() {
+        CloseableReference.closeSafely(mSegmentRefs);
+        CloseableReference.closeSafely(mFlattenedRef);
+        mSegmentRefs = null;
+        mFlattenedRef = null;
+    }
+
+    synchronized void ensureValid() {
+        if (isClosed()) {
+            throw new ClosedException();
+        }
+    }
+}
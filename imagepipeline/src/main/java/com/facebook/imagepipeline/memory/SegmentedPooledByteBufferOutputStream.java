@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.references.CloseableReference;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBufferOutputStream} that produces a
+ * {@link SegmentedPooledByteBuffer}.
+ * <p>
+ * <p> Bytes are written to fixed size chunks taken from the pool. When a chunk is full a new one
+ * is appended, so unlike {@link NativePooledByteBufferOutputStream} the bytes written so far are
+ * never copied. This is useful when the final size is not known upfront.
+ * <p>
+ * <p> {@link #toByteBuffer()} returns a view sharing the chunks with the stream; writing more
+ * bytes afterwards does not affect buffers returned earlier.
+ */
+@NotThreadSafe
+public class SegmentedPooledByteBufferOutputStream extends PooledByteBufferOutputStream {
+    private final NativeMemoryChunkPool mPool;  // the pool to allocate memory chunks from
+    private final int mSegmentSize;
+    @VisibleForTesting
+    List<CloseableReference<NativeMemoryChunk>> mSegmentRefs; // null once closed
+    private int mCount; // number of bytes written to the stream
+
+    /**
+     * Construct a new instance of this output stream
+     *
+     * @param pool        the pool to use
+     * @param segmentSize the size of the chunks holding the bytes
+     */
+    public SegmentedPooledByteBufferOutputStream(NativeMemoryChunkPool pool, int segmentSize) {
+        super();
+
+        Preconditions.checkArgument(segmentSize > 0);
+        mPool = Preconditions.checkNotNull(pool);
+        mSegmentSize = segmentSize;
+        mCount = 0;
+        mSegmentRefs = new ArrayList<>();
+        addSegment();
+    }
+
+    /**
+     * Gets a PooledByteBuffer from the current contents. If the stream has already been closed, then
+     * an InvalidStreamException is thrown.
+     *
+     * @return a PooledByteBuffer instance for the contents of the stream
+     * @throws NativePooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+     */
+    @Override
+    public SegmentedPooledByteBuffer toByteBuffer() {
+        ensureValid();
+        return new SegmentedPooledByteBuffer(mPool, mSegmentRefs, mSegmentSize, mCount);
+    }
+
+    @Override
+    public int size() {
+        return mCount;
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        byte[] buf = new byte[1];
+        buf[0] = (byte) oneByte;
+        this.write(buf);
+    }
+
+    /**
+     * Writes {@code count} bytes from the byte array {@code buffer} starting at
+     * position {@code offset} to this stream, appending chunks as needed.
+     *
+     * @throws IndexOutOfBoundsException if {@code offset < 0} or {@code count < 0}, or if
+     *                                   {@code offset + count} is bigger than the length of
+     *                                   {@code buffer}.
+     * @throws NativePooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+     */
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+        if (offset < 0 || count < 0 || offset + count > buffer.length) {
+            throw new ArrayIndexOutOfBoundsException("length=" + buffer.length + "; regionStart=" + offset
+                    + "; regionLength=" + count);
+        }
+        ensureValid();
+        while (count > 0) {
+            int segmentOffset = mCount % mSegmentSize;
+            if (segmentOffset == 0 && mCount / mSegmentSize == mSegmentRefs.size()) {
+                addSegment();
+            }
+            final int written = Math.min(count, mSegmentSize - segmentOffset);
+            mSegmentRefs.get(mCount / mSegmentSize).get()
+                    .write(segmentOffset, buffer, offset, written);
+            mCount += written;
+            offset += written;
+            count -= written;
+        }
+    }
+
+    /**
+     * Closes the stream. Owned chunks are released back to the pool once no buffer created by
+     * {@link #toByteBuffer()} uses them.
+     */
+    @Override
+    public void close() {
+        CloseableReference.closeSafely(mSegmentRefs);
+        mSegmentRefs = null;
+        mCount = -1;
+        super.close();
+    }
+
+    private void addSegment() {
+        mSegmentRefs.add(CloseableReference.of(mPool.get(mSegmentSize), mPool));
+    }
+
+    private void ensureValid() {
+        if (mSegmentRefs == null) {
+            throw new NativePooledByteBufferOutputStream.InvalidStreamException();
+        }
+    }
+}
@@ -71,6 +71,25 @@ public class JpegTranscoder {
                 quality);
     }
 
+    /**
+     * Encodes jpeg image again with lower quality, keeping its dimensions and metadata
+     *
+     * @param inputStream
+     * @param outputStream
+     * @param quality      1 - 100
+     */
+    public static void recompressJpeg(
+            final InputStream inputStream,
+            final OutputStream outputStream,
+            final int quality) throws IOException {
+        Preconditions.checkArgument(quality >= MIN_QUALITY);
+        Preconditions.checkArgument(quality <= MAX_QUALITY);
+        nativeRecompressJpeg(
+                Preconditions.checkNotNull(inputStream),
+                Preconditions.checkNotNull(outputStream),
+                quality);
+    }
+
     @DoNotStrip
     private static native void nativeTranscodeJpeg(
             InputStream inputStream,
@@ -78,4 +97,10 @@ public class JpegTranscoder {
             int rotationAngle,
             int scaleNominator,
             int quality) throws IOException;
+
+    @DoNotStrip
+    private static native void nativeRecompressJpeg(
+            InputStream inputStream,
+            OutputStream outputStream,
+            int quality) throws IOException;
 }
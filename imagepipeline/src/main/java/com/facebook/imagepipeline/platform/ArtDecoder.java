@@ -70,11 +70,22 @@ public class ArtDecoder implements PlatformDecoder {
         final BitmapFactory.Options options = new BitmapFactory.Options();
         // Sample size should ONLY be different than 1 when downsampling is enabled in the pipeline
         options.inSampleSize = encodedImage.getSampleSize();
-        options.inJustDecodeBounds = true;
-        // fill outWidth and outHeight
-        BitmapFactory.decodeStream(encodedImage.getInputStream(), null, options);
-        if (options.outWidth == -1 || options.outHeight == -1) {
-            throw new IllegalArgumentException();
+        if (encodedImage.getWidth() > 0 &&
+                encodedImage.getHeight() > 0 &&
+                isPowerOfTwo(options.inSampleSize)) {
+            // the header was already parsed, fill outWidth and outHeight without reading it again.
+            // Other sample sizes are rounded down to a power of two by some versions of Android,
+            // so only the decoder knows the dimensions of the bitmap it is going to produce.
+            options.outWidth = getSampledDimension(encodedImage.getWidth(), options.inSampleSize);
+            options.outHeight = getSampledDimension(encodedImage.getHeight(), options.inSampleSize);
+        }
+        else {
+            options.inJustDecodeBounds = true;
+            // fill outWidth and outHeight
+            BitmapFactory.decodeStream(encodedImage.getInputStream(), null, options);
+            if (options.outWidth == -1 || options.outHeight == -1) {
+                throw new IllegalArgumentException();
+            }
         }
 
         options.inJustDecodeBounds = false;
@@ -85,6 +96,19 @@ public class ArtDecoder implements PlatformDecoder {
         return options;
     }
 
+    /**
+     * Returns the size of a dimension once decoded with the given sample size. Decoders round
+     * either down or up, so this rounds up: the bitmap to decode into must not be too small.
+     */
+    @VisibleForTesting
+    static int getSampledDimension(int dimension, int sampleSize) {
+        return sampleSize <= 1 ? dimension : (dimension + sampleSize - 1) / sampleSize;
+    }
+
+    private static boolean isPowerOfTwo(int sampleSize) {
+        return sampleSize <= 1 || (sampleSize & (sampleSize - 1)) == 0;
+    }
+
     /**
      * Creates a bitmap from encoded bytes.
      *
@@ -158,6 +182,8 @@ public class ArtDecoder implements PlatformDecoder {
                 options.outWidth,
                 options.outHeight,
                 options.inPreferredConfig);
+        // The pool may return a bitmap of a larger size class. BitmapFactory reconfigures it to the
+        // decoded dimensions as long as its allocation is large enough.
         final Bitmap bitmapToReuse = mBitmapPool.get(sizeInBytes);
         if (bitmapToReuse == null) {
             throw new NullPointerException("BitmapPool.get returned null");
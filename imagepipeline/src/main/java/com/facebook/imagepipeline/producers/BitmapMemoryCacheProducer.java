@@ -11,32 +11,79 @@ package com.facebook.imagepipeline.producers;
 
 import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.internal.Sets;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheVariantsIndex;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
 import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.common.ResizeOptions;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.QualityInfo;
+import com.facebook.imagepipeline.listener.BaseRequestListener;
 import com.facebook.imagepipeline.request.ImageRequest;
 
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
 /**
  * Memory cache producer for the bitmap memory cache.
+ * <p>
+ * <p> If a {@link BitmapMemoryCacheVariantsIndex} is given, lookups are size-tolerant: a request
+ * with resize options that misses the cache is served a larger cached variant of the same image,
+ * which the drawable scales down when drawing. Optionally, a decode at the requested size is then
+ * run in the background, so that later requests hit an entry of the right size.
  */
 public class BitmapMemoryCacheProducer implements Producer<CloseableReference<CloseableImage>> {
 
     public static final String PRODUCER_NAME = "BitmapMemoryCacheProducer";
     public static final String EXTRA_CACHED_VALUE_FOUND = ProducerConstants.EXTRA_CACHED_VALUE_FOUND;
+    public static final String EXTRA_LARGER_VARIANT_FOUND = "larger_variant_found";
+
+    /**
+     * A larger variant is only worth a decode at the requested size if it is at least this many
+     * times larger in both dimensions.
+     */
+    private static final int MIN_RESIZED_DECODE_RATIO = 2;
 
     private final MemoryCache<CacheKey, CloseableImage> mMemoryCache;
     private final CacheKeyFactory mCacheKeyFactory;
     private final Producer<CloseableReference<CloseableImage>> mInputProducer;
+    @Nullable
+    private final BitmapMemoryCacheVariantsIndex mVariantsIndex;
+    private final boolean mResizedDecodeInBackground;
+
+    @GuardedBy("this")
+    private final Set<CacheKey> mPendingResizedDecodes = Sets.newHashSet();
 
     public BitmapMemoryCacheProducer(
             MemoryCache<CacheKey, CloseableImage> memoryCache,
             CacheKeyFactory cacheKeyFactory,
             Producer<CloseableReference<CloseableImage>> inputProducer) {
+        this(memoryCache, cacheKeyFactory, inputProducer, null, false);
+    }
+
+    /**
+     * @param variantsIndex             index of the cached sizes of each image, or null to only
+     *                                  return exact matches
+     * @param resizedDecodeInBackground whether to decode at the requested size in the background
+     *                                  after serving a larger variant
+     */
+    public BitmapMemoryCacheProducer(
+            MemoryCache<CacheKey, CloseableImage> memoryCache,
+            CacheKeyFactory cacheKeyFactory,
+            Producer<CloseableReference<CloseableImage>> inputProducer,
+            @Nullable BitmapMemoryCacheVariantsIndex variantsIndex,
+            boolean resizedDecodeInBackground) {
         mMemoryCache = memoryCache;
         mCacheKeyFactory = cacheKeyFactory;
         mInputProducer = inputProducer;
+        mVariantsIndex = variantsIndex;
+        mResizedDecodeInBackground = resizedDecodeInBackground;
     }
 
     @Override
@@ -70,6 +117,36 @@ public class BitmapMemoryCacheProducer implements Producer<CloseableReference<Cl
                 return;
             }
         }
+        else if (mVariantsIndex != null && cacheKey instanceof BitmapMemoryCacheKey) {
+            final BitmapMemoryCacheKey bitmapCacheKey = (BitmapMemoryCacheKey) cacheKey;
+            final CloseableReference<CloseableImage> variantReference =
+                    getLargerVariant(bitmapCacheKey);
+            if (variantReference != null) {
+                listener.onProducerFinishWithSuccess(
+                        requestId,
+                        getProducerName(),
+                        listener.requiresExtraMap(requestId)
+                                ? ImmutableMap.of(
+                                        EXTRA_CACHED_VALUE_FOUND, "true",
+                                        EXTRA_LARGER_VARIANT_FOUND, "true")
+                                : null);
+                consumer.onProgressUpdate(1f);
+                try {
+                    consumer.onNewResult(variantReference, true);
+                    if (mResizedDecodeInBackground &&
+                            producerContext.getLowestPermittedRequestLevel().getValue() <
+                                    ImageRequest.RequestLevel.BITMAP_MEMORY_CACHE.getValue() &&
+                            isWorthResizedDecode(
+                                    variantReference.get(),
+                                    bitmapCacheKey.getResizeOptions())) {
+                        startResizedDecode(producerContext, cacheKey);
+                    }
+                } finally {
+                    variantReference.close();
+                }
+                return;
+            }
+        }
 
         if (producerContext.getLowestPermittedRequestLevel().getValue() >=
                 ImageRequest.RequestLevel.BITMAP_MEMORY_CACHE.getValue()) {
@@ -93,6 +170,103 @@ public class BitmapMemoryCacheProducer implements Producer<CloseableReference<Cl
         mInputProducer.produceResults(wrappedConsumer, producerContext);
     }
 
+    /**
+     * Returns the smallest cached full quality variant of the image that is at least as large as
+     * requested, or null if there is none.
+     */
+    @Nullable
+    private CloseableReference<CloseableImage> getLargerVariant(BitmapMemoryCacheKey cacheKey) {
+        final ResizeOptions resizeOptions = cacheKey.getResizeOptions();
+        if (resizeOptions == null) {
+            // the full size was requested, which no other variant can serve
+            return null;
+        }
+        CloseableReference<CloseableImage> bestReference = null;
+        long bestArea = Long.MAX_VALUE;
+        final List<BitmapMemoryCacheKey> variantKeys =
+                mVariantsIndex.getVariants(cacheKey.getUriString());
+        for (BitmapMemoryCacheKey variantKey : variantKeys) {
+            final ResizeOptions variantResizeOptions = variantKey.getResizeOptions();
+            if (!variantKey.isResizeVariantOf(cacheKey) ||
+                    (variantResizeOptions != null &&
+                            (variantResizeOptions.width < resizeOptions.width ||
+                                    variantResizeOptions.height < resizeOptions.height))) {
+                continue;
+            }
+            final CloseableReference<CloseableImage> variantReference =
+                    mMemoryCache.get(variantKey);
+            if (variantReference == null) {
+                mVariantsIndex.remove(variantKey);
+                continue;
+            }
+            final CloseableImage image = variantReference.get();
+            final long area = (long) image.getWidth() * image.getHeight();
+            if (image.isStateful() || !image.getQualityInfo().isOfFullQuality() ||
+                    area >= bestArea) {
+                variantReference.close();
+                continue;
+            }
+            CloseableReference.closeSafely(bestReference);
+            bestReference = variantReference;
+            bestArea = area;
+        }
+        return bestReference;
+    }
+
+    private static boolean isWorthResizedDecode(CloseableImage image, ResizeOptions resizeOptions) {
+        return image.getWidth() >= resizeOptions.width * MIN_RESIZED_DECODE_RATIO &&
+                image.getHeight() >= resizeOptions.height * MIN_RESIZED_DECODE_RATIO;
+    }
+
+    /**
+     * Decodes the image at the requested size with low priority and caches it. The request it was
+     * started for has already been served a larger variant, so nobody waits for the result.
+     */
+    private void startResizedDecode(ProducerContext producerContext, final CacheKey cacheKey) {
+        synchronized (this) {
+            if (!mPendingResizedDecodes.add(cacheKey)) {
+                return;
+            }
+        }
+        final SettableProducerContext resizedDecodeContext = new SettableProducerContext(
+                producerContext.getImageRequest(),
+                producerContext.getId(),
+                new BaseRequestListener(),
+                producerContext.getCallerContext(),
+                producerContext.getLowestPermittedRequestLevel(),
+                true,
+                false,
+                Priority.LOW);
+        final Consumer<CloseableReference<CloseableImage>> resizedDecodeConsumer =
+                new BaseConsumer<CloseableReference<CloseableImage>>() {
+                    @Override
+                    protected void onNewResultImpl(
+                            CloseableReference<CloseableImage> newResult,
+                            boolean isLast) {
+                        if (isLast) {
+                            onResizedDecodeFinished(cacheKey);
+                        }
+                    }
+
+                    @Override
+                    protected void onFailureImpl(Throwable t) {
+                        onResizedDecodeFinished(cacheKey);
+                    }
+
+                    @Override
+                    protected void onCancellationImpl() {
+                        onResizedDecodeFinished(cacheKey);
+                    }
+                };
+        mInputProducer.produceResults(
+                wrapConsumer(resizedDecodeConsumer, cacheKey),
+                resizedDecodeContext);
+    }
+
+    private synchronized void onResizedDecodeFinished(CacheKey cacheKey) {
+        mPendingResizedDecodes.remove(cacheKey);
+    }
+
     protected Consumer<CloseableReference<CloseableImage>> wrapConsumer(
             final Consumer<CloseableReference<CloseableImage>> consumer,
             final CacheKey cacheKey) {
@@ -133,6 +307,10 @@ public class BitmapMemoryCacheProducer implements Producer<CloseableReference<Cl
                 // cache and forward the new result
                 CloseableReference<CloseableImage> newCachedResult =
                         mMemoryCache.cache(cacheKey, newResult);
+                if (isLast && newCachedResult != null && mVariantsIndex != null &&
+                        cacheKey instanceof BitmapMemoryCacheKey) {
+                    mVariantsIndex.add((BitmapMemoryCacheKey) cacheKey);
+                }
                 try {
                     if (isLast) {
                         getConsumer().onProgressUpdate(1f);
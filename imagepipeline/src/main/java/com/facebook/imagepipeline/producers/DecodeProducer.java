@@ -143,7 +143,11 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
                     }
                 }
             };
-            mJobScheduler = new JobScheduler(mExecutor, job, mImageDecodeOptions.minDecodeIntervalMs);
+            mJobScheduler = new JobScheduler(
+                    mExecutor,
+                    job,
+                    mImageDecodeOptions.minDecodeIntervalMs,
+                    new ProducerContextPrioritySupplier(mProducerContext));
             mProducerContext.addCallbacks(
                     new BaseProducerContextCallbacks() {
                         @Override
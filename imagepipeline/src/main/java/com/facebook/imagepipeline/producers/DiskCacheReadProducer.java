@@ -12,6 +12,7 @@ package com.facebook.imagepipeline.producers;
 import com.facebook.common.internal.ImmutableMap;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.imagepipeline.cache.DiskCachePolicy;
+import com.facebook.imagepipeline.cache.PrioritizedDiskCachePolicy;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 
@@ -76,8 +77,21 @@ public class DiskCacheReadProducer implements Producer<EncodedImage> {
         producerContext.getListener().onProducerStart(producerContext.getId(), PRODUCER_NAME);
 
         final AtomicBoolean isCancelled = new AtomicBoolean(false);
-        Task<EncodedImage> diskLookupTask = mDiskCachePolicy
-                .createAndStartCacheReadTask(imageRequest, producerContext.getCallerContext(), isCancelled);
+        final Task<EncodedImage> diskLookupTask;
+        if (mDiskCachePolicy instanceof PrioritizedDiskCachePolicy) {
+            diskLookupTask = ((PrioritizedDiskCachePolicy) mDiskCachePolicy)
+                    .createAndStartCacheReadTask(
+                            imageRequest,
+                            producerContext.getCallerContext(),
+                            isCancelled,
+                            new ProducerContextPrioritySupplier(producerContext));
+        }
+        else {
+            diskLookupTask = mDiskCachePolicy.createAndStartCacheReadTask(
+                    imageRequest,
+                    producerContext.getCallerContext(),
+                    isCancelled);
+        }
 
         Continuation<EncodedImage, Void> continuation = onFinishDiskReads(consumer, producerContext);
         diskLookupTask.continueWith(continuation);
@@ -13,6 +13,8 @@ import android.net.Uri;
 
 import com.facebook.imagepipeline.image.EncodedImage;
 
+import javax.annotation.Nullable;
+
 /**
  * Used by {@link NetworkFetcher} to encapsulate the state of one network fetch.
  * <p>
@@ -29,6 +31,12 @@ public class FetchState {
      */
     private final ProducerContext mContext;
     private long mLastIntermediateResultTimeMs;
+    private int mResumeOffset;
+    @Nullable
+    private String mResumeValidator;
+    private int mResponseOffset;
+    @Nullable
+    private String mResponseValidator;
 
     public FetchState(
             Consumer<EncodedImage> consumer,
@@ -65,4 +73,52 @@ public class FetchState {
     public void setLastIntermediateResultTimeMs(long lastIntermediateResultTimeMs) {
         mLastIntermediateResultTimeMs = lastIntermediateResultTimeMs;
     }
+
+    /**
+     * Asks the fetcher to download only the bytes from <code>offset</code> on, because the ones
+     * before are left from an interrupted download. The request has to be conditional on
+     * <code>validator</code> so that a changed image is downloaded in full, see
+     * {@link HttpRangeUtil}.
+     */
+    public void setResumeFrom(int offset, String validator) {
+        mResumeOffset = offset;
+        mResumeValidator = validator;
+    }
+
+    /**
+     * @return the number of bytes already downloaded, 0 if the whole image is needed
+     */
+    public int getResumeOffset() {
+        return mResumeOffset;
+    }
+
+    @Nullable
+    public String getResumeValidator() {
+        return mResumeValidator;
+    }
+
+    /**
+     * Set by the fetcher to the position in the image of the first byte of the response. This is
+     * 0 unless the server honoured a range request.
+     */
+    public void setResponseOffset(int responseOffset) {
+        mResponseOffset = responseOffset;
+    }
+
+    public int getResponseOffset() {
+        return mResponseOffset;
+    }
+
+    /**
+     * Set by the fetcher to the ETag or Last-Modified value of the response, if any. Without it an
+     * interrupted download cannot be resumed.
+     */
+    public void setResponseValidator(@Nullable String responseValidator) {
+        mResponseValidator = responseValidator;
+    }
+
+    @Nullable
+    public String getResponseValidator() {
+        return mResponseValidator;
+    }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Helpers for {@link NetworkFetcher}s that resume interrupted downloads with HTTP range requests.
+ * <p>
+ * <p> When {@link FetchState#getResumeOffset()} is positive the fetcher should add the
+ * {@link #RANGE} header built by {@link #toRangeHeaderValue} and the {@link #IF_RANGE} header set
+ * to {@link FetchState#getResumeValidator()}, then pass the response headers to
+ * {@link #onResponseHeaders} before handing the body to the callback.
+ */
+public final class HttpRangeUtil {
+
+    public static final String RANGE = "Range";
+    public static final String IF_RANGE = "If-Range";
+    public static final String CONTENT_RANGE = "Content-Range";
+    public static final String ETAG = "ETag";
+    public static final String LAST_MODIFIED = "Last-Modified";
+    public static final int HTTP_PARTIAL_CONTENT = 206;
+
+    private static final String BYTES_UNIT = "bytes";
+
+    private HttpRangeUtil() {
+    }
+
+    /**
+     * @return the value of a Range header asking for all bytes from the given offset on
+     */
+    public static String toRangeHeaderValue(int offset) {
+        return BYTES_UNIT + "=" + offset + "-";
+    }
+
+    /**
+     * Parses the first byte position out of a Content-Range header such as "bytes 100-199/200".
+     *
+     * @return the first byte position, or -1 if the header cannot be parsed
+     */
+    public static int parseContentRangeStart(@Nullable String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        String value = contentRange.trim();
+        if (!value.startsWith(BYTES_UNIT)) {
+            return -1;
+        }
+        int dash = value.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(value.substring(BYTES_UNIT.length(), dash).trim());
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /**
+     * Picks the validator that an If-Range header can be conditional on: a strong ETag if there is
+     * one, the Last-Modified date otherwise. Weak ETags are not allowed in If-Range.
+     *
+     * @return the validator, or null if the response cannot be resumed safely
+     */
+    @Nullable
+    public static String getValidator(@Nullable String etag, @Nullable String lastModified) {
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return lastModified;
+    }
+
+    /**
+     * Records on the fetch state where the response body starts and which validator it came with.
+     *
+     * @throws IOException if the server answered with a range other than the requested one
+     */
+    public static void onResponseHeaders(
+            FetchState fetchState,
+            int responseCode,
+            @Nullable String contentRange,
+            @Nullable String etag,
+            @Nullable String lastModified) throws IOException {
+        int responseOffset = 0;
+        if (responseCode == HTTP_PARTIAL_CONTENT) {
+            responseOffset = parseContentRangeStart(contentRange);
+            if (responseOffset != fetchState.getResumeOffset()) {
+                throw new IOException("Unexpected Content-Range " + contentRange);
+            }
+        }
+        fetchState.setResponseOffset(responseOffset);
+        fetchState.setResponseValidator(getValidator(etag, lastModified));
+    }
+}
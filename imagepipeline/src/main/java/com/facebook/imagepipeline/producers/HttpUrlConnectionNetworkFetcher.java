@@ -37,7 +37,15 @@ public class HttpUrlConnectionNetworkFetcher extends BaseNetworkFetcher<FetchSta
     private final ExecutorService mExecutorService;
 
     public HttpUrlConnectionNetworkFetcher() {
-        this(Executors.newFixedThreadPool(NUM_NETWORK_THREADS));
+        this(NUM_NETWORK_THREADS);
+    }
+
+    /**
+     * @param numThreads the number of fetches that can run at the same time. When wrapped in a
+     *                   {@link PriorityNetworkFetcher}, this has to cover the paused fetches too.
+     */
+    public HttpUrlConnectionNetworkFetcher(int numThreads) {
+        this(Executors.newFixedThreadPool(numThreads));
     }
 
     @VisibleForTesting
@@ -107,9 +115,15 @@ public class HttpUrlConnectionNetworkFetcher extends BaseNetworkFetcher<FetchSta
         HttpURLConnection connection = null;
 
         try {
-            connection = downloadFrom(fetchState.getUri(), MAX_REDIRECTS);
+            connection = downloadFrom(fetchState, fetchState.getUri(), MAX_REDIRECTS);
 
             if (connection != null) {
+                HttpRangeUtil.onResponseHeaders(
+                        fetchState,
+                        connection.getResponseCode(),
+                        connection.getHeaderField(HttpRangeUtil.CONTENT_RANGE),
+                        connection.getHeaderField(HttpRangeUtil.ETAG),
+                        connection.getHeaderField(HttpRangeUtil.LAST_MODIFIED));
                 //回调输入流
                 callback.onResponse(connection.getInputStream(), -1);
             }
@@ -124,8 +138,17 @@ public class HttpUrlConnectionNetworkFetcher extends BaseNetworkFetcher<FetchSta
 
     }
 
-    private HttpURLConnection downloadFrom(Uri uri, int maxRedirects) throws IOException {
+    private HttpURLConnection downloadFrom(
+            FetchState fetchState,
+            Uri uri,
+            int maxRedirects) throws IOException {
         HttpURLConnection connection = openConnectionTo(uri);
+        if (fetchState.getResumeOffset() > 0) {
+            connection.setRequestProperty(
+                    HttpRangeUtil.RANGE,
+                    HttpRangeUtil.toRangeHeaderValue(fetchState.getResumeOffset()));
+            connection.setRequestProperty(HttpRangeUtil.IF_RANGE, fetchState.getResumeValidator());
+        }
         int responseCode = connection.getResponseCode();
 
         if (isHttpSuccess(responseCode)) {//请求成功
@@ -140,7 +163,7 @@ public class HttpUrlConnectionNetworkFetcher extends BaseNetworkFetcher<FetchSta
             String originalScheme = uri.getScheme();
 
             if (maxRedirects > 0 && nextUri != null && !nextUri.getScheme().equals(originalScheme)) {
-                return downloadFrom(nextUri, maxRedirects - 1);
+                return downloadFrom(fetchState, nextUri, maxRedirects - 1);
             }
             else {
                 String message = maxRedirects == 0
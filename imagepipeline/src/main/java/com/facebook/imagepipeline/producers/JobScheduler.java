@@ -10,7 +10,10 @@ package com.facebook.imagepipeline.producers;
 
 import android.os.SystemClock;
 
+import com.facebook.common.internal.Supplier;
 import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.PrioritizedRunnable;
 import com.facebook.imagepipeline.image.EncodedImage;
 
 import java.util.concurrent.Executor;
@@ -18,6 +21,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 /**
@@ -26,7 +30,7 @@ import javax.annotation.concurrent.GuardedBy;
  */
 public class JobScheduler {
 
-    static final String QUEUE_TIME_KEY = "queueTime";
+    public static final String QUEUE_TIME_KEY = "queueTime";
     private final Executor mExecutor;
     private final JobRunnable mJobRunnable;
     private final Runnable mDoJobRunnable;
@@ -51,15 +55,30 @@ public class JobScheduler {
     long mJobStartTime;
 
     public JobScheduler(Executor executor, JobRunnable jobRunnable, int minimumJobIntervalMs) {
+        this(executor, jobRunnable, minimumJobIntervalMs, null);
+    }
+
+    /**
+     * @param prioritySupplier if not null, jobs are submitted to the executor tagged with the
+     * priority it supplies, see {@link PrioritizedRunnable}
+     */
+    public JobScheduler(
+            Executor executor,
+            JobRunnable jobRunnable,
+            int minimumJobIntervalMs,
+            @Nullable Supplier<Priority> prioritySupplier) {
         mExecutor = executor;
         mJobRunnable = jobRunnable;
         mMinimumJobIntervalMs = minimumJobIntervalMs;
-        mDoJobRunnable = new Runnable() {
+        Runnable doJobRunnable = new Runnable() {
             @Override
             public void run() {
                 doJob();
             }
         };
+        mDoJobRunnable = prioritySupplier == null ?
+                doJobRunnable :
+                new PrioritizedRunnable(doJobRunnable, prioritySupplier);
         mSubmitJobRunnable = new Runnable() {
             @Override
             public void run() {
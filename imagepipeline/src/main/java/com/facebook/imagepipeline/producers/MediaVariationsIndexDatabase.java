@@ -9,38 +9,76 @@
 
 package com.facebook.imagepipeline.producers;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.CacheKeyUtil;
+import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.logging.FLog;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.MediaVariations;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 import bolts.Task;
 
+/**
+ * {@link MediaVariationsIndex} backed by a SQLite database.
+ * <p>
+ * <p> The variants of recently used media IDs are kept in an in-memory LRU cache in front of the
+ * database, so repeated lookups for the same media do not touch the disk. New variants are
+ * coalesced and written in a single transaction every <code>batchIntervalMs</code>
+ * milliseconds; until then they are served from memory. The database connection stays open and
+ * inserts go through a compiled statement.
+ */
 public class MediaVariationsIndexDatabase implements MediaVariationsIndex {
     private static final String TAG = MediaVariationsIndexDatabase.class.getSimpleName();
 
-    private static final String[] PROJECTION = {
-            IndexEntry.COLUMN_NAME_CACHE_KEY,
-            IndexEntry.COLUMN_NAME_WIDTH,
-            IndexEntry.COLUMN_NAME_HEIGHT
-    };
+    public static final int DEFAULT_MAX_CACHED_MEDIA_IDS = 256;
+    public static final long DEFAULT_BATCH_INTERVAL_MS = 200;
+
+    // SQLite limits the number of host parameters in a statement to 999
+    @VisibleForTesting
+    static final int MAX_MEDIA_IDS_PER_QUERY = 200;
+
+    private static final String SQL_SELECT_PREFIX =
+            "SELECT " + IndexEntry.COLUMN_NAME_MEDIA_ID + ", " +
+                    IndexEntry.COLUMN_NAME_CACHE_KEY + ", " +
+                    IndexEntry.COLUMN_NAME_WIDTH + ", " +
+                    IndexEntry.COLUMN_NAME_HEIGHT +
+                    " FROM " + IndexEntry.TABLE_NAME +
+                    " WHERE " + IndexEntry.COLUMN_NAME_MEDIA_ID;
+    // Constant, so SQLite's per-connection statement cache keeps it compiled
+    private static final String SQL_SELECT_ONE = SQL_SELECT_PREFIX + " = ?";
+
+    private static final String SQL_INSERT =
+            "INSERT INTO " + IndexEntry.TABLE_NAME + " (" +
+                    IndexEntry.COLUMN_NAME_MEDIA_ID + ", " +
+                    IndexEntry.COLUMN_NAME_WIDTH + ", " +
+                    IndexEntry.COLUMN_NAME_HEIGHT + ", " +
+                    IndexEntry.COLUMN_NAME_CACHE_KEY + ", " +
+                    IndexEntry.COLUMN_NAME_RESOURCE_ID + ") VALUES (?, ?, ?, ?, ?)";
 
     private static final String SQL_DELETE_ENTRIES =
             "DROP TABLE IF EXISTS " + IndexEntry.TABLE_NAME;
@@ -48,18 +86,90 @@ public class MediaVariationsIndexDatabase implements MediaVariationsIndex {
     private final LazyIndexDbOpenHelper mDbHelper;
     private final Executor mReadExecutor;
     private final Executor mWriteExecutor;
+    private final long mBatchIntervalMs;
+    private final Runnable mFlushRunnable;
+    private final Runnable mSubmitFlushRunnable;
+    // delays the batched writes, null if they are not delayed
+    @Nullable
+    private final ScheduledExecutorService mFlushScheduler;
+
+    // Variants by media ID, in access order. Media IDs known to have no variants map to an empty
+    // list. Also guards the pending and flushing inserts, so that a lookup that fills the cache
+    // sees every insert that has not been committed yet.
+    @GuardedBy("itself")
+    private final LinkedHashMap<String, List<MediaVariations.Variant>> mCache;
+    @GuardedBy("mCache")
+    private ArrayList<PendingInsert> mPendingInserts = new ArrayList<>();
+    @GuardedBy("mCache")
+    private ArrayList<PendingInsert> mFlushingInserts = new ArrayList<>();
+    @GuardedBy("mCache")
+    private boolean mFlushScheduled;
+    @GuardedBy("mCache")
+    private int mCommitCount;
+
+    @GuardedBy("this")
+    @Nullable
+    private SQLiteStatement mInsertStatement;
 
     public MediaVariationsIndexDatabase(
             Context context,
             Executor readExecutor,
             Executor writeExecutor) {
+        this(
+                context,
+                readExecutor,
+                writeExecutor,
+                DEFAULT_MAX_CACHED_MEDIA_IDS,
+                DEFAULT_BATCH_INTERVAL_MS);
+    }
+
+    /**
+     * @param maxCachedMediaIds number of media IDs whose variants are kept in memory
+     * @param batchIntervalMs   how long new variants are collected before they are written in a
+     *                          single transaction; 0 writes them as soon as the write executor
+     *                          gets to them
+     */
+    public MediaVariationsIndexDatabase(
+            Context context,
+            Executor readExecutor,
+            Executor writeExecutor,
+            final int maxCachedMediaIds,
+            long batchIntervalMs) {
         mDbHelper = new LazyIndexDbOpenHelper(context);
         mReadExecutor = readExecutor;
         mWriteExecutor = writeExecutor;
+        mBatchIntervalMs = batchIntervalMs;
+        mFlushScheduler = batchIntervalMs > 0 ? Executors.newSingleThreadScheduledExecutor() : null;
+        mCache = new LinkedHashMap<String, List<MediaVariations.Variant>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, List<MediaVariations.Variant>> eldest) {
+                return size() > maxCachedMediaIds;
+            }
+        };
+        mFlushRunnable = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+        mSubmitFlushRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mWriteExecutor.execute(mFlushRunnable);
+            }
+        };
     }
 
     @Override
     public Task<List<MediaVariations.Variant>> getCachedVariants(final String mediaId) {
+        List<MediaVariations.Variant> cachedVariants;
+        synchronized (mCache) {
+            cachedVariants = mCache.get(mediaId);
+        }
+        if (cachedVariants != null) {
+            return Task.forResult(cachedVariants.isEmpty() ? null : cachedVariants);
+        }
         try {
             return Task.call(
                     new Callable<List<MediaVariations.Variant>>() {
@@ -75,83 +185,257 @@ public class MediaVariationsIndexDatabase implements MediaVariationsIndex {
         }
     }
 
-    private synchronized List<MediaVariations.Variant> getCachedVariantsSync(String mediaId) {
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
-        Cursor c = null;
+    /**
+     * Looks up the variants of many media IDs at once, e.g. to prefetch a feed.
+     *
+     * @return Task that resolves to the variants by media ID; media IDs without any known variant
+     * are left out
+     */
+    public Task<Map<String, List<MediaVariations.Variant>>> getCachedVariantsForMediaIds(
+            final Collection<String> mediaIds) {
+        final Map<String, List<MediaVariations.Variant>> result = new HashMap<>();
+        final List<String> uncachedMediaIds = new ArrayList<>();
+        synchronized (mCache) {
+            for (String mediaId : mediaIds) {
+                List<MediaVariations.Variant> cachedVariants = mCache.get(mediaId);
+                if (cachedVariants == null) {
+                    uncachedMediaIds.add(mediaId);
+                }
+                else if (!cachedVariants.isEmpty()) {
+                    result.put(mediaId, cachedVariants);
+                }
+            }
+        }
+        if (uncachedMediaIds.isEmpty()) {
+            return Task.forResult(result);
+        }
         try {
-            String selection = IndexEntry.COLUMN_NAME_MEDIA_ID + " = ?";
-            String[] selectionArgs = {mediaId};
+            return Task.call(
+                    new Callable<Map<String, List<MediaVariations.Variant>>>() {
+                        @Override
+                        public Map<String, List<MediaVariations.Variant>> call() throws Exception {
+                            result.putAll(readFromDatabase(uncachedMediaIds));
+                            return result;
+                        }
+                    },
+                    mReadExecutor);
+        } catch (Exception exception) {
+            FLog.w(
+                    TAG,
+                    exception,
+                    "Failed to schedule query task for %d media ids",
+                    mediaIds.size());
+            return Task.forError(exception);
+        }
+    }
 
-            c = db.query(
-                    IndexEntry.TABLE_NAME,
-                    PROJECTION,
-                    selection,
-                    selectionArgs,
-                    null, // groupBy
-                    null, // having
-                    null); // orderBy
+    @Nullable
+    private List<MediaVariations.Variant> getCachedVariantsSync(String mediaId) {
+        return readFromDatabase(Collections.singletonList(mediaId)).get(mediaId);
+    }
 
-            if (c.getCount() == 0) {
-                return null;
+    /**
+     * Looks up the variants of the given media IDs in the database, adds the variants that are
+     * yet to be written and stores the result in the in-memory cache.
+     *
+     * @return the variants, only for media IDs that have any
+     */
+    private Map<String, List<MediaVariations.Variant>> readFromDatabase(List<String> mediaIds) {
+        while (true) {
+            final int commitCount;
+            synchronized (mCache) {
+                commitCount = mCommitCount;
             }
+            final Map<String, List<MediaVariations.Variant>> variants = new HashMap<>();
+            for (int start = 0; start < mediaIds.size(); start += MAX_MEDIA_IDS_PER_QUERY) {
+                int end = Math.min(start + MAX_MEDIA_IDS_PER_QUERY, mediaIds.size());
+                query(mediaIds.subList(start, end), variants);
+            }
+            synchronized (mCache) {
+                if (commitCount != mCommitCount) {
+                    // A batch was committed while querying and might have been missed; its inserts
+                    // are no longer tracked in memory, so read again.
+                    continue;
+                }
+                addUncommittedInserts(mPendingInserts, variants);
+                addUncommittedInserts(mFlushingInserts, variants);
+                final Map<String, List<MediaVariations.Variant>> result = new HashMap<>();
+                for (String mediaId : mediaIds) {
+                    List<MediaVariations.Variant> mediaVariants = variants.get(mediaId);
+                    if (mediaVariants == null) {
+                        mCache.put(mediaId, Collections.<MediaVariations.Variant>emptyList());
+                    }
+                    else {
+                        mediaVariants = Collections.unmodifiableList(mediaVariants);
+                        mCache.put(mediaId, mediaVariants);
+                        result.put(mediaId, mediaVariants);
+                    }
+                }
+                return result;
+            }
+        }
+    }
 
-            final int columnIndexCacheKey =
-                    c.getColumnIndexOrThrow(IndexEntry.COLUMN_NAME_CACHE_KEY);
-            final int columnIndexWidth = c.getColumnIndexOrThrow(IndexEntry.COLUMN_NAME_WIDTH);
-            final int columnIndexHeight =
-                    c.getColumnIndexOrThrow(IndexEntry.COLUMN_NAME_HEIGHT);
-
-            List<MediaVariations.Variant> variants = new ArrayList<>(c.getCount());
+    private void query(
+            List<String> mediaIds,
+            Map<String, List<MediaVariations.Variant>> variants) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        Cursor c = null;
+        try {
+            String[] selectionArgs = mediaIds.toArray(new String[mediaIds.size()]);
+            c = db.rawQuery(
+                    mediaIds.size() == 1 ? SQL_SELECT_ONE : getSelectManySql(mediaIds.size()),
+                    selectionArgs);
             while (c.moveToNext()) {
-                variants.add(new MediaVariations.Variant(
-                        Uri.parse(c.getString(columnIndexCacheKey)),
-                        c.getInt(columnIndexWidth),
-                        c.getInt(columnIndexHeight)
-                ));
+                addVariant(
+                        variants,
+                        c.getString(0),
+                        new MediaVariations.Variant(
+                                Uri.parse(c.getString(1)),
+                                c.getInt(2),
+                                c.getInt(3)));
             }
-
-            return variants;
         } catch (SQLException x) {
-            FLog.e(TAG, x, "Error reading for %s", mediaId);
+            FLog.e(TAG, x, "Error reading for %s", mediaIds);
             throw x;
         } finally {
             if (c != null) {
                 c.close();
             }
-            db.close();
         }
     }
 
+    @VisibleForTesting
+    static String getSelectManySql(int count) {
+        StringBuilder sql = new StringBuilder(SQL_SELECT_PREFIX.length() + 6 + count * 2);
+        sql.append(SQL_SELECT_PREFIX).append(" IN (?");
+        for (int i = 1; i < count; i++) {
+            sql.append(",?");
+        }
+        return sql.append(')').toString();
+    }
+
+    @GuardedBy("mCache")
+    private static void addUncommittedInserts(
+            List<PendingInsert> inserts,
+            Map<String, List<MediaVariations.Variant>> variants) {
+        for (int i = 0; i < inserts.size(); i++) {
+            PendingInsert insert = inserts.get(i);
+            List<MediaVariations.Variant> mediaVariants = variants.get(insert.mediaId);
+            if (mediaVariants == null || !mediaVariants.contains(insert.variant)) {
+                addVariant(variants, insert.mediaId, insert.variant);
+            }
+        }
+    }
+
+    private static void addVariant(
+            Map<String, List<MediaVariations.Variant>> variants,
+            String mediaId,
+            MediaVariations.Variant variant) {
+        List<MediaVariations.Variant> mediaVariants = variants.get(mediaId);
+        if (mediaVariants == null) {
+            mediaVariants = new ArrayList<>();
+            variants.put(mediaId, mediaVariants);
+        }
+        mediaVariants.add(variant);
+    }
+
     @Override
     public void saveCachedVariant(
             final String mediaId,
             final CacheKey cacheKey,
             final EncodedImage encodedImage) {
-        mWriteExecutor.execute(new Runnable() {
-            @Override
-            public void run() {
-                SQLiteDatabase db = mDbHelper.getWritableDatabase();
-                try {
-                    db.beginTransaction();
-
-                    ContentValues contentValues = new ContentValues();
-                    contentValues.put(IndexEntry.COLUMN_NAME_MEDIA_ID, mediaId);
-                    contentValues.put(IndexEntry.COLUMN_NAME_WIDTH, encodedImage.getWidth());
-                    contentValues.put(IndexEntry.COLUMN_NAME_HEIGHT, encodedImage.getHeight());
-                    contentValues.put(IndexEntry.COLUMN_NAME_CACHE_KEY, cacheKey.getUriString());
-                    contentValues
-                            .put(IndexEntry.COLUMN_NAME_RESOURCE_ID, CacheKeyUtil.getFirstResourceId(cacheKey));
-
-                    db.insertOrThrow(IndexEntry.TABLE_NAME, null, contentValues);
-
-                    db.setTransactionSuccessful();
-                } catch (Exception x) {
-                    FLog.e(TAG, x, "Error writing for %s", mediaId);
-                } finally {
-                    db.endTransaction();
+        final MediaVariations.Variant variant = new MediaVariations.Variant(
+                Uri.parse(cacheKey.getUriString()),
+                encodedImage.getWidth(),
+                encodedImage.getHeight());
+        boolean scheduleFlush = false;
+        synchronized (mCache) {
+            List<MediaVariations.Variant> cachedVariants = mCache.get(mediaId);
+            if (cachedVariants != null && !cachedVariants.contains(variant)) {
+                List<MediaVariations.Variant> newVariants =
+                        new ArrayList<>(cachedVariants.size() + 1);
+                newVariants.addAll(cachedVariants);
+                newVariants.add(variant);
+                mCache.put(mediaId, Collections.unmodifiableList(newVariants));
+            }
+            mPendingInserts.add(new PendingInsert(mediaId, cacheKey, variant));
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                scheduleFlush = true;
+            }
+        }
+        if (scheduleFlush) {
+            if (mFlushScheduler != null) {
+                mFlushScheduler.schedule(
+                        mSubmitFlushRunnable,
+                        mBatchIntervalMs,
+                        TimeUnit.MILLISECONDS);
+            }
+            else {
+                mSubmitFlushRunnable.run();
+            }
+        }
+    }
+
+    /**
+     * Writes all pending inserts in a single transaction.
+     */
+    private synchronized void flush() {
+        final ArrayList<PendingInsert> inserts;
+        synchronized (mCache) {
+            inserts = mPendingInserts;
+            mPendingInserts = mFlushingInserts;
+            mFlushingInserts = inserts;
+            mFlushScheduled = false;
+        }
+        if (inserts.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        try {
+            db.beginTransaction();
+            try {
+                if (mInsertStatement == null) {
+                    mInsertStatement = db.compileStatement(SQL_INSERT);
+                }
+                for (int i = 0; i < inserts.size(); i++) {
+                    insert(mInsertStatement, inserts.get(i));
                 }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (Exception x) {
+            FLog.e(TAG, x, "Error writing %d variants", inserts.size());
+        } finally {
+            synchronized (mCache) {
+                inserts.clear();
+                mCommitCount++;
             }
-        });
+        }
+    }
+
+    private static void insert(SQLiteStatement statement, PendingInsert insert) {
+        statement.clearBindings();
+        statement.bindString(1, insert.mediaId);
+        statement.bindLong(2, insert.variant.getWidth());
+        statement.bindLong(3, insert.variant.getHeight());
+        statement.bindString(4, insert.cacheKey.getUriString());
+        statement.bindString(5, CacheKeyUtil.getFirstResourceId(insert.cacheKey));
+        statement.executeInsert();
+    }
+
+    private static class PendingInsert {
+        final String mediaId;
+        final CacheKey cacheKey;
+        final MediaVariations.Variant variant;
+
+        PendingInsert(String mediaId, CacheKey cacheKey, MediaVariations.Variant variant) {
+            this.mediaId = mediaId;
+            this.cacheKey = cacheKey;
+            this.variant = variant;
+        }
     }
 
     private static final class IndexEntry implements BaseColumns {
@@ -164,21 +448,24 @@ public class MediaVariationsIndexDatabase implements MediaVariationsIndex {
         public static final String COLUMN_NAME_RESOURCE_ID = "resource_id";
     }
 
+    /**
+     * Opens the database on first use and keeps it open from then on.
+     */
     private static class LazyIndexDbOpenHelper {
         private final Context mContext;
         private
         @Nullable
-        IndexDbOpenHelper mIndexDbOpenHelper;
+        SQLiteDatabase mDatabase;
 
         private LazyIndexDbOpenHelper(Context context) {
             mContext = context;
         }
 
         public synchronized SQLiteDatabase getWritableDatabase() {
-            if (mIndexDbOpenHelper == null) {
-                mIndexDbOpenHelper = new IndexDbOpenHelper(mContext);
+            if (mDatabase == null) {
+                mDatabase = new IndexDbOpenHelper(mContext).getWritableDatabase();
             }
-            return mIndexDbOpenHelper.getWritableDatabase();
+            return mDatabase;
         }
     }
 
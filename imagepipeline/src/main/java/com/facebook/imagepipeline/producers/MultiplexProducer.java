@@ -15,9 +15,11 @@ import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.Sets;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.request.ImageRequest;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -107,6 +109,29 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
 
     protected abstract K getKey(ProducerContext producerContext);
 
+    /**
+     * Returns whether a request can be served by the multiplexed request already running for its
+     * key. The default is true, as the key identifies the result.
+     *
+     * @param multiplexedContext the context the input producer is running with
+     * @param producerContext    the context of the new request
+     */
+    protected boolean canServe(
+            ProducerContext multiplexedContext,
+            ProducerContext producerContext) {
+        return true;
+    }
+
+    /**
+     * Returns the image request to run the input producer with. The default is the request of the
+     * first consumer, as all requests with the same key are equivalent.
+     *
+     * @param producerContexts the contexts of all attached consumers, never empty
+     */
+    protected ImageRequest getMultiplexedImageRequest(List<ProducerContext> producerContexts) {
+        return producerContexts.get(0).getImageRequest();
+    }
+
     protected abstract T cloneOrNull(T object);
 
     /**
@@ -184,7 +209,10 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
          * appropriate intermediate result is already known, then it will be passed to the consumer.
          * <p>
          * <p> This function will fail and return false if the multiplexer is not present in
-         * mMultiplexers map.
+         * mMultiplexers map. It also fails if the input producer is already running with a request
+         * that cannot serve the new one, see {@link MultiplexProducer#canServe}. The multiplexer
+         * is then removed from the map, so that the retry starts a new one which later requests
+         * join. This multiplexer still finishes for its consumers.
          *
          * @return true if consumer was added successfully
          */
@@ -206,6 +234,13 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
                 if (getExistingMultiplexer(mKey) != this) {
                     return false;
                 }
+                // checked under the same lock that starts the input producer, so that the request
+                // it runs with cannot change in the meantime
+                if (mMultiplexProducerContext != null &&
+                        !canServe(mMultiplexProducerContext, producerContext)) {
+                    removeMultiplexer(mKey, this);
+                    return false;
+                }
                 mConsumerContextPairs.add(consumerContextPair);
                 prefetchCallbacks = updateIsPrefetch();
                 priorityCallbacks = updatePriority();
@@ -322,9 +357,13 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
                     return;
                 }
 
-                ProducerContext producerContext = mConsumerContextPairs.iterator().next().second;
+                List<ProducerContext> producerContexts = new ArrayList<>();
+                for (Pair<Consumer<T>, ProducerContext> pair : mConsumerContextPairs) {
+                    producerContexts.add(pair.second);
+                }
+                ProducerContext producerContext = producerContexts.get(0);
                 mMultiplexProducerContext = new BaseProducerContext(
-                        producerContext.getImageRequest(),
+                        getMultiplexedImageRequest(producerContexts),
                         producerContext.getId(),
                         producerContext.getListener(),
                         producerContext.getCallerContext(),
@@ -11,8 +11,11 @@ package com.facebook.imagepipeline.producers;
 
 import android.os.SystemClock;
 
+import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.PartialDownloadCache;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.memory.ByteArrayPool;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
@@ -22,9 +25,13 @@ import com.facebook.imagepipeline.memory.PooledByteBufferOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 
+import bolts.Continuation;
+import bolts.Task;
+
 /**
  * A producer to actually fetch images from the network.
  * <p>
@@ -33,6 +40,12 @@ import javax.annotation.Nullable;
  * <p>
  * <p>Clients should provide an instance of {@link NetworkFetcher} to make use of their networking
  * stack. Use {@link HttpUrlConnectionNetworkFetcher} as a model.
+ * <p>
+ * <p> If a {@link PartialDownloadCache} is given, downloads that are cancelled or fail after at
+ * least {@link #MIN_PARTIAL_DOWNLOAD_SIZE} bytes are kept in it, and the next fetch of the same
+ * image asks the fetcher to resume from there, see {@link FetchState#setResumeFrom}. Fetchers that
+ * do not support resuming simply return the whole image. A partial download the server did not
+ * resume from is dropped, so that it is not asked for again.
  */
 public class NetworkFetchProducer implements Producer<EncodedImage> {
 
@@ -45,18 +58,44 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
      */
     @VisibleForTesting
     static final long TIME_BETWEEN_PARTIAL_RESULTS_MS = 100;
+    /**
+     * Smaller interrupted downloads are not worth a disk write and a range request
+     */
+    @VisibleForTesting
+    static final int MIN_PARTIAL_DOWNLOAD_SIZE = 16 * 1024;
     private static final int READ_SIZE = 16 * 1024;
     private final PooledByteBufferFactory mPooledByteBufferFactory;
     private final ByteArrayPool mByteArrayPool;
     private final NetworkFetcher mNetworkFetcher;
+    @Nullable
+    private final PartialDownloadCache mPartialDownloadCache;
+    @Nullable
+    private final CacheKeyFactory mCacheKeyFactory;
 
     public NetworkFetchProducer(
             PooledByteBufferFactory pooledByteBufferFactory,
             ByteArrayPool byteArrayPool,
             NetworkFetcher networkFetcher) {
+        this(pooledByteBufferFactory, byteArrayPool, networkFetcher, null, null);
+    }
+
+    /**
+     * @param partialDownloadCache where interrupted downloads are kept, or null to always download
+     *                             images from the first byte
+     * @param cacheKeyFactory      used to key the partial downloads, required if
+     *                             <code>partialDownloadCache</code> is set
+     */
+    public NetworkFetchProducer(
+            PooledByteBufferFactory pooledByteBufferFactory,
+            ByteArrayPool byteArrayPool,
+            NetworkFetcher networkFetcher,
+            @Nullable PartialDownloadCache partialDownloadCache,
+            @Nullable CacheKeyFactory cacheKeyFactory) {
         mPooledByteBufferFactory = pooledByteBufferFactory;
         mByteArrayPool = byteArrayPool;
         mNetworkFetcher = networkFetcher;
+        mPartialDownloadCache = partialDownloadCache;
+        mCacheKeyFactory = cacheKeyFactory;
     }
 
     private static float calculateProgress(int downloaded, int total) {
@@ -88,6 +127,50 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
          */
         final FetchState fetchState = mNetworkFetcher.createFetchState(consumer, context);
 
+        if (mPartialDownloadCache == null || mCacheKeyFactory == null) {
+            fetch(fetchState, null, null, null);
+            return;
+        }
+        final CacheKey cacheKey = mCacheKeyFactory.getEncodedCacheKey(
+                context.getImageRequest(),
+                context.getCallerContext());
+        final AtomicBoolean isCancelled = new AtomicBoolean(false);
+        context.addCallbacks(
+                new BaseProducerContextCallbacks() {
+                    @Override
+                    public void onCancellationRequested() {
+                        isCancelled.set(true);
+                    }
+                });
+        if (!mPartialDownloadCache.containsSync(cacheKey)) {
+            // no need to wait for the disk
+            fetch(fetchState, cacheKey, null, isCancelled);
+            return;
+        }
+        mPartialDownloadCache.get(cacheKey).continueWith(
+                new Continuation<PartialDownloadCache.Entry, Void>() {
+                    @Override
+                    public Void then(Task<PartialDownloadCache.Entry> task) throws Exception {
+                        PartialDownloadCache.Entry partialDownload =
+                                task.isCancelled() || task.isFaulted() ? null : task.getResult();
+                        if (partialDownload != null) {
+                            fetchState.setResumeFrom(
+                                    partialDownload.getSize(),
+                                    partialDownload.getValidator());
+                        }
+                        fetch(fetchState, cacheKey, partialDownload, isCancelled);
+                        return null;
+                    }
+                });
+    }
+
+    private void fetch(
+            final FetchState fetchState,
+            @Nullable final CacheKey cacheKey,
+            @Nullable final PartialDownloadCache.Entry partialDownload,
+            @Nullable final AtomicBoolean isCancelled) {
+        // set once the body is read, after that failures are handled by onResponse
+        final AtomicBoolean hasResponse = new AtomicBoolean(false);
         /**
          * 使用NetworkFetcher下载图片,默认使用是http来下载
          * TODO 但是在哪里构造的呢？因为有Volley,OkHttp,Http三种类型，应该是有一定的策略的
@@ -96,16 +179,33 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
                 fetchState, new NetworkFetcher.Callback() {
                     @Override
                     public void onResponse(InputStream response, int responseLength) throws IOException {
-                        NetworkFetchProducer.this.onResponse(fetchState, response, responseLength);
+                        hasResponse.set(true);
+                        try {
+                            NetworkFetchProducer.this.onResponse(
+                                    fetchState,
+                                    response,
+                                    responseLength,
+                                    cacheKey,
+                                    partialDownload,
+                                    isCancelled);
+                        } finally {
+                            closeSafely(partialDownload);
+                        }
                     }
 
                     @Override
                     public void onFailure(Throwable throwable) {
+                        if (partialDownload != null && !hasResponse.get()) {
+                            // the server refused to resume, e.g. with 416 Range Not Satisfiable
+                            removePartialDownload(cacheKey);
+                        }
+                        closeSafely(partialDownload);
                         NetworkFetchProducer.this.onFailure(fetchState, throwable);
                     }
 
                     @Override
                     public void onCancellation() {
+                        closeSafely(partialDownload);
                         NetworkFetchProducer.this.onCancellation(fetchState);
                     }
                 });
@@ -114,36 +214,141 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
     private void onResponse(
             FetchState fetchState,//fetch状态
             InputStream responseData,//输入流
-            int responseContentLength)
+            int responseContentLength,
+            @Nullable CacheKey cacheKey,
+            @Nullable PartialDownloadCache.Entry partialDownload,
+            @Nullable AtomicBoolean isCancelled)
             throws IOException {
+        final int responseOffset = fetchState.getResponseOffset();
+        if (responseOffset > 0 &&
+                (partialDownload == null || responseOffset != partialDownload.getSize())) {
+            removePartialDownload(cacheKey);
+            throw new IOException("Unexpected response offset " + responseOffset);
+        }
+        final int totalLength =
+                responseContentLength > 0 ? responseOffset + responseContentLength : -1;
         final PooledByteBufferOutputStream pooledOutputStream;
-        if (responseContentLength > 0) {
-            pooledOutputStream = mPooledByteBufferFactory.newOutputStream(responseContentLength);
+        if (totalLength > 0) {
+            pooledOutputStream = mPooledByteBufferFactory.newOutputStream(totalLength);
         }
         else {
             pooledOutputStream = mPooledByteBufferFactory.newOutputStream();
         }
         final byte[] ioArray = mByteArrayPool.get(READ_SIZE);
         try {
+            if (responseOffset > 0) {
+                copyPartialDownload(partialDownload, pooledOutputStream, ioArray);
+            }
             int length;
             while ((length = responseData.read(ioArray)) >= 0) {
                 if (length > 0) {
                     pooledOutputStream.write(ioArray, 0, length);
                     maybeHandleIntermediateResult(pooledOutputStream, fetchState);
-                    float progress = calculateProgress(pooledOutputStream.size(), responseContentLength);
+                    float progress = calculateProgress(pooledOutputStream.size(), totalLength);
                     //更新图片加载的进度
                     fetchState.getConsumer().onProgressUpdate(progress);
                 }
+                if (isCancelled != null && isCancelled.get()) {
+                    // nobody waits for the image anymore, keep what we have for next time
+                    if (!maybeStorePartialDownload(
+                            fetchState,
+                            cacheKey,
+                            pooledOutputStream,
+                            totalLength) && partialDownload != null) {
+                        removePartialDownload(cacheKey);
+                    }
+                    onCancellation(fetchState);
+                    return;
+                }
             }
             mNetworkFetcher.onFetchCompletion(fetchState, pooledOutputStream.size());//标记fetchTime
+            if (partialDownload != null) {
+                removePartialDownload(cacheKey);
+            }
             //通知消费者已经有结果了
             handleFinalResult(pooledOutputStream, fetchState);
+        } catch (IOException ioe) {
+            if (!maybeStorePartialDownload(fetchState, cacheKey, pooledOutputStream, totalLength) &&
+                    partialDownload != null) {
+                removePartialDownload(cacheKey);
+            }
+            throw ioe;
         } finally {
             mByteArrayPool.release(ioArray);
             pooledOutputStream.close();
         }
     }
 
+    private static void copyPartialDownload(
+            PartialDownloadCache.Entry partialDownload,
+            PooledByteBufferOutputStream pooledOutputStream,
+            byte[] ioArray) throws IOException {
+        CloseableReference<PooledByteBuffer> bytesRef = partialDownload.getBytesRef();
+        if (bytesRef == null) {
+            throw new IOException("Partial download was closed");
+        }
+        try {
+            PooledByteBuffer bytes = bytesRef.get();
+            int offset = 0;
+            while (offset < bytes.size()) {
+                int length = Math.min(ioArray.length, bytes.size() - offset);
+                bytes.read(offset, ioArray, 0, length);
+                pooledOutputStream.write(ioArray, 0, length);
+                offset += length;
+            }
+        } finally {
+            CloseableReference.closeSafely(bytesRef);
+        }
+    }
+
+    /**
+     * Keeps the downloaded bytes for the next fetch, replacing the previous partial download.
+     * Downloads that already hold the whole image are not kept, resuming them would ask for a range
+     * past the end of the image.
+     *
+     * @return true if the bytes are being stored
+     */
+    private boolean maybeStorePartialDownload(
+            FetchState fetchState,
+            @Nullable CacheKey cacheKey,
+            PooledByteBufferOutputStream pooledOutputStream,
+            int totalLength) {
+        final int size = pooledOutputStream.size();
+        if (mPartialDownloadCache == null ||
+                cacheKey == null ||
+                size < MIN_PARTIAL_DOWNLOAD_SIZE ||
+                (totalLength > 0 && size >= totalLength)) {
+            return false;
+        }
+        String validator = fetchState.getResponseValidator();
+        if (validator == null && fetchState.getResponseOffset() > 0) {
+            validator = fetchState.getResumeValidator();
+        }
+        if (validator == null) {
+            return false;
+        }
+        CloseableReference<PooledByteBuffer> bytesRef =
+                CloseableReference.of(pooledOutputStream.toByteBuffer());
+        try {
+            mPartialDownloadCache.put(cacheKey, validator, bytesRef);
+        } finally {
+            CloseableReference.closeSafely(bytesRef);
+        }
+        return true;
+    }
+
+    private void removePartialDownload(@Nullable CacheKey cacheKey) {
+        if (mPartialDownloadCache != null && cacheKey != null) {
+            mPartialDownloadCache.remove(cacheKey);
+        }
+    }
+
+    private static void closeSafely(@Nullable PartialDownloadCache.Entry partialDownload) {
+        if (partialDownload != null) {
+            partialDownload.close();
+        }
+    }
+
     private void maybeHandleIntermediateResult(
             PooledByteBufferOutputStream pooledOutputStream,
             FetchState fetchState) {
@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.common.time.RealtimeSinceBootClock;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.image.EncodedImage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Network fetcher that schedules the fetches of another {@link NetworkFetcher}.
+ * <p>
+ * <p> At most <code>maxConcurrentFetches</code> fetches run at the same time, and at most
+ * <code>maxConcurrentFetchesPerHost</code> of them to the same host. Fetches of visible images
+ * (requests that are not prefetches and have {@link Priority#HIGH}) start before any other queued
+ * fetch. Changes of priority or prefetch status are taken into account while a fetch is queued.
+ * <p>
+ * <p> When a visible fetch is waiting because all the slots are taken, a running fetch that is not
+ * visible is paused to make room for it: reading its response blocks, which also stops it from
+ * using bandwidth, until a slot is free again or it becomes visible. Paused fetches keep their
+ * connection and their thread in the delegate, so the delegate must be able to run
+ * <code>maxConcurrentFetches + maxPausedFetches</code> fetches at once.
+ * <p>
+ * <p> The time spent queued and paused and the throughput of the download are added to the extra
+ * map of the delegate.
+ *
+ * @param <FETCH_STATE> the fetch state of the delegate
+ */
+@ThreadSafe
+public class PriorityNetworkFetcher<FETCH_STATE extends FetchState>
+        implements NetworkFetcher<PriorityNetworkFetcher.PriorityFetchState<FETCH_STATE>> {
+
+    public static final String QUEUE_TIME = "scheduler_queue_time";
+    public static final String PAUSED_TIME = "scheduler_paused_time";
+    public static final String THROUGHPUT = "throughput_bytes_per_sec";
+
+    private final NetworkFetcher<FETCH_STATE> mDelegate;
+    private final int mMaxConcurrentFetches;
+    private final int mMaxConcurrentFetchesPerHost;
+    private final int mMaxPausedFetches;
+    private final MonotonicClock mClock;
+
+    @GuardedBy("this")
+    private final LinkedList<PriorityFetchState<FETCH_STATE>> mQueue = new LinkedList<>();
+    @GuardedBy("this")
+    private final List<PriorityFetchState<FETCH_STATE>> mRunning = new ArrayList<>();
+    @GuardedBy("this")
+    private final List<PriorityFetchState<FETCH_STATE>> mPaused = new ArrayList<>();
+    // running and paused fetches per host
+    @GuardedBy("this")
+    private final Map<String, Integer> mFetchesPerHost = new HashMap<>();
+
+    public PriorityNetworkFetcher(
+            NetworkFetcher<FETCH_STATE> delegate,
+            int maxConcurrentFetches,
+            int maxConcurrentFetchesPerHost,
+            int maxPausedFetches) {
+        this(
+                delegate,
+                maxConcurrentFetches,
+                maxConcurrentFetchesPerHost,
+                maxPausedFetches,
+                RealtimeSinceBootClock.get());
+    }
+
+    @VisibleForTesting
+    PriorityNetworkFetcher(
+            NetworkFetcher<FETCH_STATE> delegate,
+            int maxConcurrentFetches,
+            int maxConcurrentFetchesPerHost,
+            int maxPausedFetches,
+            MonotonicClock clock) {
+        Preconditions.checkArgument(maxConcurrentFetches > 0);
+        Preconditions.checkArgument(maxConcurrentFetchesPerHost > 0);
+        Preconditions.checkArgument(maxPausedFetches >= 0);
+        mDelegate = Preconditions.checkNotNull(delegate);
+        mMaxConcurrentFetches = maxConcurrentFetches;
+        mMaxConcurrentFetchesPerHost = maxConcurrentFetchesPerHost;
+        mMaxPausedFetches = maxPausedFetches;
+        mClock = clock;
+    }
+
+    @Override
+    public PriorityFetchState<FETCH_STATE> createFetchState(
+            Consumer<EncodedImage> consumer,
+            ProducerContext producerContext) {
+        return new PriorityFetchState<>(
+                consumer,
+                producerContext,
+                mDelegate.createFetchState(consumer, producerContext));
+    }
+
+    @Override
+    public void fetch(final PriorityFetchState<FETCH_STATE> fetchState, final Callback callback) {
+        synchronized (this) {
+            fetchState.mCallback = callback;
+            fetchState.mEnqueueTime = mClock.now();
+            mQueue.add(fetchState);
+        }
+        fetchState.getContext().addCallbacks(
+                new BaseProducerContextCallbacks() {
+                    @Override
+                    public void onCancellationRequested() {
+                        onFetchCancellationRequested(fetchState);
+                    }
+
+                    @Override
+                    public void onIsPrefetchChanged() {
+                        schedule();
+                    }
+
+                    @Override
+                    public void onPriorityChanged() {
+                        schedule();
+                    }
+                });
+        schedule();
+    }
+
+    @Override
+    public boolean shouldPropagate(PriorityFetchState<FETCH_STATE> fetchState) {
+        return mDelegate.shouldPropagate(fetchState.mDelegateFetchState);
+    }
+
+    @Override
+    public void onFetchCompletion(PriorityFetchState<FETCH_STATE> fetchState, int byteSize) {
+        synchronized (this) {
+            fetchState.mCompletionTime = mClock.now();
+        }
+        mDelegate.onFetchCompletion(fetchState.mDelegateFetchState, byteSize);
+    }
+
+    @Nullable
+    @Override
+    public Map<String, String> getExtraMap(
+            PriorityFetchState<FETCH_STATE> fetchState,
+            int byteSize) {
+        Map<String, String> delegateExtraMap =
+                mDelegate.getExtraMap(fetchState.mDelegateFetchState, byteSize);
+        Map<String, String> extraMap = delegateExtraMap == null ?
+                new HashMap<String, String>(3) :
+                new HashMap<>(delegateExtraMap);
+        synchronized (this) {
+            extraMap.put(QUEUE_TIME, Long.toString(fetchState.mStartTime - fetchState.mEnqueueTime));
+            extraMap.put(PAUSED_TIME, Long.toString(fetchState.mPausedTimeMs));
+            if (fetchState.mCompletionTime > 0) {
+                long activeTimeMs = Math.max(
+                        1,
+                        fetchState.mCompletionTime - fetchState.mStartTime - fetchState.mPausedTimeMs);
+                extraMap.put(THROUGHPUT, Long.toString(byteSize * 1000L / activeTimeMs));
+            }
+        }
+        return extraMap;
+    }
+
+    /**
+     * Gets the number of fetches that have not been handed to the delegate yet.
+     */
+    public synchronized int getQueueSize() {
+        return mQueue.size();
+    }
+
+    /**
+     * Gets the number of fetches that were handed to the delegate and are paused.
+     */
+    public synchronized int getPausedCount() {
+        return mPaused.size();
+    }
+
+    /**
+     * Starts, resumes and pauses fetches until the constraints are met.
+     */
+    private void schedule() {
+        List<PriorityFetchState<FETCH_STATE>> toStart = new ArrayList<>();
+        synchronized (this) {
+            PriorityFetchState<FETCH_STATE> candidate;
+            while ((candidate = getNextCandidate()) != null) {
+                if (mRunning.size() >= mMaxConcurrentFetches &&
+                        (!isVisible(candidate) || !pauseRunningFetch())) {
+                    break;
+                }
+                if (mPaused.remove(candidate)) {
+                    resume(candidate);
+                }
+                else {
+                    mQueue.remove(candidate);
+                    mRunning.add(candidate);
+                    incrementFetchesForHost(candidate.mHost, 1);
+                    candidate.mStartTime = mClock.now();
+                    toStart.add(candidate);
+                }
+            }
+        }
+        for (PriorityFetchState<FETCH_STATE> fetchState : toStart) {
+            if (fetchState.getResumeOffset() > 0) {
+                fetchState.mDelegateFetchState.setResumeFrom(
+                        fetchState.getResumeOffset(),
+                        fetchState.getResumeValidator());
+            }
+            mDelegate.fetch(fetchState.mDelegateFetchState, new DelegateCallback(fetchState));
+        }
+    }
+
+    /**
+     * Gets the fetch that should get the next free slot: visible fetches first, paused ones before
+     * queued ones, and queued ones in submission order.
+     */
+    @GuardedBy("this")
+    @Nullable
+    private PriorityFetchState<FETCH_STATE> getNextCandidate() {
+        for (PriorityFetchState<FETCH_STATE> fetchState : mPaused) {
+            if (isVisible(fetchState)) {
+                return fetchState;
+            }
+        }
+        for (PriorityFetchState<FETCH_STATE> fetchState : mQueue) {
+            if (isVisible(fetchState) && hasCapacityForHost(fetchState.mHost)) {
+                return fetchState;
+            }
+        }
+        if (!mPaused.isEmpty()) {
+            return mPaused.get(0);
+        }
+        for (PriorityFetchState<FETCH_STATE> fetchState : mQueue) {
+            if (hasCapacityForHost(fetchState.mHost)) {
+                return fetchState;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pauses the most recently started fetch that is not visible, if any.
+     *
+     * @return true if a fetch was paused
+     */
+    @GuardedBy("this")
+    private boolean pauseRunningFetch() {
+        if (mPaused.size() >= mMaxPausedFetches) {
+            return false;
+        }
+        for (int i = mRunning.size() - 1; i >= 0; i--) {
+            PriorityFetchState<FETCH_STATE> fetchState = mRunning.get(i);
+            if (!isVisible(fetchState)) {
+                mRunning.remove(i);
+                mPaused.add(fetchState);
+                fetchState.mPausedSince = mClock.now();
+                fetchState.setPaused(true);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @GuardedBy("this")
+    private void resume(PriorityFetchState<FETCH_STATE> fetchState) {
+        mRunning.add(fetchState);
+        fetchState.mPausedTimeMs += mClock.now() - fetchState.mPausedSince;
+        fetchState.setPaused(false);
+    }
+
+    private void onFetchCancellationRequested(PriorityFetchState<FETCH_STATE> fetchState) {
+        boolean wasQueued;
+        synchronized (this) {
+            wasQueued = mQueue.remove(fetchState);
+            if (mPaused.remove(fetchState)) {
+                // let the delegate see the cancellation
+                resume(fetchState);
+            }
+        }
+        if (wasQueued) {
+            fetchState.mCallback.onCancellation();
+        }
+    }
+
+    private void onFetchFinished(PriorityFetchState<FETCH_STATE> fetchState) {
+        synchronized (this) {
+            if (fetchState.mFinished) {
+                return;
+            }
+            fetchState.mFinished = true;
+            if (!mRunning.remove(fetchState) && mPaused.remove(fetchState)) {
+                fetchState.setPaused(false);
+            }
+            incrementFetchesForHost(fetchState.mHost, -1);
+        }
+        schedule();
+    }
+
+    @GuardedBy("this")
+    private boolean hasCapacityForHost(String host) {
+        Integer count = mFetchesPerHost.get(host);
+        return count == null || count < mMaxConcurrentFetchesPerHost;
+    }
+
+    @GuardedBy("this")
+    private void incrementFetchesForHost(String host, int increment) {
+        Integer count = mFetchesPerHost.get(host);
+        int newCount = (count == null ? 0 : count) + increment;
+        if (newCount > 0) {
+            mFetchesPerHost.put(host, newCount);
+        }
+        else {
+            mFetchesPerHost.remove(host);
+        }
+    }
+
+    private static boolean isVisible(FetchState fetchState) {
+        ProducerContext context = fetchState.getContext();
+        return !context.isPrefetch() && context.getPriority() == Priority.HIGH;
+    }
+
+    /**
+     * Forwards the callbacks of the delegate and releases the slot of the fetch.
+     */
+    private class DelegateCallback implements Callback {
+        private final PriorityFetchState<FETCH_STATE> mFetchState;
+
+        DelegateCallback(PriorityFetchState<FETCH_STATE> fetchState) {
+            mFetchState = fetchState;
+        }
+
+        @Override
+        public void onResponse(InputStream response, int responseLength) throws IOException {
+            mFetchState.setResponseOffset(mFetchState.mDelegateFetchState.getResponseOffset());
+            mFetchState.setResponseValidator(
+                    mFetchState.mDelegateFetchState.getResponseValidator());
+            try {
+                mFetchState.mCallback.onResponse(
+                        new PausableInputStream(response, mFetchState),
+                        responseLength);
+            } finally {
+                onFetchFinished(mFetchState);
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable throwable) {
+            onFetchFinished(mFetchState);
+            mFetchState.mCallback.onFailure(throwable);
+        }
+
+        @Override
+        public void onCancellation() {
+            onFetchFinished(mFetchState);
+            mFetchState.mCallback.onCancellation();
+        }
+    }
+
+    /**
+     * Response stream whose reads block while the fetch is paused.
+     */
+    private static class PausableInputStream extends FilterInputStream {
+        private final PriorityFetchState<?> mFetchState;
+
+        PausableInputStream(InputStream inputStream, PriorityFetchState<?> fetchState) {
+            super(inputStream);
+            mFetchState = fetchState;
+        }
+
+        @Override
+        public int read() throws IOException {
+            mFetchState.waitWhilePaused();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            mFetchState.waitWhilePaused();
+            return super.read(buffer, offset, count);
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            mFetchState.waitWhilePaused();
+            return super.skip(byteCount);
+        }
+    }
+
+    /**
+     * Fetch state of a scheduled fetch, wrapping the fetch state of the delegate.
+     * <p>
+     * <p> Apart from the paused flag, the fields are guarded by the fetcher.
+     */
+    public static class PriorityFetchState<FETCH_STATE extends FetchState> extends FetchState {
+        final FETCH_STATE mDelegateFetchState;
+        final String mHost;
+        Callback mCallback;
+        long mEnqueueTime;
+        long mStartTime;
+        long mPausedSince;
+        long mPausedTimeMs;
+        long mCompletionTime;
+        boolean mFinished;
+
+        @GuardedBy("this")
+        private boolean mPaused;
+
+        PriorityFetchState(
+                Consumer<EncodedImage> consumer,
+                ProducerContext producerContext,
+                FETCH_STATE delegateFetchState) {
+            super(consumer, producerContext);
+            mDelegateFetchState = delegateFetchState;
+            String host = getUri().getHost();
+            mHost = host == null ? "" : host;
+        }
+
+        public FETCH_STATE getDelegateFetchState() {
+            return mDelegateFetchState;
+        }
+
+        public synchronized boolean isPaused() {
+            return mPaused;
+        }
+
+        synchronized void setPaused(boolean paused) {
+            mPaused = paused;
+            if (!paused) {
+                notifyAll();
+            }
+        }
+
+        synchronized void waitWhilePaused() throws InterruptedIOException {
+            while (mPaused) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while the fetch was paused");
+                }
+            }
+        }
+    }
+}
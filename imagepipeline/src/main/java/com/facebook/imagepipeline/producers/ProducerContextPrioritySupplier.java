@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
+import com.facebook.imagepipeline.common.Priority;
+
+/**
+ * Supplies the current priority of a {@link ProducerContext}.
+ * <p>
+ * <p> Used to tag the work a producer submits to an executor, see
+ * {@link com.facebook.imagepipeline.core.PrioritizedRunnable}.
+ */
+public class ProducerContextPrioritySupplier implements Supplier<Priority> {
+
+    private final ProducerContext mProducerContext;
+
+    public ProducerContextPrioritySupplier(ProducerContext producerContext) {
+        mProducerContext = Preconditions.checkNotNull(producerContext);
+    }
+
+    @Override
+    public Priority get() {
+        return mProducerContext.getPriority();
+    }
+}
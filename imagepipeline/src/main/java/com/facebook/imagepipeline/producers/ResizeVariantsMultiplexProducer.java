@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import android.graphics.Bitmap;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.Objects;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.util.HashCodeUtil;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.common.RotationOptions;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.CloseableStaticBitmap;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Multiplex producer that combines requests for different sizes of the same image.
+ * <p>
+ * <p> Requests are combined by their encoded cache key, so requests that only differ in their
+ * {@link ResizeOptions} share one encoded fetch and one decode. The decode runs with the largest
+ * of the requested sizes, and each request whose size is at most half of the decoded image gets
+ * a copy scaled down to its size. A request that arrives while a smaller decode is running
+ * starts a decode of its own, which later requests join instead.
+ * <p>
+ * <p> This producer sits below the {@link BitmapMemoryCacheProducer}, so every size is still
+ * cached under its own key. Only final results are scaled, intermediate results are passed on
+ * as decoded.
+ */
+public class ResizeVariantsMultiplexProducer extends
+        MultiplexProducer<ResizeVariantsMultiplexProducer.VariantsKey,
+                CloseableReference<CloseableImage>> {
+
+    private static final String TAG = "ResizeVariantsMultiplexProducer";
+
+    /**
+     * Results more than this many times larger than the request, in both dimensions, are scaled
+     * down. Smaller results are what decoding with a sample size of 1 would have produced anyway.
+     */
+    @VisibleForTesting
+    static final float MAX_UNSCALED_RATIO = 2.0f;
+
+    private final CacheKeyFactory mCacheKeyFactory;
+    private final PlatformBitmapFactory mPlatformBitmapFactory;
+
+    public ResizeVariantsMultiplexProducer(
+            CacheKeyFactory cacheKeyFactory,
+            PlatformBitmapFactory platformBitmapFactory,
+            Producer<CloseableReference<CloseableImage>> inputProducer) {
+        super(inputProducer);
+        mCacheKeyFactory = cacheKeyFactory;
+        mPlatformBitmapFactory = platformBitmapFactory;
+    }
+
+    @Override
+    public void produceResults(
+            Consumer<CloseableReference<CloseableImage>> consumer,
+            ProducerContext context) {
+        super.produceResults(new ResizeVariantConsumer(consumer, context), context);
+    }
+
+    @Override
+    protected VariantsKey getKey(ProducerContext producerContext) {
+        final ImageRequest imageRequest = producerContext.getImageRequest();
+        return new VariantsKey(
+                mCacheKeyFactory.getEncodedCacheKey(
+                        imageRequest,
+                        producerContext.getCallerContext()),
+                imageRequest.getRotationOptions(),
+                imageRequest.getImageDecodeOptions(),
+                producerContext.getLowestPermittedRequestLevel(),
+                imageRequest.isDiskCacheEnabled());
+    }
+
+    @Override
+    protected boolean canServe(
+            ProducerContext multiplexedContext,
+            ProducerContext producerContext) {
+        return covers(
+                multiplexedContext.getImageRequest().getResizeOptions(),
+                producerContext.getImageRequest().getResizeOptions());
+    }
+
+    @Override
+    protected ImageRequest getMultiplexedImageRequest(List<ProducerContext> producerContexts) {
+        final ImageRequest firstRequest = producerContexts.get(0).getImageRequest();
+        ResizeOptions largest = firstRequest.getResizeOptions();
+        boolean firstCoversAll = true;
+        for (int i = 1; i < producerContexts.size() && largest != null; i++) {
+            final ResizeOptions resizeOptions =
+                    producerContexts.get(i).getImageRequest().getResizeOptions();
+            if (!covers(largest, resizeOptions)) {
+                firstCoversAll = false;
+                largest = union(largest, resizeOptions);
+            }
+        }
+        if (firstCoversAll) {
+            return firstRequest;
+        }
+        // fromRequest does not copy these, and the multiplexed request must read and write the
+        // caches the way the original requests would
+        final ImageRequestBuilder builder = ImageRequestBuilder.fromRequest(firstRequest)
+                .setResizeOptions(largest)
+                .setMediaVariations(firstRequest.getMediaVariations());
+        if (!firstRequest.isDiskCacheEnabled()) {
+            builder.disableDiskCache();
+        }
+        return builder.build();
+    }
+
+    @Override
+    public CloseableReference<CloseableImage> cloneOrNull(
+            CloseableReference<CloseableImage> closeableImage) {
+        return CloseableReference.cloneOrNull(closeableImage);
+    }
+
+    /**
+     * @return true if an image decoded for {@code larger} is good enough for {@code smaller};
+     * null stands for the full size
+     */
+    @VisibleForTesting
+    static boolean covers(@Nullable ResizeOptions larger, @Nullable ResizeOptions smaller) {
+        if (larger == null) {
+            return true;
+        }
+        return smaller != null && larger.width >= smaller.width && larger.height >= smaller.height;
+    }
+
+    @Nullable
+    private static ResizeOptions union(ResizeOptions first, @Nullable ResizeOptions second) {
+        if (second == null) {
+            return null;
+        }
+        return new ResizeOptions(
+                Math.max(first.width, second.width),
+                Math.max(first.height, second.height),
+                Math.max(first.maxBitmapSize, second.maxBitmapSize),
+                first.roundUpFraction);
+    }
+
+    /**
+     * Returns the factor to scale a bitmap by for the given request, or 1 if it should be passed
+     * on as is. The factor keeps the aspect ratio and the result at least as large as requested.
+     *
+     * @param width         the width of the decoded bitmap
+     * @param height        the height of the decoded bitmap
+     * @param rotationAngle the rotation still to be applied to the bitmap when it is drawn
+     * @param resizeOptions the size of the request, null for the full size
+     */
+    @VisibleForTesting
+    static float getScale(
+            int width,
+            int height,
+            int rotationAngle,
+            @Nullable ResizeOptions resizeOptions) {
+        if (resizeOptions == null || width <= 0 || height <= 0) {
+            return 1.0f;
+        }
+        final boolean swapDimensions = rotationAngle == 90 || rotationAngle == 270;
+        final int widthAfterRotation = swapDimensions ? height : width;
+        final int heightAfterRotation = swapDimensions ? width : height;
+        final float scale = Math.max(
+                ((float) resizeOptions.width) / widthAfterRotation,
+                ((float) resizeOptions.height) / heightAfterRotation);
+        return scale * MAX_UNSCALED_RATIO > 1.0f ? 1.0f : scale;
+    }
+
+    /**
+     * Scales final results down to the size of its request.
+     */
+    private class ResizeVariantConsumer extends DelegatingConsumer<
+            CloseableReference<CloseableImage>,
+            CloseableReference<CloseableImage>> {
+
+        private final ProducerContext mProducerContext;
+
+        ResizeVariantConsumer(
+                Consumer<CloseableReference<CloseableImage>> consumer,
+                ProducerContext producerContext) {
+            super(consumer);
+            mProducerContext = producerContext;
+        }
+
+        @Override
+        protected void onNewResultImpl(
+                CloseableReference<CloseableImage> newResult,
+                boolean isLast) {
+            if (!isLast || newResult == null ||
+                    !(newResult.get() instanceof CloseableStaticBitmap)) {
+                getConsumer().onNewResult(newResult, isLast);
+                return;
+            }
+            final CloseableStaticBitmap staticBitmap = (CloseableStaticBitmap) newResult.get();
+            final Bitmap bitmap = staticBitmap.getUnderlyingBitmap();
+            final float scale = getScale(
+                    bitmap.getWidth(),
+                    bitmap.getHeight(),
+                    staticBitmap.getRotationAngle(),
+                    mProducerContext.getImageRequest().getResizeOptions());
+            if (scale >= 1.0f) {
+                getConsumer().onNewResult(newResult, isLast);
+                return;
+            }
+
+            CloseableReference<Bitmap> scaledBitmapRef;
+            try {
+                scaledBitmapRef = mPlatformBitmapFactory.createScaledBitmap(
+                        bitmap,
+                        (int) Math.ceil(bitmap.getWidth() * scale),
+                        (int) Math.ceil(bitmap.getHeight() * scale),
+                        true,
+                        mProducerContext.getCallerContext());
+            } catch (RuntimeException e) {
+                // the larger bitmap is still correct, just bigger than needed
+                FLog.w(TAG, e, "Failed to scale down %s", mProducerContext.getId());
+                getConsumer().onNewResult(newResult, isLast);
+                return;
+            }
+            CloseableReference<CloseableImage> scaledResult = null;
+            try {
+                scaledResult = CloseableReference.<CloseableImage>of(
+                        new CloseableStaticBitmap(
+                                scaledBitmapRef,
+                                staticBitmap.getQualityInfo(),
+                                staticBitmap.getRotationAngle()));
+                getConsumer().onNewResult(scaledResult, isLast);
+            } finally {
+                CloseableReference.closeSafely(scaledResult);
+                CloseableReference.closeSafely(scaledBitmapRef);
+            }
+        }
+    }
+
+    /**
+     * Identifies the decoded image apart from its size.
+     */
+    static class VariantsKey {
+        private final CacheKey mEncodedCacheKey;
+        private final RotationOptions mRotationOptions;
+        private final ImageDecodeOptions mImageDecodeOptions;
+        private final ImageRequest.RequestLevel mLowestPermittedRequestLevel;
+        private final boolean mIsDiskCacheEnabled;
+        private final int mHash;
+
+        VariantsKey(
+                CacheKey encodedCacheKey,
+                RotationOptions rotationOptions,
+                ImageDecodeOptions imageDecodeOptions,
+                ImageRequest.RequestLevel lowestPermittedRequestLevel,
+                boolean isDiskCacheEnabled) {
+            mEncodedCacheKey = encodedCacheKey;
+            mRotationOptions = rotationOptions;
+            mImageDecodeOptions = imageDecodeOptions;
+            mLowestPermittedRequestLevel = lowestPermittedRequestLevel;
+            mIsDiskCacheEnabled = isDiskCacheEnabled;
+            mHash = HashCodeUtil.hashCode(
+                    encodedCacheKey,
+                    rotationOptions,
+                    imageDecodeOptions,
+                    lowestPermittedRequestLevel,
+                    isDiskCacheEnabled);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof VariantsKey)) {
+                return false;
+            }
+            VariantsKey otherKey = (VariantsKey) o;
+            return mHash == otherKey.mHash &&
+                    Objects.equal(mEncodedCacheKey, otherKey.mEncodedCacheKey) &&
+                    Objects.equal(mRotationOptions, otherKey.mRotationOptions) &&
+                    Objects.equal(mImageDecodeOptions, otherKey.mImageDecodeOptions) &&
+                    mLowestPermittedRequestLevel == otherKey.mLowestPermittedRequestLevel &&
+                    mIsDiskCacheEnabled == otherKey.mIsDiskCacheEnabled;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+    }
+}
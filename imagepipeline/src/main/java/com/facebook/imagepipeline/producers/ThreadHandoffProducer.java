@@ -11,6 +11,7 @@ package com.facebook.imagepipeline.producers;
 
 
 import com.facebook.common.internal.Preconditions;
+import com.facebook.imagepipeline.core.PrioritizedRunnable;
 
 /**
  * Uses ExecutorService to move further computation to different thread
@@ -52,14 +53,16 @@ public class ThreadHandoffProducer<T> implements Producer<T> {
                 return null;
             }
         };
+        final Runnable prioritizedRunnable =
+                new PrioritizedRunnable(statefulRunnable, new ProducerContextPrioritySupplier(context));
         context.addCallbacks(
                 new BaseProducerContextCallbacks() {
                     @Override
                     public void onCancellationRequested() {
                         statefulRunnable.cancel();
-                        mThreadHandoffProducerQueue.remove(statefulRunnable);
+                        mThreadHandoffProducerQueue.remove(prioritizedRunnable);
                     }
                 });
-        mThreadHandoffProducerQueue.addToQueueOrExecute(statefulRunnable);
+        mThreadHandoffProducerQueue.addToQueueOrExecute(prioritizedRunnable);
     }
 }
@@ -21,6 +21,7 @@
 using facebook::imagepipeline::getRotationTypeFromDegrees;
 using facebook::imagepipeline::RotationType;
 using facebook::imagepipeline::ScaleFactor;
+using facebook::imagepipeline::jpeg::recompressJpeg;
 using facebook::imagepipeline::jpeg::transformJpeg;
 
 static void JpegTranscoder_transcodeJpeg(
@@ -45,10 +46,22 @@ static void JpegTranscoder_transcodeJpeg(
       quality);
 }
 
+static void JpegTranscoder_recompressJpeg(
+    JNIEnv* env,
+    jclass /* clzz */,
+    jobject is,
+    jobject os,
+    jint quality) {
+  recompressJpeg(env, is, os, quality);
+}
+
 static JNINativeMethod gJpegTranscoderMethods[] = {
   { "nativeTranscodeJpeg",
     "(Ljava/io/InputStream;Ljava/io/OutputStream;III)V",
     (void*) JpegTranscoder_transcodeJpeg },
+  { "nativeRecompressJpeg",
+    "(Ljava/io/InputStream;Ljava/io/OutputStream;I)V",
+    (void*) JpegTranscoder_recompressJpeg },
 };
 
 bool registerJpegTranscoderMethods(JNIEnv* env) {
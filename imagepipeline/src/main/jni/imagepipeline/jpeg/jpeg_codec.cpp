@@ -370,4 +370,19 @@ void transformJpeg(
   }
 }
 
+void recompressJpeg(
+    JNIEnv* env,
+    jobject is,
+    jobject os,
+    int quality) {
+  JpegInputStreamWrapper is_wrapper{env, is};
+  JpegOutputStreamWrapper os_wrapper{env, os};
+  resizeJpeg(
+      env,
+      is_wrapper.public_fields,
+      os_wrapper.public_fields,
+      ScaleFactor{8, 8},
+      quality);
+}
+
 } } }
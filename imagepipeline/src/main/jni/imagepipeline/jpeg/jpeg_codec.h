@@ -54,6 +54,21 @@ void transformJpeg(
     const ScaleFactor& scale_factor,
     int quality);
 
+/**
+ * Decodes jpeg image and encodes it again with given quality, keeping
+ * its dimensions and markers
+ *
+ * @param env
+ * @param is InputStream
+ * @param os OutputStream
+ * @param quality
+ */
+void recompressJpeg(
+    JNIEnv* env,
+    jobject is,
+    jobject os,
+    int quality);
+
 } } }
 
 #endif /* _JPEG_CODEC_H_ */
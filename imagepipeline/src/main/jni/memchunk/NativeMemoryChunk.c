@@ -94,6 +94,19 @@ static jbyte NativeMemoryChunk_nativeReadByte(
   return *jbyte_ptr;
 }
 
+static jlong NativeMemoryChunk_nativeGetDirectBufferAddress(
+    JNIEnv* env,
+    jclass clzz,
+    jobject buffer) {
+  UNUSED(clzz);
+  void* pointer = (*env)->GetDirectBufferAddress(env, buffer);
+  if (!pointer) {
+    (*env)->ThrowNew(env, jRuntimeException_class, "not a direct buffer");
+    return 0;
+  }
+  return PTR_TO_JLONG(pointer);
+}
+
 static JNINativeMethod gNativeMemoryChunkMethods[] = {
   { "nativeAllocate", "(I)J", (void*) NativeMemoryChunk_nativeAllocate },
   { "nativeFree", "(J)V", (void*) NativeMemoryChunk_nativeFree },
@@ -103,6 +116,8 @@ static JNINativeMethod gNativeMemoryChunkMethods[] = {
     (void*) NativeMemoryChunk_nativeCopyFromByteArray },
   { "nativeMemcpy", "(JJI)V", (void*) NativeMemoryChunk_nativeMemcpy },
   { "nativeReadByte", "(J)B", (void*) NativeMemoryChunk_nativeReadByte },
+  { "nativeGetDirectBufferAddress", "(Ljava/nio/ByteBuffer;)J",
+    (void*) NativeMemoryChunk_nativeGetDirectBufferAddress },
 };
 
 /**
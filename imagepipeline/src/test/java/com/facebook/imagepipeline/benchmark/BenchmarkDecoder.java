@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.benchmark;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.v4.util.Pools;
+
+import com.facebook.common.internal.Throwables;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.memory.BitmapPool;
+import com.facebook.imagepipeline.platform.ArtDecoder;
+import com.facebook.imageutils.BitmapUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link ArtDecoder} for the JVM, where the framework cannot decode images.
+ * <p>
+ * <p> Everything but the decode itself is left to {@link ArtDecoder}: the decoded size is worked
+ * out from the encoded image's header and the sample size, and a bitmap of that size is taken from
+ * the pool. Instead of decoding into it, the encoded bytes are read through once. The bitmaps
+ * handed out have the right allocation size but not the decoded dimensions, which is all the
+ * caches and pools look at.
+ */
+public class BenchmarkDecoder extends ArtDecoder {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final BitmapPool mBitmapPool;
+
+    public BenchmarkDecoder(BitmapPool bitmapPool, int maxNumThreads) {
+        super(bitmapPool, maxNumThreads, new Pools.SynchronizedPool<>(maxNumThreads));
+        mBitmapPool = bitmapPool;
+    }
+
+    @Override
+    protected CloseableReference<Bitmap> decodeStaticImageFromStream(
+            InputStream inputStream,
+            BitmapFactory.Options options) {
+        final int sizeInBytes = BitmapUtil.getSizeInByteForBitmap(
+                options.outWidth,
+                options.outHeight,
+                options.inPreferredConfig);
+        final Bitmap bitmap = mBitmapPool.get(sizeInBytes);
+        try {
+            final byte[] buffer = new byte[READ_BUFFER_SIZE];
+            while (inputStream.read(buffer) != -1) {
+                // the bytes are read like a decoder would, but not decoded
+            }
+        } catch (IOException e) {
+            mBitmapPool.release(bitmap);
+            throw Throwables.propagate(e);
+        }
+        return CloseableReference.of(bitmap, mBitmapPool);
+    }
+}
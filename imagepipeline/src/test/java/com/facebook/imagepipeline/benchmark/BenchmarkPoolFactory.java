@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.benchmark;
+
+import com.facebook.imagepipeline.memory.BasePool;
+import com.facebook.imagepipeline.memory.NativeMemoryChunk;
+import com.facebook.imagepipeline.memory.NativeMemoryChunkPool;
+import com.facebook.imagepipeline.memory.PoolConfig;
+import com.facebook.imagepipeline.memory.PoolFactory;
+import com.facebook.imagepipeline.memory.PoolStatsTracker;
+import com.facebook.imagepipeline.memory.PooledByteBuffer;
+import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
+import com.facebook.imagepipeline.memory.PooledByteBufferOutputStream;
+import com.facebook.imagepipeline.testing.FakeNativeMemoryChunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PoolFactory} that runs on the JVM and measures how the pipeline uses its pools.
+ * <p>
+ * <p> Native memory chunks are backed by byte arrays. The bitmap and native memory chunk pools
+ * report to {@link PeakMemoryTracker}s, and the bytes written into pooled byte buffers are
+ * counted: that is every byte the pipeline copies out of the network or the disk cache.
+ */
+public class BenchmarkPoolFactory extends PoolFactory {
+
+    private final PoolConfig mPoolConfig;
+    private final PeakMemoryTracker mNativeMemoryChunkPoolTracker;
+    private final AtomicLong mBytesCopied = new AtomicLong();
+    private NativeMemoryChunkPool mNativeMemoryChunkPool;
+    private PooledByteBufferFactory mPooledByteBufferFactory;
+
+    public static BenchmarkPoolFactory create(PeakMemoryTracker bitmapPoolTracker) {
+        final PeakMemoryTracker nativeMemoryChunkPoolTracker = new PeakMemoryTracker();
+        return new BenchmarkPoolFactory(
+                PoolConfig.newBuilder()
+                        .setBitmapPoolStatsTracker(bitmapPoolTracker)
+                        .setNativeMemoryChunkPoolStatsTracker(nativeMemoryChunkPoolTracker)
+                        .build(),
+                nativeMemoryChunkPoolTracker);
+    }
+
+    private BenchmarkPoolFactory(
+            PoolConfig poolConfig,
+            PeakMemoryTracker nativeMemoryChunkPoolTracker) {
+        super(poolConfig);
+        mPoolConfig = poolConfig;
+        mNativeMemoryChunkPoolTracker = nativeMemoryChunkPoolTracker;
+    }
+
+    public PeakMemoryTracker getNativeMemoryChunkPoolTracker() {
+        return mNativeMemoryChunkPoolTracker;
+    }
+
+    public long getBytesCopied() {
+        return mBytesCopied.get();
+    }
+
+    @Override
+    public synchronized NativeMemoryChunkPool getNativeMemoryChunkPool() {
+        if (mNativeMemoryChunkPool == null) {
+            mNativeMemoryChunkPool = new NativeMemoryChunkPool(
+                    mPoolConfig.getMemoryTrimmableRegistry(),
+                    mPoolConfig.getNativeMemoryChunkPoolParams(),
+                    mPoolConfig.getNativeMemoryChunkPoolStatsTracker()) {
+                @Override
+                protected NativeMemoryChunk alloc(int bucketedSize) {
+                    return new FakeNativeMemoryChunk(bucketedSize);
+                }
+            };
+        }
+        return mNativeMemoryChunkPool;
+    }
+
+    @Override
+    public synchronized PooledByteBufferFactory getPooledByteBufferFactory() {
+        if (mPooledByteBufferFactory == null) {
+            mPooledByteBufferFactory =
+                    new CountingPooledByteBufferFactory(super.getPooledByteBufferFactory());
+        }
+        return mPooledByteBufferFactory;
+    }
+
+    /**
+     * Tracks the number of bytes a pool holds, in use or free, and the peak of that number.
+     */
+    public static class PeakMemoryTracker implements PoolStatsTracker {
+        private long mAllocatedBytes;
+        private long mPeakAllocatedBytes;
+
+        public synchronized long getPeakAllocatedBytes() {
+            return mPeakAllocatedBytes;
+        }
+
+        @Override
+        public void setBasePool(BasePool basePool) {
+        }
+
+        @Override
+        public void onValueReuse(int bucketedSize) {
+        }
+
+        @Override
+        public void onSoftCapReached() {
+        }
+
+        @Override
+        public void onHardCapReached() {
+        }
+
+        @Override
+        public synchronized void onAlloc(int size) {
+            mAllocatedBytes += size;
+            mPeakAllocatedBytes = Math.max(mPeakAllocatedBytes, mAllocatedBytes);
+        }
+
+        @Override
+        public synchronized void onFree(int sizeInBytes) {
+            mAllocatedBytes -= sizeInBytes;
+        }
+
+        @Override
+        public void onValueRelease(int sizeInBytes) {
+        }
+    }
+
+    private class CountingPooledByteBufferFactory implements PooledByteBufferFactory {
+        private final PooledByteBufferFactory mDelegate;
+
+        CountingPooledByteBufferFactory(PooledByteBufferFactory delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public PooledByteBuffer newByteBuffer(int size) {
+            return mDelegate.newByteBuffer(size);
+        }
+
+        @Override
+        public PooledByteBuffer newByteBuffer(InputStream inputStream) throws IOException {
+            return count(mDelegate.newByteBuffer(inputStream));
+        }
+
+        @Override
+        public PooledByteBuffer newByteBuffer(byte[] bytes) {
+            return count(mDelegate.newByteBuffer(bytes));
+        }
+
+        @Override
+        public PooledByteBuffer newByteBuffer(
+                InputStream inputStream,
+                int initialCapacity) throws IOException {
+            return count(mDelegate.newByteBuffer(inputStream, initialCapacity));
+        }
+
+        @Override
+        public PooledByteBufferOutputStream newOutputStream() {
+            return new CountingOutputStream(mDelegate.newOutputStream());
+        }
+
+        @Override
+        public PooledByteBufferOutputStream newOutputStream(int initialCapacity) {
+            return new CountingOutputStream(mDelegate.newOutputStream(initialCapacity));
+        }
+
+        private PooledByteBuffer count(PooledByteBuffer pooledByteBuffer) {
+            mBytesCopied.addAndGet(pooledByteBuffer.size());
+            return pooledByteBuffer;
+        }
+    }
+
+    private class CountingOutputStream extends PooledByteBufferOutputStream {
+        private final PooledByteBufferOutputStream mDelegate;
+
+        CountingOutputStream(PooledByteBufferOutputStream delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public PooledByteBuffer toByteBuffer() {
+            return mDelegate.toByteBuffer();
+        }
+
+        @Override
+        public int size() {
+            return mDelegate.size();
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            mDelegate.write(oneByte);
+            mBytesCopied.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            mDelegate.write(buffer, offset, count);
+            mBytesCopied.addAndGet(count);
+        }
+
+        @Override
+        public void close() {
+            mDelegate.close();
+        }
+    }
+}
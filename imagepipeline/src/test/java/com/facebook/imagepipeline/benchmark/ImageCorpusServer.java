@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.benchmark;
+
+import android.net.Uri;
+
+import com.facebook.common.internal.Closeables;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.logging.FLog;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal HTTP/1.1 server on the loopback interface that stands in for an image CDN.
+ * <p>
+ * <p> {@code GET /images/<item>} returns image {@code item} modulo the size of the corpus, so any
+ * number of distinct URIs can be served from a small set of files. Every connection serves a
+ * single request and range requests are answered with the full image, which is what a server
+ * that ignores the Range header does.
+ */
+public class ImageCorpusServer implements Closeable {
+
+    private static final String TAG = "ImageCorpusServer";
+    private static final String IMAGES_PATH = "/images/";
+
+    private final List<byte[]> mImages;
+    private final int mResponseDelayMs;
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutorService;
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mBytesServed = new AtomicLong();
+
+    /**
+     * @param images          the corpus
+     * @param responseDelayMs time to wait before answering each request, to simulate the latency
+     *                        of a real network
+     */
+    public ImageCorpusServer(List<byte[]> images, int responseDelayMs) throws IOException {
+        Preconditions.checkArgument(!images.isEmpty());
+        mImages = images;
+        mResponseDelayMs = responseDelayMs;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutorService = Executors.newCachedThreadPool();
+        mExecutorService.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        acceptConnections();
+                    }
+                });
+    }
+
+    public Uri getImageUri(int item) {
+        return Uri.parse("http://127.0.0.1:" + mServerSocket.getLocalPort() + IMAGES_PATH + item);
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public long getBytesServed() {
+        return mBytesServed.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+        mExecutorService.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (SocketException e) {
+                // closed
+                return;
+            } catch (IOException e) {
+                FLog.w(TAG, e, "Failed to accept connection");
+                continue;
+            }
+            mExecutorService.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                serve(socket);
+                            } catch (IOException e) {
+                                // the client went away, e.g. because the request was cancelled
+                                FLog.v(TAG, e, "Failed to serve request");
+                            } finally {
+                                try {
+                                    Closeables.close(socket, true);
+                                } catch (IOException e) {
+                                    // swallowed
+                                }
+                            }
+                        }
+                    });
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        final String requestLine = reader.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        // skip the headers
+        String header;
+        do {
+            header = reader.readLine();
+        } while (header != null && !header.isEmpty());
+
+        final String[] parts = requestLine.split(" ");
+        final OutputStream outputStream = socket.getOutputStream();
+        if (parts.length != 3 || !"GET".equals(parts[0]) || !parts[1].startsWith(IMAGES_PATH)) {
+            writeResponse(outputStream, "400 Bad Request", new byte[0]);
+            return;
+        }
+        final int item;
+        try {
+            item = Integer.parseInt(parts[1].substring(IMAGES_PATH.length()));
+        } catch (NumberFormatException e) {
+            writeResponse(outputStream, "404 Not Found", new byte[0]);
+            return;
+        }
+        if (mResponseDelayMs > 0) {
+            try {
+                Thread.sleep(mResponseDelayMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+        mRequestCount.incrementAndGet();
+        final byte[] image = mImages.get(Math.abs(item % mImages.size()));
+        writeResponse(outputStream, "200 OK", image);
+        mBytesServed.addAndGet(image.length);
+    }
+
+    private static void writeResponse(
+            OutputStream outputStream,
+            String status,
+            byte[] body) throws IOException {
+        final String headers = "HTTP/1.1 " + status + "\r\n" +
+                "Content-Type: application/octet-stream\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "Connection: close\r\n" +
+                "\r\n";
+        outputStream.write(headers.getBytes("US-ASCII"));
+        outputStream.write(body);
+        outputStream.flush();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.benchmark;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metrics of one replay of a {@link ScrollTrace}, and how they compare to a baseline.
+ * <p>
+ * <p> Metrics are flat names mapped to numbers, written as a JSON object so that results of
+ * different versions can be diffed by scripts. Every metric has a direction: throughput and hit
+ * ratios should not go down, latencies, memory and copies should not go up. Metrics this class
+ * does not know about are reported but never compared.
+ */
+public class ScrollBenchmarkResult {
+
+    public static final String REQUESTS = "requests";
+    public static final String SUCCEEDED = "succeeded";
+    public static final String FAILED = "failed";
+    public static final String CANCELLED = "cancelled";
+    public static final String REQUESTS_PER_SECOND = "requests_per_second";
+    public static final String TIME_TO_FIRST_IMAGE_PREFIX = "time_to_first_image_ms_";
+    public static final String CACHE_HIT_RATIO_PREFIX = "cache_hit_ratio_";
+    public static final String PEAK_BITMAP_POOL_BYTES = "peak_bitmap_pool_bytes";
+    public static final String PEAK_NATIVE_MEMORY_POOL_BYTES = "peak_native_memory_pool_bytes";
+    public static final String BYTES_COPIED = "bytes_copied";
+    public static final String NETWORK_REQUESTS = "network_requests";
+
+    /**
+     * Hit ratios are compared by their difference, as a relative change of a small ratio is noise.
+     */
+    private static final double MAX_HIT_RATIO_DROP = 0.05;
+
+    private final Map<String, Double> mMetrics = new LinkedHashMap<>();
+
+    public ScrollBenchmarkResult put(String name, double value) {
+        mMetrics.put(name, value);
+        return this;
+    }
+
+    public Map<String, Double> getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Compares this result to a baseline.
+     *
+     * @param baseline  result of the version to compare to
+     * @param tolerance relative change allowed before a metric counts as a regression
+     * @return a description of each regression, empty if there are none
+     */
+    public List<String> findRegressions(ScrollBenchmarkResult baseline, double tolerance) {
+        final List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : baseline.mMetrics.entrySet()) {
+            final String name = entry.getKey();
+            final double expected = entry.getValue();
+            final Double actual = mMetrics.get(name);
+            if (actual == null) {
+                continue;
+            }
+            final boolean regressed;
+            if (name.startsWith(CACHE_HIT_RATIO_PREFIX)) {
+                regressed = actual < expected - MAX_HIT_RATIO_DROP;
+            }
+            else if (REQUESTS_PER_SECOND.equals(name) || SUCCEEDED.equals(name)) {
+                regressed = actual < expected * (1 - tolerance);
+            }
+            else if (name.startsWith(TIME_TO_FIRST_IMAGE_PREFIX) ||
+                    PEAK_BITMAP_POOL_BYTES.equals(name) ||
+                    PEAK_NATIVE_MEMORY_POOL_BYTES.equals(name) ||
+                    BYTES_COPIED.equals(name) ||
+                    NETWORK_REQUESTS.equals(name) ||
+                    FAILED.equals(name)) {
+                regressed = actual > expected * (1 + tolerance);
+            }
+            else {
+                regressed = false;
+            }
+            if (regressed) {
+                regressions.add(name + ": " + actual + " (baseline " + expected + ")");
+            }
+        }
+        return regressions;
+    }
+
+    public String toJson() throws JSONException {
+        final JSONObject json = new JSONObject();
+        for (Map.Entry<String, Double> entry : mMetrics.entrySet()) {
+            json.put(entry.getKey(), entry.getValue().doubleValue());
+        }
+        return json.toString(2);
+    }
+
+    public static ScrollBenchmarkResult fromJson(String jsonString) throws JSONException {
+        final JSONObject json = new JSONObject(jsonString);
+        final ScrollBenchmarkResult result = new ScrollBenchmarkResult();
+        final Iterator<String> names = json.keys();
+        while (names.hasNext()) {
+            final String name = names.next();
+            result.put(name, json.getDouble(name));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.benchmark;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import com.facebook.cache.disk.DiskCacheConfig;
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.internal.ByteStreams;
+import com.facebook.common.internal.Closeables;
+import com.facebook.common.internal.Files;
+import com.facebook.common.internal.ImmutableSet;
+import com.facebook.common.internal.Suppliers;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.soloader.SoLoaderShim;
+import com.facebook.datasource.DataSource;
+import com.facebook.datasource.DataSubscriber;
+import com.facebook.imagepipeline.cache.MemoryCacheParams;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.core.ImagePipeline;
+import com.facebook.imagepipeline.core.ImagePipelineConfig;
+import com.facebook.imagepipeline.core.ImagePipelineFactory;
+import com.facebook.imagepipeline.decoder.DefaultImageDecoder;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.listener.LatencyHistogram;
+import com.facebook.imagepipeline.listener.PipelineLatencyListener;
+import com.facebook.imagepipeline.listener.RequestListener;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Replays a recorded scroll through a complete {@link ImagePipeline} on the JVM and reports
+ * throughput, time to first image, cache hit ratios, peak pool memory and bytes copied.
+ * <p>
+ * <p> Images are served over HTTP from a fixed corpus by {@link ImageCorpusServer}, so network
+ * fetching, disk and memory caching, multiplexing and cancellation all run as they would on a
+ * device. Decoding is the exception, see {@link BenchmarkDecoder}; decode speed is covered by the
+ * scrollperf and comparison apps.
+ * <p>
+ * <p> The benchmark is skipped by the regular test run. Run it with
+ * <pre>
+ * ./gradlew :imagepipeline:testDebugUnitTest -Pbenchmark
+ * </pre>
+ * and configure it with these project properties:
+ * <ul>
+ * <li>{@code fresco.benchmark.output}: where to write the results as JSON, by default
+ * build/reports/benchmark/scroll_replay.json</li>
+ * <li>{@code fresco.benchmark.baseline}: results of an earlier run; the run fails if any metric
+ * regressed compared to it</li>
+ * <li>{@code fresco.benchmark.tolerance}: relative change allowed before a metric counts as a
+ * regression, 0.1 by default</li>
+ * <li>{@code fresco.benchmark.speed}: how many times faster than recorded to replay the trace, 1
+ * by default. Raise it to measure the throughput the pipeline can sustain</li>
+ * <li>{@code fresco.benchmark.networkDelayMs}: latency of the image server, 10 ms by default</li>
+ * </ul>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class ScrollReplayBenchmark {
+
+    private static final String PROPERTY_PREFIX = "fresco.benchmark.";
+    private static final String OUTPUT_PROPERTY = PROPERTY_PREFIX + "output";
+    private static final String BASELINE_PROPERTY = PROPERTY_PREFIX + "baseline";
+    private static final String TOLERANCE_PROPERTY = PROPERTY_PREFIX + "tolerance";
+    private static final String SPEED_PROPERTY = PROPERTY_PREFIX + "speed";
+    private static final String NETWORK_DELAY_PROPERTY = PROPERTY_PREFIX + "networkDelayMs";
+
+    private static final String DEFAULT_OUTPUT = "build/reports/benchmark/scroll_replay.json";
+    private static final String TRACE = "/com/facebook/imagepipeline/benchmark/scroll_trace.txt";
+    private static final String[] CORPUS = new String[]{
+            "/com/facebook/imageutils/jpegs/1.jpeg",
+            "/com/facebook/imageutils/jpegs/2.jpeg",
+            "/com/facebook/imageutils/jpegs/3.jpeg",
+            "/com/facebook/imageutils/jpegs/1prog.jpeg",
+            "/com/facebook/imageutils/jpegs/2prog.jpeg",
+            "/com/facebook/imageutils/pngs/1.png",
+            "/com/facebook/imageutils/pngs/2.png",
+            "/com/facebook/imageutils/pngs/3.png",
+            "/com/facebook/imagepipeline/decoder/images/image.jpg",
+    };
+    private static final double[] PERCENTILES = new double[]{50, 90, 99};
+    private static final String[] CACHE_PRODUCERS = new String[]{
+            "BitmapMemoryCacheGetProducer",
+            "BitmapMemoryCacheProducer",
+            "EncodedMemoryCacheProducer",
+            "DiskCacheProducer",
+    };
+
+    private static final int BITMAP_MEMORY_CACHE_SIZE = 16 * 1024 * 1024;
+    private static final int ENCODED_MEMORY_CACHE_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_CACHE_ENTRIES = 256;
+    private static final long DISK_CACHE_SIZE = 64 * 1024 * 1024;
+    private static final long FINISH_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(60);
+    private static final Object CALLER_CONTEXT = "ScrollReplayBenchmark";
+
+    private ScrollTrace mTrace;
+    private ImageCorpusServer mServer;
+    private double mSpeed;
+    private int mRun;
+
+    @Before
+    public void setUp() throws IOException {
+        SoLoaderShim.setInTestMode();
+        final InputStream traceStream = getClass().getResourceAsStream(TRACE);
+        try {
+            mTrace = ScrollTrace.read(traceStream);
+        } finally {
+            Closeables.closeQuietly(traceStream);
+        }
+        final List<byte[]> images = new ArrayList<>(CORPUS.length);
+        for (String image : CORPUS) {
+            final InputStream inputStream = getClass().getResourceAsStream(image);
+            try {
+                images.add(ByteStreams.toByteArray(inputStream));
+            } finally {
+                Closeables.closeQuietly(inputStream);
+            }
+        }
+        mServer = new ImageCorpusServer(
+                images,
+                Integer.parseInt(System.getProperty(NETWORK_DELAY_PROPERTY, "10")));
+        mSpeed = Double.parseDouble(System.getProperty(SPEED_PROPERTY, "1"));
+        assertTrue("speed must be positive", mSpeed > 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        ImagePipelineFactory.shutDown();
+        mServer.close();
+    }
+
+    @Test
+    public void testReplayScrollTrace() throws Exception {
+        // the first run warms the JIT up, its numbers are thrown away
+        replay();
+        final ScrollBenchmarkResult result = replay();
+
+        final String json = result.toJson();
+        final File output = new File(System.getProperty(OUTPUT_PROPERTY, DEFAULT_OUTPUT));
+        writeFile(output, json);
+        System.out.println("Scroll replay results, written to " + output.getAbsolutePath());
+        System.out.println(json);
+
+        assertEquals(
+                "requests failed",
+                0,
+                result.getMetrics().get(ScrollBenchmarkResult.FAILED).intValue());
+        final String baselinePath = System.getProperty(BASELINE_PROPERTY);
+        if (baselinePath != null) {
+            final ScrollBenchmarkResult baseline = ScrollBenchmarkResult.fromJson(
+                    new String(Files.toByteArray(new File(baselinePath)), "UTF-8"));
+            final List<String> regressions = result.findRegressions(
+                    baseline,
+                    Double.parseDouble(System.getProperty(TOLERANCE_PROPERTY, "0.1")));
+            if (!regressions.isEmpty()) {
+                fail("Regressions compared to " + baselinePath + ":\n" + join(regressions));
+            }
+        }
+    }
+
+    /**
+     * Replays the trace through a new pipeline with empty caches and pools.
+     */
+    private ScrollBenchmarkResult replay() throws InterruptedException {
+        final BenchmarkPoolFactory.PeakMemoryTracker bitmapPoolTracker =
+                new BenchmarkPoolFactory.PeakMemoryTracker();
+        final BenchmarkPoolFactory poolFactory = BenchmarkPoolFactory.create(bitmapPoolTracker);
+        final PipelineLatencyListener latencyListener = new PipelineLatencyListener();
+        initializePipeline(poolFactory, latencyListener);
+        final ImagePipeline imagePipeline = ImagePipelineFactory.getInstance().getImagePipeline();
+        final long serverRequestsBefore = mServer.getRequestCount();
+
+        final Outcomes outcomes = new Outcomes();
+        final Map<Integer, DataSource<CloseableReference<CloseableImage>>> visible =
+                new HashMap<>();
+        final List<DataSource<?>> dataSources = new ArrayList<>();
+        final long startNanos = System.nanoTime();
+        for (ScrollTrace.Event event : mTrace.getEvents()) {
+            final long eventNanos =
+                    startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(event.timeMs) / mSpeed);
+            final long waitNanos = eventNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            switch (event.action) {
+                case FETCH:
+                    final DataSource<CloseableReference<CloseableImage>> dataSource =
+                            imagePipeline.fetchDecodedImage(newRequest(event), CALLER_CONTEXT);
+                    dataSource.subscribe(
+                            new RequestSubscriber<CloseableReference<CloseableImage>>(
+                                    outcomes,
+                                    true),
+                            CallerThreadExecutor.getInstance());
+                    final DataSource<?> replaced = visible.put(event.item, dataSource);
+                    if (replaced != null) {
+                        replaced.close();
+                    }
+                    dataSources.add(dataSource);
+                    break;
+                case PREFETCH:
+                    final DataSource<Void> prefetch =
+                            imagePipeline.prefetchToBitmapCache(newRequest(event), CALLER_CONTEXT);
+                    prefetch.subscribe(
+                            new RequestSubscriber<Void>(outcomes, false),
+                            CallerThreadExecutor.getInstance());
+                    dataSources.add(prefetch);
+                    break;
+                case CLOSE:
+                    final DataSource<?> closed = visible.remove(event.item);
+                    if (closed != null) {
+                        closed.close();
+                    }
+                    break;
+            }
+        }
+        awaitFinished(dataSources);
+        for (DataSource<?> dataSource : dataSources) {
+            dataSource.close();
+        }
+
+        final ScrollBenchmarkResult result = new ScrollBenchmarkResult();
+        final int requests = dataSources.size();
+        result.put(ScrollBenchmarkResult.REQUESTS, requests)
+                .put(ScrollBenchmarkResult.SUCCEEDED, outcomes.succeeded.get())
+                .put(ScrollBenchmarkResult.FAILED, outcomes.failed.get())
+                .put(ScrollBenchmarkResult.CANCELLED, outcomes.cancelled.get());
+        final long elapsedNanos = outcomes.lastFinishNanos.get() - startNanos;
+        if (elapsedNanos > 0) {
+            result.put(
+                    ScrollBenchmarkResult.REQUESTS_PER_SECOND,
+                    (outcomes.succeeded.get() + outcomes.failed.get()) *
+                            (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+        }
+        synchronized (outcomes.timeToFirstImage) {
+            for (double percentile : PERCENTILES) {
+                result.put(
+                        ScrollBenchmarkResult.TIME_TO_FIRST_IMAGE_PREFIX + "p" + (int) percentile,
+                        outcomes.timeToFirstImage.getValueAtPercentile(percentile));
+            }
+            result.put(
+                    ScrollBenchmarkResult.TIME_TO_FIRST_IMAGE_PREFIX + "max",
+                    outcomes.timeToFirstImage.getMax());
+        }
+        final PipelineLatencyListener.Snapshot snapshot = latencyListener.getSnapshot();
+        for (String producerName : CACHE_PRODUCERS) {
+            final PipelineLatencyListener.ProducerStats stats =
+                    snapshot.producerStats.get(producerName);
+            if (stats == null) {
+                continue;
+            }
+            final long lookups = stats.getCacheHitCount() + stats.getCacheMissCount();
+            if (lookups > 0) {
+                result.put(
+                        ScrollBenchmarkResult.CACHE_HIT_RATIO_PREFIX + producerName,
+                        stats.getCacheHitCount() / (double) lookups);
+            }
+        }
+        result.put(
+                ScrollBenchmarkResult.PEAK_BITMAP_POOL_BYTES,
+                bitmapPoolTracker.getPeakAllocatedBytes());
+        result.put(
+                ScrollBenchmarkResult.PEAK_NATIVE_MEMORY_POOL_BYTES,
+                poolFactory.getNativeMemoryChunkPoolTracker().getPeakAllocatedBytes());
+        result.put(ScrollBenchmarkResult.BYTES_COPIED, poolFactory.getBytesCopied());
+        result.put(
+                ScrollBenchmarkResult.NETWORK_REQUESTS,
+                mServer.getRequestCount() - serverRequestsBefore);
+
+        ImagePipelineFactory.shutDown();
+        return result;
+    }
+
+    private void initializePipeline(
+            BenchmarkPoolFactory poolFactory,
+            PipelineLatencyListener latencyListener) {
+        final File cacheDirectory =
+                new File(RuntimeEnvironment.application.getCacheDir(), "scroll_replay_" + mRun++);
+        ImagePipelineFactory.initialize(
+                ImagePipelineConfig.newBuilder(RuntimeEnvironment.application)
+                        .setPoolFactory(poolFactory)
+                        .setImageDecoder(
+                                new DefaultImageDecoder(
+                                        null,
+                                        new BenchmarkDecoder(
+                                                poolFactory.getBitmapPool(),
+                                                poolFactory.getFlexByteArrayPoolMaxNumThreads()),
+                                        Bitmap.Config.ARGB_8888))
+                        // the platform cannot transcode, downsample while decoding instead
+                        .setDownsampleEnabled(true)
+                        .setResizeAndRotateEnabledForNetwork(false)
+                        .setBitmapMemoryCacheParamsSupplier(
+                                Suppliers.of(newMemoryCacheParams(BITMAP_MEMORY_CACHE_SIZE)))
+                        .setEncodedMemoryCacheParamsSupplier(
+                                Suppliers.of(newMemoryCacheParams(ENCODED_MEMORY_CACHE_SIZE)))
+                        .setMainDiskCacheConfig(newDiskCacheConfig(cacheDirectory, "main"))
+                        .setSmallImageDiskCacheConfig(newDiskCacheConfig(cacheDirectory, "small"))
+                        .setRequestListeners(ImmutableSet.<RequestListener>of(latencyListener))
+                        .build());
+    }
+
+    private ImageRequest newRequest(ScrollTrace.Event event) {
+        return ImageRequestBuilder.newBuilderWithSource(mServer.getImageUri(event.item))
+                .setResizeOptions(new ResizeOptions(event.width, event.height))
+                .build();
+    }
+
+    private static MemoryCacheParams newMemoryCacheParams(int maxSize) {
+        return new MemoryCacheParams(
+                maxSize,
+                MAX_CACHE_ENTRIES,
+                maxSize,
+                MAX_CACHE_ENTRIES,
+                maxSize / 4);
+    }
+
+    private static DiskCacheConfig newDiskCacheConfig(File directory, String name) {
+        return DiskCacheConfig.newBuilder(RuntimeEnvironment.application)
+                .setBaseDirectoryPath(directory)
+                .setBaseDirectoryName(name)
+                .setMaxCacheSize(DISK_CACHE_SIZE)
+                .setMaxCacheSizeOnLowDiskSpace(DISK_CACHE_SIZE)
+                .setMaxCacheSizeOnVeryLowDiskSpace(DISK_CACHE_SIZE)
+                .build();
+    }
+
+    private static void awaitFinished(List<DataSource<?>> dataSources)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + FINISH_TIMEOUT_MS;
+        for (DataSource<?> dataSource : dataSources) {
+            while (!dataSource.isFinished() && !dataSource.isClosed()) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("Requests did not finish within " + FINISH_TIMEOUT_MS + " ms");
+                }
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    private static void writeFile(File file, String contents) throws IOException {
+        final File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        final OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(contents.getBytes("UTF-8"));
+        } finally {
+            Closeables.close(outputStream, false);
+        }
+    }
+
+    private static String join(List<String> lines) {
+        final StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append("  ").append(line).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Outcomes of all requests of a replay.
+     */
+    private static class Outcomes {
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger cancelled = new AtomicInteger();
+        final AtomicLong lastFinishNanos = new AtomicLong();
+        final LatencyHistogram timeToFirstImage = new LatencyHistogram();
+
+        void onFinish() {
+            final long now = System.nanoTime();
+            long last;
+            do {
+                last = lastFinishNanos.get();
+            } while (now > last && !lastFinishNanos.compareAndSet(last, now));
+        }
+    }
+
+    /**
+     * Records the outcome of a request, and for fetches how long the first image took.
+     */
+    private static class RequestSubscriber<T> implements DataSubscriber<T> {
+        private final Outcomes mOutcomes;
+        private final boolean mTrackFirstImage;
+        private final long mSubmitNanos = System.nanoTime();
+        private final AtomicInteger mFirstImage = new AtomicInteger();
+
+        RequestSubscriber(Outcomes outcomes, boolean trackFirstImage) {
+            mOutcomes = outcomes;
+            mTrackFirstImage = trackFirstImage;
+        }
+
+        @Override
+        public void onNewResult(DataSource<T> dataSource) {
+            if (mTrackFirstImage &&
+                    dataSource.hasResult() &&
+                    mFirstImage.compareAndSet(0, 1)) {
+                final long elapsedMs =
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mSubmitNanos);
+                synchronized (mOutcomes.timeToFirstImage) {
+                    mOutcomes.timeToFirstImage.record(elapsedMs);
+                }
+            }
+            if (dataSource.isFinished()) {
+                mOutcomes.succeeded.incrementAndGet();
+                mOutcomes.onFinish();
+            }
+        }
+
+        @Override
+        public void onFailure(DataSource<T> dataSource) {
+            mOutcomes.failed.incrementAndGet();
+            mOutcomes.onFinish();
+        }
+
+        @Override
+        public void onCancellation(DataSource<T> dataSource) {
+            mOutcomes.cancelled.incrementAndGet();
+        }
+
+        @Override
+        public void onProgressUpdate(DataSource<T> dataSource) {
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Image requests recorded while scrolling a list, to be replayed against the pipeline.
+ * <p>
+ * <p> The trace is a text file with one event per line, ordered by time. Lines starting with
+ * {@code #} are comments.
+ * <pre>
+ * &lt;time ms&gt; fetch &lt;item&gt; &lt;width&gt; &lt;height&gt;
+ * &lt;time ms&gt; prefetch &lt;item&gt; &lt;width&gt; &lt;height&gt;
+ * &lt;time ms&gt; close &lt;item&gt;
+ * </pre>
+ * A fetch is a view requesting the image of an item that became visible, close is the view
+ * releasing it again. A prefetch brings an item that is about to become visible into the bitmap
+ * cache and is never closed.
+ */
+public class ScrollTrace {
+
+    public enum Action {
+        FETCH,
+        PREFETCH,
+        CLOSE,
+    }
+
+    public static class Event {
+        public final long timeMs;
+        public final Action action;
+        public final int item;
+        public final int width;
+        public final int height;
+
+        Event(long timeMs, Action action, int item, int width, int height) {
+            this.timeMs = timeMs;
+            this.action = action;
+            this.item = item;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final List<Event> mEvents;
+
+    private ScrollTrace(List<Event> events) {
+        mEvents = Collections.unmodifiableList(events);
+    }
+
+    public List<Event> getEvents() {
+        return mEvents;
+    }
+
+    public long getDurationMs() {
+        return mEvents.isEmpty() ? 0 : mEvents.get(mEvents.size() - 1).timeMs;
+    }
+
+    public static ScrollTrace read(InputStream inputStream) throws IOException {
+        final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        final List<Event> events = new ArrayList<>();
+        long previousTimeMs = 0;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final Event event = parseEvent(line, lineNumber);
+            if (event.timeMs < previousTimeMs) {
+                throw new IOException("Events out of order at line " + lineNumber);
+            }
+            previousTimeMs = event.timeMs;
+            events.add(event);
+        }
+        return new ScrollTrace(events);
+    }
+
+    private static Event parseEvent(String line, int lineNumber) throws IOException {
+        final String[] fields = line.split("\\s+");
+        try {
+            final long timeMs = Long.parseLong(fields[0]);
+            final Action action = Action.valueOf(fields[1].toUpperCase());
+            final int item = Integer.parseInt(fields[2]);
+            if (action == Action.CLOSE) {
+                if (fields.length != 3) {
+                    throw new IOException("Malformed close event at line " + lineNumber);
+                }
+                return new Event(timeMs, action, item, 0, 0);
+            }
+            if (fields.length != 5) {
+                throw new IOException("Malformed " + fields[1] + " event at line " + lineNumber);
+            }
+            return new Event(
+                    timeMs,
+                    action,
+                    item,
+                    Integer.parseInt(fields[3]),
+                    Integer.parseInt(fields[4]));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed event at line " + lineNumber + ": " + line, e);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.common.RotationOptions;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BitmapMemoryCacheVariantsIndexTest {
+
+    private static final String URI_1 = "http://www.fresco.org/1.jpg";
+    private static final String URI_2 = "http://www.fresco.org/2.jpg";
+    private static final String URI_3 = "http://www.fresco.org/3.jpg";
+
+    private BitmapMemoryCacheVariantsIndex mVariantsIndex;
+
+    @Before
+    public void setUp() {
+        mVariantsIndex = new BitmapMemoryCacheVariantsIndex(2, 2);
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        BitmapMemoryCacheKey key1 = createKey(URI_1, 100);
+        BitmapMemoryCacheKey key2 = createKey(URI_1, 200);
+        mVariantsIndex.add(key1);
+        mVariantsIndex.add(key2);
+        mVariantsIndex.add(key1);
+
+        assertEquals(Arrays.asList(key2, key1), mVariantsIndex.getVariants(URI_1));
+        assertTrue(mVariantsIndex.getVariants(URI_2).isEmpty());
+
+        mVariantsIndex.remove(key1);
+        assertEquals(Arrays.asList(key2), mVariantsIndex.getVariants(URI_1));
+        mVariantsIndex.remove(key2);
+        assertTrue(mVariantsIndex.getVariants(URI_1).isEmpty());
+    }
+
+    @Test
+    public void testVariantsPerSourceAreBounded() {
+        BitmapMemoryCacheKey key1 = createKey(URI_1, 100);
+        BitmapMemoryCacheKey key2 = createKey(URI_1, 200);
+        BitmapMemoryCacheKey key3 = createKey(URI_1, 300);
+        mVariantsIndex.add(key1);
+        mVariantsIndex.add(key2);
+        mVariantsIndex.add(key3);
+
+        assertEquals(Arrays.asList(key2, key3), mVariantsIndex.getVariants(URI_1));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSourceIsDropped() {
+        mVariantsIndex.add(createKey(URI_1, 100));
+        mVariantsIndex.add(createKey(URI_2, 100));
+        mVariantsIndex.getVariants(URI_1);
+        mVariantsIndex.add(createKey(URI_3, 100));
+
+        assertFalse(mVariantsIndex.getVariants(URI_1).isEmpty());
+        assertTrue(mVariantsIndex.getVariants(URI_2).isEmpty());
+        assertFalse(mVariantsIndex.getVariants(URI_3).isEmpty());
+    }
+
+    @Test
+    public void testIsResizeVariantOf() {
+        BitmapMemoryCacheKey key = createKey(URI_1, 100);
+        assertTrue(key.isResizeVariantOf(createKey(URI_1, 200)));
+        assertFalse(key.isResizeVariantOf(createKey(URI_2, 100)));
+        assertFalse(key.isResizeVariantOf(
+                new BitmapMemoryCacheKey(
+                        URI_1,
+                        new ResizeOptions(100, 100),
+                        RotationOptions.disableRotation(),
+                        ImageDecodeOptions.defaults(),
+                        null,
+                        null,
+                        null)));
+    }
+
+    private static BitmapMemoryCacheKey createKey(String uri, int size) {
+        return new BitmapMemoryCacheKey(
+                uri,
+                new ResizeOptions(size, size),
+                RotationOptions.autoRotate(),
+                ImageDecodeOptions.defaults(),
+                null,
+                null,
+                null);
+    }
+}
@@ -10,11 +10,16 @@
 package com.facebook.imagepipeline.cache;
 
 import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.AdmissionEventListener;
+import com.facebook.cache.common.CacheEvent;
+import com.facebook.cache.common.CacheEventListener;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.MultiCacheKey;
 import com.facebook.cache.common.SimpleCacheKey;
 import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.EntryAdmissionPolicy;
 import com.facebook.cache.disk.FileCache;
+import com.facebook.common.internal.ByteStreams;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
@@ -22,6 +27,7 @@ import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
 import com.facebook.imagepipeline.memory.PooledByteStreams;
 import com.facebook.imagepipeline.testing.FakeClock;
 import com.facebook.imagepipeline.testing.TestExecutorService;
+import com.facebook.imagepipeline.testing.TrivialPooledByteBuffer;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -30,12 +36,16 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareOnlyThisForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -45,11 +55,14 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import bolts.Task;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -209,6 +222,78 @@ public class BufferedDiskCacheTest {
         assertEquals(mCacheKey, mEncodedImage.getEncodedCacheKey());
     }
 
+    @Test
+    public void testAdmissionPolicy() throws Exception {
+        EntryAdmissionPolicy admissionPolicy = mock(EntryAdmissionPolicy.class);
+        AdmissionEventListener cacheEventListener = mock(AdmissionEventListener.class);
+        BufferedDiskCache bufferedDiskCache = new BufferedDiskCache(
+                mFileCache,
+                mByteBufferFactory,
+                mPooledByteStreams,
+                mReadPriorityExecutor,
+                mWritePriorityExecutor,
+                mImageCacheStatsTracker,
+                false,
+                admissionPolicy,
+                cacheEventListener);
+        when(mPooledByteBuffer.size()).thenReturn(100);
+
+        when(admissionPolicy.shouldAdmit(mCacheKey, 100)).thenReturn(false);
+        bufferedDiskCache.put(mCacheKey, mEncodedImage);
+        mWritePriorityExecutor.runUntilIdle();
+        verify(cacheEventListener).onWriteRejected(any(CacheEvent.class));
+        verify(mStagingArea, never()).put(mCacheKey, mEncodedImage);
+        verify(mFileCache, never()).insert(eq(mCacheKey), any(WriterCallback.class));
+        assertEquals(mCacheKey, mEncodedImage.getEncodedCacheKey());
+        assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+
+        when(admissionPolicy.shouldAdmit(mCacheKey, 100)).thenReturn(true);
+        bufferedDiskCache.put(mCacheKey, mEncodedImage);
+        mWritePriorityExecutor.runUntilIdle();
+        verify(cacheEventListener).onWriteAdmitted(any(CacheEvent.class));
+        verify(mStagingArea).put(mCacheKey, mEncodedImage);
+        verify(mFileCache).insert(eq(mCacheKey), any(WriterCallback.class));
+    }
+
+    @Test
+    public void testWritesRecompressedImage() throws Exception {
+        DiskCacheRecompressor recompressor = mock(DiskCacheRecompressor.class);
+        BufferedDiskCache bufferedDiskCache = createBufferedDiskCache(recompressor);
+        CloseableReference<PooledByteBuffer> recompressedRef =
+                CloseableReference.<PooledByteBuffer>of(
+                        new TrivialPooledByteBuffer(new byte[]{1, 2, 3}));
+        when(recompressor.recompress(any(EncodedImage.class)))
+                .thenReturn(new EncodedImage(recompressedRef));
+        ByteArrayOutputStream os = writeFromFileCacheInsert();
+
+        bufferedDiskCache.put(mCacheKey, mEncodedImage);
+        verify(mStagingArea).put(mCacheKey, mEncodedImage);
+        mWritePriorityExecutor.runUntilIdle();
+
+        assertArrayEquals(new byte[]{1, 2, 3}, os.toByteArray());
+        assertEquals(1, recompressedRef.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+        assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+        recompressedRef.close();
+    }
+
+    @Test
+    public void testWritesImageWhenRecompressionFails() throws Exception {
+        DiskCacheRecompressor recompressor = mock(DiskCacheRecompressor.class);
+        BufferedDiskCache bufferedDiskCache = createBufferedDiskCache(recompressor);
+        when(recompressor.recompress(any(EncodedImage.class)))
+                .thenThrow(new RuntimeException("corrupt image"));
+        mCloseableReference = CloseableReference.<PooledByteBuffer>of(
+                new TrivialPooledByteBuffer(new byte[]{4, 5}));
+        mEncodedImage = new EncodedImage(mCloseableReference);
+        ByteArrayOutputStream os = writeFromFileCacheInsert();
+
+        bufferedDiskCache.put(mCacheKey, mEncodedImage);
+        mWritePriorityExecutor.runUntilIdle();
+
+        assertArrayEquals(new byte[]{4, 5}, os.toByteArray());
+        assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+    }
+
     @Test
     public void testCacheMiss() throws Exception {
         Task<EncodedImage> readTask = mBufferedDiskCache.get(mCacheKey, mIsCancelled);
@@ -298,4 +383,43 @@ public class BufferedDiskCacheTest {
         mBufferedDiskCache.clearAll();
         verify(mStagingArea).clearAll();
     }
+
+    private BufferedDiskCache createBufferedDiskCache(DiskCacheRecompressor recompressor) {
+        return new BufferedDiskCache(
+                mFileCache,
+                mByteBufferFactory,
+                mPooledByteStreams,
+                mReadPriorityExecutor,
+                mWritePriorityExecutor,
+                mImageCacheStatsTracker,
+                false,
+                null,
+                mock(CacheEventListener.class),
+                recompressor);
+    }
+
+    /**
+     * Makes inserts into the file cache write their data into the returned stream.
+     */
+    private ByteArrayOutputStream writeFromFileCacheInsert() throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        doAnswer(
+                new Answer<Long>() {
+                    @Override
+                    public Long answer(InvocationOnMock invocation) throws Throwable {
+                        return ByteStreams.copy(
+                                (InputStream) invocation.getArguments()[0],
+                                (OutputStream) invocation.getArguments()[1]);
+                    }
+                }).when(mPooledByteStreams).copy(any(InputStream.class), any(OutputStream.class));
+        when(mFileCache.insert(eq(mCacheKey), any(WriterCallback.class))).thenAnswer(
+                new Answer<BinaryResource>() {
+                    @Override
+                    public BinaryResource answer(InvocationOnMock invocation) throws Throwable {
+                        ((WriterCallback) invocation.getArguments()[1]).write(os);
+                        return null;
+                    }
+                });
+        return os;
+    }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.PooledByteBuffer;
+import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
+import com.facebook.imagepipeline.memory.PooledByteBufferOutputStream;
+import com.facebook.imagepipeline.nativecode.JpegTranscoder;
+import com.facebook.imagepipeline.testing.TrivialPooledByteBuffer;
+import com.facebook.soloader.SoLoaderShim;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareOnlyThisForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@PowerMockIgnore({"org.mockito.*", "org.robolectric.*", "android.*"})
+@Config(manifest = Config.NONE)
+@PrepareOnlyThisForTest(JpegTranscoder.class)
+public class JpegDiskCacheRecompressorTest {
+    // all values of the luminance table equal to these make the estimated quality 99 and 82
+    private static final int QUALITY_99_QUANT_VALUE = 1;
+    private static final int QUALITY_82_QUANT_VALUE = 21;
+
+    static {
+        SoLoaderShim.setInTestMode();
+    }
+
+    @Mock
+    public PooledByteBufferFactory mPooledByteBufferFactory;
+    @Mock
+    public PooledByteBufferOutputStream mPooledByteBufferOutputStream;
+    @Rule
+    public PowerMockRule rule = new PowerMockRule();
+
+    private JpegDiskCacheRecompressor mRecompressor;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        PowerMockito.mockStatic(JpegTranscoder.class);
+        when(mPooledByteBufferFactory.newOutputStream()).thenReturn(mPooledByteBufferOutputStream);
+        when(mPooledByteBufferOutputStream.toByteBuffer())
+                .thenReturn(new TrivialPooledByteBuffer(new byte[100]));
+        mRecompressor = new JpegDiskCacheRecompressor(mPooledByteBufferFactory, 150, 80);
+    }
+
+    @Test
+    public void testRecompressesLargeImage() throws Exception {
+        when(mPooledByteBufferOutputStream.size()).thenReturn(100);
+        EncodedImage recompressed = mRecompressor.recompress(makeJpeg(QUALITY_99_QUANT_VALUE, 200));
+
+        assertEquals(100, recompressed.getSize());
+        assertEquals(100, mRecompressor.getSavedBytes());
+        PowerMockito.verifyStatic();
+        JpegTranscoder.recompressJpeg(
+                any(InputStream.class),
+                any(OutputStream.class),
+                eq(80));
+        EncodedImage.closeSafely(recompressed);
+    }
+
+    @Test
+    public void testKeepsImageIfNotMuchSmaller() throws Exception {
+        when(mPooledByteBufferOutputStream.size()).thenReturn(190);
+        assertNull(mRecompressor.recompress(makeJpeg(QUALITY_99_QUANT_VALUE, 200)));
+        assertEquals(0, mRecompressor.getSavedBytes());
+    }
+
+    @Test
+    public void testKeepsImageNearTargetQuality() throws Exception {
+        assertNull(mRecompressor.recompress(makeJpeg(QUALITY_82_QUANT_VALUE, 200)));
+        verifyNotRecompressed();
+    }
+
+    @Test
+    public void testKeepsSmallImage() throws Exception {
+        assertNull(mRecompressor.recompress(makeJpeg(QUALITY_99_QUANT_VALUE, 100)));
+        verifyNotRecompressed();
+    }
+
+    @Test
+    public void testKeepsOtherFormats() throws Exception {
+        byte[] png = new byte[200];
+        byte[] header = new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+        System.arraycopy(header, 0, png, 0, header.length);
+        assertNull(mRecompressor.recompress(makeImage(png)));
+        verifyNotRecompressed();
+    }
+
+    private static void verifyNotRecompressed() throws Exception {
+        PowerMockito.verifyStatic(never());
+        JpegTranscoder.recompressJpeg(any(InputStream.class), any(OutputStream.class), anyInt());
+    }
+
+    /**
+     * Makes a jpeg header whose luminance quantization table holds only the given value.
+     */
+    private static EncodedImage makeJpeg(int quantValue, int size) {
+        byte[] jpeg = new byte[size];
+        byte[] header = new byte[]{
+                (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDB, 0, 67, 0};
+        System.arraycopy(header, 0, jpeg, 0, header.length);
+        Arrays.fill(jpeg, header.length, header.length + 64, (byte) quantValue);
+        jpeg[header.length + 64] = (byte) 0xFF;
+        jpeg[header.length + 65] = (byte) 0xDA;
+        return makeImage(jpeg);
+    }
+
+    private static EncodedImage makeImage(byte[] bytes) {
+        return new EncodedImage(
+                CloseableReference.<PooledByteBuffer>of(new TrivialPooledByteBuffer(bytes)));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.ByteArrayBinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.FileCache;
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.internal.ByteStreams;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.memory.ByteArrayPool;
+import com.facebook.imagepipeline.memory.PooledByteBuffer;
+import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
+import com.facebook.imagepipeline.memory.PooledByteStreams;
+import com.facebook.imagepipeline.testing.TrivialPooledByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PartialDownloadCacheTest {
+
+    private static final String VALIDATOR = "\"etag\"";
+
+    @Mock
+    public FileCache mFileCache;
+    @Mock
+    public PooledByteBufferFactory mPooledByteBufferFactory;
+    @Mock
+    public ByteArrayPool mByteArrayPool;
+
+    private CacheKey mCacheKey;
+    private CacheKey mPartialKey;
+    private byte[] mBytes;
+    private PartialDownloadCache mPartialDownloadCache;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mByteArrayPool.get(anyInt())).thenAnswer(
+                new Answer<byte[]>() {
+                    @Override
+                    public byte[] answer(InvocationOnMock invocation) throws Throwable {
+                        return new byte[(Integer) invocation.getArguments()[0]];
+                    }
+                });
+        when(mPooledByteBufferFactory.newByteBuffer(any(InputStream.class), anyInt())).thenAnswer(
+                new Answer<PooledByteBuffer>() {
+                    @Override
+                    public PooledByteBuffer answer(InvocationOnMock invocation) throws Throwable {
+                        InputStream is = (InputStream) invocation.getArguments()[0];
+                        return new TrivialPooledByteBuffer(ByteStreams.toByteArray(is));
+                    }
+                });
+        mCacheKey = new SimpleCacheKey("http://test.uri");
+        mPartialKey = PartialDownloadCache.getPartialKey(mCacheKey);
+        mBytes = new byte[100];
+        for (int i = 0; i < mBytes.length; i++) {
+            mBytes[i] = (byte) i;
+        }
+        mPartialDownloadCache = new PartialDownloadCache(
+                mFileCache,
+                mPooledByteBufferFactory,
+                new PooledByteStreams(mByteArrayPool),
+                CallerThreadExecutor.getInstance(),
+                CallerThreadExecutor.getInstance());
+    }
+
+    @Test
+    public void testStoresAndReadsPartialDownload() throws Exception {
+        byte[] entry = put(mBytes);
+        when(mFileCache.getResource(eq(mPartialKey))).thenReturn(new ByteArrayBinaryResource(entry));
+
+        PartialDownloadCache.Entry result = mPartialDownloadCache.get(mCacheKey).getResult();
+        assertEquals(VALIDATOR, result.getValidator());
+        assertEquals(mBytes.length, result.getSize());
+        CloseableReference<PooledByteBuffer> bytesRef = result.getBytesRef();
+        byte[] readBytes = new byte[mBytes.length];
+        bytesRef.get().read(0, readBytes, 0, readBytes.length);
+        assertArrayEquals(mBytes, readBytes);
+
+        bytesRef.close();
+        result.close();
+        assertNull(result.getBytesRef());
+    }
+
+    @Test
+    public void testMiss() throws Exception {
+        assertNull(mPartialDownloadCache.get(mCacheKey).getResult());
+    }
+
+    @Test
+    public void testDiscardsTruncatedEntry() throws Exception {
+        byte[] entry = put(mBytes);
+        byte[] truncated = Arrays.copyOf(entry, entry.length - 10);
+        when(mFileCache.getResource(eq(mPartialKey)))
+                .thenReturn(new ByteArrayBinaryResource(truncated));
+
+        assertNull(mPartialDownloadCache.get(mCacheKey).getResult());
+        verify(mFileCache).remove(eq(mPartialKey));
+    }
+
+    @Test
+    public void testContainsSync() {
+        when(mFileCache.hasKeySync(eq(mPartialKey))).thenReturn(true);
+        assertTrue(mPartialDownloadCache.containsSync(mCacheKey));
+        assertFalse(mPartialDownloadCache.containsSync(new SimpleCacheKey("http://other.uri")));
+    }
+
+    @Test
+    public void testRemove() {
+        mPartialDownloadCache.remove(mCacheKey);
+        verify(mFileCache).remove(eq(mPartialKey));
+    }
+
+    private byte[] put(byte[] bytes) throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        when(mFileCache.insert(eq(mPartialKey), any(WriterCallback.class))).thenAnswer(
+                new Answer<BinaryResource>() {
+                    @Override
+                    public BinaryResource answer(InvocationOnMock invocation) throws Throwable {
+                        ((WriterCallback) invocation.getArguments()[1]).write(os);
+                        return null;
+                    }
+                });
+        CloseableReference<PooledByteBuffer> bytesRef =
+                CloseableReference.<PooledByteBuffer>of(new TrivialPooledByteBuffer(bytes));
+        mPartialDownloadCache.put(mCacheKey, VALIDATOR, bytesRef);
+        bytesRef.close();
+
+        verify(mFileCache).insert(eq(mPartialKey), any(WriterCallback.class));
+        return os.toByteArray();
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.datasource.AbstractDataSource;
+import com.facebook.datasource.DataSource;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PrefetchPlannerTest {
+
+    private static final int BITMAP_PREFETCH_COUNT = 2;
+    private static final int DISK_PREFETCH_COUNT = 3;
+    private static final int MAX_DISK_PREFETCH_COUNT = 6;
+    private static final int MAX_IN_FLIGHT = 10;
+    private static final int ESTIMATED_BITMAP_BYTES = 100;
+
+    private ImagePipeline mImagePipeline;
+    private List<ImageRequest> mRequests;
+    private Map<ImageRequest, TestDataSource> mBitmapPrefetches;
+    private Map<ImageRequest, TestDataSource> mDiskPrefetches;
+
+    @Before
+    public void setUp() {
+        mImagePipeline = mock(ImagePipeline.class);
+        mBitmapPrefetches = new HashMap<>();
+        mDiskPrefetches = new HashMap<>();
+        when(mImagePipeline.prefetchToBitmapCache(
+                any(ImageRequest.class),
+                any(),
+                eq(Priority.MEDIUM)))
+                .thenAnswer(new PrefetchAnswer(mBitmapPrefetches));
+        when(mImagePipeline.prefetchToDiskCache(
+                any(ImageRequest.class),
+                any(),
+                eq(Priority.LOW)))
+                .thenAnswer(new PrefetchAnswer(mDiskPrefetches));
+        mRequests = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            mRequests.add(mock(ImageRequest.class));
+        }
+    }
+
+    @Test
+    public void testPrefetchesAheadOfViewport() {
+        PrefetchPlanner planner = createPlanner(MAX_IN_FLIGHT, 1000);
+        planner.setRequests(mRequests);
+        planner.onViewportChanged(0, 4, 0);
+
+        assertPrefetched(mBitmapPrefetches, 5, 6);
+        assertPrefetched(mDiskPrefetches, 7, 8, 9);
+        assertEquals(5, planner.getInFlightCount());
+        assertEquals(2 * ESTIMATED_BITMAP_BYTES, planner.getBitmapPrefetchBytes());
+    }
+
+    @Test
+    public void testPrefetchesBehindViewportWhenScrollingBack() {
+        PrefetchPlanner planner = createPlanner(MAX_IN_FLIGHT, 1000);
+        planner.setRequests(mRequests);
+        planner.onViewportChanged(20, 24, -1);
+
+        assertPrefetched(mBitmapPrefetches, 19, 18);
+        assertPrefetched(mDiskPrefetches, 17, 16, 15, 14);
+    }
+
+    @Test
+    public void testDiskWindowGrowsWithVelocity() {
+        PrefetchPlanner planner = createPlanner(MAX_IN_FLIGHT, 1000);
+        planner.setRequests(mRequests);
+        planner.onViewportChanged(0, 4, 100);
+
+        assertPrefetched(mBitmapPrefetches, 5, 6);
+        assertPrefetched(mDiskPrefetches, 7, 8, 9, 10, 11, 12);
+        assertNull(mDiskPrefetches.get(mRequests.get(13)));
+    }
+
+    @Test
+    public void testCancelsPrefetchesThatFallBehind() {
+        PrefetchPlanner planner = createPlanner(MAX_IN_FLIGHT, 1000);
+        planner.setRequests(mRequests);
+        planner.onViewportChanged(0, 4, 0);
+        TestDataSource visible = mBitmapPrefetches.get(mRequests.get(5));
+
+        planner.onViewportChanged(5, 9, 0);
+
+        // items that became visible keep loading, the rest of the new window is prefetched
+        assertFalse(visible.isClosed());
+        assertFalse(mDiskPrefetches.get(mRequests.get(9)).isClosed());
+        assertPrefetched(mBitmapPrefetches, 5, 6, 10, 11);
+
+        planner.onViewportChanged(12, 16, 0);
+
+        assertTrue(visible.isClosed());
+        assertTrue(mDiskPrefetches.get(mRequests.get(9)).isClosed());
+        assertFalse(mDiskPrefetches.get(mRequests.get(12)).isClosed());
+        assertFalse(mBitmapPrefetches.get(mRequests.get(17)).isClosed());
+    }
+
+    @Test
+    public void testUpgradesDiskPrefetchToBitmapPrefetch() {
+        PrefetchPlanner planner = createPlanner(MAX_IN_FLIGHT, 1000);
+        planner.setRequests(mRequests);
+        planner.onViewportChanged(0, 4, 0);
+        TestDataSource diskPrefetch = mDiskPrefetches.get(mRequests.get(7));
+
+        planner.onViewportChanged(1, 5, 0);
+
+        assertTrue(diskPrefetch.isClosed());
+        assertPrefetched(mBitmapPrefetches, 5, 6, 7);
+    }
+
+    @Test
+    public void testLimitsInFlightPrefetches() {
+        PrefetchPlanner planner = createPlanner(2, 1000);
+        planner.setRequests(mRequests);
+        planner.onViewportChanged(0, 4, 0);
+
+        assertEquals(2, planner.getInFlightCount());
+        assertPrefetched(mBitmapPrefetches, 5, 6);
+        assertTrue(mDiskPrefetches.isEmpty());
+
+        mBitmapPrefetches.get(mRequests.get(5)).finish();
+
+        assertEquals(2, planner.getInFlightCount());
+        assertPrefetched(mDiskPrefetches, 7);
+
+        mBitmapPrefetches.get(mRequests.get(6)).fail();
+
+        assertPrefetched(mDiskPrefetches, 7, 8);
+        // finished prefetches are not submitted again
+        assertEquals(2, mBitmapPrefetches.size());
+    }
+
+    @Test
+    public void testFallsBackToDiskWhenOverMemoryBudget() {
+        when(mRequests.get(6).getResizeOptions()).thenReturn(new ResizeOptions(10, 10));
+        PrefetchPlanner planner = createPlanner(MAX_IN_FLIGHT, ESTIMATED_BITMAP_BYTES + 400);
+        planner.setRequests(mRequests);
+        planner.onViewportChanged(0, 4, 0);
+
+        assertPrefetched(mBitmapPrefetches, 5, 6);
+        assertEquals(ESTIMATED_BITMAP_BYTES + 400, planner.getBitmapPrefetchBytes());
+
+        planner = createPlanner(MAX_IN_FLIGHT, ESTIMATED_BITMAP_BYTES);
+        mBitmapPrefetches.clear();
+        mDiskPrefetches.clear();
+        planner.setRequests(mRequests);
+        planner.onViewportChanged(0, 4, 0);
+
+        assertPrefetched(mBitmapPrefetches, 5);
+        assertPrefetched(mDiskPrefetches, 6, 7, 8, 9);
+    }
+
+    @Test
+    public void testSetRequestsKeepsUnchangedPrefetches() {
+        PrefetchPlanner planner = createPlanner(MAX_IN_FLIGHT, 1000);
+        planner.setRequests(mRequests);
+        planner.onViewportChanged(0, 4, 0);
+        TestDataSource kept = mBitmapPrefetches.get(mRequests.get(5));
+        TestDataSource replaced = mBitmapPrefetches.get(mRequests.get(6));
+
+        List<ImageRequest> requests = new ArrayList<>(mRequests);
+        requests.set(6, mock(ImageRequest.class));
+        planner.setRequests(requests);
+
+        assertFalse(kept.isClosed());
+        assertTrue(replaced.isClosed());
+        assertNotNull(mBitmapPrefetches.get(requests.get(6)));
+    }
+
+    @Test
+    public void testCancelAll() {
+        PrefetchPlanner planner = createPlanner(MAX_IN_FLIGHT, 1000);
+        planner.setRequests(mRequests);
+        planner.onViewportChanged(0, 4, 0);
+
+        planner.cancelAll();
+
+        for (TestDataSource dataSource : mBitmapPrefetches.values()) {
+            assertTrue(dataSource.isClosed());
+        }
+        for (TestDataSource dataSource : mDiskPrefetches.values()) {
+            assertTrue(dataSource.isClosed());
+        }
+        assertEquals(0, planner.getInFlightCount());
+        assertEquals(0, planner.getBitmapPrefetchBytes());
+    }
+
+    private PrefetchPlanner createPlanner(int maxInFlight, long maxBitmapBytes) {
+        return new PrefetchPlanner(
+                mImagePipeline,
+                new PrefetchPlannerParams(
+                        BITMAP_PREFETCH_COUNT,
+                        DISK_PREFETCH_COUNT,
+                        MAX_DISK_PREFETCH_COUNT,
+                        1000,
+                        maxInFlight,
+                        maxBitmapBytes,
+                        ESTIMATED_BITMAP_BYTES),
+                null);
+    }
+
+    private void assertPrefetched(Map<ImageRequest, TestDataSource> prefetches, int... positions) {
+        assertEquals(positions.length, prefetches.size());
+        for (int position : positions) {
+            assertNotNull(
+                    "position " + position + " not prefetched",
+                    prefetches.get(mRequests.get(position)));
+        }
+    }
+
+    private static class PrefetchAnswer implements Answer<DataSource<Void>> {
+        private final Map<ImageRequest, TestDataSource> mPrefetches;
+
+        PrefetchAnswer(Map<ImageRequest, TestDataSource> prefetches) {
+            mPrefetches = prefetches;
+        }
+
+        @Override
+        public DataSource<Void> answer(InvocationOnMock invocation) throws Throwable {
+            TestDataSource dataSource = new TestDataSource();
+            mPrefetches.put((ImageRequest) invocation.getArguments()[0], dataSource);
+            return dataSource;
+        }
+    }
+
+    private static class TestDataSource extends AbstractDataSource<Void> {
+        void finish() {
+            setResult(null, true);
+        }
+
+        void fail() {
+            setFailure(new Exception());
+        }
+    }
+}
@@ -67,7 +67,7 @@ public class ProducerSequenceFactoryTest {
         ProducerFactory producerFactory = mock(ProducerFactory.class, RETURNS_MOCKS);
 
         mProducerSequenceFactory =
-                new ProducerSequenceFactory(producerFactory, null, true, false, null, 5);
+                new ProducerSequenceFactory(producerFactory, null, true, false, null, 5, false);
 
         when(mImageRequest.getLowestPermittedRequestLevel())
                 .thenReturn(ImageRequest.RequestLevel.FULL_FETCH);
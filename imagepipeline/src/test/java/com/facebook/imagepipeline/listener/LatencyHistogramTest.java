@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.listener;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverAllValues() {
+        int previousIndex = -1;
+        for (long value = 0; value < 4096; value++) {
+            int index = LatencyHistogram.getBucketIndex(value);
+            assertTrue(index == previousIndex || index == previousIndex + 1);
+            assertTrue(LatencyHistogram.getBucketUpperBound(index) >= value);
+            previousIndex = index;
+        }
+        int lastIndex = LatencyHistogram.getBucketIndex(LatencyHistogram.MAX_TRACKABLE_VALUE_MS);
+        assertEquals(
+                LatencyHistogram.MAX_TRACKABLE_VALUE_MS,
+                LatencyHistogram.getBucketUpperBound(lastIndex));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 4; i++) {
+            histogram.record(i);
+        }
+        assertEquals(4, histogram.getCount());
+        assertEquals(2, histogram.getValueAtPercentile(50));
+        assertEquals(4, histogram.getValueAtPercentile(100));
+        assertEquals(4, histogram.getMax());
+        assertEquals(2, histogram.getMean());
+    }
+
+    @Test
+    public void testPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertWithinPrecision(500, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(950, histogram.getValueAtPercentile(95));
+        assertWithinPrecision(990, histogram.getValueAtPercentile(99));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testClampsAndIgnoresOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(1, histogram.getCount());
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_VALUE_MS, histogram.getMax());
+    }
+
+    @Test
+    public void testCopyAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        LatencyHistogram copy = histogram.copy();
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(1, copy.getCount());
+        assertEquals(10, copy.getMax());
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue(actual >= expected);
+        assertTrue(actual <= expected + expected / LatencyHistogram.SUB_BUCKET_COUNT);
+    }
+}
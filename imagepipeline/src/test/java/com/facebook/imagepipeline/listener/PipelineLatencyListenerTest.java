@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.listener;
+
+import android.net.Uri;
+
+import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PipelineLatencyListenerTest {
+
+    private static final String REQUEST_ID = "request";
+    private static final String CACHE_PRODUCER = "CacheProducer";
+    private static final String DECODE_PRODUCER = "DecodeProducer";
+
+    private long mNow;
+    private ImageRequest mImageRequest;
+    private PipelineLatencyListener mListener;
+
+    @Before
+    public void setUp() {
+        mNow = 1000;
+        mImageRequest = mock(ImageRequest.class);
+        when(mImageRequest.getSourceUri()).thenReturn(Uri.parse("http://fresco/image.jpg"));
+        mListener = new PipelineLatencyListener(
+                new MonotonicClock() {
+                    @Override
+                    public long now() {
+                        return mNow;
+                    }
+                },
+                1);
+    }
+
+    @Test
+    public void testRecordsRunAndQueueTimes() {
+        mListener.onRequestStart(mImageRequest, null, REQUEST_ID, false);
+        mListener.onProducerStart(REQUEST_ID, DECODE_PRODUCER);
+        mNow += 40;
+        mListener.onProducerFinishWithSuccess(
+                REQUEST_ID,
+                DECODE_PRODUCER,
+                ImmutableMap.of(PipelineLatencyListener.EXTRA_QUEUE_TIME, "7"));
+        mNow += 10;
+        mListener.onRequestSuccess(mImageRequest, REQUEST_ID, false);
+
+        PipelineLatencyListener.Snapshot snapshot = mListener.getSnapshot();
+        PipelineLatencyListener.ProducerStats stats = snapshot.producerStats.get(DECODE_PRODUCER);
+        assertEquals(1, stats.getSuccessCount());
+        assertEquals(40, stats.getRunTime().getMax());
+        assertEquals(7, stats.getQueueTime().getMax());
+        assertEquals(50, snapshot.requestLatencies.get("fetch:http").getMax());
+        assertEquals(50, snapshot.durationMs);
+    }
+
+    @Test
+    public void testAttributesCacheHits() {
+        mListener.onRequestStart(mImageRequest, null, REQUEST_ID, true);
+        finishCacheLookup(true);
+        finishCacheLookup(false);
+        finishCacheLookup(false);
+
+        PipelineLatencyListener.ProducerStats stats =
+                mListener.getSnapshot().producerStats.get(CACHE_PRODUCER);
+        assertEquals(1, stats.getCacheHitCount());
+        assertEquals(2, stats.getCacheMissCount());
+        assertEquals(0, stats.getQueueTime().getCount());
+    }
+
+    @Test
+    public void testCountsFailuresAndCancellations() {
+        mListener.onRequestStart(mImageRequest, null, REQUEST_ID, true);
+        mListener.onProducerStart(REQUEST_ID, DECODE_PRODUCER);
+        mListener.onProducerFinishWithFailure(
+                REQUEST_ID, DECODE_PRODUCER, new Exception(), null);
+        mListener.onProducerStart(REQUEST_ID, DECODE_PRODUCER);
+        mListener.onProducerFinishWithCancellation(REQUEST_ID, DECODE_PRODUCER, null);
+        mListener.onRequestCancellation(REQUEST_ID);
+
+        PipelineLatencyListener.Snapshot snapshot = mListener.getSnapshot();
+        PipelineLatencyListener.ProducerStats stats = snapshot.producerStats.get(DECODE_PRODUCER);
+        assertEquals(1, stats.getFailureCount());
+        assertEquals(1, stats.getCancellationCount());
+        assertEquals(2, stats.getRunTime().getCount());
+        assertTrue(snapshot.requestLatencies.isEmpty());
+    }
+
+    @Test
+    public void testSnapshotAndReset() {
+        mListener.onRequestStart(mImageRequest, null, REQUEST_ID, true);
+        finishCacheLookup(true);
+
+        PipelineLatencyListener.Snapshot snapshot = mListener.getSnapshotAndReset();
+        assertTrue(snapshot.producerStats.containsKey(CACHE_PRODUCER));
+        assertFalse(mListener.getSnapshot().producerStats.containsKey(CACHE_PRODUCER));
+
+        mNow += 20;
+        mListener.onRequestSuccess(mImageRequest, REQUEST_ID, true);
+        assertEquals(1, mListener.getSnapshot().requestLatencies.get("prefetch:http").getCount());
+    }
+
+    @Test
+    public void testRequiresExtraMapOnlyForSampledRequests() {
+        PipelineLatencyListener listener = new PipelineLatencyListener(
+                new MonotonicClock() {
+                    @Override
+                    public long now() {
+                        return mNow;
+                    }
+                },
+                2);
+        listener.onRequestStart(mImageRequest, null, "request1", false);
+        listener.onRequestStart(mImageRequest, null, "request2", false);
+        listener.onRequestStart(mImageRequest, null, "request3", false);
+        assertTrue(listener.requiresExtraMap("request1"));
+        assertFalse(listener.requiresExtraMap("request2"));
+        assertTrue(listener.requiresExtraMap("request3"));
+        assertFalse(listener.requiresExtraMap("unknown"));
+
+        // run times are recorded for every request
+        listener.onProducerStart("request2", DECODE_PRODUCER);
+        mNow += 30;
+        listener.onProducerFinishWithSuccess("request2", DECODE_PRODUCER, null);
+        PipelineLatencyListener.ProducerStats stats =
+                listener.getSnapshot().producerStats.get(DECODE_PRODUCER);
+        assertEquals(30, stats.getRunTime().getMax());
+        assertEquals(0, stats.getQueueTime().getCount());
+    }
+
+    private void finishCacheLookup(boolean found) {
+        mListener.onProducerStart(REQUEST_ID, CACHE_PRODUCER);
+        mListener.onProducerFinishWithSuccess(
+                REQUEST_ID,
+                CACHE_PRODUCER,
+                ImmutableMap.of(
+                        PipelineLatencyListener.EXTRA_CACHED_VALUE_FOUND,
+                        String.valueOf(found)));
+    }
+}
@@ -482,6 +482,79 @@ public class BasePoolTest {
         Assert.assertFalse(pool.canAllocate(4));
     }
 
+    // Tests that a request is served from a larger bucket only if the pool allows it
+    @Test
+    public void testGet_ReuseFromLargerBucket() throws Exception {
+        byte[] b1 = mPool.get(4);
+        mPool.release(b1);
+        byte[] b2 = mPool.get(2);
+        Assert.assertNotSame(b1, b2);
+        Assert.assertEquals(2, b2.length);
+
+        mPool = new TestPool(10, 14) {
+            @Override
+            protected int getMaxReusableBucketedSize(int bucketedSize) {
+                return bucketedSize + 2;
+            }
+        };
+        mStats.setPool(mPool);
+        b1 = mPool.get(4);
+        mPool.release(b1);
+        b2 = mPool.get(2);
+        Assert.assertSame(b1, b2);
+        byte[] b3 = mPool.get(2);
+        Assert.assertEquals(2, b3.length);
+        mStats.refresh();
+        Assert.assertEquals(
+                ImmutableMap.of(
+                        2, new IntPair(1, 0),
+                        4, new IntPair(1, 0)),
+                mStats.mBucketStats);
+        Assert.assertEquals(
+                Integer.valueOf(1),
+                mPool.getStats().get(PoolStatsTracker.LARGER_BUCKET_REUSE_COUNT));
+
+        // the value goes back to the bucket it came from
+        mPool.release(b2);
+        mStats.refresh();
+        Assert.assertEquals(
+                ImmutableMap.of(
+                        2, new IntPair(1, 0),
+                        4, new IntPair(0, 1)),
+                mStats.mBucketStats);
+    }
+
+    @Test
+    public void testGetStats_ReuseCounts() throws Exception {
+        byte[] b1 = mPool.get(2);
+        mPool.release(b1);
+        mPool.get(2);
+        mPool.get(4);
+        Assert.assertEquals(
+                Integer.valueOf(1),
+                mPool.getStats().get(PoolStatsTracker.REUSE_COUNT));
+        Assert.assertEquals(
+                Integer.valueOf(2),
+                mPool.getStats().get(PoolStatsTracker.ALLOC_COUNT));
+        Assert.assertEquals(
+                Integer.valueOf(0),
+                mPool.getStats().get(PoolStatsTracker.LARGER_BUCKET_REUSE_COUNT));
+    }
+
+    @Test
+    public void testRelease_MaxFreeSizeExceeded() throws Exception {
+        mPool = new TestPool(100, 100, null, 6);
+        mStats = new PoolStats<byte[]>(mPool);
+        byte[] b1 = mPool.get(4);
+        byte[] b2 = mPool.get(4);
+        mPool.release(b1);
+        mPool.release(b2);
+        mStats.refresh();
+        Assert.assertEquals(1, mStats.mFreeCount);
+        Assert.assertEquals(4, mStats.mFreeBytes);
+        Assert.assertEquals(0, mStats.mUsedBytes);
+    }
+
     /**
      * A simple test pool that allocates byte arrays, and always allocates buffers of double
      * the size requested
@@ -497,9 +570,24 @@ public class BasePoolTest {
                 int maxPoolSizeSoftCap,
                 int maxPoolSizeHardCap,
                 SparseIntArray bucketSizes) {
+            this(maxPoolSizeSoftCap, maxPoolSizeHardCap, bucketSizes, Integer.MAX_VALUE);
+        }
+
+        public TestPool(
+                int maxPoolSizeSoftCap,
+                int maxPoolSizeHardCap,
+                SparseIntArray bucketSizes,
+                int maxFreeSize) {
             super(
                     mock(MemoryTrimmableRegistry.class),
-                    new PoolParams(maxPoolSizeSoftCap, maxPoolSizeHardCap, bucketSizes),
+                    new PoolParams(
+                            maxPoolSizeSoftCap,
+                            maxPoolSizeHardCap,
+                            bucketSizes,
+                            0,
+                            Integer.MAX_VALUE,
+                            PoolParams.IGNORE_THREADS,
+                            maxFreeSize),
                     mock(PoolStatsTracker.class));
             mIsReusable = true;
             initialize();
@@ -32,6 +32,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.verify;
 
@@ -91,6 +92,28 @@ public class BitmapPoolTest {
         assertEquals(56, (int) mPool.getBucketedSize(56));
     }
 
+    @Test
+    public void testGetBucketedSizeRoundsUpToSizeClass() throws Exception {
+        assertEquals(1024, (int) mPool.getBucketedSize(1000));
+        assertEquals(1024, (int) mPool.getBucketedSize(1024));
+        assertEquals(1152, (int) mPool.getBucketedSize(1025));
+        assertEquals(480 * 1024, (int) mPool.getBucketedSize(470 * 1024));
+    }
+
+    @Test
+    public void testGetBucketedSizeForValueRoundsDownToSizeClass() throws Exception {
+        Bitmap bitmap = MockBitmapFactory.create(10, 110, Config.ARGB_8888);
+        doReturn(4400).when(bitmap).getAllocationByteCount();
+        doCallRealMethod().when(mPool).getBucketedSizeForValue(any(Bitmap.class));
+        assertEquals(4096, (int) mPool.getBucketedSizeForValue(bitmap));
+    }
+
+    @Test
+    public void testGetMaxReusableBucketedSize() throws Exception {
+        assertEquals(1280, mPool.getMaxReusableBucketedSize(1024));
+        assertEquals(64, mPool.getMaxReusableBucketedSize(56));
+    }
+
     // tests out the getBucketedSizeForValue method
     @Test
     public void testGetBucketedSizeForValue() throws Exception {
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Basic tests for {@link MappedPooledByteBuffer}
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MappedPooledByteBufferTest {
+    private static final byte[] BYTES = new byte[]{1, 4, 5, 0, 100, 34, 0, 1, -1, -1};
+
+    private File mFile;
+    private MappedPooledByteBuffer mPooledByteBuffer;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("mapped", "bin");
+        FileOutputStream stream = new FileOutputStream(mFile);
+        try {
+            stream.write(BYTES);
+        } finally {
+            stream.close();
+        }
+        mPooledByteBuffer = MappedPooledByteBuffer.map(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testBasic() {
+        assertFalse(mPooledByteBuffer.isClosed());
+        assertEquals(BYTES.length, mPooledByteBuffer.size());
+    }
+
+    @Test
+    public void testSimpleRead() {
+        for (int i = 0; i < BYTES.length; i++) {
+            assertEquals(BYTES[i], mPooledByteBuffer.read(i));
+        }
+    }
+
+    @Test
+    public void testBulkRead() {
+        byte[] buffer = new byte[6];
+        mPooledByteBuffer.read(3, buffer, 1, 5);
+        assertArrayEquals(new byte[]{0, 0, 100, 34, 0, 1}, buffer);
+        // bulk reads do not move the position of the mapping
+        mPooledByteBuffer.read(0, buffer, 0, 2);
+        assertEquals(1, buffer[0]);
+        assertEquals(4, buffer[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadOutOfBounds() {
+        mPooledByteBuffer.read(BYTES.length);
+    }
+
+    @Test
+    public void testReadAfterDelete() {
+        assertTrue(mFile.delete());
+        assertEquals(BYTES[4], mPooledByteBuffer.read(4));
+    }
+
+    @Test
+    public void testClose() {
+        mPooledByteBuffer.close();
+        assertTrue(mPooledByteBuffer.isClosed());
+    }
+
+    @Test(expected = PooledByteBuffer.ClosedException.class)
+    public void testReadAfterClose() {
+        mPooledByteBuffer.close();
+        mPooledByteBuffer.read(0);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.testing.FakeNativeMemoryChunkPool;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+
+/**
+ * Tests for SegmentedPooledByteBufferOutputStream and SegmentedPooledByteBuffer
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SegmentedPooledByteBufferOutputStreamTest extends TestUsingNativeMemoryChunk {
+    private static final int SEGMENT_SIZE = 8;
+
+    private NativeMemoryChunkPool mPool;
+    private byte[] mData;
+
+    @Before
+    public void setup() {
+        mPool = new FakeNativeMemoryChunkPool();
+        mData = new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13};
+    }
+
+    @Test
+    public void testWritesAcrossSegments() throws Exception {
+        SegmentedPooledByteBufferOutputStream os = newStream();
+        os.write(mData, 0, 5);
+        os.write(mData, 5, 9);
+        Assert.assertEquals(2, os.mSegmentRefs.size());
+
+        SegmentedPooledByteBuffer buffer = os.toByteBuffer();
+        Assert.assertEquals(mData.length, buffer.size());
+        for (int i = 0; i < mData.length; i++) {
+            Assert.assertEquals(mData[i], buffer.read(i));
+        }
+        byte[] bytes = new byte[10];
+        buffer.read(3, bytes, 1, 9);
+        Assert.assertArrayEquals(
+                new byte[]{0, 3, 4, 5, 6, 7, 8, 9, 10, 11},
+                bytes);
+    }
+
+    @Test
+    public void testSingleByteWrites() throws Exception {
+        SegmentedPooledByteBufferOutputStream os = newStream();
+        for (int i = 0; i < SEGMENT_SIZE * 2; i++) {
+            os.write(i);
+        }
+        Assert.assertEquals(2, os.mSegmentRefs.size());
+        Assert.assertEquals(SEGMENT_SIZE * 2, os.size());
+    }
+
+    @Test
+    public void testToByteBufferSharesSegments() throws Exception {
+        SegmentedPooledByteBufferOutputStream os = newStream();
+        os.write(mData, 0, 9);
+        SegmentedPooledByteBuffer buf1 = os.toByteBuffer();
+        os.write(mData, 9, 3);
+        SegmentedPooledByteBuffer buf2 = os.toByteBuffer();
+        Assert.assertEquals(9, buf1.size());
+        Assert.assertEquals(12, buf2.size());
+        Assert.assertEquals(mData[8], buf1.read(8));
+
+        final CloseableReference<NativeMemoryChunk> segment = os.mSegmentRefs.get(0);
+        Assert.assertEquals(3, segment.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+        os.close();
+        buf1.close();
+        buf2.close();
+        Assert.assertEquals(0, segment.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+    }
+
+    @Test
+    public void testGetNativePtrFlattensSegments() throws Exception {
+        SegmentedPooledByteBufferOutputStream os = newStream();
+        os.write(mData, 0, mData.length);
+        SegmentedPooledByteBuffer buffer = os.toByteBuffer();
+        Assert.assertNull(buffer.mFlattenedRef);
+
+        buffer.getNativePtr();
+        byte[] bytes = new byte[mData.length];
+        buffer.mFlattenedRef.get().read(0, bytes, 0, bytes.length);
+        Assert.assertArrayEquals(mData, bytes);
+
+        final CloseableReference<NativeMemoryChunk> flattened = buffer.mFlattenedRef;
+        buffer.close();
+        Assert.assertFalse(flattened.isValid());
+    }
+
+    @Test
+    public void testGetNativePtrDoesNotFlattenSingleSegment() throws Exception {
+        SegmentedPooledByteBufferOutputStream os = newStream();
+        os.write(Arrays.copyOf(mData, SEGMENT_SIZE), 0, SEGMENT_SIZE);
+        SegmentedPooledByteBuffer buffer = os.toByteBuffer();
+        buffer.getNativePtr();
+        Assert.assertNull(buffer.mFlattenedRef);
+    }
+
+    @Test
+    public void testToByteBufferAfterClose() throws Exception {
+        SegmentedPooledByteBufferOutputStream os = newStream();
+        os.close();
+        try {
+            os.toByteBuffer();
+            Assert.fail();
+        } catch (NativePooledByteBufferOutputStream.InvalidStreamException e) {
+            // expected
+        }
+    }
+
+    private SegmentedPooledByteBufferOutputStream newStream() {
+        return new SegmentedPooledByteBufferOutputStream(mPool, SEGMENT_SIZE);
+    }
+}
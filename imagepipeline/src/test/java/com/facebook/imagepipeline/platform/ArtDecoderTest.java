@@ -137,6 +137,38 @@ public class ArtDecoderTest {
         verifyDecodedFromStream();
     }
 
+    @Test
+    public void testDecodeStaticSkipsBoundsDecodeWhenDimensionsKnown() {
+        mEncodedImage.setWidth(MockBitmapFactory.DEFAULT_BITMAP_WIDTH);
+        mEncodedImage.setHeight(MockBitmapFactory.DEFAULT_BITMAP_HEIGHT);
+        mArtDecoder.decodeFromEncodedImage(mEncodedImage, DEFAULT_BITMAP_CONFIG);
+        verifyStatic(times(1));
+        BitmapFactory.decodeStream(
+                any(ByteArrayInputStream.class),
+                isNull(Rect.class),
+                any(BitmapFactory.Options.class));
+    }
+
+    @Test
+    public void testDecodeStaticDecodesBoundsForOtherSampleSizes() {
+        mEncodedImage.setWidth(MockBitmapFactory.DEFAULT_BITMAP_WIDTH * 3);
+        mEncodedImage.setHeight(MockBitmapFactory.DEFAULT_BITMAP_HEIGHT * 3);
+        mEncodedImage.setSampleSize(3);
+        mArtDecoder.decodeFromEncodedImage(mEncodedImage, DEFAULT_BITMAP_CONFIG);
+        verifyStatic(times(2));
+        BitmapFactory.decodeStream(
+                any(ByteArrayInputStream.class),
+                isNull(Rect.class),
+                any(BitmapFactory.Options.class));
+    }
+
+    @Test
+    public void testGetSampledDimension() {
+        assertEquals(100, ArtDecoder.getSampledDimension(100, 1));
+        assertEquals(50, ArtDecoder.getSampledDimension(100, 2));
+        assertEquals(26, ArtDecoder.getSampledDimension(101, 4));
+    }
+
     @Test
     public void testDecodeStaticDoesNotLeak() {
         mArtDecoder.decodeFromEncodedImage(mEncodedImage, DEFAULT_BITMAP_CONFIG);
@@ -13,8 +13,13 @@ import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.ImmutableMap;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheVariantsIndex;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
 import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.common.RotationOptions;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.ImmutableQualityInfo;
 import com.facebook.imagepipeline.request.ImageRequest;
@@ -23,6 +28,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
@@ -41,6 +47,7 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -316,6 +323,114 @@ public class BitmapMemoryCacheProducerTest {
         verify(mProducerListener).onProducerFinishWithSuccess(mRequestId, PRODUCER_NAME, extraMap);
     }
 
+    @Test
+    public void testSizeTolerantLookupServesSmallestLargerVariant() {
+        BitmapMemoryCacheVariantsIndex variantsIndex = new BitmapMemoryCacheVariantsIndex();
+        BitmapMemoryCacheKey largeKey = createBitmapMemoryCacheKey(400);
+        BitmapMemoryCacheKey mediumKey = createBitmapMemoryCacheKey(200);
+        BitmapMemoryCacheKey smallKey = createBitmapMemoryCacheKey(50);
+        variantsIndex.add(largeKey);
+        variantsIndex.add(mediumKey);
+        variantsIndex.add(smallKey);
+        CloseableReference<CloseableImage> largeReference = createFinalImage(400);
+        CloseableReference<CloseableImage> mediumReference = createFinalImage(200);
+        when(mMemoryCache.get(largeKey)).thenReturn(largeReference);
+        when(mMemoryCache.get(mediumKey)).thenReturn(mediumReference);
+        when(mCacheKeyFactory.getBitmapCacheKey(mImageRequest, PRODUCER_NAME))
+                .thenReturn(createBitmapMemoryCacheKey(100));
+
+        createSizeTolerantProducer(variantsIndex, false)
+                .produceResults(mConsumer, mProducerContext);
+
+        verify(mConsumer).onNewResult(mediumReference, true);
+        verify(mInputProducer, never())
+                .produceResults(any(Consumer.class), any(ProducerContext.class));
+        verify(mMemoryCache, never()).get(smallKey);
+        Map<String, String> extraMap = ImmutableMap.of(
+                BitmapMemoryCacheProducer.EXTRA_CACHED_VALUE_FOUND, "true",
+                BitmapMemoryCacheProducer.EXTRA_LARGER_VARIANT_FOUND, "true");
+        verify(mProducerListener).onProducerFinishWithSuccess(mRequestId, PRODUCER_NAME, extraMap);
+        Assert.assertFalse(largeReference.isValid());
+        Assert.assertFalse(mediumReference.isValid());
+    }
+
+    @Test
+    public void testSizeTolerantLookupForgetsEvictedVariants() {
+        BitmapMemoryCacheVariantsIndex variantsIndex = new BitmapMemoryCacheVariantsIndex();
+        BitmapMemoryCacheKey evictedKey = createBitmapMemoryCacheKey(400);
+        variantsIndex.add(evictedKey);
+        BitmapMemoryCacheKey cacheKey = createBitmapMemoryCacheKey(100);
+        when(mCacheKeyFactory.getBitmapCacheKey(mImageRequest, PRODUCER_NAME))
+                .thenReturn(cacheKey);
+        CloseableReference<CloseableImage> finalReference = createFinalImage(100);
+        when(mMemoryCache.cache(cacheKey, finalReference)).thenReturn(finalReference.clone());
+        doAnswer(new ProduceResultsNewResultAnswer(Arrays.asList(finalReference)))
+                .when(mInputProducer).produceResults(any(Consumer.class), eq(mProducerContext));
+
+        createSizeTolerantProducer(variantsIndex, false)
+                .produceResults(mConsumer, mProducerContext);
+
+        verify(mInputProducer).produceResults(any(Consumer.class), eq(mProducerContext));
+        // the evicted key is dropped and the new final result is indexed
+        Assert.assertEquals(
+                Arrays.asList(cacheKey),
+                variantsIndex.getVariants(cacheKey.getUriString()));
+    }
+
+    @Test
+    public void testSizeTolerantLookupStartsResizedDecodeOnce() {
+        BitmapMemoryCacheVariantsIndex variantsIndex = new BitmapMemoryCacheVariantsIndex();
+        BitmapMemoryCacheKey largeKey = createBitmapMemoryCacheKey(400);
+        variantsIndex.add(largeKey);
+        when(mMemoryCache.get(largeKey))
+                .thenReturn(createFinalImage(400))
+                .thenReturn(createFinalImage(400));
+        when(mCacheKeyFactory.getBitmapCacheKey(mImageRequest, PRODUCER_NAME))
+                .thenReturn(createBitmapMemoryCacheKey(100));
+        BitmapMemoryCacheProducer producer = createSizeTolerantProducer(variantsIndex, true);
+
+        producer.produceResults(mConsumer, mProducerContext);
+        producer.produceResults(mock(Consumer.class), mProducerContext);
+
+        ArgumentCaptor<ProducerContext> resizedDecodeContext =
+                ArgumentCaptor.forClass(ProducerContext.class);
+        verify(mInputProducer, times(1))
+                .produceResults(any(Consumer.class), resizedDecodeContext.capture());
+        Assert.assertTrue(resizedDecodeContext.getValue().isPrefetch());
+        Assert.assertEquals(Priority.LOW, resizedDecodeContext.getValue().getPriority());
+        Assert.assertSame(mImageRequest, resizedDecodeContext.getValue().getImageRequest());
+    }
+
+    private BitmapMemoryCacheProducer createSizeTolerantProducer(
+            BitmapMemoryCacheVariantsIndex variantsIndex,
+            boolean resizedDecodeInBackground) {
+        return new BitmapMemoryCacheProducer(
+                mMemoryCache,
+                mCacheKeyFactory,
+                mInputProducer,
+                variantsIndex,
+                resizedDecodeInBackground);
+    }
+
+    private static BitmapMemoryCacheKey createBitmapMemoryCacheKey(int size) {
+        return new BitmapMemoryCacheKey(
+                "http://www.fresco.org/image.jpg",
+                new ResizeOptions(size, size),
+                RotationOptions.autoRotate(),
+                ImageDecodeOptions.defaults(),
+                null,
+                null,
+                null);
+    }
+
+    private static CloseableReference<CloseableImage> createFinalImage(int size) {
+        CloseableImage closeableImage = mock(CloseableImage.class);
+        when(closeableImage.getQualityInfo()).thenReturn(ImmutableQualityInfo.FULL_QUALITY);
+        when(closeableImage.getWidth()).thenReturn(size);
+        when(closeableImage.getHeight()).thenReturn(size);
+        return CloseableReference.of(closeableImage);
+    }
+
     private void setupBitmapMemoryCacheGetSuccess() {
         when(mMemoryCache.get(eq(mBitmapMemoryCacheKey)))
                 .thenReturn(mFinalImageReference);
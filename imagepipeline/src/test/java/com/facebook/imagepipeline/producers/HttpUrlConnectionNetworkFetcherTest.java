@@ -189,6 +189,43 @@ public class HttpUrlConnectionNetworkFetcherTest {
         verifyNoMoreInteractions(mMockCallback);
     }
 
+    @Test
+    public void testFetchResumesPartialDownload() throws IOException {
+        when(mMockFetchState.getResumeOffset()).thenReturn(100);
+        when(mMockFetchState.getResumeValidator()).thenReturn("\"etag\"");
+        InputStream mockInputStream = mock(InputStream.class);
+        HttpURLConnection mockConnection = mockSuccessWithStream(mockInputStream);
+        when(mockConnection.getResponseCode()).thenReturn(HttpRangeUtil.HTTP_PARTIAL_CONTENT);
+        when(mockConnection.getHeaderField(HttpRangeUtil.CONTENT_RANGE))
+                .thenReturn("bytes 100-199/200");
+        when(mockConnection.getHeaderField(HttpRangeUtil.ETAG)).thenReturn("\"etag\"");
+
+        runFetch();
+
+        verify(mockConnection).setRequestProperty(HttpRangeUtil.RANGE, "bytes=100-");
+        verify(mockConnection).setRequestProperty(HttpRangeUtil.IF_RANGE, "\"etag\"");
+        verify(mMockFetchState).setResponseOffset(100);
+        verify(mMockFetchState).setResponseValidator("\"etag\"");
+        verify(mMockCallback).onResponse(mockInputStream, -1);
+        verifyNoMoreInteractions(mMockCallback);
+    }
+
+    @Test
+    public void testFetchSendsErrorToCallbackAfterUnexpectedRange() throws IOException {
+        when(mMockFetchState.getResumeOffset()).thenReturn(100);
+        when(mMockFetchState.getResumeValidator()).thenReturn("\"etag\"");
+        HttpURLConnection mockConnection = mockSuccess();
+        when(mockConnection.getResponseCode()).thenReturn(HttpRangeUtil.HTTP_PARTIAL_CONTENT);
+        when(mockConnection.getHeaderField(HttpRangeUtil.CONTENT_RANGE))
+                .thenReturn("bytes 50-199/200");
+
+        runFetch();
+
+        verify(mMockCallback).onFailure(any(IOException.class));
+        verify(mockConnection).disconnect();
+        verifyNoMoreInteractions(mMockCallback);
+    }
+
     private HttpURLConnection mockSuccess() throws IOException {
         return mockSuccessWithStream(mock(InputStream.class));
     }
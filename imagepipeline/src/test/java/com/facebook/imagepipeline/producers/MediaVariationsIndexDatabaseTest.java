@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import android.net.Uri;
+
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.request.MediaVariations;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MediaVariationsIndexDatabaseTest {
+
+    private static final String MEDIA_ID_1 = "media1";
+    private static final String MEDIA_ID_2 = "media2";
+    private static final String URI_SMALL = "http://fresco/small.jpg";
+    private static final String URI_LARGE = "http://fresco/large.jpg";
+
+    private MediaVariationsIndexDatabase mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = newIndex();
+    }
+
+    @Test
+    public void testMissReturnsNull() throws Exception {
+        assertNull(mIndex.getCachedVariants(MEDIA_ID_1).getResult());
+    }
+
+    @Test
+    public void testSavedVariantIsFound() throws Exception {
+        save(MEDIA_ID_1, URI_SMALL, 100, 50);
+
+        List<MediaVariations.Variant> variants = mIndex.getCachedVariants(MEDIA_ID_1).getResult();
+        assertEquals(1, variants.size());
+        assertEquals(new MediaVariations.Variant(Uri.parse(URI_SMALL), 100, 50), variants.get(0));
+    }
+
+    @Test
+    public void testSaveUpdatesCachedLookup() throws Exception {
+        save(MEDIA_ID_1, URI_SMALL, 100, 50);
+        mIndex.getCachedVariants(MEDIA_ID_1).getResult();
+        save(MEDIA_ID_1, URI_LARGE, 400, 200);
+
+        assertEquals(2, mIndex.getCachedVariants(MEDIA_ID_1).getResult().size());
+    }
+
+    @Test
+    public void testVariantsArePersisted() throws Exception {
+        save(MEDIA_ID_1, URI_SMALL, 100, 50);
+        save(MEDIA_ID_1, URI_LARGE, 400, 200);
+
+        List<MediaVariations.Variant> variants =
+                newIndex().getCachedVariants(MEDIA_ID_1).getResult();
+        assertEquals(2, variants.size());
+    }
+
+    @Test
+    public void testBulkLookup() throws Exception {
+        save(MEDIA_ID_1, URI_SMALL, 100, 50);
+        save(MEDIA_ID_1, URI_LARGE, 400, 200);
+        save(MEDIA_ID_2, URI_SMALL, 100, 50);
+
+        Map<String, List<MediaVariations.Variant>> variants = newIndex()
+                .getCachedVariantsForMediaIds(Arrays.asList(MEDIA_ID_1, MEDIA_ID_2, "unknown"))
+                .getResult();
+        assertEquals(2, variants.size());
+        assertEquals(2, variants.get(MEDIA_ID_1).size());
+        assertEquals(1, variants.get(MEDIA_ID_2).size());
+    }
+
+    @Test
+    public void testGetSelectManySql() {
+        assertTrue(MediaVariationsIndexDatabase.getSelectManySql(3).endsWith(" IN (?,?,?)"));
+    }
+
+    private MediaVariationsIndexDatabase newIndex() {
+        return new MediaVariationsIndexDatabase(
+                RuntimeEnvironment.application,
+                CallerThreadExecutor.getInstance(),
+                CallerThreadExecutor.getInstance(),
+                MediaVariationsIndexDatabase.DEFAULT_MAX_CACHED_MEDIA_IDS,
+                0);
+    }
+
+    private void save(String mediaId, String uri, int width, int height) {
+        EncodedImage encodedImage = mock(EncodedImage.class);
+        when(encodedImage.getWidth()).thenReturn(width);
+        when(encodedImage.getHeight()).thenReturn(height);
+        mIndex.saveCachedVariant(mediaId, new SimpleCacheKey(uri), encodedImage);
+    }
+}
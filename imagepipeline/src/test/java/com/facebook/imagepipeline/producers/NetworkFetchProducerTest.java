@@ -11,14 +11,19 @@ package com.facebook.imagepipeline.producers;
 
 import android.os.SystemClock;
 
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
 import com.facebook.common.internal.Throwables;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.PartialDownloadCache;
 import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.memory.ByteArrayPool;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
 import com.facebook.imagepipeline.memory.PooledByteBufferOutputStream;
 import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.testing.TrivialPooledByteBuffer;
 
 import org.junit.After;
 import org.junit.Before;
@@ -35,6 +40,7 @@ import org.powermock.modules.junit4.rule.PowerMockRule;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
@@ -45,6 +51,9 @@ import java.util.concurrent.Future;
 
 import javax.annotation.concurrent.GuardedBy;
 
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
@@ -83,6 +92,10 @@ public class NetworkFetchProducerTest {
     public NetworkFetcher mNetworkFetcher;
     @Mock
     public Map<String, String> mExtrasMap;
+    @Mock
+    public PartialDownloadCache mPartialDownloadCache;
+    @Mock
+    public CacheKeyFactory mCacheKeyFactory;
     @Rule
     public PowerMockRule rule = new PowerMockRule();
     private byte[] mCommonByteArray;
@@ -261,6 +274,149 @@ public class NetworkFetchProducerTest {
         }
     }
 
+    @Test
+    public void testResumesPartialDownload() throws Exception {
+        CacheKey cacheKey = setUpPartialDownloads();
+        PartialDownloadCache.Entry partialDownload = setUpPartialDownload(cacheKey, 5);
+        when(mNetworkFetcher.shouldPropagate(any(FetchState.class))).thenReturn(false);
+
+        NetworkFetcher.Callback callback = performFetch();
+        assertEquals(5, mFetchState.getResumeOffset());
+        assertEquals("\"etag\"", mFetchState.getResumeValidator());
+
+        mFetchState.setResponseOffset(5);
+        callback.onResponse(new ByteArrayInputStream(new byte[3]), 3);
+        verify(mPooledByteBufferFactory).newOutputStream(8);
+        verify(mPooledByteBufferOutputStream).write(mCommonByteArray, 0, 5);
+        verify(mPooledByteBufferOutputStream).write(mCommonByteArray, 0, 3);
+        verify(mConsumer).onNewResult(any(CloseableReference.class), eq(true));
+        verify(mPartialDownloadCache).remove(cacheKey);
+        verify(partialDownload).close();
+    }
+
+    @Test
+    public void testDoesNotLookUpMissingPartialDownload() throws Exception {
+        CacheKey cacheKey = setUpPartialDownloads();
+
+        performFetch();
+        verify(mPartialDownloadCache).containsSync(cacheKey);
+        verify(mPartialDownloadCache, never()).get(any(CacheKey.class));
+        assertEquals(0, mFetchState.getResumeOffset());
+    }
+
+    @Test
+    public void testRemovesPartialDownloadIfNotResumed() throws Exception {
+        CacheKey cacheKey = setUpPartialDownloads();
+        PartialDownloadCache.Entry partialDownload = setUpPartialDownload(cacheKey, 5);
+
+        NetworkFetcher.Callback callback = performFetch();
+        callback.onFailure(new IOException("416"));
+        verify(mPartialDownloadCache).remove(cacheKey);
+        verify(partialDownload).close();
+        verify(mConsumer).onFailure(any(IOException.class));
+    }
+
+    @Test
+    public void testRemovesPartialDownloadOnUnexpectedOffset() throws Exception {
+        CacheKey cacheKey = setUpPartialDownloads();
+        setUpPartialDownload(cacheKey, 5);
+
+        NetworkFetcher.Callback callback = performFetch();
+        mFetchState.setResponseOffset(7);
+        try {
+            callback.onResponse(new ByteArrayInputStream(new byte[3]), 3);
+            fail();
+        } catch (IOException ioe) {
+            verify(mPartialDownloadCache).remove(cacheKey);
+        }
+    }
+
+    @Test
+    public void testDoesNotStoreCompleteDownload() throws Exception {
+        CacheKey cacheKey = setUpPartialDownloads();
+        when(mPooledByteBufferOutputStream.size())
+                .thenReturn(NetworkFetchProducer.MIN_PARTIAL_DOWNLOAD_SIZE);
+        InputStream inputStream = mock(InputStream.class);
+        when(inputStream.read(any(byte[].class))).thenReturn(10).thenThrow(new IOException());
+
+        NetworkFetcher.Callback callback = performFetch();
+        mFetchState.setResponseValidator("\"etag\"");
+        try {
+            callback.onResponse(inputStream, NetworkFetchProducer.MIN_PARTIAL_DOWNLOAD_SIZE);
+            fail();
+        } catch (IOException ioe) {
+            verify(mPartialDownloadCache, never())
+                    .put(any(CacheKey.class), anyString(), any(CloseableReference.class));
+        }
+    }
+
+    @Test
+    public void testStoresPartialDownloadOnFailure() throws Exception {
+        CacheKey cacheKey = setUpPartialDownloads();
+        when(mPartialDownloadCache.get(cacheKey))
+                .thenReturn(Task.<PartialDownloadCache.Entry>forResult(null));
+        when(mPooledByteBufferOutputStream.size())
+                .thenReturn(NetworkFetchProducer.MIN_PARTIAL_DOWNLOAD_SIZE);
+        InputStream inputStream = mock(InputStream.class);
+        when(inputStream.read(any(byte[].class))).thenReturn(10).thenThrow(new IOException());
+
+        NetworkFetcher.Callback callback = performFetch();
+        assertEquals(0, mFetchState.getResumeOffset());
+        mFetchState.setResponseValidator("\"etag\"");
+        try {
+            callback.onResponse(inputStream, 100);
+            fail();
+        } catch (IOException ioe) {
+            verify(mPartialDownloadCache)
+                    .put(eq(cacheKey), eq("\"etag\""), any(CloseableReference.class));
+            verify(mPooledByteBufferOutputStream).close();
+        }
+    }
+
+    @Test
+    public void testDoesNotStorePartialDownloadWithoutValidator() throws Exception {
+        CacheKey cacheKey = setUpPartialDownloads();
+        when(mPartialDownloadCache.get(cacheKey))
+                .thenReturn(Task.<PartialDownloadCache.Entry>forResult(null));
+        when(mPooledByteBufferOutputStream.size())
+                .thenReturn(NetworkFetchProducer.MIN_PARTIAL_DOWNLOAD_SIZE);
+        InputStream inputStream = mock(InputStream.class);
+        when(inputStream.read(any(byte[].class))).thenReturn(10).thenThrow(new IOException());
+
+        NetworkFetcher.Callback callback = performFetch();
+        try {
+            callback.onResponse(inputStream, 100);
+            fail();
+        } catch (IOException ioe) {
+            verify(mPartialDownloadCache, never())
+                    .put(any(CacheKey.class), anyString(), any(CloseableReference.class));
+        }
+    }
+
+    private CacheKey setUpPartialDownloads() {
+        CacheKey cacheKey = new SimpleCacheKey("http://test.uri");
+        when(mCacheKeyFactory.getEncodedCacheKey(eq(mImageRequest), any()))
+                .thenReturn(cacheKey);
+        mNetworkFetchProducer = new NetworkFetchProducer(
+                mPooledByteBufferFactory,
+                mByteArrayPool,
+                mNetworkFetcher,
+                mPartialDownloadCache,
+                mCacheKeyFactory);
+        return cacheKey;
+    }
+
+    private PartialDownloadCache.Entry setUpPartialDownload(CacheKey cacheKey, int size) {
+        PartialDownloadCache.Entry partialDownload = mock(PartialDownloadCache.Entry.class);
+        when(partialDownload.getSize()).thenReturn(size);
+        when(partialDownload.getValidator()).thenReturn("\"etag\"");
+        PooledByteBuffer bytes = new TrivialPooledByteBuffer(new byte[size]);
+        when(partialDownload.getBytesRef()).thenReturn(CloseableReference.of(bytes));
+        when(mPartialDownloadCache.containsSync(cacheKey)).thenReturn(true);
+        when(mPartialDownloadCache.get(cacheKey)).thenReturn(Task.forResult(partialDownload));
+        return partialDownload;
+    }
+
     private void verifyPooledByteBufferUsed(int times) {
         verify(mPooledByteBufferOutputStream, times(times)).toByteBuffer();
         verify(mPooledByteBuffer, times(times)).close();
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import android.net.Uri;
+
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PriorityNetworkFetcherTest {
+
+    private FakeServer mServer;
+    private long mNow;
+    private PriorityNetworkFetcher<FetchState> mFetcher;
+    private SettableProducerContext mLastContext;
+    private PriorityNetworkFetcher.PriorityFetchState<FetchState> mLastFetchState;
+
+    @Before
+    public void setUp() {
+        mServer = new FakeServer();
+        mNow = 0;
+        mFetcher = newFetcher(2, 2, 1);
+    }
+
+    @Test
+    public void testCapsConcurrentFetches() throws Exception {
+        fetch("http://a/1", false);
+        fetch("http://b/2", false);
+        fetch("http://c/3", false);
+        assertEquals(2, mServer.mRequests.size());
+        assertEquals(1, mFetcher.getQueueSize());
+
+        mServer.respond(0, new byte[10]);
+        assertEquals(3, mServer.mRequests.size());
+        assertEquals("http://c/3", mServer.uri(2));
+    }
+
+    @Test
+    public void testCapsConcurrentFetchesPerHost() throws Exception {
+        mFetcher = newFetcher(3, 1, 0);
+        fetch("http://a/1", false);
+        fetch("http://a/2", false);
+        fetch("http://b/3", false);
+        assertEquals(2, mServer.mRequests.size());
+        assertEquals("http://b/3", mServer.uri(1));
+
+        mServer.respond(0, new byte[10]);
+        assertEquals("http://a/2", mServer.uri(2));
+    }
+
+    @Test
+    public void testStartsVisibleFetchesFirst() throws Exception {
+        mFetcher = newFetcher(1, 1, 0);
+        fetch("http://a/1", false);
+        fetch("http://b/prefetch", true);
+        fetch("http://c/visible", false);
+
+        mServer.respond(0, new byte[10]);
+        assertEquals("http://c/visible", mServer.uri(1));
+        mServer.respond(1, new byte[10]);
+        assertEquals("http://b/prefetch", mServer.uri(2));
+    }
+
+    @Test
+    public void testQueuedFetchFollowsPrefetchChange() throws Exception {
+        mFetcher = newFetcher(1, 1, 0);
+        fetch("http://a/1", false);
+        fetch("http://b/prefetch", true);
+        SettableProducerContext promoted = mLastContext;
+        fetch("http://c/visible", false);
+
+        promoted.setIsPrefetch(false);
+        mServer.respond(0, new byte[10]);
+        assertEquals("http://b/prefetch", mServer.uri(1));
+    }
+
+    @Test
+    public void testPausesPrefetchForVisibleFetch() throws Exception {
+        mFetcher = newFetcher(1, 2, 1);
+        fetch("http://a/prefetch", true);
+        PriorityNetworkFetcher.PriorityFetchState<FetchState> prefetchState = mLastFetchState;
+        fetch("http://a/visible", false);
+
+        assertEquals(2, mServer.mRequests.size());
+        assertTrue(prefetchState.isPaused());
+        assertEquals(1, mFetcher.getPausedCount());
+
+        mServer.respond(1, new byte[10]);
+        assertFalse(prefetchState.isPaused());
+        assertEquals(0, mFetcher.getPausedCount());
+    }
+
+    @Test
+    public void testResumesPausedFetchWhenItBecomesVisible() throws Exception {
+        mFetcher = newFetcher(1, 2, 1);
+        fetch("http://a/prefetch", true);
+        PriorityNetworkFetcher.PriorityFetchState<FetchState> prefetchState = mLastFetchState;
+        SettableProducerContext prefetchContext = mLastContext;
+        fetch("http://a/visible", false);
+        assertTrue(prefetchState.isPaused());
+
+        prefetchContext.setIsPrefetch(false);
+        assertFalse(prefetchState.isPaused());
+    }
+
+    @Test
+    public void testCancelsQueuedFetch() throws Exception {
+        mFetcher = newFetcher(1, 1, 0);
+        fetch("http://a/1", false);
+        NetworkFetcher.Callback queued = fetch("http://b/2", false);
+
+        mLastContext.cancel();
+        verify(queued).onCancellation();
+        assertEquals(0, mFetcher.getQueueSize());
+    }
+
+    @Test
+    public void testExtraMap() throws Exception {
+        mFetcher = newFetcher(1, 1, 0);
+        fetch("http://a/1", false);
+        fetch("http://b/2", false);
+        PriorityNetworkFetcher.PriorityFetchState<FetchState> fetchState = mLastFetchState;
+
+        mNow = 100;
+        mServer.respond(0, new byte[10]);
+        mNow = 600;
+        mFetcher.onFetchCompletion(fetchState, 1000);
+
+        Map<String, String> extraMap = mFetcher.getExtraMap(fetchState, 1000);
+        assertEquals("100", extraMap.get(PriorityNetworkFetcher.QUEUE_TIME));
+        assertEquals("0", extraMap.get(PriorityNetworkFetcher.PAUSED_TIME));
+        assertEquals("2000", extraMap.get(PriorityNetworkFetcher.THROUGHPUT));
+        assertEquals("delegate", extraMap.get("source"));
+    }
+
+    private NetworkFetcher.Callback fetch(String uri, boolean isPrefetch) {
+        ImageRequest imageRequest = mock(ImageRequest.class);
+        when(imageRequest.getSourceUri()).thenReturn(Uri.parse(uri));
+        mLastContext = new SettableProducerContext(
+                imageRequest,
+                uri,
+                mock(ProducerListener.class),
+                null,
+                ImageRequest.RequestLevel.FULL_FETCH,
+                isPrefetch,
+                true,
+                isPrefetch ? Priority.LOW : Priority.HIGH);
+        NetworkFetcher.Callback callback = mock(NetworkFetcher.Callback.class);
+        mLastFetchState = mFetcher.createFetchState(mock(Consumer.class), mLastContext);
+        mFetcher.fetch(mLastFetchState, callback);
+        return callback;
+    }
+
+    private PriorityNetworkFetcher<FetchState> newFetcher(
+            int maxConcurrentFetches,
+            int maxConcurrentFetchesPerHost,
+            int maxPausedFetches) {
+        return new PriorityNetworkFetcher<>(
+                mServer,
+                maxConcurrentFetches,
+                maxConcurrentFetchesPerHost,
+                maxPausedFetches,
+                new MonotonicClock() {
+                    @Override
+                    public long now() {
+                        return mNow;
+                    }
+                });
+    }
+
+    /**
+     * Stand-in for a network stack: records the fetches it receives and answers them on demand.
+     */
+    private static class FakeServer extends BaseNetworkFetcher<FetchState> {
+        private final List<Request> mRequests = new ArrayList<>();
+
+        @Override
+        public FetchState createFetchState(
+                Consumer<EncodedImage> consumer,
+                ProducerContext producerContext) {
+            return new FetchState(consumer, producerContext);
+        }
+
+        @Override
+        public void fetch(FetchState fetchState, NetworkFetcher.Callback callback) {
+            mRequests.add(new Request(fetchState, callback));
+        }
+
+        @Override
+        public Map<String, String> getExtraMap(FetchState fetchState, int byteSize) {
+            Map<String, String> extraMap = new HashMap<>();
+            extraMap.put("source", "delegate");
+            return extraMap;
+        }
+
+        String uri(int index) {
+            return mRequests.get(index).fetchState.getUri().toString();
+        }
+
+        void respond(int index, byte[] body) throws IOException {
+            InputStream response = new ByteArrayInputStream(body);
+            mRequests.get(index).callback.onResponse(response, body.length);
+        }
+    }
+
+    private static class Request {
+        final FetchState fetchState;
+        final NetworkFetcher.Callback callback;
+
+        Request(FetchState fetchState, NetworkFetcher.Callback callback) {
+            this.fetchState = fetchState;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.CloseableStaticBitmap;
+import com.facebook.imagepipeline.image.ImmutableQualityInfo;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+import com.facebook.imagepipeline.request.MediaVariations;
+import com.facebook.imagepipeline.testing.MockBitmapFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ResizeVariantsMultiplexProducerTest {
+
+    private static final Uri URI = Uri.parse("http://www.fresco.org/image.jpg");
+
+    @Mock
+    public CacheKeyFactory mCacheKeyFactory;
+    @Mock
+    public PlatformBitmapFactory mPlatformBitmapFactory;
+    @Mock
+    public Producer<CloseableReference<CloseableImage>> mInputProducer;
+    @Mock
+    public ProducerListener mProducerListener;
+    @Mock
+    public ResourceReleaser<Bitmap> mResourceReleaser;
+
+    private CacheKey mEncodedCacheKey;
+    private ResizeVariantsMultiplexProducer mProducer;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mEncodedCacheKey = new SimpleCacheKey(URI.toString());
+        when(mCacheKeyFactory.getEncodedCacheKey(any(ImageRequest.class), any()))
+                .thenReturn(mEncodedCacheKey);
+        mProducer = new ResizeVariantsMultiplexProducer(
+                mCacheKeyFactory,
+                mPlatformBitmapFactory,
+                mInputProducer);
+    }
+
+    @Test
+    public void testCovers() {
+        assertTrue(ResizeVariantsMultiplexProducer.covers(null, null));
+        assertTrue(ResizeVariantsMultiplexProducer.covers(null, new ResizeOptions(10, 10)));
+        assertFalse(ResizeVariantsMultiplexProducer.covers(new ResizeOptions(10, 10), null));
+        assertTrue(ResizeVariantsMultiplexProducer.covers(
+                new ResizeOptions(300, 200),
+                new ResizeOptions(100, 200)));
+        assertFalse(ResizeVariantsMultiplexProducer.covers(
+                new ResizeOptions(300, 200),
+                new ResizeOptions(100, 201)));
+    }
+
+    @Test
+    public void testGetScale() {
+        assertEquals(1.0f, ResizeVariantsMultiplexProducer.getScale(400, 400, 0, null), 0);
+        assertEquals(
+                1.0f,
+                ResizeVariantsMultiplexProducer.getScale(400, 400, 0, new ResizeOptions(300, 300)),
+                0);
+        assertEquals(
+                0.25f,
+                ResizeVariantsMultiplexProducer.getScale(400, 400, 0, new ResizeOptions(100, 50)),
+                0);
+        // the rotated bitmap is 200x400
+        assertEquals(
+                0.5f,
+                ResizeVariantsMultiplexProducer.getScale(400, 200, 90, new ResizeOptions(100, 50)),
+                0);
+        assertEquals(
+                0.25f,
+                ResizeVariantsMultiplexProducer.getScale(400, 200, 0, new ResizeOptions(100, 50)),
+                0);
+    }
+
+    @Test
+    public void testSmallerRequestJoinsLargerRequest() {
+        Consumer<CloseableReference<CloseableImage>> largeConsumer = mock(Consumer.class);
+        Consumer<CloseableReference<CloseableImage>> smallConsumer = mock(Consumer.class);
+        mProducer.produceResults(largeConsumer, createContext("large", 400));
+        mProducer.produceResults(smallConsumer, createContext("small", 100));
+
+        Consumer<CloseableReference<CloseableImage>> inputConsumer = verifyInputRequest(400);
+
+        Bitmap scaledBitmap = MockBitmapFactory.create(100, 100, Bitmap.Config.ARGB_8888);
+        when(mPlatformBitmapFactory.createScaledBitmap(
+                any(Bitmap.class),
+                eq(100),
+                eq(100),
+                anyBoolean(),
+                any()))
+                .thenReturn(CloseableReference.of(scaledBitmap, mResourceReleaser));
+        CloseableReference<CloseableImage> result = createResult(400, 400);
+        inputConsumer.onNewResult(result, true);
+
+        verify(largeConsumer).onNewResult(result, true);
+        verify(smallConsumer, never()).onNewResult(result, true);
+        verify(smallConsumer).onNewResult(any(CloseableReference.class), eq(true));
+        // the scaled bitmap is released once the consumer is done with it
+        verify(mResourceReleaser).release(scaledBitmap);
+        result.close();
+    }
+
+    @Test
+    public void testLargerRequestStartsOwnDecode() {
+        Consumer<CloseableReference<CloseableImage>> smallConsumer = mock(Consumer.class);
+        Consumer<CloseableReference<CloseableImage>> largeConsumer = mock(Consumer.class);
+        Consumer<CloseableReference<CloseableImage>> mediumConsumer = mock(Consumer.class);
+        mProducer.produceResults(smallConsumer, createContext("small", 100));
+        mProducer.produceResults(largeConsumer, createContext("large", 400));
+        // joins the larger request, which replaced the smaller one
+        mProducer.produceResults(mediumConsumer, createContext("medium", 200));
+
+        ArgumentCaptor<Consumer> inputConsumers = ArgumentCaptor.forClass(Consumer.class);
+        ArgumentCaptor<ProducerContext> inputContexts =
+                ArgumentCaptor.forClass(ProducerContext.class);
+        verify(mInputProducer, times(2))
+                .produceResults(inputConsumers.capture(), inputContexts.capture());
+        assertEquals(
+                100,
+                inputContexts.getAllValues().get(0).getImageRequest().getResizeOptions().width);
+        assertEquals(
+                400,
+                inputContexts.getAllValues().get(1).getImageRequest().getResizeOptions().width);
+
+        CloseableReference<CloseableImage> smallResult = createResult(100, 100);
+        inputConsumers.getAllValues().get(0).onNewResult(smallResult, true);
+        verify(smallConsumer).onNewResult(smallResult, true);
+        verify(mediumConsumer, never()).onNewResult(any(CloseableReference.class), anyBoolean());
+        verify(mPlatformBitmapFactory, never()).createScaledBitmap(
+                any(Bitmap.class),
+                anyInt(),
+                anyInt(),
+                anyBoolean(),
+                any());
+    }
+
+    @Test
+    public void testDifferentImagesAreNotCombined() {
+        when(mCacheKeyFactory.getEncodedCacheKey(any(ImageRequest.class), any()))
+                .thenReturn(mEncodedCacheKey)
+                .thenReturn(new SimpleCacheKey("other"));
+        mProducer.produceResults(mock(Consumer.class), createContext("first", 400));
+        mProducer.produceResults(mock(Consumer.class), createContext("second", 100));
+
+        verify(mInputProducer, times(2))
+                .produceResults(any(Consumer.class), any(ProducerContext.class));
+    }
+
+    @Test
+    public void testMultiplexedRequestCoversAllRequests() {
+        ProducerContext wide = createContext("wide", 400, 100);
+        ProducerContext tall = createContext("tall", 100, 300);
+
+        ImageRequest multiplexedRequest =
+                mProducer.getMultiplexedImageRequest(Arrays.asList(wide, tall));
+
+        assertEquals(URI, multiplexedRequest.getSourceUri());
+        assertEquals(400, multiplexedRequest.getResizeOptions().width);
+        assertEquals(300, multiplexedRequest.getResizeOptions().height);
+        assertSame(
+                wide.getImageRequest(),
+                mProducer.getMultiplexedImageRequest(
+                        Arrays.asList(wide, createContext("smaller", 100, 100))));
+        assertNull(
+                mProducer.getMultiplexedImageRequest(
+                        Arrays.asList(wide, createContext("full", 0, 0)))
+                        .getResizeOptions());
+    }
+
+    @Test
+    public void testMultiplexedRequestKeepsCacheOptions() {
+        MediaVariations mediaVariations = MediaVariations.forMediaId("media");
+        ImageRequest small = ImageRequestBuilder.newBuilderWithSource(URI)
+                .setResizeOptions(new ResizeOptions(100, 100))
+                .setMediaVariations(mediaVariations)
+                .disableDiskCache()
+                .build();
+
+        ImageRequest multiplexedRequest = mProducer.getMultiplexedImageRequest(
+                Arrays.asList(createContext(small), createContext("large", 400)));
+
+        assertEquals(400, multiplexedRequest.getResizeOptions().width);
+        assertFalse(multiplexedRequest.isDiskCacheEnabled());
+        assertSame(mediaVariations, multiplexedRequest.getMediaVariations());
+    }
+
+    @Test
+    public void testRequestsWithDifferentDiskCacheOptionsAreNotCombined() {
+        ImageRequest noDiskCache = ImageRequestBuilder.newBuilderWithSource(URI)
+                .setResizeOptions(new ResizeOptions(100, 100))
+                .disableDiskCache()
+                .build();
+        mProducer.produceResults(mock(Consumer.class), createContext("first", 400));
+        mProducer.produceResults(mock(Consumer.class), createContext(noDiskCache));
+
+        verify(mInputProducer, times(2))
+                .produceResults(any(Consumer.class), any(ProducerContext.class));
+    }
+
+    private Consumer<CloseableReference<CloseableImage>> verifyInputRequest(int size) {
+        ArgumentCaptor<Consumer> inputConsumer = ArgumentCaptor.forClass(Consumer.class);
+        ArgumentCaptor<ProducerContext> inputContext =
+                ArgumentCaptor.forClass(ProducerContext.class);
+        verify(mInputProducer).produceResults(inputConsumer.capture(), inputContext.capture());
+        ResizeOptions resizeOptions = inputContext.getValue().getImageRequest().getResizeOptions();
+        assertEquals(size, resizeOptions.width);
+        assertEquals(size, resizeOptions.height);
+        return inputConsumer.getValue();
+    }
+
+    private CloseableReference<CloseableImage> createResult(int width, int height) {
+        return CloseableReference.<CloseableImage>of(
+                new CloseableStaticBitmap(
+                        MockBitmapFactory.create(width, height, Bitmap.Config.ARGB_8888),
+                        mResourceReleaser,
+                        ImmutableQualityInfo.FULL_QUALITY,
+                        0));
+    }
+
+    private ProducerContext createContext(String id, int size) {
+        return createContext(id, size, size);
+    }
+
+    /**
+     * Creates a context for a request of the test image, at full size if width is 0.
+     */
+    private ProducerContext createContext(String id, int width, int height) {
+        ImageRequest imageRequest = ImageRequestBuilder.newBuilderWithSource(URI)
+                .setResizeOptions(width > 0 ? new ResizeOptions(width, height) : null)
+                .build();
+        return createContext(imageRequest, id);
+    }
+
+    private ProducerContext createContext(ImageRequest imageRequest) {
+        return createContext(imageRequest, "other");
+    }
+
+    private ProducerContext createContext(ImageRequest imageRequest, String id) {
+        return new SettableProducerContext(
+                imageRequest,
+                id,
+                mProducerListener,
+                null,
+                ImageRequest.RequestLevel.FULL_FETCH,
+                false,
+                true,
+                Priority.MEDIUM);
+    }
+}
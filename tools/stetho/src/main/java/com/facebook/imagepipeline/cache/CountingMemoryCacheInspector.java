@@ -44,17 +44,15 @@ public class CountingMemoryCacheInspector<K, V> {
                     mCountingBitmapCache.getEvictionQueueSizeInBytes(),
                     mCountingBitmapCache.mMemoryCacheParams);
 
-            final List<LinkedHashMap.Entry<K, CountingMemoryCache.Entry<K, V>>> cachedEntries =
-                    mCountingBitmapCache.mCachedEntries.getMatchingEntries(null);
-            for (LinkedHashMap.Entry<K, CountingMemoryCache.Entry<K, V>> cachedEntry : cachedEntries) {
-                CountingMemoryCache.Entry<K, V> entry = cachedEntry.getValue();
-                DumpInfoEntry<K, V> dumpEntry = new DumpInfoEntry<>(entry.key, entry.valueRef);
-                if (entry.clientCount > 0) {
-                    dumpInfo.sharedEntries.add(dumpEntry);
-                }
-                else {
-                    dumpInfo.lruEntries.add(dumpEntry);
+            if (mCountingBitmapCache instanceof SegmentedCountingMemoryCache) {
+                for (CountingMemoryCache<K, V> segment :
+                        ((SegmentedCountingMemoryCache<K, V>) mCountingBitmapCache).getSegments()) {
+                    synchronized (segment) {
+                        addCachedEntries(segment, dumpInfo);
+                    }
                 }
+            } else {
+                addCachedEntries(mCountingBitmapCache, dumpInfo);
             }
             for (Map.Entry<Bitmap, Object> entry
                     : mCountingBitmapCache.mOtherEntries.entrySet()) {
@@ -67,6 +65,21 @@ public class CountingMemoryCacheInspector<K, V> {
         }
     }
 
+    private void addCachedEntries(CountingMemoryCache<K, V> cache, DumpInfo<K, V> dumpInfo) {
+        final List<LinkedHashMap.Entry<K, CountingMemoryCache.Entry<K, V>>> cachedEntries =
+                cache.mCachedEntries.getMatchingEntries(null);
+        for (LinkedHashMap.Entry<K, CountingMemoryCache.Entry<K, V>> cachedEntry : cachedEntries) {
+            CountingMemoryCache.Entry<K, V> entry = cachedEntry.getValue();
+            DumpInfoEntry<K, V> dumpEntry = new DumpInfoEntry<>(entry.key, entry.valueRef);
+            if (entry.clientCount > 0) {
+                dumpInfo.sharedEntries.add(dumpEntry);
+            }
+            else {
+                dumpInfo.lruEntries.add(dumpEntry);
+            }
+        }
+    }
+
     /**
      * Cache entry info for use by dumpers.
      */
@@ -23,6 +23,8 @@ import com.facebook.imagepipeline.cache.CountingMemoryCacheInspector;
 import com.facebook.imagepipeline.core.ImagePipelineFactory;
 import com.facebook.imagepipeline.image.CloseableBitmap;
 import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.listener.LatencyHistogram;
+import com.facebook.imagepipeline.listener.PipelineLatencyListener;
 import com.facebook.stetho.dumpapp.DumpException;
 import com.facebook.stetho.dumpapp.DumpUsageException;
 import com.facebook.stetho.dumpapp.DumperContext;
@@ -35,6 +37,9 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
 
 /**
  * Base class for the Fresco Stetho plugin.
@@ -51,6 +56,8 @@ public abstract class BaseFrescoStethoPlugin implements DumperPlugin {
             mBitmapMemoryCacheInspector;
     private FileCache mMainFileCache;
     private FileCache mSmallFileCache;
+    @Nullable
+    private PipelineLatencyListener mLatencyListener;
 
     protected BaseFrescoStethoPlugin() {
         mInitialized = false;
@@ -79,7 +86,7 @@ public abstract class BaseFrescoStethoPlugin implements DumperPlugin {
         final String usagePrefix = "Usage: " + cmdName + " ";
 
         writer.println(usagePrefix + "<command> [command-options]");
-        writer.println(usagePrefix + "memcache|diskcache");
+        writer.println(usagePrefix + "memcache|diskcache|latency");
         writer.println();
         writer.println(cmdName + " memcache: Show contents of bitmap memory cache.");
         writer.println(cmdName + " memcache -g: Get contents of bitmap memory cache and store them" +
@@ -87,6 +94,9 @@ public abstract class BaseFrescoStethoPlugin implements DumperPlugin {
         writer.println(cmdName + " diskcache: Show contents of disk storage cache.");
         writer.println(cmdName + " diskcache -s: Show contents of disk storage cache formatted " +
                 "for script consumption.");
+        writer.println(cmdName + " latency: Show request and producer latencies.");
+        writer.println(cmdName + " latency -r: Show request and producer latencies and start " +
+                "measuring again.");
         writer.println();
     }
 
@@ -105,6 +115,14 @@ public abstract class BaseFrescoStethoPlugin implements DumperPlugin {
         mInitialized = true;
     }
 
+    /**
+     * Lets the latency command print the numbers gathered by the given listener. The listener has
+     * to be registered with the image pipeline separately.
+     */
+    public void setLatencyListener(@Nullable PipelineLatencyListener latencyListener) {
+        mLatencyListener = latencyListener;
+    }
+
     @Override
     public String getName() {
         return NAME;
@@ -131,6 +149,9 @@ public abstract class BaseFrescoStethoPlugin implements DumperPlugin {
             diskcache(mMainFileCache, "Main", writer, rest);
             diskcache(mSmallFileCache, "Small", writer, rest);
         }
+        else if (cmd != null && cmd.equals("latency")) {
+            latency(writer, rest);
+        }
         else {
             usage(writer);
             if (TextUtils.isEmpty(cmd)) {
@@ -142,6 +163,73 @@ public abstract class BaseFrescoStethoPlugin implements DumperPlugin {
         }
     }
 
+    private void latency(PrintStream writer, List<String> args) throws DumpException {
+        if (mLatencyListener == null) {
+            throw new DumpException("No PipelineLatencyListener was set on the plugin");
+        }
+        PipelineLatencyListener.Snapshot snapshot =
+                !args.isEmpty() && "-r".equals(args.get(0)) ?
+                        mLatencyListener.getSnapshotAndReset() :
+                        mLatencyListener.getSnapshot();
+
+        writer.println(formatStrLocaleSafe(
+                "Latencies over the last %d s", snapshot.durationMs / 1000));
+        writer.println();
+        writer.println("Request latencies (ms):");
+        writer.println(formatStrLocaleSafe(
+                "%-32s %7s %7s %7s %7s %7s", "type", "count", "p50", "p95", "p99", "max"));
+        for (Map.Entry<String, LatencyHistogram> entry : snapshot.requestLatencies.entrySet()) {
+            writeHistogram(writer, entry.getKey(), entry.getValue());
+        }
+        writer.println();
+
+        writer.println("Producer run times (ms):");
+        writer.println(formatStrLocaleSafe(
+                "%-32s %7s %7s %7s %7s %7s", "producer", "count", "p50", "p95", "p99", "max"));
+        for (Map.Entry<String, PipelineLatencyListener.ProducerStats> entry :
+                snapshot.producerStats.entrySet()) {
+            writeHistogram(writer, entry.getKey(), entry.getValue().getRunTime());
+        }
+        writer.println();
+
+        writer.println("Producer queue times (ms):");
+        for (Map.Entry<String, PipelineLatencyListener.ProducerStats> entry :
+                snapshot.producerStats.entrySet()) {
+            if (entry.getValue().getQueueTime().getCount() > 0) {
+                writeHistogram(writer, entry.getKey(), entry.getValue().getQueueTime());
+            }
+        }
+        writer.println();
+
+        writer.println("Producer outcomes:");
+        writer.println(formatStrLocaleSafe(
+                "%-32s %7s %7s %7s %7s %7s",
+                "producer", "success", "failure", "cancel", "hit", "miss"));
+        for (Map.Entry<String, PipelineLatencyListener.ProducerStats> entry :
+                snapshot.producerStats.entrySet()) {
+            PipelineLatencyListener.ProducerStats stats = entry.getValue();
+            writer.println(formatStrLocaleSafe(
+                    "%-32s %7d %7d %7d %7d %7d",
+                    entry.getKey(),
+                    stats.getSuccessCount(),
+                    stats.getFailureCount(),
+                    stats.getCancellationCount(),
+                    stats.getCacheHitCount(),
+                    stats.getCacheMissCount()));
+        }
+    }
+
+    private void writeHistogram(PrintStream writer, String name, LatencyHistogram histogram) {
+        writer.println(formatStrLocaleSafe(
+                "%-32s %7d %7d %7d %7d %7d",
+                name,
+                histogram.getCount(),
+                histogram.getValueAtPercentile(50),
+                histogram.getValueAtPercentile(95),
+                histogram.getValueAtPercentile(99),
+                histogram.getMax()));
+    }
+
     private void diskcache(FileCache cache, String title, PrintStream writer, List<String> args)
             throws DumpException {
         DiskStorage.DiskDumpInfo intDiskDumpInfo;